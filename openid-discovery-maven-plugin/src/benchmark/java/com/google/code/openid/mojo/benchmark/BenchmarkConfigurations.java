@@ -0,0 +1,74 @@
+package com.google.code.openid.mojo.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+
+/**
+ * Generates the service and canonical ID configurations used by the benchmarks.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+final class BenchmarkConfigurations {
+    /**
+     * A request target that matches none of the generated services or canonical IDs.
+     */
+    static final String MISS_TARGET = "/nobody/here";
+
+    private BenchmarkConfigurations() {
+    }
+
+    /**
+     * Generate services, each matching a single user's identifier.
+     * 
+     * @param count
+     *            The number of services to generate.
+     * @return A {@link List} of {@link DiscoveredService} objects.
+     */
+    static List<DiscoveredService> services(int count) {
+        final List<DiscoveredService> services = new ArrayList<DiscoveredService>(count);
+        for (int i = 0; i < count; i++) {
+            final DiscoveredService service = new DiscoveredService();
+            service.setHostRegex("\\/user\\/" + i);
+            service.setUri("http://localhost:8080/openid/server/" + i);
+            service.setTypes(new String[] { "http://specs.openid.net/auth/2.0/signon", "http://openid.net/signon/1.1", "http://openid.net/srv/ax/1.0" });
+            service.setLocalId("http://localhost:8080/user/" + i);
+            service.setPriority(i % 10);
+            services.add(service);
+        }
+        return services;
+    }
+
+    /**
+     * Generate canonical IDs, each matching a single user's identifier.
+     * 
+     * @param count
+     *            The number of canonical IDs to generate.
+     * @return A {@link List} of {@link DiscoveryCanonicalId} objects.
+     */
+    static List<DiscoveryCanonicalId> canonicalIds(int count) {
+        final List<DiscoveryCanonicalId> canonicalIds = new ArrayList<DiscoveryCanonicalId>(count);
+        for (int i = 0; i < count; i++) {
+            final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+            canonicalId.setHostRegex("\\/user\\/" + i);
+            canonicalId.setCanonicalId("=!" + Integer.toHexString(i).toUpperCase());
+            canonicalIds.add(canonicalId);
+        }
+        return canonicalIds;
+    }
+
+    /**
+     * Get a request target that matches exactly one generated service and canonical ID.
+     * 
+     * @param count
+     *            The number of generated services.
+     * @return A request target in the middle of the generated configuration.
+     */
+    static String hitTarget(int count) {
+        return "/user/" + (count / 2);
+    }
+}
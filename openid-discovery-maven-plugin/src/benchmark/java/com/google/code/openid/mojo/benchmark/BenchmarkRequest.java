@@ -0,0 +1,29 @@
+package com.google.code.openid.mojo.benchmark;
+
+import org.mortbay.jetty.Request;
+
+/**
+ * A {@link Request} that is not bound to a connection and so carries no headers, as if sent by a client with no cached copy that does not accept
+ * compressed responses.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+class BenchmarkRequest extends Request {
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDateHeader(String name) {
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getHeader(String name) {
+        return null;
+    }
+}
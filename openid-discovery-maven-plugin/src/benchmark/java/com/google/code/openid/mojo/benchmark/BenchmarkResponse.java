@@ -0,0 +1,174 @@
+package com.google.code.openid.mojo.benchmark;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A minimal, allocation-free {@link HttpServletResponse} that hands everything written to it to a {@link Blackhole}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+class BenchmarkResponse implements HttpServletResponse {
+    private final Blackhole blackhole;
+    private final ServletOutputStream outputStream;
+    private int status;
+
+    /**
+     * Create a response.
+     * 
+     * @param blackhole
+     *            The {@link Blackhole} to consume everything written to the response.
+     */
+    BenchmarkResponse(final Blackhole blackhole) {
+        this.blackhole = blackhole;
+        this.outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                blackhole.consume(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                blackhole.consume(b);
+            }
+        };
+    }
+
+    /**
+     * Get the last status set on the response.
+     * 
+     * @return The status.
+     */
+    int getStatus() {
+        return status;
+    }
+
+    public void addCookie(Cookie cookie) {
+    }
+
+    public boolean containsHeader(String name) {
+        return false;
+    }
+
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    public String encodeUrl(String url) {
+        return url;
+    }
+
+    public String encodeRedirectUrl(String url) {
+        return url;
+    }
+
+    public void sendError(int sc, String msg) {
+        this.status = sc;
+    }
+
+    public void sendError(int sc) {
+        this.status = sc;
+    }
+
+    public void sendRedirect(String location) {
+    }
+
+    public void setDateHeader(String name, long date) {
+        blackhole.consume(date);
+    }
+
+    public void addDateHeader(String name, long date) {
+        blackhole.consume(date);
+    }
+
+    public void setHeader(String name, String value) {
+        blackhole.consume(value);
+    }
+
+    public void addHeader(String name, String value) {
+        blackhole.consume(value);
+    }
+
+    public void setIntHeader(String name, int value) {
+        blackhole.consume(value);
+    }
+
+    public void addIntHeader(String name, int value) {
+        blackhole.consume(value);
+    }
+
+    public void setStatus(int sc) {
+        this.status = sc;
+    }
+
+    public void setStatus(int sc, String sm) {
+        this.status = sc;
+    }
+
+    public String getCharacterEncoding() {
+        return "UTF-8";
+    }
+
+    public String getContentType() {
+        return null;
+    }
+
+    public ServletOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public PrintWriter getWriter() throws IOException {
+        throw new UnsupportedOperationException("Only the output stream is supported.");
+    }
+
+    public void setCharacterEncoding(String charset) {
+    }
+
+    public void setContentLength(int len) {
+        blackhole.consume(len);
+    }
+
+    public void setContentType(String type) {
+        blackhole.consume(type);
+    }
+
+    public void setBufferSize(int size) {
+    }
+
+    public int getBufferSize() {
+        return 0;
+    }
+
+    public void flushBuffer() {
+    }
+
+    public void resetBuffer() {
+    }
+
+    public boolean isCommitted() {
+        return false;
+    }
+
+    public void reset() {
+    }
+
+    public void setLocale(Locale loc) {
+    }
+
+    public Locale getLocale() {
+        return Locale.getDefault();
+    }
+}
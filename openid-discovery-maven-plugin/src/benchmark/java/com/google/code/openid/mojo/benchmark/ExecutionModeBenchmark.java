@@ -0,0 +1,182 @@
+package com.google.code.openid.mojo.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.mortbay.jetty.Handler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.openid.mojo.DiscoveryServerConfiguration;
+import com.google.code.openid.mojo.ExecutionMode;
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+import com.google.code.openid.mojo.server.JettyDiscoveryServer;
+
+/**
+ * Benchmarks the Jetty backend under many concurrent keep-alive connections in each {@link ExecutionMode}: every benchmark thread holds its share of
+ * the connections open and sends discovery requests over them in turn. The number of live threads and the heap in use are printed once the
+ * connections are open.
+ * <p />
+ * Run this with a JVM that supports virtual threads; otherwise the {@code virtual} mode falls back to the pool and measures the same thing twice.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class ExecutionModeBenchmark {
+    @Param({ "pooled", "virtual" })
+    private String mode;
+
+    @Param({ "2048" })
+    private int connections;
+
+    @Param({ "16" })
+    private int maxThreads;
+
+    private JettyDiscoveryServer server;
+    private byte[] request;
+
+    /**
+     * Start the server being benchmarked.
+     * 
+     * @throws Exception
+     *             If the server cannot be started.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        configuration.setExecutionMode(ExecutionMode.parse(mode));
+        configuration.setMinThreads(Math.min(configuration.getMinThreads(), maxThreads - 1));
+        configuration.setMaxThreads(maxThreads);
+        configuration.setAcceptQueueSize(connections);
+        configuration.setMaxIdleTime(0);
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(BenchmarkConfigurations.canonicalIds(100), BenchmarkConfigurations
+                .services(100), configuration);
+        server = new JettyDiscoveryServer(0, configuration, handler, Collections.<Handler> emptyList());
+        server.start();
+        request = ("GET " + BenchmarkConfigurations.hitTarget(100) + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("ISO-8859-1");
+    }
+
+    /**
+     * Stop the server.
+     * 
+     * @throws Exception
+     *             If the server cannot be stopped.
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * Send a discovery request over the next of the thread's connections and read the response.
+     * 
+     * @param state
+     *            The connections of the benchmark thread.
+     * @return The number of bytes of the response.
+     * @throws IOException
+     *             If the request cannot be sent or the response read.
+     */
+    @Benchmark
+    public int request(ClientState state) throws IOException {
+        final Socket socket = state.sockets[state.next++ % state.sockets.length];
+        final OutputStream out = socket.getOutputStream();
+        out.write(request);
+        out.flush();
+        return readResponse(socket.getInputStream());
+    }
+
+    /**
+     * Read a response with a {@code Content-Length} header.
+     * 
+     * @param in
+     *            The {@link InputStream} from which the response is to be read.
+     * @return The number of bytes of the response.
+     * @throws IOException
+     *             If the response cannot be read.
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        final StringBuilder head = new StringBuilder(256);
+        while (head.length() < 4 || head.charAt(head.length() - 1) != '\n' || head.charAt(head.length() - 3) != '\n') {
+            final int b = in.read();
+            if (b < 0)
+                throw new IOException("Connection closed: " + head);
+            head.append((char) b);
+        }
+
+        final int index = head.indexOf("Content-Length: ");
+        final int length = Integer.parseInt(head.substring(index + 16, head.indexOf("\r", index)));
+        for (int i = 0; i < length; i++)
+            in.read();
+        return head.length() + length;
+    }
+
+    /**
+     * The connections held open by a single benchmark thread.
+     * 
+     * @author jrh3k5
+     * 
+     */
+    @State(Scope.Thread)
+    public static class ClientState {
+        private Socket[] sockets;
+        private int next;
+
+        /**
+         * Open the thread's share of the connections.
+         * 
+         * @param benchmark
+         *            The benchmark whose server is to be connected to.
+         * @throws IOException
+         *             If a connection cannot be opened.
+         */
+        @Setup(Level.Trial)
+        public void setUp(ExecutionModeBenchmark benchmark) throws IOException {
+            sockets = new Socket[benchmark.connections / 32];
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = new Socket("localhost", benchmark.server.getLocalPort());
+                sockets[i].setTcpNoDelay(true);
+            }
+
+            final Runtime runtime = Runtime.getRuntime();
+            System.out.println(benchmark.mode + ": " + ManagementFactory.getThreadMXBean().getThreadCount() + " live threads, "
+                    + (runtime.totalMemory() - runtime.freeMemory()) / 1024 + " KB of heap in use");
+        }
+
+        /**
+         * Close the thread's connections.
+         * 
+         * @throws IOException
+         *             If a connection cannot be closed.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            for (Socket socket : sockets)
+                socket.close();
+        }
+    }
+}
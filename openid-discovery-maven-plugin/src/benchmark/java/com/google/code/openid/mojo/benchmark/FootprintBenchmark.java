@@ -0,0 +1,121 @@
+package com.google.code.openid.mojo.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.openid.mojo.DiscoveryServerConfiguration;
+import com.google.code.openid.mojo.config.ServiceConfiguration;
+import com.google.code.openid.mojo.config.ServiceConfigurationReader;
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+
+/**
+ * Benchmarks the memory retained by a very large configuration: the heap held, per service, by the services read from a configuration file and by
+ * the handler serving them, with metrics recorded. The figure is reported as the {@code bytesPerService} secondary result; as auxiliary counters
+ * are summed over iterations and forks, a run loads the configuration exactly once.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class FootprintBenchmark {
+    @Param({ "200000" })
+    private int services;
+
+    private File file;
+
+    /**
+     * Write out a configuration file in which every service has its own literal host regex and local ID, and shares its URI and types with the
+     * others, as a large single sign-on deployment would.
+     * 
+     * @throws Exception
+     *             If the file cannot be written.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        file = File.createTempFile("footprint", ".xml");
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("<discovery><services>");
+            for (int i = 0; i < services; i++)
+                writer.write("<service><hostRegex>\\/user\\/" + i + "</hostRegex><uri>http://localhost:8080/openid/server</uri><types>"
+                        + "<type>http://specs.openid.net/auth/2.0/signon</type><type>http://openid.net/srv/ax/1.0</type></types>"
+                        + "<localId>http://localhost:8080/user/" + i + "</localId></service>");
+            writer.write("</services></discovery>");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Delete the configuration file.
+     */
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Read the configuration and build a handler for it.
+     * 
+     * @param footprint
+     *            The {@link Footprint} in which the retained heap is reported.
+     * @return The number of services served by the handler.
+     * @throws Exception
+     *             If the configuration cannot be read.
+     */
+    @Benchmark
+    public int load(Footprint footprint) throws Exception {
+        final long before = usedHeap();
+        final ServiceConfiguration configuration = new ServiceConfigurationReader().read(file);
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(configuration.getCanonicalIds(), configuration.getServices(), new DiscoveryServerConfiguration());
+        footprint.bytesPerService = (usedHeap() - before) / services;
+        return handler.getServices().size();
+    }
+
+    /**
+     * Get the heap in use once everything unreachable has been collected.
+     * 
+     * @return The heap in use, in bytes.
+     */
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The secondary result of the benchmark.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        /**
+         * The heap retained per service, in bytes.
+         */
+        public long bytesPerService;
+    }
+}
@@ -0,0 +1,101 @@
+package com.google.code.openid.mojo.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+
+/**
+ * Benchmarks a full request through {@link DiscoveredServiceHandler#handle(String, javax.servlet.http.HttpServletRequest,
+ * javax.servlet.http.HttpServletResponse, int)}, from matching to the write-out of the response.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerBenchmark {
+    @Param({ "1", "100", "10000", "100000" })
+    private int serviceCount;
+
+    @Param({ "true", "false" })
+    private boolean hit;
+
+    private DiscoveredServiceHandler handler;
+    private String target;
+
+    /**
+     * Create the handler being benchmarked.
+     * 
+     * @throws Exception
+     *             If the handler cannot be started.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        handler = new DiscoveredServiceHandler(BenchmarkConfigurations.canonicalIds(serviceCount), BenchmarkConfigurations.services(serviceCount));
+        handler.start();
+        target = hit ? BenchmarkConfigurations.hitTarget(serviceCount) : BenchmarkConfigurations.MISS_TARGET;
+    }
+
+    /**
+     * Handle a single request.
+     * 
+     * @param state
+     *            The per-thread request and response.
+     * @throws IOException
+     *             If the response cannot be written.
+     * @throws ServletException
+     *             If the request cannot be handled.
+     */
+    @Benchmark
+    public void handle(ThreadState state) throws IOException, ServletException {
+        state.request.setHandled(false);
+        handler.handle(target, state.request, state.response, Handler.REQUEST);
+    }
+
+    /**
+     * The request and response objects used by a single benchmark thread.
+     * 
+     * @author jrh3k5
+     * 
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private Request request;
+        private BenchmarkResponse response;
+
+        /**
+         * Create the request and response.
+         * 
+         * @param blackhole
+         *            The {@link Blackhole} to consume the written response.
+         */
+        @Setup
+        public void setUp(Blackhole blackhole) {
+            request = new BenchmarkRequest();
+            response = new BenchmarkResponse(blackhole);
+        }
+    }
+}
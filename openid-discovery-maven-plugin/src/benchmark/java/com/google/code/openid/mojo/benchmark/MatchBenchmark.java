@@ -0,0 +1,103 @@
+package com.google.code.openid.mojo.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.match.HostRegexMatcher;
+import com.google.code.openid.mojo.match.MatchResult;
+import com.google.code.openid.mojo.openid.CompiledCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledService;
+
+/**
+ * Benchmarks the matching of request targets against the configured services and canonical IDs.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchBenchmark {
+    @Param({ "1", "100", "10000", "100000" })
+    private int serviceCount;
+
+    @Param({ "true", "false" })
+    private boolean hit;
+
+    private List<DiscoveredService> services;
+    private HostRegexMatcher serviceMatcher;
+    private HostRegexMatcher canonicalIdMatcher;
+    private String target;
+
+    /**
+     * Generate the configuration being matched.
+     */
+    @Setup
+    public void setUp() {
+        services = BenchmarkConfigurations.services(serviceCount);
+        final List<CompiledService> compiledServices = new ArrayList<CompiledService>(serviceCount);
+        for (DiscoveredService service : services)
+            compiledServices.add(new CompiledService(service));
+        serviceMatcher = new HostRegexMatcher(new ArrayList<CompiledCanonicalId>(), compiledServices);
+
+        final List<CompiledCanonicalId> compiledIds = new ArrayList<CompiledCanonicalId>(serviceCount);
+        for (DiscoveryCanonicalId canonicalId : BenchmarkConfigurations.canonicalIds(serviceCount))
+            compiledIds.add(new CompiledCanonicalId(canonicalId));
+        canonicalIdMatcher = new HostRegexMatcher(compiledIds, new ArrayList<CompiledService>());
+
+        target = hit ? BenchmarkConfigurations.hitTarget(serviceCount) : BenchmarkConfigurations.MISS_TARGET;
+    }
+
+    /**
+     * Match the target by testing each service's host regex in turn, as the handler did before matching was compiled.
+     * 
+     * @return The number of matching services.
+     */
+    @Benchmark
+    public int matchesHostRegex() {
+        int matches = 0;
+        for (DiscoveredService service : services)
+            if (service.matchesHostRegex(target))
+                matches++;
+        return matches;
+    }
+
+    /**
+     * Match the target against the services using the compiled matcher.
+     * 
+     * @return The result of the match.
+     */
+    @Benchmark
+    public MatchResult matchServices() {
+        return serviceMatcher.match(target);
+    }
+
+    /**
+     * Look up the first canonical ID matching the target using the compiled matcher.
+     * 
+     * @return The result of the match.
+     */
+    @Benchmark
+    public MatchResult matchCanonicalId() {
+        return canonicalIdMatcher.match(target);
+    }
+}
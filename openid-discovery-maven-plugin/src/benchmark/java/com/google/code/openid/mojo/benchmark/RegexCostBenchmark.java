@@ -0,0 +1,48 @@
+package com.google.code.openid.mojo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.openid.mojo.match.RegexAnalysis;
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+
+/**
+ * Benchmarks the analysis of host regexes made when a discovery server is started, which bounds how much the analysis adds to the startup of a
+ * server with many distinct host regexes. The catastrophic expression is abandoned at the budget, so its time is dominated by the budget.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegexCostBenchmark {
+    @Param({ "\\/user\\/1", "\\/user\\/.*", ".*\\.example\\.com", "\\/user\\/((\\w+)+)+" })
+    private String regex;
+
+    private final RegexCostAnalyzer analyzer = new RegexCostAnalyzer(RegexCostAnalyzer.DEFAULT_BUDGET);
+
+    /**
+     * Classify the expression and match it against its adversarial inputs.
+     * 
+     * @return The analysis of the expression.
+     */
+    @Benchmark
+    public RegexAnalysis analyze() {
+        return analyzer.analyze(regex);
+    }
+}
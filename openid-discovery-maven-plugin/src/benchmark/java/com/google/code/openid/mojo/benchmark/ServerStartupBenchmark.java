@@ -0,0 +1,76 @@
+package com.google.code.openid.mojo.benchmark;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.mortbay.jetty.Handler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.openid.mojo.DiscoveryServerConfiguration;
+import com.google.code.openid.mojo.ServerBackend;
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+import com.google.code.openid.mojo.server.DiscoveryServer;
+import com.google.code.openid.mojo.server.JettyDiscoveryServer;
+import com.google.code.openid.mojo.server.NioDiscoveryServer;
+
+/**
+ * Benchmarks the cold start of a discovery server with each {@link ServerBackend}: the time from creating the server in a fresh JVM to having
+ * answered its first discovery request, as a build starting the server for its integration tests would see it.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class ServerStartupBenchmark {
+    @Param({ "jetty", "nio" })
+    private String backend;
+
+    /**
+     * Start a server, answer one discovery request and stop the server.
+     * 
+     * @return The status of the discovery request.
+     * @throws Exception
+     *             If the server cannot be started, queried or stopped.
+     */
+    @Benchmark
+    public int startAndServe() throws Exception {
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(BenchmarkConfigurations.canonicalIds(1), BenchmarkConfigurations
+                .services(1), configuration);
+        final DiscoveryServer server = ServerBackend.parse(backend) == ServerBackend.NIO ? new NioDiscoveryServer(0, configuration, handler,
+                Collections.<Handler> emptyList()) : new JettyDiscoveryServer(0, configuration, handler, Collections.<Handler> emptyList());
+        server.start();
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getLocalPort()
+                    + BenchmarkConfigurations.hitTarget(1)).openConnection();
+            final InputStream in = connection.getInputStream();
+            try {
+                while (in.read() >= 0)
+                    continue;
+            } finally {
+                in.close();
+            }
+            return connection.getResponseCode();
+        } finally {
+            server.stop();
+        }
+    }
+}
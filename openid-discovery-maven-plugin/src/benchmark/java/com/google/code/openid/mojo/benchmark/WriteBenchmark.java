@@ -0,0 +1,135 @@
+package com.google.code.openid.mojo.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledService;
+import com.google.code.openid.mojo.openid.DiscoveredServiceWriter;
+import com.google.code.openid.mojo.openid.StreamingDiscoveredServiceWriter;
+
+/**
+ * Benchmarks the serialization of discovery documents containing every configured service.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+    @Param({ "1", "100", "10000", "100000" })
+    private int serviceCount;
+
+    private final DiscoveredServiceWriter jdomWriter = new DiscoveredServiceWriter();
+    private final DiscoveredServiceWriter streamingWriter = new StreamingDiscoveredServiceWriter();
+    private DiscoveryCanonicalId canonicalId;
+    private List<DiscoveredService> services;
+    private CompiledCanonicalId compiledCanonicalId;
+    private List<CompiledService> compiledServices;
+
+    /**
+     * Generate the configuration being written.
+     */
+    @Setup
+    public void setUp() {
+        canonicalId = BenchmarkConfigurations.canonicalIds(1).get(0);
+        services = BenchmarkConfigurations.services(serviceCount);
+
+        compiledCanonicalId = new CompiledCanonicalId(canonicalId);
+        compiledServices = new ArrayList<CompiledService>(serviceCount);
+        for (DiscoveredService service : services)
+            compiledServices.add(new CompiledService(service));
+    }
+
+    /**
+     * Write the document by building a JDOM tree.
+     * 
+     * @param blackhole
+     *            A {@link Blackhole} that consumes the written bytes.
+     * @throws IOException
+     *             If the write-out fails.
+     */
+    @Benchmark
+    public void writeJdom(Blackhole blackhole) throws IOException {
+        jdomWriter.write(canonicalId, services, new BlackholeOutputStream(blackhole));
+    }
+
+    /**
+     * Write the document by streaming escaped text.
+     * 
+     * @param blackhole
+     *            A {@link Blackhole} that consumes the written bytes.
+     * @throws IOException
+     *             If the write-out fails.
+     */
+    @Benchmark
+    public void writeStreaming(Blackhole blackhole) throws IOException {
+        streamingWriter.write(canonicalId, services, new BlackholeOutputStream(blackhole));
+    }
+
+    /**
+     * Write the document by copying the pre-encoded elements of compiled services.
+     * 
+     * @param blackhole
+     *            A {@link Blackhole} that consumes the written bytes.
+     * @throws IOException
+     *             If the write-out fails.
+     */
+    @Benchmark
+    public void writeCompiled(Blackhole blackhole) throws IOException {
+        streamingWriter.write(compiledCanonicalId, compiledServices, new BlackholeOutputStream(blackhole));
+    }
+
+    /**
+     * An {@link OutputStream} that hands everything written to it to a {@link Blackhole}.
+     * 
+     * @author jrh3k5
+     * 
+     */
+    private static class BlackholeOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        /**
+         * Create a stream.
+         * 
+         * @param blackhole
+         *            The {@link Blackhole} to consume the written bytes.
+         */
+        BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+    }
+}
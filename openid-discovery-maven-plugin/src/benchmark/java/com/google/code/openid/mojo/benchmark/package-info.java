@@ -0,0 +1,4 @@
+/**
+ * JMH benchmarks of the discovery request path. These are built and run only by the {@code benchmark} profile.
+ */
+package com.google.code.openid.mojo.benchmark;
\ No newline at end of file
@@ -1,60 +1,196 @@
 package com.google.code.openid.mojo;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import org.apache.maven.plugin.AbstractMojo;
-import org.mortbay.jetty.Server;
+import org.mortbay.jetty.Handler;
 
+import com.google.code.openid.mojo.config.ServiceConfigurationWatcher;
+import com.google.code.openid.mojo.jetty.AdminHandler;
 import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+import com.google.code.openid.mojo.jetty.MetricsHandler;
+import com.google.code.openid.mojo.match.MatchCache;
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+import com.google.code.openid.mojo.server.DiscoveryServer;
+import com.google.code.openid.mojo.server.JettyDiscoveryServer;
+import com.google.code.openid.mojo.server.NioDiscoveryServer;
+import com.google.code.openid.mojo.server.VirtualThreadPool;
 
 /**
  * Abstract skeleton of a mojo used to manage a discovery server.
+ * <p />
+ * Running servers are registered by their {@link #serverId server ID}, so that several servers - whether started by different executions within
+ * a module or by modules built in parallel - can run at once, and each mojo only ever starts, joins or stops the server with its own ID.
  * 
  * @author jrh3k5
  * 
  */
 
 public abstract class AbstractDiscoveryServerMojo extends AbstractMojo {
-    private static Server server;
+    /**
+     * The ID of the server managed when no {@link #serverId server ID} is configured.
+     */
+    public static final String DEFAULT_SERVER_ID = "default";
+
+    /**
+     * The running servers, keyed by server ID. The registry is only locked to look up, add or remove a server, never while a server is starting or
+     * stopping, so that parallel modules do not wait on one another.
+     */
+    private static final Map<String, DiscoveryServer> SERVERS = new HashMap<String, DiscoveryServer>();
+
+    /**
+     * The ID of the discovery server to be managed. Give each server a distinct ID in order to run several servers at once; the {@code stop} goal
+     * must be given the same ID as the {@code start} goal whose server it is to stop.
+     * 
+     * @parameter expression="serverId" default-value="default"
+     */
+    private String serverId = DEFAULT_SERVER_ID;
 
     /**
      * Get the server in use.
      * 
-     * @return A {@link Server} reference to the server being used as a discovery server; if {@code null}, then no server is running.
+     * @return A {@link DiscoveryServer} reference to the server being used as the discovery server with this mojo's server ID; if {@code null},
+     *         then no such server is running.
+     */
+    protected DiscoveryServer getServer() {
+        synchronized (SERVERS) {
+            return SERVERS.get(getServerId());
+        }
+    }
+
+    /**
+     * Get the ID of the server managed by this mojo.
+     * 
+     * @return The server ID.
      */
-    protected Server getServer() {
-        return server;
+    protected String getServerId() {
+        return serverId == null ? DEFAULT_SERVER_ID : serverId;
     }
 
     /**
-     * Start the discovery server. If one has been previously started, then it will be stopped first.
+     * Start the discovery server. If one has been previously started with the same server ID, then it will be stopped first.
+     * <p />
+     * The server is run by the {@link DiscoveryServerConfiguration#getServerBackend() backend} of the given configuration: a
+     * {@link JettyDiscoveryServer} or a {@link NioDiscoveryServer}. The time taken to start it and the heap in use once it has started are logged,
+     * so that the backends can be compared. If the configuration names a
+     * {@link DiscoveryServerConfiguration#getConfigurationFile() configuration file}, its services and canonical IDs are served after the given ones
+     * and reloaded by a {@link ServiceConfigurationWatcher} whenever the file changes. If the configuration has an
+     * {@link DiscoveryServerConfiguration#getAdminToken() admin token}, an {@link AdminHandler} is served ahead of the discovery documents, as is
+     * a {@link MetricsHandler} if it has a {@link DiscoveryServerConfiguration#getMetricsPath() metrics path}.
+     * <p />
+     * A port of {@code 0} binds the server to a port chosen by the operating system, so that concurrent builds on one host never contend for a
+     * port; the port actually bound is returned.
      * 
      * @param port
-     *            The port on which the server is to listen.
+     *            The port on which the server is to listen; {@code 0} for any free port.
      * @param canonicalIds
      *            A {@link List} of {@link DiscoveryCanonicalId} objects representing the canonical IDs that could be written out.
      * @param services
      *            A {@link Collection} of {@link DiscoveredService} objects representing the services to be hosted by this discovery service.
+     * @param configuration
+     *            The {@link DiscoveryServerConfiguration} describing how the server is to handle requests.
+     * @return The port on which the server is listening.
      * @throws Exception
      *             If any errors occur during the startup of the server.
+     * @throws IllegalArgumentException
+     *             If the configuration file holds host regexes that the regex policy of the given configuration rejects.
+     * @throws IllegalStateException
+     *             If another server with the same server ID is started while this one is starting.
      */
-    protected void startServer(int port, List<DiscoveryCanonicalId> canonicalIds, Collection<DiscoveredService> services) throws Exception {
+    protected int startServer(int port, List<DiscoveryCanonicalId> canonicalIds, Collection<DiscoveredService> services,
+            DiscoveryServerConfiguration configuration) throws Exception {
         stopServer();
-        server = new Server(port);
-        server.setHandler(new DiscoveredServiceHandler(canonicalIds, services));
-        server.start();
+
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(canonicalIds, services, configuration);
+        if (configuration.getRegexPolicy() != RegexPolicy.IGNORE)
+            handler.setRegexPolicyEnforcer(createRegexPolicyEnforcer(configuration));
+        final List<Handler> handlers = new ArrayList<Handler>();
+        if (configuration.getAdminToken() != null)
+            handlers.add(new AdminHandler(configuration.getAdminPath(), configuration.getAdminToken(), configuration.getAdminMaxBatchSize(),
+                    handler));
+        if (handler.getMetrics() != null)
+            handlers.add(new MetricsHandler(configuration.getMetricsPath(), handler.getMetrics()));
+
+        if (configuration.getServerBackend() == ServerBackend.JETTY && configuration.getExecutionMode() == ExecutionMode.VIRTUAL
+                && !VirtualThreadPool.isSupported())
+            getLog().warn("Virtual threads are not supported by Java " + System.getProperty("java.version")
+                    + "; discovery server '" + getServerId() + "' will handle requests in a pool of platform threads.");
+
+        final long start = System.nanoTime();
+        final DiscoveryServer server = configuration.getServerBackend() == ServerBackend.NIO ? new NioDiscoveryServer(port, configuration, handler,
+                handlers) : new JettyDiscoveryServer(port, configuration, handler, handlers);
+        if (configuration.getConfigurationFile() != null)
+            server.addLifeCycle(new ServiceConfigurationWatcher(configuration.getConfigurationFile(), configuration.getConfigurationPollInterval(),
+                    handler, canonicalIds, services, getLog()));
+        try {
+            server.start();
+        } catch (Exception e) {
+            // Release the port of a server whose configuration file could not be loaded
+            server.stop();
+            throw e;
+        }
+
+        final Runtime runtime = Runtime.getRuntime();
+        getLog().info("Discovery server '" + getServerId() + "' (" + configuration.getServerBackend().name().toLowerCase(Locale.ENGLISH)
+                + ") started in " + (System.nanoTime() - start) / 1000000 + " ms with " + (runtime.totalMemory() - runtime.freeMemory()) / 1024
+                + " KB of heap in use.");
+
+        final boolean registered;
+        synchronized (SERVERS) {
+            registered = !SERVERS.containsKey(getServerId());
+            if (registered)
+                SERVERS.put(getServerId(), server);
+        }
+
+        if (!registered) {
+            server.stop();
+            throw new IllegalStateException("Another discovery server was concurrently started with ID: " + getServerId());
+        }
+
+        return server.getLocalPort();
     }
 
     /**
-     * Stop the discovery server if it has been started.
+     * Create the object applying the regex policy of a discovery server to the host regexes it is to serve.
+     * 
+     * @param configuration
+     *            The {@link DiscoveryServerConfiguration} giving the policy and budget.
+     * @return A {@link RegexPolicyEnforcer} logging to this mojo's log.
+     */
+    protected RegexPolicyEnforcer createRegexPolicyEnforcer(DiscoveryServerConfiguration configuration) {
+        return new RegexPolicyEnforcer(configuration.getRegexPolicy(), new RegexCostAnalyzer(configuration.getRegexBudget()), getLog(),
+                getServerId());
+    }
+
+    /**
+     * Stop the discovery server with this mojo's server ID if it has been started.
      * 
      * @throws Exception
      *             If any errors occur during the shutdown of the server.
      */
     protected void stopServer() throws Exception {
-        if (server != null && !server.isStopping())
+        final DiscoveryServer server;
+        synchronized (SERVERS) {
+            server = SERVERS.remove(getServerId());
+        }
+
+        if (server == null)
+            return;
+
+        final DiscoveredServiceHandler handler = server.getHandler();
+        final MatchCache matchCache = handler.getMatchCache();
+        if (matchCache != null)
+            getLog().info("Discovery server '" + getServerId() + "' match cache statistics: " + matchCache);
+        if (handler.getAccessLog() != null && handler.getAccessLog().getDroppedCount() > 0)
+            getLog().warn("Discovery server '" + getServerId() + "' access log dropped " + handler.getAccessLog().getDroppedCount()
+                    + " entries because the buffer was full.");
+
+        if (!server.isStopping())
             server.stop();
-        server = null;
     }
 }
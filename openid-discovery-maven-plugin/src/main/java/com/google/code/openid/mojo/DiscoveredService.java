@@ -1,9 +1,11 @@
 package com.google.code.openid.mojo;
 
-import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import com.google.code.openid.mojo.compact.StringPool;
+import com.google.code.openid.mojo.compact.TypeSet;
+
 /**
  * Definition of a service that is served as a service in a discovery document.
  * <p />
@@ -13,18 +15,37 @@ import java.util.regex.Pattern;
  * <li>{@link #setUri(String) uri}</li>
  * <li>{@link #setTypes(String[]) type}</li>
  * </ul>
+ * <p />
+ * Services are held in memory for as long as the server runs, and a configuration can declare hundreds of thousands of them, so a service is kept
+ * compact: its host regex is only compiled when it is first matched, and its URI and set of types are shared with every other service that declares
+ * the same ones.
  * 
  * @author jrh3k5
  * 
  */
 
 public class DiscoveredService {
-    private Pattern hostRegex;
+    private String hostRegex;
+    private volatile Pattern pattern;
     private String uri;
-    private HashSet<String> types = null;
+    private TypeSet types = null;
     private Integer priority;
     private String localId;
 
+    /**
+     * Get the regular expression used to match against the request.
+     * 
+     * @return The host regular expression.
+     * @throws IllegalStateException
+     *             If the host regex has not yet been {@link #setHostRegex(String) set}.
+     */
+    public String getHostRegex() {
+        if (hostRegex == null)
+            throw new IllegalStateException("Host regex pattern has not been set prior to retrieval.");
+
+        return hostRegex;
+    }
+
     /**
      * Get the local ID.
      * 
@@ -46,7 +67,7 @@ public class DiscoveredService {
     /**
      * Get the types URL associated with the service.
      * 
-     * @return The type URL.
+     * @return An unmodifiable {@link Set} of the type URLs, in the order in which they were set.
      * @throws IllegalStateException
      *             If the type URL has not yet been {@link #setTypes(String[]) set}.
      */
@@ -84,7 +105,11 @@ public class DiscoveredService {
         if (hostRegex == null)
             throw new IllegalStateException("Host regex pattern has not been set prior to retrieval.");
 
-        return hostRegex.matcher(uri).matches();
+        // Compile on first use; a race merely compiles the expression more than once
+        Pattern compiled = pattern;
+        if (compiled == null)
+            pattern = compiled = Pattern.compile(hostRegex);
+        return compiled.matcher(uri).matches();
     }
 
     /**
@@ -93,13 +118,16 @@ public class DiscoveredService {
      * @param hostRegex
      *            The regular expression to match against the request path.
      * @throws IllegalArgumentException
-     *             If the given expression is {@code null}.
+     *             If the given expression is {@code null} or is not a valid regular expression.
      */
     public void setHostRegex(String hostRegex) {
         if (hostRegex == null)
             throw new IllegalArgumentException("Host regular expression cannot be null.");
 
-        this.hostRegex = Pattern.compile(hostRegex);
+        // Compile the expression so that an invalid one is reported where it is configured, but do not keep the compiled pattern
+        Pattern.compile(hostRegex);
+        this.hostRegex = hostRegex;
+        this.pattern = null;
     }
 
     /**
@@ -140,11 +168,10 @@ public class DiscoveredService {
             throw new IllegalArgumentException("Type array cannot be null.");
         }
 
-        for (String type : types) {
-            addType(type);
-        }
+        // Accumulate, preserving the order in which the types were configured
+        this.types = this.types == null ? TypeSet.of(types) : this.types.with(types);
     }
-    
+
     /**
      * Set the value of the {@code <URI />} tag for a service.
      * 
@@ -157,25 +184,6 @@ public class DiscoveredService {
         if (uri == null)
             throw new IllegalArgumentException("URI cannot be null.");
 
-        this.uri = uri;
-    }
-
-    /**
-     * Add a type URL to the discovered service.
-     * 
-     * @param type
-     *            The type URL.
-     * @throws IllegalArgumentException
-     *             If the given URL is {@code null}.
-     */
-    private void addType(String type) {
-        if (type == null)
-            throw new IllegalArgumentException("Type cannot be null.");
-
-        // Lazily instantiate hashset
-        if (types == null)
-            types = new HashSet<String>();
-
-        types.add(type);
+        this.uri = StringPool.intern(uri);
     }
 }
@@ -2,6 +2,8 @@ package com.google.code.openid.mojo;
 
 import java.util.regex.Pattern;
 
+import com.google.code.openid.mojo.compact.StringPool;
+
 /**
  * A bean representing a canonical ID written out to a discovery document.
  * <p />
@@ -16,7 +18,8 @@ import java.util.regex.Pattern;
  */
 
 public class DiscoveryCanonicalId {
-    private Pattern hostRegex;
+    private String hostRegex;
+    private volatile Pattern pattern;
     private String canonicalId;
 
     /**
@@ -33,6 +36,20 @@ public class DiscoveryCanonicalId {
         return canonicalId;
     }
 
+    /**
+     * Get the host regular expression, which determines what requests this canonical ID will match.
+     * 
+     * @return The host regex.
+     * @throws IllegalStateException
+     *             If the host regex has not yet been {@link #setHostRegex(String) set}.
+     */
+    public String getHostRegex() {
+        if (hostRegex == null)
+            throw new IllegalStateException("Host regex has not yet been set prior to retrieval.");
+
+        return hostRegex;
+    }
+
     /**
      * Determine whether or not the host regex matches the given URI.
      * 
@@ -46,7 +63,11 @@ public class DiscoveryCanonicalId {
         if (hostRegex == null)
             throw new IllegalStateException("Host regex has not yet been set prior to retrieval.");
     
-        return hostRegex.matcher(uri).matches();
+        // Compile on first use; a race merely compiles the expression more than once
+        Pattern compiled = pattern;
+        if (compiled == null)
+            pattern = compiled = Pattern.compile(hostRegex);
+        return compiled.matcher(uri).matches();
     }
 
     /**
@@ -61,7 +82,7 @@ public class DiscoveryCanonicalId {
         if (canonicalId == null)
             throw new IllegalArgumentException("Canonical ID cannot be null.");
     
-        this.canonicalId = canonicalId;
+        this.canonicalId = StringPool.intern(canonicalId);
     }
 
     /**
@@ -70,12 +91,15 @@ public class DiscoveryCanonicalId {
      * @param hostRegex
      *            The host regex.
      * @throws IllegalArgumentException
-     *             If the given regex is {@code null}.
+     *             If the given regex is {@code null} or is not a valid regular expression.
      */
     public void setHostRegex(String hostRegex) {
         if (hostRegex == null)
             throw new IllegalArgumentException("Host regex cannot be null.");
 
-        this.hostRegex = Pattern.compile(hostRegex);
+        // Compile the expression so that an invalid one is reported where it is configured, but do not keep the compiled pattern
+        Pattern.compile(hostRegex);
+        this.hostRegex = hostRegex;
+        this.pattern = null;
     }
 }
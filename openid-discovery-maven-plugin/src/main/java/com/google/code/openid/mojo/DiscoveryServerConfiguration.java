@@ -0,0 +1,696 @@
+package com.google.code.openid.mojo;
+
+import java.io.File;
+
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+
+/**
+ * A bean describing how a discovery server should be run.
+ * <p />
+ * All settings have sensible defaults, so a newly-constructed configuration can be used as-is.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class DiscoveryServerConfiguration {
+    /**
+     * The default number of request targets whose match results are cached.
+     */
+    public static final int DEFAULT_MATCH_CACHE_SIZE = 1024;
+
+    /**
+     * The default time, in milliseconds, that matching a request target against the host regexes may take.
+     */
+    public static final long DEFAULT_MATCH_TIMEOUT = 100;
+
+    /**
+     * The default status with which a request is answered if matching its target takes longer than the match timeout: {@code 503 Service
+     * Unavailable}.
+     */
+    public static final int DEFAULT_MATCH_TIMEOUT_STATUS = 503;
+
+    /**
+     * The default value of the {@code Cache-Control} header sent with discovery documents.
+     */
+    public static final String DEFAULT_CACHE_CONTROL = "no-cache";
+
+    /**
+     * The default size, in bytes, below which discovery documents are not compressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+
+    /**
+     * The default number of threads accepting connections.
+     */
+    public static final int DEFAULT_ACCEPTORS = 1;
+
+    /**
+     * The default size of the queue of connections waiting to be accepted.
+     */
+    public static final int DEFAULT_ACCEPT_QUEUE_SIZE = 128;
+
+    /**
+     * The default time, in milliseconds, that an idle connection is kept open.
+     */
+    public static final int DEFAULT_MAX_IDLE_TIME = 30000;
+
+    /**
+     * The default minimum number of threads kept in the request-handling thread pool.
+     */
+    public static final int DEFAULT_MIN_THREADS = 2;
+
+    /**
+     * The default maximum number of threads in the request-handling thread pool.
+     */
+    public static final int DEFAULT_MAX_THREADS = 250;
+
+    /**
+     * The default time, in milliseconds, between checks of the configuration file for changes.
+     */
+    public static final long DEFAULT_CONFIGURATION_POLL_INTERVAL = 1000;
+
+    /**
+     * The default request path of the admin endpoint.
+     */
+    public static final String DEFAULT_ADMIN_PATH = "/_admin";
+
+    /**
+     * The default size, in bytes, of the largest batch accepted by the admin endpoint.
+     */
+    public static final int DEFAULT_ADMIN_MAX_BATCH_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The default request path at which metrics are served.
+     */
+    public static final String DEFAULT_METRICS_PATH = "/_metrics";
+
+    /**
+     * The default number of access log entries that can be waiting to be written.
+     */
+    public static final int DEFAULT_ACCESS_LOG_BUFFER_SIZE = 8192;
+
+    /**
+     * The default request path under which XRDS documents are served to clients directed there by an {@code X-XRDS-Location} header.
+     */
+    public static final String DEFAULT_XRDS_PATH = "/_xrds";
+
+    private int matchCacheSize = DEFAULT_MATCH_CACHE_SIZE;
+    private long matchTimeout = DEFAULT_MATCH_TIMEOUT;
+    private int matchTimeoutStatus = DEFAULT_MATCH_TIMEOUT_STATUS;
+    private ServerBackend serverBackend = ServerBackend.JETTY;
+    private ExecutionMode executionMode = ExecutionMode.POOLED;
+    private YadisMode yadisMode = YadisMode.DIRECT;
+    private String xrdsPath = DEFAULT_XRDS_PATH;
+    private File accessLogFile;
+    private int accessLogBufferSize = DEFAULT_ACCESS_LOG_BUFFER_SIZE;
+    private String metricsPath = DEFAULT_METRICS_PATH;
+    private String adminPath = DEFAULT_ADMIN_PATH;
+    private String adminToken;
+    private int adminMaxBatchSize = DEFAULT_ADMIN_MAX_BATCH_SIZE;
+    private File configurationFile;
+    private long configurationPollInterval = DEFAULT_CONFIGURATION_POLL_INTERVAL;
+    private String cacheControl = DEFAULT_CACHE_CONTROL;
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private int acceptors = DEFAULT_ACCEPTORS;
+    private int acceptQueueSize = DEFAULT_ACCEPT_QUEUE_SIZE;
+    private int maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+    private int minThreads = DEFAULT_MIN_THREADS;
+    private int maxThreads = DEFAULT_MAX_THREADS;
+    private RegexPolicy regexPolicy = RegexPolicy.WARN;
+    private long regexBudget = RegexCostAnalyzer.DEFAULT_BUDGET;
+
+    /**
+     * Get the number of threads accepting connections.
+     * 
+     * @return The number of acceptor threads.
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * Get the size of the largest batch accepted by the admin endpoint.
+     * 
+     * @return The maximum size, in bytes, of a batch.
+     */
+    public int getAdminMaxBatchSize() {
+        return adminMaxBatchSize;
+    }
+
+    /**
+     * Get the request path of the admin endpoint.
+     * 
+     * @return The admin path.
+     */
+    public String getAdminPath() {
+        return adminPath;
+    }
+
+    /**
+     * Get the bearer token that requests to the admin endpoint must present.
+     * 
+     * @return The admin token; {@code null} if the admin endpoint is disabled.
+     */
+    public String getAdminToken() {
+        return adminToken;
+    }
+
+    /**
+     * Get the number of access log entries that can be waiting to be written.
+     * 
+     * @return The size of the access log buffer.
+     */
+    public int getAccessLogBufferSize() {
+        return accessLogBufferSize;
+    }
+
+    /**
+     * Get the file to which requests are logged.
+     * 
+     * @return The access log {@link File}; {@code null} if requests are not logged.
+     */
+    public File getAccessLogFile() {
+        return accessLogFile;
+    }
+
+    /**
+     * Get the size of the queue of connections waiting to be accepted.
+     * 
+     * @return The accept backlog; {@code 0} if the operating system's default is used.
+     */
+    public int getAcceptQueueSize() {
+        return acceptQueueSize;
+    }
+
+    /**
+     * Get the value of the {@code Cache-Control} header sent with discovery documents.
+     * 
+     * @return The {@code Cache-Control} header value; {@code null} if no such header is to be sent.
+     */
+    public String getCacheControl() {
+        return cacheControl;
+    }
+
+    /**
+     * Get the size below which discovery documents are not compressed.
+     * 
+     * @return The compression threshold, in bytes.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Get the external file from which services and canonical IDs are loaded.
+     * 
+     * @return The configuration {@link File}; {@code null} if no such file is used.
+     */
+    public File getConfigurationFile() {
+        return configurationFile;
+    }
+
+    /**
+     * Get the time between checks of the configuration file for changes.
+     * 
+     * @return The poll interval, in milliseconds.
+     */
+    public long getConfigurationPollInterval() {
+        return configurationPollInterval;
+    }
+
+    /**
+     * Get how the Jetty backend runs the handling of requests.
+     * 
+     * @return The {@link ExecutionMode}.
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Get the time that an idle connection is kept open.
+     * 
+     * @return The maximum idle time, in milliseconds.
+     */
+    public int getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Get the maximum number of threads in the request-handling thread pool.
+     * 
+     * @return The maximum number of threads.
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Get the maximum number of request targets whose match results are cached.
+     * 
+     * @return The maximum size of the match cache; {@code 0} if match results are not cached.
+     */
+    public int getMatchCacheSize() {
+        return matchCacheSize;
+    }
+
+    /**
+     * Get the time that matching a request target against the host regexes may take before it is abandoned.
+     * 
+     * @return The match timeout, in milliseconds; {@code 0} if matching is not limited.
+     */
+    public long getMatchTimeout() {
+        return matchTimeout;
+    }
+
+    /**
+     * Get the status with which a request is answered if matching its target is abandoned for exceeding the {@link #getMatchTimeout() match
+     * timeout}.
+     * 
+     * @return The HTTP status code.
+     */
+    public int getMatchTimeoutStatus() {
+        return matchTimeoutStatus;
+    }
+
+    /**
+     * Get the request path at which metrics are served.
+     * 
+     * @return The metrics path; {@code null} if metrics are neither recorded nor served.
+     */
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    /**
+     * Get the minimum number of threads kept in the request-handling thread pool.
+     * 
+     * @return The minimum number of threads.
+     */
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    /**
+     * Get the time that matching a host regex against any one adversarial input may take before the {@link #getRegexPolicy() regex policy} deems
+     * it expensive.
+     * 
+     * @return The regex budget, in milliseconds.
+     */
+    public long getRegexBudget() {
+        return regexBudget;
+    }
+
+    /**
+     * Get what is done about host regexes that are expensive to match.
+     * 
+     * @return The {@link RegexPolicy}.
+     */
+    public RegexPolicy getRegexPolicy() {
+        return regexPolicy;
+    }
+
+    /**
+     * Get the HTTP engine running the server.
+     * 
+     * @return The {@link ServerBackend}.
+     */
+    public ServerBackend getServerBackend() {
+        return serverBackend;
+    }
+
+    /**
+     * Get the request path under which XRDS documents are served to clients directed there by an {@code X-XRDS-Location} header.
+     * 
+     * @return The XRDS path.
+     */
+    public String getXrdsPath() {
+        return xrdsPath;
+    }
+
+    /**
+     * Get how Yadis discovery of an identifier is answered.
+     * 
+     * @return The {@link YadisMode}.
+     */
+    public YadisMode getYadisMode() {
+        return yadisMode;
+    }
+
+    /**
+     * Set the number of threads accepting connections.
+     * 
+     * @param acceptors
+     *            The number of acceptor threads.
+     * @throws IllegalArgumentException
+     *             If the given number is less than 1.
+     */
+    public void setAcceptors(int acceptors) {
+        if (acceptors < 1)
+            throw new IllegalArgumentException("Acceptors must be at least 1: " + acceptors);
+
+        this.acceptors = acceptors;
+    }
+
+    /**
+     * Set the size of the queue of connections waiting to be accepted.
+     * 
+     * @param acceptQueueSize
+     *            The accept backlog; {@code 0} to use the operating system's default.
+     * @throws IllegalArgumentException
+     *             If the given size is negative.
+     */
+    public void setAcceptQueueSize(int acceptQueueSize) {
+        if (acceptQueueSize < 0)
+            throw new IllegalArgumentException("Accept queue size cannot be negative: " + acceptQueueSize);
+
+        this.acceptQueueSize = acceptQueueSize;
+    }
+
+    /**
+     * Set the number of access log entries that can be waiting to be written. Once this many are waiting, further entries are dropped rather than
+     * making requests wait.
+     * 
+     * @param accessLogBufferSize
+     *            The size of the access log buffer.
+     * @throws IllegalArgumentException
+     *             If the given size is less than 1.
+     */
+    public void setAccessLogBufferSize(int accessLogBufferSize) {
+        if (accessLogBufferSize < 1)
+            throw new IllegalArgumentException("Access log buffer size must be at least 1: " + accessLogBufferSize);
+
+        this.accessLogBufferSize = accessLogBufferSize;
+    }
+
+    /**
+     * Set the file to which requests are logged.
+     * 
+     * @param accessLogFile
+     *            The access log {@link File}, to which entries are appended; {@code null} if requests are not to be logged.
+     */
+    public void setAccessLogFile(File accessLogFile) {
+        this.accessLogFile = accessLogFile;
+    }
+
+    /**
+     * Set the size of the largest batch accepted by the admin endpoint. Larger batches are rejected before they are parsed.
+     * 
+     * @param adminMaxBatchSize
+     *            The maximum size, in bytes, of a batch.
+     * @throws IllegalArgumentException
+     *             If the given size is less than 1.
+     */
+    public void setAdminMaxBatchSize(int adminMaxBatchSize) {
+        if (adminMaxBatchSize < 1)
+            throw new IllegalArgumentException("Admin max batch size must be at least 1: " + adminMaxBatchSize);
+
+        this.adminMaxBatchSize = adminMaxBatchSize;
+    }
+
+    /**
+     * Set the request path of the admin endpoint.
+     * 
+     * @param adminPath
+     *            The admin path.
+     * @throws IllegalArgumentException
+     *             If the given path is {@code null} or does not start with {@code /}.
+     */
+    public void setAdminPath(String adminPath) {
+        if (adminPath == null || !adminPath.startsWith("/"))
+            throw new IllegalArgumentException("Admin path must start with /: " + adminPath);
+
+        this.adminPath = adminPath;
+    }
+
+    /**
+     * Set the bearer token that requests to the admin endpoint must present. The admin endpoint is only served if a token is set.
+     * 
+     * @param adminToken
+     *            The admin token; if {@code null} or blank, the admin endpoint is disabled.
+     */
+    public void setAdminToken(String adminToken) {
+        this.adminToken = adminToken == null || adminToken.trim().length() == 0 ? null : adminToken.trim();
+    }
+
+    /**
+     * Set the value of the {@code Cache-Control} header sent with discovery documents.
+     * 
+     * @param cacheControl
+     *            The {@code Cache-Control} header value; if {@code null} or blank, no such header is sent.
+     */
+    public void setCacheControl(String cacheControl) {
+        this.cacheControl = cacheControl == null || cacheControl.trim().length() == 0 ? null : cacheControl.trim();
+    }
+
+    /**
+     * Set the size below which discovery documents are not compressed. Compressing small documents costs clients more in decompression than it saves
+     * on the wire.
+     * 
+     * @param compressionThreshold
+     *            The compression threshold, in bytes; {@link Integer#MAX_VALUE} effectively disables compression.
+     * @throws IllegalArgumentException
+     *             If the given threshold is negative.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0)
+            throw new IllegalArgumentException("Compression threshold cannot be negative: " + compressionThreshold);
+
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Set the external file from which services and canonical IDs are loaded. The file is watched for changes, which are applied without restarting
+     * the server.
+     * 
+     * @param configurationFile
+     *            The configuration {@link File}; {@code null} if no such file is to be used.
+     */
+    public void setConfigurationFile(File configurationFile) {
+        this.configurationFile = configurationFile;
+    }
+
+    /**
+     * Set the time between checks of the configuration file for changes.
+     * 
+     * @param configurationPollInterval
+     *            The poll interval, in milliseconds.
+     * @throws IllegalArgumentException
+     *             If the given interval is less than 1.
+     */
+    public void setConfigurationPollInterval(long configurationPollInterval) {
+        if (configurationPollInterval < 1)
+            throw new IllegalArgumentException("Configuration poll interval must be at least 1: " + configurationPollInterval);
+
+        this.configurationPollInterval = configurationPollInterval;
+    }
+
+    /**
+     * Set how the Jetty backend runs the handling of requests. The minimum and maximum numbers of threads only apply to the
+     * {@link ExecutionMode#POOLED pooled} mode.
+     * 
+     * @param executionMode
+     *            The {@link ExecutionMode}.
+     * @throws IllegalArgumentException
+     *             If the given mode is {@code null}.
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        if (executionMode == null)
+            throw new IllegalArgumentException("Execution mode cannot be null.");
+
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * Set the time that an idle connection is kept open.
+     * 
+     * @param maxIdleTime
+     *            The maximum idle time, in milliseconds.
+     * @throws IllegalArgumentException
+     *             If the given time is negative.
+     */
+    public void setMaxIdleTime(int maxIdleTime) {
+        if (maxIdleTime < 0)
+            throw new IllegalArgumentException("Maximum idle time cannot be negative: " + maxIdleTime);
+
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Set the maximum number of threads in the request-handling thread pool.
+     * 
+     * @param maxThreads
+     *            The maximum number of threads.
+     * @throws IllegalArgumentException
+     *             If the given number is less than 1.
+     */
+    public void setMaxThreads(int maxThreads) {
+        if (maxThreads < 1)
+            throw new IllegalArgumentException("Maximum threads must be at least 1: " + maxThreads);
+
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Set the maximum number of request targets whose match results are cached.
+     * 
+     * @param matchCacheSize
+     *            The maximum size of the match cache; {@code 0} disables caching.
+     * @throws IllegalArgumentException
+     *             If the given size is negative.
+     */
+    public void setMatchCacheSize(int matchCacheSize) {
+        if (matchCacheSize < 0)
+            throw new IllegalArgumentException("Match cache size cannot be negative: " + matchCacheSize);
+
+        this.matchCacheSize = matchCacheSize;
+    }
+
+    /**
+     * Set the time that matching a request target against the host regexes may take. Regular expressions are evaluated on the thread handling
+     * the request, so a target crafted to make an expression backtrack catastrophically would otherwise tie up that thread indefinitely; once the
+     * time is exceeded, matching is abandoned and the request is answered with the {@link #setMatchTimeoutStatus(int) match timeout status}.
+     * 
+     * @param matchTimeout
+     *            The match timeout, in milliseconds; {@code 0} does not limit matching.
+     * @throws IllegalArgumentException
+     *             If the given timeout is negative.
+     */
+    public void setMatchTimeout(long matchTimeout) {
+        if (matchTimeout < 0)
+            throw new IllegalArgumentException("Match timeout cannot be negative: " + matchTimeout);
+
+        this.matchTimeout = matchTimeout;
+    }
+
+    /**
+     * Set the status with which a request is answered if matching its target is abandoned for exceeding the {@link #setMatchTimeout(long) match
+     * timeout}.
+     * 
+     * @param matchTimeoutStatus
+     *            The HTTP status code; a client or server error.
+     * @throws IllegalArgumentException
+     *             If the given status is not between 400 and 599.
+     */
+    public void setMatchTimeoutStatus(int matchTimeoutStatus) {
+        if (matchTimeoutStatus < 400 || matchTimeoutStatus > 599)
+            throw new IllegalArgumentException("Match timeout status must be between 400 and 599: " + matchTimeoutStatus);
+
+        this.matchTimeoutStatus = matchTimeoutStatus;
+    }
+
+    /**
+     * Set the request path at which metrics are served, in the Prometheus text format.
+     * 
+     * @param metricsPath
+     *            The metrics path; if {@code null} or blank, metrics are neither recorded nor served.
+     * @throws IllegalArgumentException
+     *             If the given path is not blank and does not start with {@code /}.
+     */
+    public void setMetricsPath(String metricsPath) {
+        if (metricsPath == null || metricsPath.trim().length() == 0) {
+            this.metricsPath = null;
+            return;
+        }
+
+        if (!metricsPath.trim().startsWith("/"))
+            throw new IllegalArgumentException("Metrics path must start with /: " + metricsPath);
+
+        this.metricsPath = metricsPath.trim();
+    }
+
+    /**
+     * Set the minimum number of threads kept in the request-handling thread pool.
+     * 
+     * @param minThreads
+     *            The minimum number of threads.
+     * @throws IllegalArgumentException
+     *             If the given number is less than 1.
+     */
+    public void setMinThreads(int minThreads) {
+        if (minThreads < 1)
+            throw new IllegalArgumentException("Minimum threads must be at least 1: " + minThreads);
+
+        this.minThreads = minThreads;
+    }
+
+    /**
+     * Set the time that matching a host regex against any one adversarial input may take before the {@link #setRegexPolicy(RegexPolicy) regex
+     * policy} deems it expensive.
+     * 
+     * @param regexBudget
+     *            The regex budget, in milliseconds.
+     * @throws IllegalArgumentException
+     *             If the given budget is less than 1.
+     */
+    public void setRegexBudget(long regexBudget) {
+        if (regexBudget < 1)
+            throw new IllegalArgumentException("Regex budget must be at least 1: " + regexBudget);
+
+        this.regexBudget = regexBudget;
+    }
+
+    /**
+     * Set what is done about host regexes that are expensive to match. The policy is applied to the host regexes configured when the server is
+     * started, and to those that each later update of the services - from a changed configuration file or an admin batch - would newly serve.
+     * 
+     * @param regexPolicy
+     *            The {@link RegexPolicy}.
+     * @throws IllegalArgumentException
+     *             If the given policy is {@code null}.
+     */
+    public void setRegexPolicy(RegexPolicy regexPolicy) {
+        if (regexPolicy == null)
+            throw new IllegalArgumentException("Regex policy cannot be null.");
+
+        this.regexPolicy = regexPolicy;
+    }
+
+    /**
+     * Set the HTTP engine running the server. The numbers of acceptors and threads only apply to the {@link ServerBackend#JETTY Jetty} backend.
+     * 
+     * @param serverBackend
+     *            The {@link ServerBackend}.
+     * @throws IllegalArgumentException
+     *             If the given backend is {@code null}.
+     */
+    public void setServerBackend(ServerBackend serverBackend) {
+        if (serverBackend == null)
+            throw new IllegalArgumentException("Server backend cannot be null.");
+
+        this.serverBackend = serverBackend;
+    }
+
+    /**
+     * Set the request path under which XRDS documents are served to clients directed there by an {@code X-XRDS-Location} header. The document for an
+     * identifier is served at the identifier's path appended to this path. The path is only served in the {@link YadisMode#NEGOTIATE negotiate}
+     * and {@link YadisMode#HEADER header} Yadis modes.
+     * 
+     * @param xrdsPath
+     *            The XRDS path.
+     * @throws IllegalArgumentException
+     *             If the given path is {@code null}, does not start with {@code /} or is only {@code /}.
+     */
+    public void setXrdsPath(String xrdsPath) {
+        if (xrdsPath == null || !xrdsPath.startsWith("/") || xrdsPath.length() == 1)
+            throw new IllegalArgumentException("XRDS path must start with / and not be only /: " + xrdsPath);
+
+        this.xrdsPath = xrdsPath.endsWith("/") ? xrdsPath.substring(0, xrdsPath.length() - 1) : xrdsPath;
+    }
+
+    /**
+     * Set how Yadis discovery of an identifier is answered.
+     * 
+     * @param yadisMode
+     *            The {@link YadisMode}.
+     * @throws IllegalArgumentException
+     *             If the given mode is {@code null}.
+     */
+    public void setYadisMode(YadisMode yadisMode) {
+        if (yadisMode == null)
+            throw new IllegalArgumentException("Yadis mode cannot be null.");
+
+        this.yadisMode = yadisMode;
+    }
+}
@@ -0,0 +1,42 @@
+package com.google.code.openid.mojo;
+
+import java.util.Locale;
+
+import com.google.code.openid.mojo.server.VirtualThreadPool;
+
+/**
+ * How the Jetty backend of a discovery server runs the handling of its requests.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public enum ExecutionMode {
+    /**
+     * Requests are handled by a bounded pool of platform threads, sized by the minimum and maximum numbers of threads of the configuration.
+     */
+    POOLED,
+    /**
+     * Each request is handled by a new virtual thread, so that the number of requests handled at once is not bounded by a pool of platform threads.
+     * If the running JVM does not {@link VirtualThreadPool#isSupported() support} virtual threads, requests are handled as if {@link #POOLED pooled}.
+     */
+    VIRTUAL;
+
+    /**
+     * Parse a mode by its name, ignoring case.
+     * 
+     * @param name
+     *            The name of the mode, such as {@code virtual}.
+     * @return The {@link ExecutionMode} of the given name.
+     * @throws IllegalArgumentException
+     *             If the given name is {@code null} or is not the name of a mode.
+     */
+    public static ExecutionMode parse(String name) {
+        if (name != null)
+            for (ExecutionMode mode : values())
+                if (mode.name().equals(name.trim().toUpperCase(Locale.ENGLISH)))
+                    return mode;
+
+        throw new IllegalArgumentException("Execution mode must be one of pooled or virtual: " + name);
+    }
+}
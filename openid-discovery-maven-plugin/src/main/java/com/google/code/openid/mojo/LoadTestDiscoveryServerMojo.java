@@ -0,0 +1,204 @@
+package com.google.code.openid.mojo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import com.google.code.openid.mojo.loadtest.LoadGenerator;
+import com.google.code.openid.mojo.loadtest.LoadTestResult;
+import com.google.code.openid.mojo.server.DiscoveryServer;
+
+/**
+ * A mojo to load-test the previously-started discovery server, reporting its throughput and request latency and, optionally, failing the build if
+ * they fall short of given thresholds.
+ * 
+ * @author jrh3k5
+ * 
+ * @goal loadtest
+ * @phase integration-test
+ */
+
+public class LoadTestDiscoveryServerMojo extends AbstractDiscoveryServerMojo {
+    /**
+     * The base URL of the discovery server to be load-tested. If not set, the server started by the {@code start} goal with the same
+     * {@link #serverId serverId} is tested.
+     * 
+     * @parameter expression="serverUrl"
+     */
+    private String serverUrl;
+
+    /**
+     * The targets to be requested, such as {@code /users/me}, each resolved against the server URL. The targets are requested in turn by each thread,
+     * so a target given more than once is requested proportionally more often.
+     * 
+     * @parameter
+     * @required
+     */
+    private String[] targets;
+
+    /**
+     * The number of requests made at once.
+     * 
+     * @parameter expression="concurrency" default-value="4"
+     */
+    private int concurrency = LoadGenerator.DEFAULT_CONCURRENCY;
+
+    /**
+     * The time, in milliseconds, for which requests are measured.
+     * 
+     * @parameter expression="duration" default-value="10000"
+     */
+    private long duration = LoadGenerator.DEFAULT_DURATION;
+
+    /**
+     * The time, in milliseconds, for which requests are made before they are measured, so that the server is measured once it has warmed up.
+     * 
+     * @parameter expression="warmup" default-value="2000"
+     */
+    private long warmup = LoadGenerator.DEFAULT_WARMUP;
+
+    /**
+     * Whether connections are reused between requests. Set this to {@code false} to make each request on a new connection.
+     * 
+     * @parameter expression="keepAlive" default-value="true"
+     */
+    private boolean keepAlive = true;
+
+    /**
+     * The time, in milliseconds, that a request may take to connect and, separately, to read the response before it fails.
+     * 
+     * @parameter expression="requestTimeout" default-value="5000"
+     */
+    private int requestTimeout = LoadGenerator.DEFAULT_REQUEST_TIMEOUT;
+
+    /**
+     * The file to which the results are written as a JSON object, for comparison between builds by other tools.
+     * 
+     * @parameter expression="loadTestReportFile" default-value="${project.build.directory}/openid-discovery-loadtest.json"
+     */
+    private File reportFile;
+
+    /**
+     * The fewest requests per second that the server must answer for the build to succeed. Set this to {@code 0} to not check the throughput.
+     * 
+     * @parameter expression="minThroughput" default-value="0"
+     */
+    private double minThroughput;
+
+    /**
+     * The longest, in milliseconds, that the 99th percentile of request latency may be for the build to succeed. Set this to {@code 0} to not check
+     * the latency.
+     * 
+     * @parameter expression="maxP99" default-value="0"
+     */
+    private double maxP99;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (targets == null || targets.length == 0)
+            throw new MojoFailureException("At least one target must be given.");
+
+        final String baseUrl = getBaseUrl();
+        final List<URL> urls = new ArrayList<URL>(targets.length);
+        try {
+            final URL base = new URL(baseUrl);
+            for (String target : targets)
+                urls.add(new URL(base, target));
+        } catch (MalformedURLException e) {
+            throw new MojoFailureException("Invalid target URL: " + e.getMessage());
+        }
+
+        final LoadGenerator generator = new LoadGenerator(urls);
+        try {
+            generator.setConcurrency(concurrency);
+            generator.setDuration(duration);
+            generator.setWarmup(warmup);
+            generator.setKeepAlive(keepAlive);
+            generator.setRequestTimeout(requestTimeout);
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage());
+        }
+
+        getLog().info(
+                "Load testing " + baseUrl + " with " + concurrency + " threads for " + duration + "ms after " + warmup + "ms of warmup"
+                        + (keepAlive ? "" : ", without keep-alive"));
+
+        final LoadTestResult result;
+        try {
+            result = generator.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while load testing " + baseUrl, e);
+        }
+
+        getLog().info("Load test of " + baseUrl + ": " + result);
+        for (Map.Entry<String, Long> error : result.getErrors().entrySet())
+            getLog().warn("  " + error.getKey() + ": " + error.getValue());
+
+        if (reportFile != null)
+            writeReport(result);
+
+        if (minThroughput > 0 && result.getThroughput() < minThroughput)
+            throw new MojoFailureException(String.format("Throughput of %.1f req/s is below the minimum of %.1f req/s.", result.getThroughput(),
+                    minThroughput));
+
+        if (maxP99 > 0 && result.getP99() > maxP99)
+            throw new MojoFailureException(String.format("99th percentile latency of %.3fms exceeds the maximum of %.3fms.", result.getP99(), maxP99));
+    }
+
+    /**
+     * Get the base URL of the server to be tested.
+     * 
+     * @return The {@link #serverUrl serverUrl}, if given; otherwise, the URL of the running server with this mojo's server ID.
+     * @throws MojoFailureException
+     *             If no server URL is given and no such server is running.
+     */
+    private String getBaseUrl() throws MojoFailureException {
+        if (serverUrl != null && serverUrl.trim().length() > 0)
+            return serverUrl.trim();
+
+        final DiscoveryServer server = getServer();
+        if (server == null || server.getLocalPort() < 0)
+            throw new MojoFailureException("No serverUrl was given and no discovery server '" + getServerId() + "' is running.");
+
+        return "http://localhost:" + server.getLocalPort();
+    }
+
+    /**
+     * Write the results to the {@link #reportFile report file}.
+     * 
+     * @param result
+     *            The {@link LoadTestResult} to be written.
+     * @throws MojoExecutionException
+     *             If the report cannot be written.
+     */
+    private void writeReport(LoadTestResult result) throws MojoExecutionException {
+        final File parent = reportFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new MojoExecutionException("Failed to create directory for load test report: " + parent);
+
+        try {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+            try {
+                writer.write(result.toJson());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write load test report: " + reportFile, e);
+        }
+        getLog().info("Load test report written to " + reportFile);
+    }
+}
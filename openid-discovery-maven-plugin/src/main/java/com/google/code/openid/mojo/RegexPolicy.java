@@ -0,0 +1,46 @@
+package com.google.code.openid.mojo;
+
+import java.util.Locale;
+
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+
+/**
+ * What is done about host regular expressions that a {@link RegexCostAnalyzer} finds expensive to match.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public enum RegexPolicy {
+    /**
+     * The expressions are not analyzed at all.
+     */
+    IGNORE,
+    /**
+     * A warning is logged for each expensive expression, and the server is started regardless.
+     */
+    WARN,
+    /**
+     * The expensive expressions, each of which is named, are not served: the build is failed if they are configured when the server is started, a
+     * changed configuration file holding them is not loaded, and an admin batch holding them is answered with a {@code 400 Bad Request}.
+     */
+    REJECT;
+
+    /**
+     * Parse a policy by its name, ignoring case.
+     * 
+     * @param name
+     *            The name of the policy, such as {@code reject}.
+     * @return The {@link RegexPolicy} of the given name.
+     * @throws IllegalArgumentException
+     *             If the given name is {@code null} or is not the name of a policy.
+     */
+    public static RegexPolicy parse(String name) {
+        if (name != null)
+            for (RegexPolicy policy : values())
+                if (policy.name().equals(name.trim().toUpperCase(Locale.ENGLISH)))
+                    return policy;
+
+        throw new IllegalArgumentException("Regex policy must be one of ignore, warn or reject: " + name);
+    }
+}
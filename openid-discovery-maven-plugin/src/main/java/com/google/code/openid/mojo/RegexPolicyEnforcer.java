@@ -0,0 +1,115 @@
+package com.google.code.openid.mojo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+import com.google.code.openid.mojo.match.RegexAnalysis;
+import com.google.code.openid.mojo.match.RegexCost;
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+
+/**
+ * An object that applies a {@link RegexPolicy} to host regular expressions, analyzing each with a {@link RegexCostAnalyzer} and warning about or
+ * rejecting those that are expensive to match.
+ * <p />
+ * The same enforcer is applied to the expressions configured when a discovery server is started and, through
+ * {@link DiscoveredServiceHandler#setRegexPolicyEnforcer(RegexPolicyEnforcer)}, to those that each later update would newly serve, so that the
+ * policy cannot be sidestepped by a changed configuration file or an admin batch.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class RegexPolicyEnforcer {
+    private final RegexPolicy policy;
+    private final RegexCostAnalyzer analyzer;
+    private final Log log;
+    private final String serverId;
+
+    /**
+     * Create an enforcer.
+     * 
+     * @param policy
+     *            The {@link RegexPolicy} to be applied.
+     * @param analyzer
+     *            The {@link RegexCostAnalyzer} by which expressions are to be analyzed.
+     * @param log
+     *            The {@link Log} to which warnings and a summary of each analysis are to be written.
+     * @param serverId
+     *            The ID of the discovery server whose expressions are analyzed, used in warnings.
+     * @throws IllegalArgumentException
+     *             If any of the given objects are {@code null}.
+     */
+    public RegexPolicyEnforcer(RegexPolicy policy, RegexCostAnalyzer analyzer, Log log, String serverId) {
+        if (policy == null)
+            throw new IllegalArgumentException("Policy cannot be null.");
+
+        if (analyzer == null)
+            throw new IllegalArgumentException("Analyzer cannot be null.");
+
+        if (log == null)
+            throw new IllegalArgumentException("Log cannot be null.");
+
+        if (serverId == null)
+            throw new IllegalArgumentException("Server ID cannot be null.");
+
+        this.policy = policy;
+        this.analyzer = analyzer;
+        this.log = log;
+        this.serverId = serverId;
+    }
+
+    /**
+     * Analyze the cost of matching each of the given expressions, log a summary, and warn about or reject those that are expensive. Nothing is
+     * analyzed under the {@link RegexPolicy#IGNORE ignore} policy.
+     * 
+     * @param regexes
+     *            A {@link Collection} of the distinct expressions to be analyzed.
+     * @throws IllegalArgumentException
+     *             If the given collection is {@code null}, any of the expressions is not valid, or the policy is to
+     *             {@link RegexPolicy#REJECT reject} expensive expressions and any are found.
+     */
+    public void enforce(Collection<String> regexes) {
+        if (regexes == null)
+            throw new IllegalArgumentException("Regexes cannot be null.");
+
+        if (policy == RegexPolicy.IGNORE)
+            return;
+
+        final long start = System.nanoTime();
+        final int[] counts = new int[RegexCost.values().length];
+        final List<String> expensive = new ArrayList<String>();
+        for (String regex : regexes) {
+            final RegexAnalysis analysis;
+            try {
+                analysis = analyzer.analyze(regex);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid hostRegex '" + regex + "': " + e.getMessage(), e);
+            }
+
+            counts[analysis.getCost().ordinal()]++;
+            if (analysis.isExpensive()) {
+                expensive.add(regex);
+                if (policy == RegexPolicy.WARN)
+                    log.warn("hostRegex '" + regex + "' (" + analysis.getCost().name().toLowerCase(Locale.ENGLISH) + ") took over "
+                            + analyzer.getBudget() + " ms to match an adversarial input of " + analysis.getWorstInput().length()
+                            + " characters; a crafted request could tie up a request thread of discovery server '" + serverId + "'.");
+            } else if (analysis.getCost() == RegexCost.EXPONENTIAL && log.isDebugEnabled()) {
+                log.debug("hostRegex '" + regex + "' is potentially exponential, but matched every adversarial input within the budget.");
+            }
+        }
+
+        log.info("Analyzed " + regexes.size() + " hostRegex pattern(s) in " + (System.nanoTime() - start) / 1000000 + " ms: "
+                + counts[RegexCost.LITERAL.ordinal()] + " literal, " + counts[RegexCost.PREFIX.ordinal()] + " prefix, "
+                + counts[RegexCost.LINEAR.ordinal()] + " linear, " + counts[RegexCost.EXPONENTIAL.ordinal()] + " potentially exponential; "
+                + expensive.size() + " expensive.");
+
+        if (policy == RegexPolicy.REJECT && !expensive.isEmpty())
+            throw new IllegalArgumentException("hostRegex pattern(s) took over " + analyzer.getBudget() + " ms to match an adversarial input: "
+                    + expensive);
+    }
+}
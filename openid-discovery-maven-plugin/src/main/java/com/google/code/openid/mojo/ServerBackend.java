@@ -0,0 +1,44 @@
+package com.google.code.openid.mojo;
+
+import java.util.Locale;
+
+import com.google.code.openid.mojo.server.JettyDiscoveryServer;
+import com.google.code.openid.mojo.server.NioDiscoveryServer;
+
+/**
+ * The HTTP engine that runs a discovery server.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public enum ServerBackend {
+    /**
+     * An embedded Jetty server, as run by a {@link JettyDiscoveryServer}. Requests are handled by a pool of threads, so that a slow client or a slow
+     * handler never holds up the others.
+     */
+    JETTY,
+    /**
+     * A minimal HTTP/1.1 engine on a single selector thread, as run by a {@link NioDiscoveryServer}. It starts faster and uses less memory than
+     * Jetty, which suits short-lived servers started for integration tests.
+     */
+    NIO;
+
+    /**
+     * Parse a backend by its name, ignoring case.
+     * 
+     * @param name
+     *            The name of the backend, such as {@code nio}.
+     * @return The {@link ServerBackend} of the given name.
+     * @throws IllegalArgumentException
+     *             If the given name is {@code null} or is not the name of a backend.
+     */
+    public static ServerBackend parse(String name) {
+        if (name != null)
+            for (ServerBackend backend : values())
+                if (backend.name().equals(name.trim().toUpperCase(Locale.ENGLISH)))
+                    return backend;
+
+        throw new IllegalArgumentException("Server backend must be one of jetty or nio: " + name);
+    }
+}
@@ -1,11 +1,18 @@
 package com.google.code.openid.mojo;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+
 /**
  * A mojo used to emulate an OpenID discovery server.
  * 
@@ -17,19 +24,39 @@ import org.apache.maven.plugin.MojoFailureException;
 
 public class StartDiscoveryServerMojo extends AbstractDiscoveryServerMojo {
     /**
-     * The port on which the discovery server should receive requests.
+     * The port on which the discovery server should receive requests. Set this to {@code 0} to have the operating system choose a free port, so that
+     * builds running at once on the same host never fail to bind; the port actually bound is published in the {@link #propertyPrefix
+     * propertyPrefix}{@code .port} property.
      * 
      * @parameter expression="serverPort"
      * @required
      */
     private int serverPort;
 
+    /**
+     * The prefix of the properties to which the port and base URL of the running discovery server are published. Once the server has started, the
+     * {@code <prefix>.port} and {@code <prefix>.url} properties are set both as project properties, for use by later plugins in the build, and as
+     * system properties, for use by in-process tests. If not set, the prefix is {@code openid.discovery} for the default {@link #serverId serverId}
+     * and {@code openid.discovery.<serverId>} for any other.
+     * 
+     * @parameter expression="propertyPrefix"
+     */
+    private String propertyPrefix;
+
+    /**
+     * The properties of the project being built.
+     * 
+     * @parameter expression="${project.properties}"
+     * @readonly
+     */
+    private Properties projectProperties;
+
     /**
      * The service information that should served out by the discovery server. The served-out discovery document will be an amalgamation of all services whose
-     * {@link DiscoveredService#setHostRegex(String) hostRegex} match the request URI.
+     * {@link DiscoveredService#setHostRegex(String) hostRegex} match the request URI. This is required unless a {@link #configurationFile
+     * configurationFile} is given.
      * 
      * @parameter
-     * @required
      */
     private DiscoveredService[] services;
 
@@ -41,15 +68,358 @@ public class StartDiscoveryServerMojo extends AbstractDiscoveryServerMojo {
      */
     private DiscoveryCanonicalId[] canonicalIds;
 
+    /**
+     * An XML file of further services and canonical IDs to be served, in the same form as the {@link #services services} and {@link #canonicalIds
+     * canonicalIds} parameters within a {@code <discovery />} root element. The file is watched while the server runs, and changes to it are applied
+     * without restarting the server.
+     * 
+     * @parameter expression="configurationFile"
+     */
+    private File configurationFile;
+
+    /**
+     * The time, in milliseconds, between checks of the {@link #configurationFile configurationFile} for changes.
+     * 
+     * @parameter expression="configurationPollInterval" default-value="1000"
+     */
+    private long configurationPollInterval = DiscoveryServerConfiguration.DEFAULT_CONFIGURATION_POLL_INTERVAL;
+
+    /**
+     * The bearer token that requests to the admin endpoint must present. If set, the discovery server serves an admin endpoint at the
+     * {@link #adminPath adminPath}, to which a batch of service and canonical ID replacements, removals and additions can be {@code POST}ed while
+     * the server runs; if not, no admin endpoint is served. Changes made through the admin endpoint are discarded when the
+     * {@link #configurationFile configurationFile} is next reloaded.
+     * 
+     * @parameter expression="adminToken"
+     */
+    private String adminToken;
+
+    /**
+     * The request path of the admin endpoint.
+     * 
+     * @parameter expression="adminPath" default-value="/_admin"
+     */
+    private String adminPath = DiscoveryServerConfiguration.DEFAULT_ADMIN_PATH;
+
+    /**
+     * The size, in bytes, of the largest batch that may be {@code POST}ed to the admin endpoint. Larger batches are rejected before they are parsed.
+     * This applies to both {@link #serverBackend server backends}.
+     * 
+     * @parameter expression="adminMaxBatchSize" default-value="16777216"
+     */
+    private int adminMaxBatchSize = DiscoveryServerConfiguration.DEFAULT_ADMIN_MAX_BATCH_SIZE;
+
+    /**
+     * The request path at which the discovery server serves its metrics - request counts, per-service and per-canonical-ID hit counts, and
+     * percentiles of the time taken to match, write and handle requests - in the Prometheus text format. Set this to an empty value to neither
+     * record nor serve metrics.
+     * 
+     * @parameter expression="metricsPath" default-value="/_metrics"
+     */
+    private String metricsPath = DiscoveryServerConfiguration.DEFAULT_METRICS_PATH;
+
+    /**
+     * How Yadis discovery of an identifier is answered: {@code direct} to always serve the XRDS document itself; {@code negotiate} to serve the
+     * document to clients whose {@code Accept} header asks for {@code application/xrds+xml} and to direct others to it with an
+     * {@code X-XRDS-Location} header; or {@code header} to always direct clients to the document with an {@code X-XRDS-Location} header, so that each
+     * discovery costs two round trips. {@code HEAD} requests are answered with headers alone in every mode.
+     * 
+     * @parameter expression="yadisMode" default-value="direct"
+     */
+    private String yadisMode = "direct";
+
+    /**
+     * The request path under which XRDS documents are served to clients directed there by an {@code X-XRDS-Location} header; the document for an
+     * identifier is served at the identifier's path appended to this one. Only used if the {@link #yadisMode yadisMode} is {@code negotiate} or
+     * {@code header}.
+     * 
+     * @parameter expression="xrdsPath" default-value="/_xrds"
+     */
+    private String xrdsPath = DiscoveryServerConfiguration.DEFAULT_XRDS_PATH;
+
+    /**
+     * A file to which each request handled by the discovery server is logged, with its status, size, duration and matched services. Entries are
+     * written by a background thread, so logging never makes a request wait on the disk. If not set, requests are not logged.
+     * 
+     * @parameter expression="accessLogFile"
+     */
+    private File accessLogFile;
+
+    /**
+     * The number of access log entries that can be waiting to be written to the {@link #accessLogFile accessLogFile}. If requests arrive faster
+     * than they can be written, entries beyond this are dropped, and the number dropped is reported when the server stops.
+     * 
+     * @parameter expression="accessLogBufferSize" default-value="8192"
+     */
+    private int accessLogBufferSize = DiscoveryServerConfiguration.DEFAULT_ACCESS_LOG_BUFFER_SIZE;
+
+    /**
+     * The maximum number of request targets whose match results are cached by the discovery server. Set this to {@code 0} to disable the cache.
+     * 
+     * @parameter expression="matchCacheSize" default-value="1024"
+     */
+    private int matchCacheSize = DiscoveryServerConfiguration.DEFAULT_MATCH_CACHE_SIZE;
+
+    /**
+     * The time, in milliseconds, that matching a request against the {@link DiscoveredService#setHostRegex(String) hostRegex} patterns may take.
+     * Once it is exceeded, matching is abandoned, the request is answered with the {@link #matchTimeoutStatus matchTimeoutStatus}, and the
+     * pattern being evaluated is counted in the metrics, so that a request crafted to make a pattern backtrack catastrophically cannot tie up a
+     * request thread. Set this to {@code 0} to not limit matching.
+     * 
+     * @parameter expression="matchTimeout" default-value="100"
+     */
+    private long matchTimeout = DiscoveryServerConfiguration.DEFAULT_MATCH_TIMEOUT;
+
+    /**
+     * The HTTP status with which a request is answered if matching it exceeds the {@link #matchTimeout matchTimeout}.
+     * 
+     * @parameter expression="matchTimeoutStatus" default-value="503"
+     */
+    private int matchTimeoutStatus = DiscoveryServerConfiguration.DEFAULT_MATCH_TIMEOUT_STATUS;
+
+    /**
+     * The value of the {@code Cache-Control} header sent with discovery documents. Set this to an empty value to send no such header. Regardless of
+     * this value, discovery documents are sent with {@code ETag} and {@code Last-Modified} headers so that clients can revalidate them.
+     * 
+     * @parameter expression="cacheControl" default-value="no-cache"
+     */
+    private String cacheControl = DiscoveryServerConfiguration.DEFAULT_CACHE_CONTROL;
+
+    /**
+     * The size, in bytes, below which discovery documents are not compressed. Larger documents are compressed once, when first served, and sent
+     * compressed to clients whose {@code Accept-Encoding} allows it.
+     * 
+     * @parameter expression="compressionThreshold" default-value="512"
+     */
+    private int compressionThreshold = DiscoveryServerConfiguration.DEFAULT_COMPRESSION_THRESHOLD;
+
+    /**
+     * The HTTP engine that runs the discovery server: {@code jetty} for an embedded Jetty server handling requests in a thread pool; or {@code nio}
+     * for a minimal HTTP/1.1 engine on a single selector thread, which starts faster and uses less memory and so suits servers started only for the
+     * duration of a build. The {@link #acceptors acceptors}, {@link #minThreads minThreads} and {@link #maxThreads maxThreads} only apply to
+     * {@code jetty}. The {@code nio} engine refuses any request larger than 64 KB, except for batches {@code POST}ed to the admin endpoint, which may
+     * be as large as {@link #adminMaxBatchSize adminMaxBatchSize}.
+     * 
+     * @parameter expression="serverBackend" default-value="jetty"
+     */
+    private String serverBackend = "jetty";
+
+    /**
+     * How the {@code jetty} {@link #serverBackend serverBackend} runs the handling of requests: {@code pooled} to handle them in a bounded pool of
+     * platform threads; or {@code virtual} to handle each on a new virtual thread, so that many slow clients cannot exhaust the pool. Virtual threads
+     * need Java 21 or later; on older JVMs, a warning is logged and requests are handled as if {@code pooled}.
+     * 
+     * @parameter expression="executionMode" default-value="pooled"
+     */
+    private String executionMode = "pooled";
+
+    /**
+     * What to do about {@link DiscoveredService#setHostRegex(String) hostRegex} patterns that are expensive to match. Before they are served,
+     * the distinct new patterns of the {@link #services services}, the {@link #canonicalIds canonicalIds}, each load of the
+     * {@link #configurationFile configurationFile} and each admin batch are classified as literal, prefix, linear or potentially exponential, and
+     * matched against adversarial inputs built to make a backtracking matcher try every way of matching them; a pattern is expensive if any such
+     * match takes longer than the {@link #regexBudget regexBudget}. This is {@code ignore} to skip the analysis, {@code warn} to log a warning for
+     * each expensive pattern, or {@code reject} to refuse them: the build fails if they are configured when the server is started, a changed
+     * configuration file is not loaded, and an admin batch is answered with a {@code 400 Bad Request}.
+     * 
+     * @parameter expression="regexPolicy" default-value="warn"
+     */
+    private String regexPolicy = "warn";
+
+    /**
+     * The time, in milliseconds, that matching a {@link DiscoveredService#setHostRegex(String) hostRegex} pattern against any one adversarial
+     * input may take before the pattern is deemed expensive by the {@link #regexPolicy regexPolicy}.
+     * 
+     * @parameter expression="regexBudget" default-value="10"
+     */
+    private long regexBudget = RegexCostAnalyzer.DEFAULT_BUDGET;
+
+    /**
+     * The number of threads accepting connections to the discovery server.
+     * 
+     * @parameter expression="acceptors" default-value="1"
+     */
+    private int acceptors = DiscoveryServerConfiguration.DEFAULT_ACCEPTORS;
+
+    /**
+     * The size of the queue of connections waiting to be accepted by the discovery server. Set this to {@code 0} to use the operating system's
+     * default.
+     * 
+     * @parameter expression="acceptQueueSize" default-value="128"
+     */
+    private int acceptQueueSize = DiscoveryServerConfiguration.DEFAULT_ACCEPT_QUEUE_SIZE;
+
+    /**
+     * The time, in milliseconds, that an idle connection to the discovery server is kept open.
+     * 
+     * @parameter expression="maxIdleTime" default-value="30000"
+     */
+    private int maxIdleTime = DiscoveryServerConfiguration.DEFAULT_MAX_IDLE_TIME;
+
+    /**
+     * The minimum number of threads kept in the discovery server's request-handling thread pool.
+     * 
+     * @parameter expression="minThreads" default-value="2"
+     */
+    private int minThreads = DiscoveryServerConfiguration.DEFAULT_MIN_THREADS;
+
+    /**
+     * The maximum number of threads in the discovery server's request-handling thread pool. Acceptor threads are taken from this pool, so this must
+     * be larger than the number of {@link #acceptors acceptors}.
+     * 
+     * @parameter expression="maxThreads" default-value="250"
+     */
+    private int maxThreads = DiscoveryServerConfiguration.DEFAULT_MAX_THREADS;
+
     /**
      * {@inheritDoc}
      */
     public void execute() throws MojoExecutionException, MojoFailureException {
+        if (services == null && configurationFile == null)
+            throw new MojoFailureException("Either services or a configurationFile must be given.");
+
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        try {
+            configuration.setServerBackend(ServerBackend.parse(serverBackend));
+            configuration.setExecutionMode(ExecutionMode.parse(executionMode));
+            configuration.setMatchCacheSize(matchCacheSize);
+            configuration.setMatchTimeout(matchTimeout);
+            configuration.setMatchTimeoutStatus(matchTimeoutStatus);
+            configuration.setCacheControl(cacheControl);
+            configuration.setCompressionThreshold(compressionThreshold);
+            configuration.setAcceptors(acceptors);
+            configuration.setAcceptQueueSize(acceptQueueSize);
+            configuration.setMaxIdleTime(maxIdleTime);
+            configuration.setMinThreads(minThreads);
+            configuration.setMaxThreads(maxThreads);
+            configuration.setConfigurationFile(configurationFile);
+            configuration.setConfigurationPollInterval(configurationPollInterval);
+            configuration.setAdminToken(adminToken);
+            configuration.setAdminPath(adminPath);
+            configuration.setAdminMaxBatchSize(adminMaxBatchSize);
+            configuration.setMetricsPath(metricsPath);
+            configuration.setYadisMode(YadisMode.parse(yadisMode));
+            configuration.setXrdsPath(xrdsPath);
+            configuration.setAccessLogFile(accessLogFile);
+            configuration.setAccessLogBufferSize(accessLogBufferSize);
+            configuration.setRegexPolicy(RegexPolicy.parse(regexPolicy));
+            configuration.setRegexBudget(regexBudget);
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage());
+        }
+
+        if (serverPort < 0 || serverPort > 65535)
+            throw new MojoFailureException("Server port must be between 0 and 65535: " + serverPort);
+
+        // Only Jetty runs acceptors in a thread pool; the NIO engine answers discovery requests on its selector thread, and admin and metrics
+        // requests on a single worker thread
+        if (configuration.getServerBackend() == ServerBackend.JETTY) {
+            if (minThreads > maxThreads)
+                throw new MojoFailureException("Minimum threads (" + minThreads + ") cannot exceed maximum threads (" + maxThreads + ").");
+
+            if (acceptors >= maxThreads)
+                throw new MojoFailureException("Maximum threads (" + maxThreads + ") must exceed the number of acceptors (" + acceptors + ").");
+        }
+
+        if (configuration.getRegexPolicy() != RegexPolicy.IGNORE)
+            analyzeHostRegexes(createRegexPolicyEnforcer(configuration));
+
+        final int port;
         try {
-            startServer(serverPort, canonicalIds == null ? Collections.<DiscoveryCanonicalId> emptyList() : Arrays.asList(canonicalIds), Arrays.asList(services));
+            port = startServer(serverPort, canonicalIds == null ? Collections.<DiscoveryCanonicalId> emptyList() : Arrays.asList(canonicalIds),
+                    services == null ? Collections.<DiscoveredService> emptyList() : Arrays.asList(services), configuration);
+        } catch (IllegalArgumentException e) {
+            // The configuration file held host regexes that the regex policy rejects
+            throw new MojoFailureException(e.getMessage());
         } catch (Exception e) {
             throw new MojoExecutionException("Error starting discovery server.", e);
         }
+
+        publish(port);
+    }
+
+    /**
+     * Analyze the cost of matching every distinct host regex of the {@link #services services} and {@link #canonicalIds canonicalIds}, and warn
+     * about or reject those that are expensive. Those of the configuration file are analyzed as the server loads it.
+     * 
+     * @param enforcer
+     *            The {@link RegexPolicyEnforcer} by which the expressions are to be analyzed.
+     * @throws MojoFailureException
+     *             If the policy is to reject expensive expressions and any are found, or if any expression is missing or not valid.
+     */
+    private void analyzeHostRegexes(RegexPolicyEnforcer enforcer) throws MojoFailureException {
+        final Set<String> regexes = new LinkedHashSet<String>();
+        addHostRegexes(regexes, canonicalIds == null ? Collections.<DiscoveryCanonicalId> emptyList() : Arrays.asList(canonicalIds),
+                services == null ? Collections.<DiscoveredService> emptyList() : Arrays.asList(services));
+        try {
+            enforcer.enforce(regexes);
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage());
+        }
+    }
+
+    /**
+     * Collect the host regexes of canonical IDs and services.
+     * 
+     * @param regexes
+     *            The {@link Set} to which the expressions are to be added.
+     * @param canonicalIds
+     *            A {@link Collection} of {@link DiscoveryCanonicalId} objects whose expressions are to be added.
+     * @param services
+     *            A {@link Collection} of {@link DiscoveredService} objects whose expressions are to be added.
+     * @throws MojoFailureException
+     *             If any of the given canonical IDs or services has no host regex.
+     */
+    private static void addHostRegexes(Set<String> regexes, Collection<DiscoveryCanonicalId> canonicalIds, Collection<DiscoveredService> services)
+            throws MojoFailureException {
+        int position = 0;
+        for (DiscoveryCanonicalId canonicalId : canonicalIds) {
+            position++;
+            try {
+                regexes.add(canonicalId.getHostRegex());
+            } catch (IllegalStateException e) {
+                throw new MojoFailureException("Canonical ID #" + position + " has no hostRegex.");
+            }
+        }
+
+        position = 0;
+        for (DiscoveredService service : services) {
+            position++;
+            try {
+                regexes.add(service.getHostRegex());
+            } catch (IllegalStateException e) {
+                throw new MojoFailureException("Service #" + position + " has no hostRegex.");
+            }
+        }
+    }
+
+    /**
+     * Publish the port and base URL of the running server.
+     * 
+     * @param port
+     *            The port on which the server is listening.
+     */
+    private void publish(int port) {
+        final String prefix = propertyPrefix != null ? propertyPrefix : DEFAULT_SERVER_ID.equals(getServerId()) ? "openid.discovery"
+                : "openid.discovery." + getServerId();
+        final String url = "http://localhost:" + port;
+        setProperty(prefix + ".port", Integer.toString(port));
+        setProperty(prefix + ".url", url);
+        getLog().info("Discovery server '" + getServerId() + "' listening at " + url + " (" + prefix + ".port, " + prefix + ".url)");
+    }
+
+    /**
+     * Set a property in the project and the system properties.
+     * 
+     * @param name
+     *            The name of the property.
+     * @param value
+     *            The value of the property.
+     */
+    private void setProperty(String name, String value) {
+        if (projectProperties != null)
+            projectProperties.setProperty(name, value);
+        System.setProperty(name, value);
     }
 
 }
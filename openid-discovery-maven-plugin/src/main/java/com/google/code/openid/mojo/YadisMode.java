@@ -0,0 +1,49 @@
+package com.google.code.openid.mojo;
+
+import java.util.Locale;
+
+/**
+ * How a discovery server answers Yadis discovery of an identifier.
+ * <p />
+ * Whatever the mode, {@code HEAD} requests are answered with the headers of the equivalent {@code GET} but no body, so that clients probing an
+ * identifier learn where its XRDS document is without downloading it.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public enum YadisMode {
+    /**
+     * The XRDS document is served at the identifier itself, whatever the client accepts. Clients that ask for the document get it in one round trip.
+     */
+    DIRECT,
+    /**
+     * The XRDS document is served at the identifier if the client's {@code Accept} header includes {@code application/xrds+xml}; otherwise, the
+     * client is sent an HTML page with an {@code X-XRDS-Location} header giving the URL of the document, as a Yadis relying party that did not ask
+     * for the document expects.
+     */
+    NEGOTIATE,
+    /**
+     * The identifier is always answered with an HTML page and an {@code X-XRDS-Location} header giving the URL of the XRDS document, so every client
+     * needs a second round trip to fetch the document.
+     */
+    HEADER;
+
+    /**
+     * Parse a mode by its name, ignoring case.
+     * 
+     * @param name
+     *            The name of the mode, such as {@code negotiate}.
+     * @return The {@link YadisMode} of the given name.
+     * @throws IllegalArgumentException
+     *             If the given name is {@code null} or is not the name of a mode.
+     */
+    public static YadisMode parse(String name) {
+        if (name != null)
+            for (YadisMode mode : values())
+                if (mode.name().equals(name.trim().toUpperCase(Locale.ENGLISH)))
+                    return mode;
+
+        throw new IllegalArgumentException("Yadis mode must be one of direct, negotiate or header: " + name);
+    }
+}
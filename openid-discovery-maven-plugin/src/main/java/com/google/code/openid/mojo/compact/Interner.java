@@ -0,0 +1,50 @@
+package com.google.code.openid.mojo.compact;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of canonical instances of immutable values, so that equal values read from a configuration share a single copy in memory.
+ * <p />
+ * The pool only holds its instances weakly: an instance is dropped from the pool once nothing outside of it refers to the instance, so a pool
+ * that outlives a configuration does not keep that configuration's values in memory.
+ * 
+ * @author jrh3k5
+ * 
+ * @param <T>
+ *            The type of the pooled values; these must be immutable, and implement {@link Object#equals(Object)} and {@link Object#hashCode()}.
+ */
+
+public class Interner<T> {
+    private final Map<T, WeakReference<T>> instances = new WeakHashMap<T, WeakReference<T>>();
+
+    /**
+     * Get the canonical instance of the given value, making the value the canonical instance if no equal value is in the pool.
+     * 
+     * @param value
+     *            The value to be interned.
+     * @return The canonical instance equal to the given value; {@code null} if the given value is {@code null}.
+     */
+    public synchronized T intern(T value) {
+        if (value == null)
+            return null;
+
+        final WeakReference<T> reference = instances.get(value);
+        final T existing = reference == null ? null : reference.get();
+        if (existing != null)
+            return existing;
+
+        instances.put(value, new WeakReference<T>(value));
+        return value;
+    }
+
+    /**
+     * Get the number of canonical instances in the pool.
+     * 
+     * @return The number of values in the pool that are still referred to.
+     */
+    public synchronized int size() {
+        return instances.size();
+    }
+}
@@ -0,0 +1,226 @@
+package com.google.code.openid.mojo.compact;
+
+/**
+ * A reusable set of ordinals - the positions of services or canonical IDs in their configuration - held as a bitset.
+ * <p />
+ * The set remembers the range of words that it has written to, so that clearing, hashing and comparing it costs as much as the ordinals it
+ * holds rather than as much as the largest ordinal it could hold. Once a set has grown to the size of the configuration, refilling it allocates
+ * nothing, which makes it suited to being cleared and reused by each request a thread handles.
+ * <p />
+ * This class is not thread-safe.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public final class OrdinalSet {
+    private static final long[] NO_WORDS = new long[0];
+
+    private long[] words = NO_WORDS;
+    private int from;
+    private int to;
+    private int size;
+
+    /**
+     * Add an ordinal to the set.
+     * 
+     * @param ordinal
+     *            The ordinal to be added.
+     * @throws IllegalArgumentException
+     *             If the given ordinal is negative.
+     */
+    public void add(int ordinal) {
+        if (ordinal < 0)
+            throw new IllegalArgumentException("Ordinal cannot be negative: " + ordinal);
+
+        final int word = ordinal >>> 6;
+        if (word >= words.length)
+            grow(word + 1);
+
+        final long bit = 1L << ordinal;
+        if ((words[word] & bit) != 0)
+            return;
+
+        words[word] |= bit;
+        if (size++ == 0) {
+            from = word;
+            to = word + 1;
+        } else if (word < from) {
+            from = word;
+        } else if (word >= to) {
+            to = word + 1;
+        }
+    }
+
+    /**
+     * Remove every ordinal from the set, keeping its capacity.
+     */
+    public void clear() {
+        for (int i = from; i < to; i++)
+            words[i] = 0;
+        from = 0;
+        to = 0;
+        size = 0;
+    }
+
+    /**
+     * Determine whether or not the given ordinal is in the set.
+     * 
+     * @param ordinal
+     *            The ordinal.
+     * @return {@code true} if the ordinal is in the set; {@code false} if not.
+     */
+    public boolean contains(int ordinal) {
+        final int word = ordinal >>> 6;
+        return ordinal >= 0 && word < words.length && (words[word] & 1L << ordinal) != 0;
+    }
+
+    /**
+     * Create a copy of this set, sized to hold only what this set holds.
+     * 
+     * @return A new {@link OrdinalSet} holding the same ordinals.
+     */
+    public OrdinalSet copy() {
+        final OrdinalSet copy = new OrdinalSet();
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Replace the contents of this set with those of another.
+     * 
+     * @param other
+     *            The {@link OrdinalSet} to be copied.
+     * @throws IllegalArgumentException
+     *             If the given set is {@code null}.
+     */
+    public void copyFrom(OrdinalSet other) {
+        if (other == null)
+            throw new IllegalArgumentException("Ordinal set cannot be null.");
+
+        clear();
+        if (other.size == 0)
+            return;
+
+        if (other.to > words.length)
+            grow(other.to);
+        System.arraycopy(other.words, other.from, words, other.from, other.to - other.from);
+        from = other.from;
+        to = other.to;
+        size = other.size;
+    }
+
+    /**
+     * Determine whether or not the set is empty.
+     * 
+     * @return {@code true} if the set holds no ordinals; {@code false} if it does.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Find the smallest ordinal in the set that is no less than the given ordinal. The ordinals of a set are iterated, in ascending order, with
+     * {@code for (int i = set.next(0); i >= 0; i = set.next(i + 1))}.
+     * 
+     * @param ordinal
+     *            The ordinal from which to search.
+     * @return The next ordinal in the set; {@code -1} if there is none.
+     */
+    public int next(int ordinal) {
+        final int start = Math.max(ordinal, 0);
+        int word = Math.max(start >>> 6, from);
+        if (word >= to)
+            return -1;
+
+        long bits = words[word] & (word == start >>> 6 ? -1L << start : -1L);
+        while (bits == 0) {
+            if (++word >= to)
+                return -1;
+            bits = words[word];
+        }
+        return word * 64 + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Get the number of ordinals in the set.
+     * 
+     * @return The size of the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+
+        if (!(obj instanceof OrdinalSet))
+            return false;
+
+        final OrdinalSet other = (OrdinalSet) obj;
+        if (size != other.size)
+            return false;
+
+        if (size == 0)
+            return true;
+
+        // Sets of the same ordinals have written to the same words, unless one has since been cleared of them
+        final int start = Math.min(from, other.from);
+        final int end = Math.max(to, other.to);
+        for (int i = start; i < end; i++)
+            if (word(i) != other.word(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = from; i < to; i++)
+            if (words[i] != 0)
+                hash = 31 * hash + (int) (words[i] ^ words[i] >>> 32) + i;
+        return hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("[");
+        for (int i = next(0); i >= 0; i = next(i + 1))
+            builder.append(builder.length() > 1 ? ", " : "").append(i);
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Grow the set to hold at least the given number of words.
+     * 
+     * @param capacity
+     *            The number of words required.
+     */
+    private void grow(int capacity) {
+        final long[] grown = new long[Math.max(capacity, words.length * 2)];
+        System.arraycopy(words, 0, grown, 0, words.length);
+        words = grown;
+    }
+
+    /**
+     * Get a word of the set.
+     * 
+     * @param index
+     *            The index of the word.
+     * @return The word; {@code 0} if it lies beyond the words of the set.
+     */
+    private long word(int index) {
+        return index < words.length ? words[index] : 0;
+    }
+}
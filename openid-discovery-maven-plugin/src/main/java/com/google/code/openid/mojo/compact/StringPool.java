@@ -0,0 +1,29 @@
+package com.google.code.openid.mojo.compact;
+
+/**
+ * The pool of canonical instances of the configuration text that services tend to repeat, such as their URIs and type URLs.
+ * <p />
+ * A configuration read from disk holds a fresh copy of each text value for every element in which it appears; interning the repeated values as
+ * they are set means that a URI shared by a hundred thousand services is held in memory once.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public final class StringPool {
+    private static final Interner<String> POOL = new Interner<String>();
+
+    private StringPool() {
+    }
+
+    /**
+     * Get the canonical instance of the given text.
+     * 
+     * @param value
+     *            The text to be interned.
+     * @return The pooled instance equal to the given text; {@code null} if the given text is {@code null}.
+     */
+    public static String intern(String value) {
+        return POOL.intern(value);
+    }
+}
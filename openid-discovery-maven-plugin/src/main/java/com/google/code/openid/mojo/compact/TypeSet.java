@@ -0,0 +1,188 @@
+package com.google.code.openid.mojo.compact;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An immutable set of service type URLs, kept in the order in which they were configured.
+ * <p />
+ * Most services of a large configuration declare one of a handful of combinations of types, so type sets are only ever created through
+ * {@link #of(String[])} and {@link #with(String[])}, which return a single, shared instance for each combination and intern each type URL. A set
+ * costs a single array and is shared by every service that declares it, where a {@link java.util.LinkedHashSet LinkedHashSet} per service would
+ * cost several hundred bytes.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public final class TypeSet extends AbstractSet<String> {
+    /**
+     * The pool of type sets, keyed by the ordered list of their types so that sets declaring the same types in a different order are kept apart.
+     */
+    private static final Interner<Key> SETS = new Interner<Key>();
+
+    private final String[] types;
+    private final List<String> list;
+    private final Key key = new Key(this);
+
+    /**
+     * Create a set.
+     * 
+     * @param types
+     *            The distinct, interned types of the set, in order.
+     */
+    private TypeSet(String[] types) {
+        this.types = types;
+        this.list = Collections.unmodifiableList(Arrays.asList(types));
+    }
+
+    /**
+     * Get the shared set of the given types.
+     * 
+     * @param types
+     *            The type URLs, in order; a type that appears more than once is only kept at its first position.
+     * @return The shared {@link TypeSet} of the given types.
+     * @throws IllegalArgumentException
+     *             If the given array is {@code null} or contains {@code null}.
+     */
+    public static TypeSet of(String[] types) {
+        if (types == null)
+            throw new IllegalArgumentException("Type array cannot be null.");
+
+        return create(new String[0], types);
+    }
+
+    /**
+     * Get the types of this set as a list.
+     * 
+     * @return An unmodifiable {@link List} of the types, in order.
+     */
+    public List<String> asList() {
+        return list;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(Object o) {
+        return list.contains(o);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return list.iterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return types.length;
+    }
+
+    /**
+     * Get the shared set of the types of this set followed by the given types.
+     * 
+     * @param added
+     *            The type URLs to be added, in order; types already in this set are ignored.
+     * @return The shared {@link TypeSet} of the combined types.
+     * @throws IllegalArgumentException
+     *             If the given array is {@code null} or contains {@code null}.
+     */
+    public TypeSet with(String[] added) {
+        if (added == null)
+            throw new IllegalArgumentException("Type array cannot be null.");
+
+        return create(types, added);
+    }
+
+    /**
+     * Get the shared set of the given types.
+     * 
+     * @param existing
+     *            The distinct types that lead the set.
+     * @param added
+     *            The types to follow them.
+     * @return The shared {@link TypeSet}.
+     * @throws IllegalArgumentException
+     *             If any of the added types is {@code null}.
+     */
+    private static TypeSet create(String[] existing, String[] added) {
+        final String[] combined = new String[existing.length + added.length];
+        System.arraycopy(existing, 0, combined, 0, existing.length);
+        int size = existing.length;
+        for (String type : added) {
+            if (type == null)
+                throw new IllegalArgumentException("Type cannot be null.");
+
+            if (!contains(combined, size, type))
+                combined[size++] = StringPool.intern(type);
+        }
+
+        final String[] distinct = new String[size];
+        System.arraycopy(combined, 0, distinct, 0, size);
+        return SETS.intern(new TypeSet(distinct).key).set;
+    }
+
+    /**
+     * Determine whether or not the given type is among the leading elements of the given array.
+     * 
+     * @param types
+     *            The array of types.
+     * @param size
+     *            The number of leading elements to be searched.
+     * @param type
+     *            The type to be found.
+     * @return {@code true} if the type is found; {@code false} if not.
+     */
+    private static boolean contains(String[] types, int size, String type) {
+        for (int i = 0; i < size; i++)
+            if (types[i].equals(type))
+                return true;
+        return false;
+    }
+
+    /**
+     * A key by which type sets are pooled. It compares the types of its set in order, as {@link AbstractSet#equals(Object)} does not.
+     * <p />
+     * The pool holds its keys weakly, and each set holds on to its own key, so a key - and thus its set - stays in the pool for exactly as long as
+     * the set is in use.
+     */
+    private static final class Key {
+        private final TypeSet set;
+
+        /**
+         * Create a key.
+         * 
+         * @param set
+         *            The {@link TypeSet} to be pooled.
+         */
+        Key(TypeSet set) {
+            this.set = set;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(set.types, ((Key) obj).set.types);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(set.types);
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Objects used to keep the memory footprint of very large service configurations small.
+ */
+package com.google.code.openid.mojo.compact;
@@ -0,0 +1,34 @@
+package com.google.code.openid.mojo.config;
+
+/**
+ * An exception thrown when a service configuration file cannot be read.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class ConfigurationException extends Exception {
+    private static final long serialVersionUID = -2912716581426613406L;
+
+    /**
+     * Create an exception.
+     * 
+     * @param message
+     *            A description of the problem.
+     */
+    public ConfigurationException(String message) {
+        super(message);
+    }
+
+    /**
+     * Create an exception.
+     * 
+     * @param message
+     *            A description of the problem.
+     * @param cause
+     *            The {@link Throwable} that caused the problem.
+     */
+    public ConfigurationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
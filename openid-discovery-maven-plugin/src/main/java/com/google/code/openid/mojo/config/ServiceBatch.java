@@ -0,0 +1,130 @@
+package com.google.code.openid.mojo.config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.jetty.ServiceUpdate;
+
+/**
+ * A batch of changes to the services and canonical IDs being served, applied as a single {@link ServiceUpdate}.
+ * <p />
+ * The changes are applied in a fixed order: first, if the batch has a replacement configuration, everything being served is replaced with it;
+ * next, the {@link #removeServices(String, String) removed services} and {@link #removeCanonicalIds(String, String) canonical IDs} are taken out;
+ * last, the added services and canonical IDs are appended. Removals are looked up by hash, so the cost of a batch is linear in the number of
+ * services being served no matter how many are removed.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class ServiceBatch implements ServiceUpdate {
+    private final ServiceConfiguration replacement;
+    private final Set<String> removedServices = new HashSet<String>();
+    private final Set<String> removedCanonicalIds = new HashSet<String>();
+    private final ServiceConfiguration additions;
+
+    /**
+     * Create a batch.
+     * 
+     * @param replacement
+     *            The {@link ServiceConfiguration} to replace everything being served with; {@code null} if nothing is to be replaced.
+     * @param additions
+     *            The {@link ServiceConfiguration} containing the services and canonical IDs to be added.
+     * @throws IllegalArgumentException
+     *             If the given additions are {@code null}.
+     */
+    public ServiceBatch(ServiceConfiguration replacement, ServiceConfiguration additions) {
+        if (additions == null)
+            throw new IllegalArgumentException("Additions cannot be null.");
+
+        this.replacement = replacement;
+        this.additions = additions;
+    }
+
+    /**
+     * Remove canonical IDs.
+     * 
+     * @param hostRegex
+     *            The host regex of the canonical IDs to be removed.
+     * @param canonicalId
+     *            The canonical ID to be removed; {@code null} to remove every canonical ID with the given host regex.
+     * @throws IllegalArgumentException
+     *             If the given host regex is {@code null}.
+     */
+    public void removeCanonicalIds(String hostRegex, String canonicalId) {
+        if (hostRegex == null)
+            throw new IllegalArgumentException("Host regular expression cannot be null.");
+
+        removedCanonicalIds.add(key(hostRegex, canonicalId));
+    }
+
+    /**
+     * Remove services.
+     * 
+     * @param hostRegex
+     *            The host regex of the services to be removed.
+     * @param uri
+     *            The URI of the services to be removed; {@code null} to remove every service with the given host regex.
+     * @throws IllegalArgumentException
+     *             If the given host regex is {@code null}.
+     */
+    public void removeServices(String hostRegex, String uri) {
+        if (hostRegex == null)
+            throw new IllegalArgumentException("Host regular expression cannot be null.");
+
+        removedServices.add(key(hostRegex, uri));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void apply(List<DiscoveryCanonicalId> canonicalIds, List<DiscoveredService> services) {
+        if (replacement != null) {
+            canonicalIds.clear();
+            canonicalIds.addAll(replacement.getCanonicalIds());
+            services.clear();
+            services.addAll(replacement.getServices());
+        }
+
+        if (!removedServices.isEmpty()) {
+            final List<DiscoveredService> retained = new ArrayList<DiscoveredService>(services.size());
+            for (DiscoveredService service : services)
+                if (!removedServices.contains(key(service.getHostRegex(), service.getUri()))
+                        && !removedServices.contains(key(service.getHostRegex(), null)))
+                    retained.add(service);
+            services.clear();
+            services.addAll(retained);
+        }
+
+        if (!removedCanonicalIds.isEmpty()) {
+            final List<DiscoveryCanonicalId> retained = new ArrayList<DiscoveryCanonicalId>(canonicalIds.size());
+            for (DiscoveryCanonicalId canonicalId : canonicalIds)
+                if (!removedCanonicalIds.contains(key(canonicalId.getHostRegex(), canonicalId.getCanonicalId()))
+                        && !removedCanonicalIds.contains(key(canonicalId.getHostRegex(), null)))
+                    retained.add(canonicalId);
+            canonicalIds.clear();
+            canonicalIds.addAll(retained);
+        }
+
+        canonicalIds.addAll(additions.getCanonicalIds());
+        services.addAll(additions.getServices());
+    }
+
+    /**
+     * Build the key by which a removal is looked up.
+     * 
+     * @param hostRegex
+     *            The host regex.
+     * @param value
+     *            The URI or canonical ID; {@code null} to match any.
+     * @return The removal key.
+     */
+    private static String key(String hostRegex, String value) {
+        // A NUL cannot appear in an XML document, so it cannot be part of either half of the key
+        return value == null ? hostRegex : hostRegex + '\u0000' + value;
+    }
+}
@@ -0,0 +1,59 @@
+package com.google.code.openid.mojo.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+
+/**
+ * The services and canonical IDs read from a service configuration file.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class ServiceConfiguration {
+    private final List<DiscoveryCanonicalId> canonicalIds;
+    private final List<DiscoveredService> services;
+
+    /**
+     * Create a configuration.
+     * 
+     * @param canonicalIds
+     *            A {@link List} of the configured {@link DiscoveryCanonicalId} objects.
+     * @param services
+     *            A {@link List} of the configured {@link DiscoveredService} objects.
+     * @throws IllegalArgumentException
+     *             If either of the given lists is {@code null}.
+     */
+    public ServiceConfiguration(List<DiscoveryCanonicalId> canonicalIds, List<DiscoveredService> services) {
+        if (canonicalIds == null)
+            throw new IllegalArgumentException("The canonical IDs cannot be null.");
+
+        if (services == null)
+            throw new IllegalArgumentException("Services cannot be null.");
+
+        this.canonicalIds = Collections.unmodifiableList(new ArrayList<DiscoveryCanonicalId>(canonicalIds));
+        this.services = Collections.unmodifiableList(new ArrayList<DiscoveredService>(services));
+    }
+
+    /**
+     * Get the configured canonical IDs.
+     * 
+     * @return An unmodifiable {@link List} of the configured {@link DiscoveryCanonicalId} objects, in the order in which they were configured.
+     */
+    public List<DiscoveryCanonicalId> getCanonicalIds() {
+        return canonicalIds;
+    }
+
+    /**
+     * Get the configured services.
+     * 
+     * @return An unmodifiable {@link List} of the configured {@link DiscoveredService} objects, in the order in which they were configured.
+     */
+    public List<DiscoveredService> getServices() {
+        return services;
+    }
+}
@@ -0,0 +1,323 @@
+package com.google.code.openid.mojo.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+
+/**
+ * A reader of service configuration files.
+ * <p />
+ * A configuration file is an XML document whose elements mirror the {@code services} and {@code canonicalIds} parameters of the {@code start}
+ * goal, so that configuration can be moved between the POM and the file unchanged:
+ * 
+ * <pre>
+ * &lt;discovery&gt;
+ *   &lt;services&gt;
+ *     &lt;service&gt;
+ *       &lt;hostRegex&gt;\/users\/.*&lt;/hostRegex&gt;
+ *       &lt;uri&gt;http://localhost:8080/openid&lt;/uri&gt;
+ *       &lt;types&gt;
+ *         &lt;type&gt;http://specs.openid.net/auth/2.0/signon&lt;/type&gt;
+ *       &lt;/types&gt;
+ *       &lt;priority&gt;0&lt;/priority&gt;
+ *       &lt;localId&gt;http://localhost:8080/users/me&lt;/localId&gt;
+ *     &lt;/service&gt;
+ *   &lt;/services&gt;
+ *   &lt;canonicalIds&gt;
+ *     &lt;canonicalId&gt;
+ *       &lt;hostRegex&gt;\/users\/.*&lt;/hostRegex&gt;
+ *       &lt;canonicalId&gt;=!1234&lt;/canonicalId&gt;
+ *     &lt;/canonicalId&gt;
+ *   &lt;/canonicalIds&gt;
+ * &lt;/discovery&gt;
+ * </pre>
+ * 
+ * A {@link #readBatch(InputStream, String) batch} of changes is an XML document of the same form, with an {@code <update />} root element whose
+ * {@code <replace />} and {@code <add />} children each contain {@code <services />} and {@code <canonicalIds />}, and whose {@code <remove />}
+ * child identifies the services to be removed by {@code <hostRegex />} and optional {@code <uri />}, and the canonical IDs to be removed by
+ * {@code <hostRegex />} and optional {@code <canonicalId />}:
+ * 
+ * <pre>
+ * &lt;update&gt;
+ *   &lt;remove&gt;
+ *     &lt;services&gt;
+ *       &lt;service&gt;
+ *         &lt;hostRegex&gt;\/users\/.*&lt;/hostRegex&gt;
+ *       &lt;/service&gt;
+ *     &lt;/services&gt;
+ *   &lt;/remove&gt;
+ *   &lt;add&gt;
+ *     &lt;services&gt;...&lt;/services&gt;
+ *   &lt;/add&gt;
+ * &lt;/update&gt;
+ * </pre>
+ * 
+ * Batches are read from the network, so neither they nor configuration files may declare a document type: a document with a {@code <!DOCTYPE>}
+ * is rejected rather than having its entities resolved or expanded.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class ServiceConfigurationReader {
+    /**
+     * Read a configuration file.
+     * 
+     * @param file
+     *            The {@link File} to be read.
+     * @return A {@link ServiceConfiguration} containing the services and canonical IDs configured in the file.
+     * @throws ConfigurationException
+     *             If the file cannot be read or does not describe a valid configuration.
+     * @throws IllegalArgumentException
+     *             If the given file is {@code null}.
+     */
+    public ServiceConfiguration read(File file) throws ConfigurationException {
+        if (file == null)
+            throw new IllegalArgumentException("File cannot be null.");
+
+        final Document document;
+        try {
+            document = createBuilder().build(file);
+        } catch (JDOMException e) {
+            throw new ConfigurationException("Failed to parse configuration file: " + file, e);
+        } catch (IOException e) {
+            throw new ConfigurationException("Failed to read configuration file: " + file, e);
+        }
+
+        final Element root = document.getRootElement();
+        if (!"discovery".equals(root.getName()))
+            throw new ConfigurationException("Expected root element <discovery> but found <" + root.getName() + "> in configuration file: " + file);
+
+        return read(root, file.toString());
+    }
+
+    /**
+     * Read the services and canonical IDs configured within an element.
+     * 
+     * @param element
+     *            The {@link Element} containing the {@code <services />} and {@code <canonicalIds />} elements.
+     * @param source
+     *            A description of where the element was read from, used when reporting errors.
+     * @return A {@link ServiceConfiguration} containing the services and canonical IDs configured in the element.
+     * @throws ConfigurationException
+     *             If the element does not describe a valid configuration.
+     * @throws IllegalArgumentException
+     *             If the given element is {@code null}.
+     */
+    public ServiceConfiguration read(Element element, String source) throws ConfigurationException {
+        if (element == null)
+            throw new IllegalArgumentException("Element cannot be null.");
+
+        final List<DiscoveredService> services = new ArrayList<DiscoveredService>();
+        for (Element child : getChildren(element, "services", "service"))
+            services.add(toService(child, services.size() + 1, source));
+
+        final List<DiscoveryCanonicalId> canonicalIds = new ArrayList<DiscoveryCanonicalId>();
+        for (Element child : getChildren(element, "canonicalIds", "canonicalId"))
+            canonicalIds.add(toCanonicalId(child, canonicalIds.size() + 1, source));
+
+        return new ServiceConfiguration(canonicalIds, services);
+    }
+
+    /**
+     * Read a batch of changes.
+     * 
+     * @param in
+     *            The {@link InputStream} from which the batch is to be read.
+     * @param source
+     *            A description of where the batch was read from, used when reporting errors.
+     * @return A {@link ServiceBatch} describing the changes.
+     * @throws ConfigurationException
+     *             If the batch cannot be read or does not describe a valid set of changes.
+     * @throws IllegalArgumentException
+     *             If the given stream is {@code null}.
+     */
+    public ServiceBatch readBatch(InputStream in, String source) throws ConfigurationException {
+        if (in == null)
+            throw new IllegalArgumentException("Input stream cannot be null.");
+
+        final Document document;
+        try {
+            document = createBuilder().build(in);
+        } catch (JDOMException e) {
+            throw new ConfigurationException("Failed to parse " + source + ": " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new ConfigurationException("Failed to read " + source, e);
+        }
+
+        final Element root = document.getRootElement();
+        if (!"update".equals(root.getName()))
+            throw new ConfigurationException("Expected root element <update> but found <" + root.getName() + "> in " + source);
+
+        final Element replace = root.getChild("replace");
+        final Element add = root.getChild("add");
+        final ServiceBatch batch = new ServiceBatch(replace == null ? null : read(replace, source), add == null ? new ServiceConfiguration(
+                new ArrayList<DiscoveryCanonicalId>(), new ArrayList<DiscoveredService>()) : read(add, source));
+
+        final Element remove = root.getChild("remove");
+        if (remove != null) {
+            int position = 0;
+            for (Element child : getChildren(remove, "services", "service"))
+                batch.removeServices(getRequiredText(child, "hostRegex", "Removed service #" + ++position + " in " + source),
+                        getOptionalText(child, "uri"));
+
+            position = 0;
+            for (Element child : getChildren(remove, "canonicalIds", "canonicalId"))
+                batch.removeCanonicalIds(getRequiredText(child, "hostRegex", "Removed canonical ID #" + ++position + " in " + source),
+                        getOptionalText(child, "canonicalId"));
+        }
+
+        return batch;
+    }
+
+    /**
+     * Create a builder that refuses documents declaring a document type, so that no external entity is ever fetched and no entity is ever
+     * expanded.
+     * 
+     * @return A {@link SAXBuilder}.
+     */
+    private SAXBuilder createBuilder() {
+        final SAXBuilder builder = new SAXBuilder();
+        builder.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        builder.setFeature("http://xml.org/sax/features/external-general-entities", false);
+        builder.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+        builder.setExpandEntities(false);
+        builder.setEntityResolver(new EntityResolver() {
+            public InputSource resolveEntity(String publicId, String systemId) throws SAXException {
+                throw new SAXException("External entities are not allowed: " + systemId);
+            }
+        });
+        return builder;
+    }
+
+    /**
+     * Get the elements nested within a container element.
+     * 
+     * @param parent
+     *            The {@link Element} that may contain the container element.
+     * @param containerName
+     *            The name of the container element.
+     * @param childName
+     *            The name of the elements within the container element.
+     * @return A {@link List} of the nested {@link Element} objects; empty if there is no container element.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Element> getChildren(Element parent, String containerName, String childName) {
+        final Element container = parent.getChild(containerName);
+        return container == null ? new ArrayList<Element>() : (List<Element>) container.getChildren(childName);
+    }
+
+    /**
+     * Get the optional text of a child element.
+     * 
+     * @param element
+     *            The {@link Element} whose child is to be read.
+     * @param childName
+     *            The name of the child element.
+     * @return The trimmed text of the child element; {@code null} if the child element is missing or empty.
+     */
+    private String getOptionalText(Element element, String childName) {
+        final String text = element.getChildTextTrim(childName);
+        return text == null || text.length() == 0 ? null : text;
+    }
+
+    /**
+     * Get the required text of a child element.
+     * 
+     * @param element
+     *            The {@link Element} whose child is to be read.
+     * @param childName
+     *            The name of the child element.
+     * @param description
+     *            A description of the given element, used when reporting errors.
+     * @return The trimmed text of the child element.
+     * @throws ConfigurationException
+     *             If the child element is missing or empty.
+     */
+    private String getRequiredText(Element element, String childName, String description) throws ConfigurationException {
+        final String text = element.getChildTextTrim(childName);
+        if (text == null || text.length() == 0)
+            throw new ConfigurationException(description + " has no <" + childName + ">.");
+        return text;
+    }
+
+    /**
+     * Convert a {@code <canonicalId />} element into a canonical ID.
+     * 
+     * @param element
+     *            The {@link Element} to be converted.
+     * @param position
+     *            The one-based position of the element, used when reporting errors.
+     * @param source
+     *            A description of where the element was read from, used when reporting errors.
+     * @return A {@link DiscoveryCanonicalId}.
+     * @throws ConfigurationException
+     *             If the element does not describe a valid canonical ID.
+     */
+    private DiscoveryCanonicalId toCanonicalId(Element element, int position, String source) throws ConfigurationException {
+        final String description = "Canonical ID #" + position + " in " + source;
+        final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+        try {
+            canonicalId.setHostRegex(getRequiredText(element, "hostRegex", description));
+            canonicalId.setCanonicalId(getRequiredText(element, "canonicalId", description));
+        } catch (RuntimeException e) {
+            throw new ConfigurationException(description + " is invalid: " + e.getMessage(), e);
+        }
+        return canonicalId;
+    }
+
+    /**
+     * Convert a {@code <service />} element into a service.
+     * 
+     * @param element
+     *            The {@link Element} to be converted.
+     * @param position
+     *            The one-based position of the element, used when reporting errors.
+     * @param source
+     *            A description of where the element was read from, used when reporting errors.
+     * @return A {@link DiscoveredService}.
+     * @throws ConfigurationException
+     *             If the element does not describe a valid service.
+     */
+    private DiscoveredService toService(Element element, int position, String source) throws ConfigurationException {
+        final String description = "Service #" + position + " in " + source;
+        final List<Element> typeElements = getChildren(element, "types", "type");
+        if (typeElements.isEmpty())
+            throw new ConfigurationException(description + " has no <types>.");
+
+        final String[] types = new String[typeElements.size()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = typeElements.get(i).getTextTrim();
+
+        final DiscoveredService service = new DiscoveredService();
+        try {
+            service.setHostRegex(getRequiredText(element, "hostRegex", description));
+            service.setUri(getRequiredText(element, "uri", description));
+            service.setTypes(types);
+
+            final String priority = element.getChildTextTrim("priority");
+            if (priority != null && priority.length() > 0)
+                service.setPriority(Integer.parseInt(priority));
+
+            final String localId = element.getChildTextTrim("localId");
+            if (localId != null && localId.length() > 0)
+                service.setLocalId(localId);
+        } catch (RuntimeException e) {
+            throw new ConfigurationException(description + " is invalid: " + e.getMessage(), e);
+        }
+        return service;
+    }
+}
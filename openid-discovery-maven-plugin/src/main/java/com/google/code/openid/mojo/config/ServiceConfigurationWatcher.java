@@ -0,0 +1,158 @@
+package com.google.code.openid.mojo.config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+import org.mortbay.component.AbstractLifeCycle;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+
+/**
+ * A component that watches a service configuration file and {@link DiscoveredServiceHandler#update(List, Collection) updates} a handler whenever
+ * the file changes.
+ * <p />
+ * The file is read once, synchronously, when the watcher is started, so that an invalid file fails the startup of the server. After that, the
+ * file is polled by a background thread; each change is read and compiled on that thread and then swapped into the handler, so request threads never
+ * do any of the work of a reload. If a changed file cannot be read, or holds host regexes that the handler's
+ * {@link DiscoveredServiceHandler#setRegexPolicyEnforcer(com.google.code.openid.mojo.RegexPolicyEnforcer) regex policy} rejects, the error is logged
+ * and the previous configuration continues to be served.
+ * <p />
+ * The services and canonical IDs read from the file are served in addition to, and after, any base services and canonical IDs given to the
+ * watcher.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class ServiceConfigurationWatcher extends AbstractLifeCycle implements Runnable {
+    private final File file;
+    private final long pollInterval;
+    private final DiscoveredServiceHandler handler;
+    private final List<DiscoveryCanonicalId> baseCanonicalIds;
+    private final List<DiscoveredService> baseServices;
+    private final Log log;
+    private final ServiceConfigurationReader reader = new ServiceConfigurationReader();
+    private long loadedModified;
+    private long loadedLength;
+    private volatile Thread thread;
+
+    /**
+     * Create a watcher.
+     * 
+     * @param file
+     *            The configuration {@link File} to be watched.
+     * @param pollInterval
+     *            The time, in milliseconds, between checks of the file for changes.
+     * @param handler
+     *            The {@link DiscoveredServiceHandler} to be updated.
+     * @param baseCanonicalIds
+     *            A {@link List} of {@link DiscoveryCanonicalId} objects to be served ahead of those read from the file.
+     * @param baseServices
+     *            A {@link Collection} of {@link DiscoveredService} objects to be served ahead of those read from the file.
+     * @param log
+     *            The {@link Log} to which reloads and errors are to be reported.
+     * @throws IllegalArgumentException
+     *             If any of the given objects are {@code null} or the given poll interval is less than 1.
+     */
+    public ServiceConfigurationWatcher(File file, long pollInterval, DiscoveredServiceHandler handler, List<DiscoveryCanonicalId> baseCanonicalIds,
+            Collection<DiscoveredService> baseServices, Log log) {
+        if (file == null)
+            throw new IllegalArgumentException("File cannot be null.");
+
+        if (pollInterval < 1)
+            throw new IllegalArgumentException("Poll interval must be at least 1: " + pollInterval);
+
+        if (handler == null)
+            throw new IllegalArgumentException("Handler cannot be null.");
+
+        if (baseCanonicalIds == null)
+            throw new IllegalArgumentException("The canonical IDs cannot be null.");
+
+        if (baseServices == null)
+            throw new IllegalArgumentException("Services cannot be null.");
+
+        if (log == null)
+            throw new IllegalArgumentException("Log cannot be null.");
+
+        this.file = file;
+        this.pollInterval = pollInterval;
+        this.handler = handler;
+        this.baseCanonicalIds = new ArrayList<DiscoveryCanonicalId>(baseCanonicalIds);
+        this.baseServices = new ArrayList<DiscoveredService>(baseServices);
+        this.log = log;
+    }
+
+    /**
+     * Poll the configuration file until the watcher is stopped.
+     */
+    public void run() {
+        while (thread == Thread.currentThread()) {
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (file.lastModified() == loadedModified && file.length() == loadedLength)
+                continue;
+
+            try {
+                load();
+            } catch (ConfigurationException e) {
+                log.warn("Failed to reload discovery service configuration; continuing to serve the previous configuration.", e);
+            } catch (RuntimeException e) {
+                log.warn("Failed to reload discovery service configuration; continuing to serve the previous configuration.", e);
+            }
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        load();
+
+        final Thread poller = new Thread(this, "openid-discovery-configuration-watcher");
+        poller.setDaemon(true);
+        thread = poller;
+        poller.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        final Thread poller = thread;
+        thread = null;
+        if (poller != null) {
+            poller.interrupt();
+            poller.join();
+        }
+    }
+
+    /**
+     * Read the configuration file and update the handler with its contents.
+     * 
+     * @throws ConfigurationException
+     *             If the file cannot be read.
+     * @throws IllegalArgumentException
+     *             If the handler's regex policy rejects any of the host regexes of the file.
+     */
+    private void load() throws ConfigurationException {
+        // Note the state of the file before reading it, so that a change made during the read is picked up by the next poll, but a file that
+        // cannot be read is not retried until it changes again
+        loadedModified = file.lastModified();
+        loadedLength = file.length();
+        final ServiceConfiguration configuration = reader.read(file);
+
+        final List<DiscoveryCanonicalId> canonicalIds = new ArrayList<DiscoveryCanonicalId>(baseCanonicalIds);
+        canonicalIds.addAll(configuration.getCanonicalIds());
+        final List<DiscoveredService> services = new ArrayList<DiscoveredService>(baseServices);
+        services.addAll(configuration.getServices());
+        handler.update(canonicalIds, services);
+
+        log.info("Loaded " + configuration.getServices().size() + " service(s) and " + configuration.getCanonicalIds().size()
+                + " canonical ID(s) from " + file);
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Objects used to load the services and canonical IDs to be served from an external configuration file.
+ */
+package com.google.code.openid.mojo.config;
\ No newline at end of file
@@ -0,0 +1,251 @@
+package com.google.code.openid.mojo.jetty;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.mortbay.component.AbstractLifeCycle;
+
+import com.google.code.openid.mojo.compact.OrdinalSet;
+import com.google.code.openid.mojo.match.MatchResult;
+
+/**
+ * An access log that keeps file I/O off the request threads.
+ * <p />
+ * Request threads {@link #log(String, MatchResult, int, long, long) log} a request by claiming a slot in a fixed-size ring buffer, allocated when the
+ * log is created, and filling it in; nothing is formatted and no lock is taken. A single background thread drains the buffer, formats the entries
+ * and writes them to the file in batches. If the buffer is full, the entry is dropped and {@link #getDroppedCount() counted} rather than making the
+ * request wait for the disk.
+ * <p />
+ * Each line records the time, the request target, the response status, the number of body bytes sent, the time taken to handle the request in
+ * microseconds, and the URIs of the matched services:
+ * 
+ * <pre>
+ * [18/Oct/2026:10:15:02 +0000] "/users/me" 200 1024 153us http://localhost:8080/openid
+ * </pre>
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class AccessLog extends AbstractLifeCycle implements Runnable {
+    /**
+     * The longest time, in nanoseconds, that the drain thread sleeps while the buffer is empty.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final File file;
+    private final Entry[] entries;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long head;
+    private Writer writer;
+    private volatile Thread thread;
+
+    /**
+     * Create an access log.
+     * 
+     * @param file
+     *            The {@link File} to which the log is to be appended.
+     * @param bufferSize
+     *            The number of entries that can be waiting to be written; rounded up to the next power of two, and to no fewer than two.
+     * @throws IllegalArgumentException
+     *             If the given file is {@code null} or the given buffer size is less than 1.
+     */
+    public AccessLog(File file, int bufferSize) {
+        if (file == null)
+            throw new IllegalArgumentException("File cannot be null.");
+
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("Buffer size must be at least 1: " + bufferSize);
+
+        // A ring of a single slot cannot tell a published entry from a free slot, and would let a request overwrite an entry being drained
+        final int capacity = Math.max(2, bufferSize == 1 ? 1 : Integer.highestOneBit(bufferSize - 1) << 1);
+        this.file = file;
+        this.entries = new Entry[capacity];
+        for (int i = 0; i < capacity; i++)
+            entries[i] = new Entry(i);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Get the number of entries dropped because the buffer was full.
+     * 
+     * @return The number of dropped entries.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Log a request. This never blocks; if the buffer is full, the entry is dropped.
+     * 
+     * @param target
+     *            The request target.
+     * @param result
+     *            The {@link MatchResult} of the request.
+     * @param status
+     *            The status of the response.
+     * @param bytes
+     *            The number of body bytes sent.
+     * @param nanos
+     *            The time taken to handle the request, in nanoseconds.
+     * @return {@code true} if the entry was logged; {@code false} if it was dropped.
+     */
+    public boolean log(String target, MatchResult result, int status, long bytes, long nanos) {
+        while (true) {
+            final long position = tail.get();
+            final Entry entry = entries[(int) position & mask];
+            final long available = entry.sequence - position;
+            if (available < 0) {
+                // The slot has not yet been drained since the buffer last wrapped around
+                dropped.incrementAndGet();
+                return false;
+            }
+
+            if (available == 0 && tail.compareAndSet(position, position + 1)) {
+                entry.time = System.currentTimeMillis();
+                entry.target = target;
+                // The result may be reused by the request thread, so the slot keeps a copy of its own
+                entry.result.copyFrom(result);
+                entry.status = status;
+                entry.bytes = bytes;
+                entry.nanos = nanos;
+                // Publish the entry to the drain thread
+                entry.sequence = position + 1;
+                return true;
+            }
+            // Another thread claimed the slot first; try the next one
+        }
+    }
+
+    /**
+     * Drain the buffer to the file until the log is stopped.
+     */
+    public void run() {
+        final SimpleDateFormat format = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+        final Date date = new Date();
+        final StringBuilder line = new StringBuilder(256);
+        while (thread == Thread.currentThread()) {
+            if (!drain(format, date, line))
+                LockSupport.parkNanos(IDLE_NANOS);
+        }
+        // Write out anything logged before the log was stopped
+        drain(format, date, line);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Failed to create directory for access log: " + parent);
+
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        final Thread drainer = new Thread(this, "openid-discovery-access-log");
+        drainer.setDaemon(true);
+        thread = drainer;
+        drainer.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        final Thread drainer = thread;
+        thread = null;
+        if (drainer != null) {
+            LockSupport.unpark(drainer);
+            drainer.join();
+        }
+        writer.close();
+    }
+
+    /**
+     * Write every entry waiting in the buffer to the file.
+     * 
+     * @param format
+     *            The {@link SimpleDateFormat} used to format the time of each entry.
+     * @param date
+     *            A {@link Date} to be reused while formatting.
+     * @param line
+     *            A {@link StringBuilder} to be reused while formatting.
+     * @return {@code true} if any entries were written; {@code false} if the buffer was empty.
+     */
+    private boolean drain(SimpleDateFormat format, Date date, StringBuilder line) {
+        int drained = 0;
+        while (true) {
+            final Entry entry = entries[(int) head & mask];
+            if (entry.sequence != head + 1)
+                break;
+
+            line.setLength(0);
+            date.setTime(entry.time);
+            line.append('[').append(format.format(date)).append("] \"").append(entry.target).append("\" ").append(entry.status).append(' ')
+                    .append(entry.bytes).append(' ').append(entry.nanos / 1000).append("us");
+            final OrdinalSet ordinals = entry.result.getServiceOrdinals();
+            for (int i = ordinals.next(0); i >= 0; i = ordinals.next(i + 1))
+                line.append(' ').append(entry.result.getService(i).getUri());
+            line.append('\n');
+
+            // Release the references, then the slot, before writing so that request threads can reuse the slot as soon as possible
+            entry.target = null;
+            entry.result.clear();
+            entry.sequence = head + entries.length;
+            head++;
+            drained++;
+
+            try {
+                writer.write(line.toString());
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        if (drained > 0) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                // The lost entries cannot be told apart from those already written, so they go uncounted; draining continues regardless
+            }
+        }
+        return drained > 0;
+    }
+
+    /**
+     * A slot of the ring buffer.
+     * 
+     * @author jrh3k5
+     * 
+     */
+    private static class Entry {
+        /**
+         * The position at which the slot can next be claimed, or one past the position of the entry that it holds once that entry has been
+         * published.
+         */
+        volatile long sequence;
+        long time;
+        String target;
+        final MatchResult result = new MatchResult();
+        int status;
+        long bytes;
+        long nanos;
+
+        /**
+         * Create a slot.
+         * 
+         * @param sequence
+         *            The position at which the slot can first be claimed.
+         */
+        Entry(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
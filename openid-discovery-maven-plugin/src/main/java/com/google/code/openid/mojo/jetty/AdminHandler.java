@@ -0,0 +1,217 @@
+package com.google.code.openid.mojo.jetty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+import com.google.code.openid.mojo.DiscoveryServerConfiguration;
+import com.google.code.openid.mojo.config.ConfigurationException;
+import com.google.code.openid.mojo.config.ServiceConfigurationReader;
+
+/**
+ * An {@link AbstractHandler} that lets the services and canonical IDs served by a {@link DiscoveredServiceHandler} be changed while the server
+ * runs.
+ * <p />
+ * Only requests for the admin path are handled, and only if they carry an {@code Authorization: Bearer} header with the configured token. A
+ * {@code GET} reports how many services and canonical IDs are being served; a {@code POST} applies a
+ * {@link ServiceConfigurationReader#readBatch(java.io.InputStream, String) batch} of replacements, removals and additions as a single
+ * {@link DiscoveredServiceHandler#update(ServiceUpdate) update}, so discovery requests either see all of a batch or none of it, and never wait on
+ * it. A batch larger than the maximum batch size is rejected before any of it is parsed.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class AdminHandler extends AbstractHandler implements EndpointHandler {
+    private final String path;
+    private final byte[] token;
+    private final int maxBatchSize;
+    private final DiscoveredServiceHandler handler;
+    private final ServiceConfigurationReader reader = new ServiceConfigurationReader();
+
+    /**
+     * Create a handler accepting batches of up to {@link DiscoveryServerConfiguration#DEFAULT_ADMIN_MAX_BATCH_SIZE} bytes.
+     * 
+     * @param path
+     *            The request path at which the admin endpoint is served.
+     * @param token
+     *            The bearer token that requests must present.
+     * @param handler
+     *            The {@link DiscoveredServiceHandler} whose services are to be administered.
+     * @throws IllegalArgumentException
+     *             If any of the given objects are {@code null}, or the given token is empty.
+     */
+    public AdminHandler(String path, String token, DiscoveredServiceHandler handler) {
+        this(path, token, DiscoveryServerConfiguration.DEFAULT_ADMIN_MAX_BATCH_SIZE, handler);
+    }
+
+    /**
+     * Create a handler.
+     * 
+     * @param path
+     *            The request path at which the admin endpoint is served.
+     * @param token
+     *            The bearer token that requests must present.
+     * @param maxBatchSize
+     *            The size, in bytes, of the largest batch to be accepted.
+     * @param handler
+     *            The {@link DiscoveredServiceHandler} whose services are to be administered.
+     * @throws IllegalArgumentException
+     *             If any of the given objects are {@code null}, the given token is empty or the given size is less than 1.
+     */
+    public AdminHandler(String path, String token, int maxBatchSize, DiscoveredServiceHandler handler) {
+        if (path == null)
+            throw new IllegalArgumentException("Path cannot be null.");
+
+        if (token == null || token.length() == 0)
+            throw new IllegalArgumentException("Token cannot be null or empty.");
+
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("Max batch size must be at least 1: " + maxBatchSize);
+
+        if (handler == null)
+            throw new IllegalArgumentException("Handler cannot be null.");
+
+        this.path = path;
+        this.token = toBytes(token);
+        this.maxBatchSize = maxBatchSize;
+        this.handler = handler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch) throws IOException, ServletException {
+        if (!path.equals(target))
+            return;
+
+        ((Request) request).setHandled(true);
+
+        if (!isAuthorized(request.getHeader("Authorization"))) {
+            response.setHeader("WWW-Authenticate", "Bearer realm=\"openid-discovery\"");
+            send(response, HttpServletResponse.SC_UNAUTHORIZED, "Unauthorized.");
+            return;
+        }
+
+        if ("POST".equals(request.getMethod())) {
+            final byte[] batch = request.getContentLength() > maxBatchSize ? null : readBody(request.getInputStream());
+            if (batch == null) {
+                send(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Batch exceeds " + maxBatchSize + " bytes.");
+                return;
+            }
+
+            try {
+                handler.update(reader.readBatch(new ByteArrayInputStream(batch), "admin request"));
+            } catch (ConfigurationException e) {
+                send(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                return;
+            } catch (IllegalArgumentException e) {
+                send(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                return;
+            }
+            send(response, HttpServletResponse.SC_OK, describe());
+        } else if ("GET".equals(request.getMethod())) {
+            send(response, HttpServletResponse.SC_OK, describe());
+        } else {
+            response.setHeader("Allow", "GET, POST");
+            send(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Method not allowed: " + request.getMethod());
+        }
+    }
+
+    /**
+     * Describe what is currently being served.
+     * 
+     * @return A description of the number of services and canonical IDs being served.
+     */
+    private String describe() {
+        return "services=" + handler.getServices().size() + "\ncanonicalIds=" + handler.getCanonicalIds().size();
+    }
+
+    /**
+     * Determine whether a request is authorized.
+     * 
+     * @param authorization
+     *            The value of the request's {@code Authorization} header; may be {@code null}.
+     * @return {@code true} if the header carries the configured bearer token; {@code false} if not.
+     */
+    private boolean isAuthorized(String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, "Bearer ", 0, 7))
+            return false;
+
+        // Compare in time independent of where the tokens differ, so that the token cannot be guessed one character at a time
+        return MessageDigest.isEqual(token, toBytes(authorization.substring(7).trim()));
+    }
+
+    /**
+     * Read the body of a request, giving up as soon as it exceeds the maximum batch size.
+     * 
+     * @param in
+     *            The {@link InputStream} of the request body.
+     * @return The body; {@code null} if it exceeds the maximum batch size.
+     * @throws IOException
+     *             If any errors occur while reading the body.
+     */
+    private byte[] readBody(InputStream in) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            if (body.size() + read > maxBatchSize)
+                return null;
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Send a plain-text response.
+     * 
+     * @param response
+     *            The {@link HttpServletResponse} to be sent.
+     * @param status
+     *            The status code of the response.
+     * @param message
+     *            The body of the response.
+     * @throws IOException
+     *             If any errors occur while writing out the response.
+     */
+    private void send(HttpServletResponse response, int status, String message) throws IOException {
+        final byte[] body = toBytes(message + "\n");
+        response.setStatus(status);
+        response.setHeader("content-type", "text/plain; charset=UTF-8");
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * Encode a string as UTF-8.
+     * 
+     * @param text
+     *            The string to be encoded.
+     * @return The UTF-8 bytes of the string.
+     */
+    private static byte[] toBytes(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported.", e);
+        }
+    }
+}
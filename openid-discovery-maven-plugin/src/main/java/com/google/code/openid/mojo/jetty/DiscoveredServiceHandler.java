@@ -1,9 +1,14 @@
 package com.google.code.openid.mojo.jetty;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -14,22 +19,87 @@ import org.mortbay.jetty.handler.AbstractHandler;
 
 import com.google.code.openid.mojo.DiscoveredService;
 import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.DiscoveryServerConfiguration;
+import com.google.code.openid.mojo.RegexPolicyEnforcer;
+import com.google.code.openid.mojo.YadisMode;
+import com.google.code.openid.mojo.match.MatchCache;
+import com.google.code.openid.mojo.match.MatchResult;
+import com.google.code.openid.mojo.match.RegexTimeoutException;
+import com.google.code.openid.mojo.metrics.DiscoveryMetrics;
+import com.google.code.openid.mojo.openid.CompiledService;
 import com.google.code.openid.mojo.openid.DiscoveredServiceWriter;
+import com.google.code.openid.mojo.openid.StreamingDiscoveredServiceWriter;
 
 /**
  * An {@link AbstractHandler} used to serve out information about a requested service.
+ * <p />
+ * The services and canonical IDs are {@link CompiledService compiled} into an immutable snapshot, and because a snapshot never changes, the
+ * written-out document for each distinct combination of matched canonical ID and matched services is serialized only once and then served out of
+ * memory. {@link #update(List, Collection) Updating} the services swaps in a new snapshot without blocking requests; updates are serialized
+ * with one another, so that a {@link #update(ServiceUpdate) change} applied to the current services is never lost to a concurrent update. The results of matching recently-requested targets are also {@link MatchCache cached}, unless disabled by the
+ * {@link DiscoveryServerConfiguration#setMatchCacheSize(int) configuration}.
+ * <p />
+ * Each written-out document is served with a strong {@code ETag} and a {@code Last-Modified} of the time at which its snapshot was created, so
+ * clients that revalidate with {@code If-None-Match} or {@code If-Modified-Since} are answered with a bodiless {@code 304 Not Modified}. Documents
+ * large enough to be worth compressing are compressed once, when first written, and the compressed variants are served to clients that accept them.
+ * <p />
+ * Unless disabled by the {@link DiscoveryServerConfiguration#setMetricsPath(String) configuration}, each request is counted and timed in the
+ * handler's {@link #getMetrics() metrics}. If the configuration names an {@link DiscoveryServerConfiguration#setAccessLogFile(java.io.File) access
+ * log file}, each request is also handed to an {@link AccessLog}, which is started and stopped along with the handler; requests that match nothing
+ * are logged with the {@code 404} status with which the server answers them.
+ * <p />
+ * Matching a request is abandoned if evaluating the host regexes takes longer than the
+ * {@link DiscoveryServerConfiguration#setMatchTimeout(long) match timeout}; the request is then answered, without a body, with the
+ * {@link DiscoveryServerConfiguration#setMatchTimeoutStatus(int) match timeout status}, and the timeout is counted in the metrics against the
+ * host regex being evaluated. Nothing is cached for such a target, so each request for it is abandoned in turn.
+ * <p />
+ * Identifiers are answered according to the configured {@link YadisMode}: with the XRDS document itself, with an {@code X-XRDS-Location} header
+ * directing the client to the document beneath the {@link DiscoveryServerConfiguration#setXrdsPath(String) XRDS path}, or with whichever of the
+ * two the client's {@code Accept} header asks for. {@code HEAD} requests are answered with the headers alone, without the body being copied out.
  * 
  * @author jrh3k5
  * 
  */
 
 public class DiscoveredServiceHandler extends AbstractHandler {
-    private final Collection<DiscoveredService> services;
-    private final List<DiscoveryCanonicalId> canonicalIds;
+    /**
+     * The content type of XRDS documents, which Yadis clients include in their {@code Accept} header.
+     */
+    private static final String XRDS_CONTENT_TYPE = "application/xrds+xml";
+
+    /**
+     * The body of every answer that directs a client elsewhere with an {@code X-XRDS-Location} header.
+     */
+    private static final byte[] INDIRECTION_BODY = toBytes("<html><head><title>OpenID discovery</title></head><body></body></html>");
+
     private final DiscoveredServiceWriter writer;
+    private final int matchCacheSize;
+    private final String cacheControl;
+    private final int compressionThreshold;
+    private final long matchTimeout;
+    private final int matchTimeoutStatus;
+    private final DiscoveryMetrics metrics;
+    private final AccessLog accessLog;
+    private final YadisMode yadisMode;
+    private final String xrdsPath;
+    private final Object updateLock = new Object();
+    private volatile DiscoverySnapshot snapshot;
+    private RegexPolicyEnforcer regexPolicyEnforcer;
 
     /**
-     * Create a handler.
+     * The result that each thread fills in with the matches of the requests it handles, so that handling a request allocates nothing to hold its
+     * matches. A thread that handles a single request, such as a virtual thread, gains nothing from it but loses nothing either. The result is
+     * emptied once each request has been handled.
+     */
+    private final ThreadLocal<MatchResult> matchResults = new ThreadLocal<MatchResult>() {
+        @Override
+        protected MatchResult initialValue() {
+            return new MatchResult();
+        }
+    };
+
+    /**
+     * Create a handler that writes out documents using a {@link StreamingDiscoveredServiceWriter}.
      * 
      * @param canonicalIds
      *            A {@link List} of {@link DiscoveryCanonicalId} objects representing the canonical IDs that could be written out.
@@ -37,11 +107,26 @@ public class DiscoveredServiceHandler extends AbstractHandler {
      *            A {@link Collection} of {@link DiscoveredService} objects that represent the services to be handled by this handler.
      */
     public DiscoveredServiceHandler(List<DiscoveryCanonicalId> canonicalIds, Collection<DiscoveredService> services) {
-        this(canonicalIds, services, new DiscoveredServiceWriter());
+        this(canonicalIds, services, new DiscoveryServerConfiguration());
     }
 
     /**
-     * Create a handler.
+     * Create a handler that writes out documents using a {@link StreamingDiscoveredServiceWriter}.
+     * 
+     * @param canonicalIds
+     *            A {@link List} of {@link DiscoveryCanonicalId} objects representing the canonical IDs that could be written out.
+     * @param services
+     *            A {@link Collection} of {@link DiscoveredService} objects that represent the services to be handled by this handler.
+     * @param configuration
+     *            The {@link DiscoveryServerConfiguration} describing how requests are to be handled.
+     */
+    public DiscoveredServiceHandler(List<DiscoveryCanonicalId> canonicalIds, Collection<DiscoveredService> services,
+            DiscoveryServerConfiguration configuration) {
+        this(canonicalIds, services, new StreamingDiscoveredServiceWriter(), configuration);
+    }
+
+    /**
+     * Create a handler with a default configuration.
      * 
      * @param canonicalIds
      *            A {@link List} of {@link DiscoveryCanonicalId} objects representing the canonical IDs that could be written out.
@@ -51,6 +136,23 @@ public class DiscoveredServiceHandler extends AbstractHandler {
      *            A {@link DiscoveredServiceWriter} used to write out information about the services matching the request.
      */
     public DiscoveredServiceHandler(List<DiscoveryCanonicalId> canonicalIds, Collection<DiscoveredService> services, DiscoveredServiceWriter writer) {
+        this(canonicalIds, services, writer, new DiscoveryServerConfiguration());
+    }
+
+    /**
+     * Create a handler.
+     * 
+     * @param canonicalIds
+     *            A {@link List} of {@link DiscoveryCanonicalId} objects representing the canonical IDs that could be written out.
+     * @param services
+     *            A {@link Collection} of {@link DiscoveredService} objects that represent the services to be handled by this handler.
+     * @param writer
+     *            A {@link DiscoveredServiceWriter} used to write out information about the services matching the request.
+     * @param configuration
+     *            The {@link DiscoveryServerConfiguration} describing how requests are to be handled.
+     */
+    public DiscoveredServiceHandler(List<DiscoveryCanonicalId> canonicalIds, Collection<DiscoveredService> services, DiscoveredServiceWriter writer,
+            DiscoveryServerConfiguration configuration) {
         if (services == null)
             throw new IllegalArgumentException("Services cannot be null.");
 
@@ -60,32 +162,406 @@ public class DiscoveredServiceHandler extends AbstractHandler {
         if(canonicalIds == null)
             throw new IllegalArgumentException("The canonical IDs cannot be null.");
 
-        this.services = services;
+        if (configuration == null)
+            throw new IllegalArgumentException("Configuration cannot be null.");
+
         this.writer = writer;
-        this.canonicalIds = canonicalIds;
+        this.matchCacheSize = configuration.getMatchCacheSize();
+        this.cacheControl = configuration.getCacheControl();
+        this.compressionThreshold = configuration.getCompressionThreshold();
+        this.matchTimeout = TimeUnit.MILLISECONDS.toNanos(configuration.getMatchTimeout());
+        this.matchTimeoutStatus = configuration.getMatchTimeoutStatus();
+        this.metrics = configuration.getMetricsPath() == null ? null : new DiscoveryMetrics();
+        this.accessLog = configuration.getAccessLogFile() == null ? null : new AccessLog(configuration.getAccessLogFile(),
+                configuration.getAccessLogBufferSize());
+        this.yadisMode = configuration.getYadisMode();
+        this.xrdsPath = yadisMode == YadisMode.DIRECT ? null : configuration.getXrdsPath();
+        this.snapshot = new DiscoverySnapshot(canonicalIds, services, matchCacheSize, metrics);
+    }
+
+    /**
+     * Get the access log.
+     * 
+     * @return The {@link AccessLog} to which requests are logged; {@code null} if requests are not logged.
+     */
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Get the canonical IDs currently being served.
+     * 
+     * @return An unmodifiable {@link List} of {@link DiscoveryCanonicalId} objects.
+     */
+    public List<DiscoveryCanonicalId> getCanonicalIds() {
+        return snapshot.getCanonicalIds();
+    }
+
+    /**
+     * Get the cache of match results.
+     * 
+     * @return The {@link MatchCache} used for the services currently being served; {@code null} if match results are not cached. A new cache is
+     *         started whenever the services are {@link #update(List, Collection) updated}.
+     */
+    public MatchCache getMatchCache() {
+        return snapshot.getMatchCache();
+    }
+
+    /**
+     * Get the metrics of the requests handled.
+     * 
+     * @return The {@link DiscoveryMetrics} of this handler; {@code null} if metrics are not recorded.
+     */
+    public DiscoveryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the services currently being served.
+     * 
+     * @return An unmodifiable {@link List} of {@link DiscoveredService} objects.
+     */
+    public List<DiscoveredService> getServices() {
+        return snapshot.getServices();
+    }
+
+    /**
+     * Set the object that applies the regex policy to the host regexes that each later update would newly serve. Those already being served are
+     * not analyzed again.
+     * 
+     * @param regexPolicyEnforcer
+     *            The {@link RegexPolicyEnforcer} to be applied; {@code null} to serve any host regex.
+     */
+    public void setRegexPolicyEnforcer(RegexPolicyEnforcer regexPolicyEnforcer) {
+        synchronized (updateLock) {
+            this.regexPolicyEnforcer = regexPolicyEnforcer;
+        }
+    }
+
+    /**
+     * Replace the services and canonical IDs served by this handler.
+     * <p />
+     * The new services are compiled on the calling thread and then swapped in at once; requests never wait on an update, and a request that is
+     * already being handled completes against the services that were in place when it started. If a {@link #setRegexPolicyEnforcer(RegexPolicyEnforcer)
+     * regex policy} is set, the host regexes not already being served are analyzed first, and if the policy rejects any, nothing is swapped in.
+     * 
+     * @param canonicalIds
+     *            A {@link List} of {@link DiscoveryCanonicalId} objects representing the canonical IDs that could be written out.
+     * @param services
+     *            A {@link Collection} of {@link DiscoveredService} objects that represent the services to be handled by this handler.
+     * @throws IllegalArgumentException
+     *             If either of the given collections is {@code null}, or the regex policy rejects any of their host regexes.
+     */
+    public void update(List<DiscoveryCanonicalId> canonicalIds, Collection<DiscoveredService> services) {
+        synchronized (updateLock) {
+            enforceRegexPolicy(canonicalIds, services);
+            swap(new DiscoverySnapshot(canonicalIds, services, matchCacheSize, metrics));
+        }
+    }
+
+    /**
+     * Apply a change to the services and canonical IDs served by this handler.
+     * <p />
+     * The change is applied to copies of the services and canonical IDs currently being served, and the result is compiled and swapped in at once,
+     * exactly as for {@link #update(List, Collection)}; requests never observe a partially-applied change. If the change fails, or the regex policy
+     * rejects any of the host regexes it adds, nothing is swapped in.
+     * 
+     * @param update
+     *            The {@link ServiceUpdate} to be applied.
+     * @throws IllegalArgumentException
+     *             If the given update is {@code null}, or the regex policy rejects any of the host regexes it adds.
+     */
+    public void update(ServiceUpdate update) {
+        if (update == null)
+            throw new IllegalArgumentException("Update cannot be null.");
+
+        synchronized (updateLock) {
+            final DiscoverySnapshot current = snapshot;
+            final List<DiscoveryCanonicalId> canonicalIds = new ArrayList<DiscoveryCanonicalId>(current.getCanonicalIds());
+            final List<DiscoveredService> services = new ArrayList<DiscoveredService>(current.getServices());
+            update.apply(canonicalIds, services);
+            enforceRegexPolicy(canonicalIds, services);
+            swap(new DiscoverySnapshot(canonicalIds, services, matchCacheSize, metrics));
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch) throws IOException, ServletException {
-        final List<DiscoveredService> matches = new LinkedList<DiscoveredService>();
-        for (DiscoveredService service : services)
-            if (service.matchesHostRegex(target))
-                matches.add(service);
-
-        DiscoveryCanonicalId matchId = null;
-        for(DiscoveryCanonicalId canonicalId : canonicalIds)
-            if(canonicalId.matchesHostRegex(target)) {
-                matchId = canonicalId;
-                break;
+        final long start = metrics == null && accessLog == null ? 0 : System.nanoTime();
+        // Requests under the XRDS path are for the document of the identifier beneath it, to which they were directed by an X-XRDS-Location header
+        final boolean xrdsRequest = isXrdsRequest(target);
+        final String identifier = xrdsRequest ? (target.length() == xrdsPath.length() ? "/" : target.substring(xrdsPath.length())) : target;
+        // Read the snapshot once, so that the whole request is handled against the same services
+        final DiscoverySnapshot current = snapshot;
+        final MatchResult scratch = matchResults.get();
+        try {
+            MatchResult result;
+            String timedOut = null;
+            try {
+                result = current.match(identifier, scratch, matchTimeout);
+            } catch (RegexTimeoutException e) {
+                scratch.clear();
+                result = scratch;
+                timedOut = e.getHostRegex();
             }
-        
-        if (!matches.isEmpty() || matchId != null) {            
-            response.setHeader("content-type", "application/xrds+xml");
-            response.setStatus(HttpServletResponse.SC_OK);
-            writer.write(matchId, matches, response.getOutputStream());
-            ((Request) request).setHandled(true);
+            if (metrics != null)
+                recordMatch(current, result, timedOut, start);
+
+            int status = HttpServletResponse.SC_NOT_FOUND;
+            int bytes = 0;
+            if (timedOut != null) {
+                // Answer at once, without a body, so that the request costs no more than the time already spent matching it
+                status = matchTimeoutStatus;
+                response.setStatus(status);
+                response.setContentLength(0);
+                ((Request) request).setHandled(true);
+            } else if (!result.isEmpty()) {
+                final boolean head = "HEAD".equals(request.getMethod());
+                if (!xrdsRequest && (yadisMode == YadisMode.HEADER || yadisMode == YadisMode.NEGOTIATE && !acceptsXrds(request))) {
+                    status = HttpServletResponse.SC_OK;
+                    bytes = sendIndirection(identifier, request, response, head);
+                } else {
+                    final DiscoveryResponse document = current.getDocument(result, writer, compressionThreshold);
+                    final String contentEncoding = document.selectEncoding(request.getHeader("Accept-Encoding"));
+                    response.setHeader("ETag", document.getEntityTag(contentEncoding));
+                    response.setDateHeader("Last-Modified", document.getLastModified());
+                    if (cacheControl != null)
+                        response.setHeader("Cache-Control", cacheControl);
+                    if (yadisMode == YadisMode.NEGOTIATE && !xrdsRequest)
+                        response.setHeader("Vary", document.isCompressed() ? "Accept, Accept-Encoding" : "Accept");
+                    else if (document.isCompressed())
+                        response.setHeader("Vary", "Accept-Encoding");
+
+                    if (isNotModified(request, document, contentEncoding)) {
+                        status = HttpServletResponse.SC_NOT_MODIFIED;
+                        response.setStatus(status);
+                    } else {
+                        response.setHeader("content-type", "application/xrds+xml");
+                        if (contentEncoding != null)
+                            response.setHeader("Content-Encoding", contentEncoding);
+                        status = HttpServletResponse.SC_OK;
+                        response.setStatus(status);
+
+                        // The body is fully materialized, so send it with an exact length in a single write rather than chunked
+                        final byte[] body = document.getBody(contentEncoding);
+                        response.setContentLength(body.length);
+                        if (!head) {
+                            response.getOutputStream().write(body);
+                            bytes = body.length;
+                        }
+                    }
+                }
+                ((Request) request).setHandled(true);
+            }
+
+            if (metrics != null || accessLog != null) {
+                final long elapsed = System.nanoTime() - start;
+                if (metrics != null)
+                    metrics.getRequestLatency().record(elapsed);
+                if (accessLog != null)
+                    accessLog.log(target, result, status, bytes, elapsed);
+            }
+        } finally {
+            // Release the matched services, so that a thread left idle does not keep a replaced snapshot from being collected
+            scratch.clear();
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (accessLog != null)
+            accessLog.start();
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        if (accessLog != null)
+            accessLog.stop();
+    }
+
+    /**
+     * Apply the regex policy, if any, to the distinct host regexes of an update that are not already being served. This must only be called while
+     * holding the update lock.
+     * 
+     * @param canonicalIds
+     *            A {@link List} of the {@link DiscoveryCanonicalId} objects to be served.
+     * @param services
+     *            A {@link Collection} of the {@link DiscoveredService} objects to be served.
+     * @throws IllegalArgumentException
+     *             If the regex policy rejects any of the new host regexes.
+     */
+    private void enforceRegexPolicy(List<DiscoveryCanonicalId> canonicalIds, Collection<DiscoveredService> services) {
+        // Collections that are null, or hold nulls, are left for the snapshot to reject
+        if (regexPolicyEnforcer == null || canonicalIds == null || services == null)
+            return;
+
+        final DiscoverySnapshot current = snapshot;
+        final Set<String> served = new HashSet<String>();
+        for (DiscoveryCanonicalId canonicalId : current.getCanonicalIds())
+            served.add(canonicalId.getHostRegex());
+        for (DiscoveredService service : current.getServices())
+            served.add(service.getHostRegex());
+
+        final Set<String> added = new LinkedHashSet<String>();
+        for (DiscoveryCanonicalId canonicalId : canonicalIds)
+            if (canonicalId != null && canonicalId.getHostRegex() != null && !served.contains(canonicalId.getHostRegex()))
+                added.add(canonicalId.getHostRegex());
+        for (DiscoveredService service : services)
+            if (service != null && service.getHostRegex() != null && !served.contains(service.getHostRegex()))
+                added.add(service.getHostRegex());
+
+        if (!added.isEmpty())
+            regexPolicyEnforcer.enforce(added);
+    }
+
+    /**
+     * Swap in a new snapshot, discarding the hit counters of the services and canonical IDs it no longer serves. This must only be called while
+     * holding the update lock.
+     * 
+     * @param next
+     *            The {@link DiscoverySnapshot} to be served.
+     */
+    private void swap(DiscoverySnapshot next) {
+        snapshot = next;
+        next.discardStaleHits();
+    }
+
+    /**
+     * Record the matching of a request in the metrics.
+     * 
+     * @param current
+     *            The {@link DiscoverySnapshot} against which the request was matched.
+     * @param result
+     *            The {@link MatchResult} of the request.
+     * @param timedOut
+     *            The host regex whose evaluation exceeded the match timeout; {@code null} if matching completed.
+     * @param start
+     *            The {@link System#nanoTime() time} at which the request started to be handled.
+     */
+    private void recordMatch(DiscoverySnapshot current, MatchResult result, String timedOut, long start) {
+        metrics.getMatchLatency().record(System.nanoTime() - start);
+        metrics.getRequests().increment();
+        if (timedOut != null)
+            metrics.getMatchTimeouts(timedOut).increment();
+        else if (result.isEmpty())
+            metrics.getMisses().increment();
+        else
+            current.recordHits(result);
+    }
+
+    /**
+     * Determine whether a client has asked for an XRDS document.
+     * 
+     * @param request
+     *            The {@link HttpServletRequest} being handled.
+     * @return {@code true} if the request's {@code Accept} header includes {@code application/xrds+xml}; {@code false} if not.
+     */
+    private boolean acceptsXrds(HttpServletRequest request) {
+        final String accept = request.getHeader("Accept");
+        if (accept == null)
+            return false;
+
+        for (int i = 0; i <= accept.length() - XRDS_CONTENT_TYPE.length(); i++)
+            if (accept.regionMatches(true, i, XRDS_CONTENT_TYPE, 0, XRDS_CONTENT_TYPE.length()))
+                return true;
+        return false;
+    }
+
+    /**
+     * Determine whether a request is for a document under the {@link DiscoveryServerConfiguration#getXrdsPath() XRDS path}.
+     * 
+     * @param target
+     *            The target of the request.
+     * @return {@code true} if the XRDS path is served and the target is beneath it; {@code false} if not.
+     */
+    private boolean isXrdsRequest(String target) {
+        return xrdsPath != null && target.startsWith(xrdsPath) && (target.length() == xrdsPath.length() || target.charAt(xrdsPath.length()) == '/');
+    }
+
+    /**
+     * Determine whether the client already has an up-to-date copy of a document.
+     * <p />
+     * As required by RFC 7232, {@code If-Modified-Since} is only consulted when no {@code If-None-Match} header was sent.
+     * 
+     * @param request
+     *            The {@link HttpServletRequest} being handled.
+     * @param document
+     *            The {@link DiscoveryResponse} that would be sent.
+     * @param contentEncoding
+     *            The content coding of the variant that would be sent; {@code null} for the uncompressed document.
+     * @return {@code true} if the client's copy is current and the body can be omitted; {@code false} if not.
+     */
+    private boolean isNotModified(HttpServletRequest request, DiscoveryResponse document, String contentEncoding) {
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+            return document.matchesEntityTag(ifNoneMatch, contentEncoding);
+
+        if (request.getHeader("If-Modified-Since") == null)
+            return false;
+
+        try {
+            return document.isNotModifiedSince(request.getDateHeader("If-Modified-Since"));
+        } catch (IllegalArgumentException e) {
+            // An unparseable date is to be ignored
+            return false;
+        }
+    }
+
+    /**
+     * Direct a client to the XRDS document of an identifier with an {@code X-XRDS-Location} header. The header is the whole of the answer, so the
+     * accompanying HTML page is the same for every identifier and is rendered only once.
+     * 
+     * @param identifier
+     *            The target of the request, whose document is to be fetched from beneath the {@link DiscoveryServerConfiguration#getXrdsPath() XRDS
+     *            path}.
+     * @param request
+     *            The {@link HttpServletRequest} being handled.
+     * @param response
+     *            The {@link HttpServletResponse} to which the answer is to be written.
+     * @param head
+     *            {@code true} if the request is a {@code HEAD} request, whose answer has no body.
+     * @return The number of bytes of the body sent.
+     * @throws IOException
+     *             If the answer cannot be written.
+     */
+    private int sendIndirection(String identifier, HttpServletRequest request, HttpServletResponse response, boolean head) throws IOException {
+        if (metrics != null)
+            metrics.getIndirections().increment();
+
+        final String host = request.getHeader("Host");
+        final String authority = host != null ? host : request.getServerName() + ":" + request.getServerPort();
+        response.setHeader("X-XRDS-Location", request.getScheme() + "://" + authority + xrdsPath + (identifier.startsWith("/") ? "" : "/")
+                + identifier);
+        if (cacheControl != null)
+            response.setHeader("Cache-Control", cacheControl);
+        if (yadisMode == YadisMode.NEGOTIATE)
+            response.setHeader("Vary", "Accept");
+        response.setHeader("content-type", "text/html; charset=UTF-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentLength(INDIRECTION_BODY.length);
+        if (head)
+            return 0;
+
+        response.getOutputStream().write(INDIRECTION_BODY);
+        return INDIRECTION_BODY.length;
+    }
+
+    /**
+     * Encode a string as UTF-8.
+     * 
+     * @param text
+     *            The string to be encoded.
+     * @return The UTF-8 bytes of the string.
+     */
+    private static byte[] toBytes(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported.", e);
         }
     }
 }
@@ -0,0 +1,376 @@
+package com.google.code.openid.mojo.jetty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A fully-built response to a discovery request, along with the validators used to answer conditional requests for it.
+ * <p />
+ * The entity tag is a strong validator derived from the content of the document, so it is computed only once, when the response is built. Documents
+ * at least as large as the compression threshold are also compressed with {@link #GZIP gzip} and {@link #DEFLATE deflate} when the response is
+ * built, so that no request ever pays for compression; each compressed variant has its own entity tag, as it is a different representation, which
+ * is likewise built once along with the variant.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public final class DiscoveryResponse {
+    /**
+     * The content coding of gzip-compressed variants.
+     */
+    public static final String GZIP = "gzip";
+    /**
+     * The content coding of deflate-compressed (zlib-wrapped) variants.
+     */
+    public static final String DEFLATE = "deflate";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] body;
+    private final byte[] gzipBody;
+    private final byte[] deflateBody;
+    private final String entityTag;
+    private final String gzipEntityTag;
+    private final String deflateEntityTag;
+    private final long lastModified;
+
+    /**
+     * Create a response.
+     * 
+     * @param body
+     *            The bytes of the written-out discovery document.
+     * @param lastModified
+     *            The time, in milliseconds since the epoch, at which the document was last modified. This is truncated to whole seconds, as that is the
+     *            precision of the HTTP date headers.
+     * @throws IllegalArgumentException
+     *             If the given body is {@code null}.
+     */
+    public DiscoveryResponse(byte[] body, long lastModified) {
+        this(body, lastModified, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a response, compressing it if it is large enough.
+     * 
+     * @param body
+     *            The bytes of the written-out discovery document.
+     * @param lastModified
+     *            The time, in milliseconds since the epoch, at which the document was last modified. This is truncated to whole seconds, as that is the
+     *            precision of the HTTP date headers.
+     * @param compressionThreshold
+     *            The size, in bytes, below which the document is not compressed.
+     * @throws IllegalArgumentException
+     *             If the given body is {@code null}.
+     */
+    public DiscoveryResponse(byte[] body, long lastModified, int compressionThreshold) {
+        if (body == null)
+            throw new IllegalArgumentException("Body cannot be null.");
+
+        this.body = body;
+        this.entityTag = computeEntityTag(body);
+        this.lastModified = lastModified - (lastModified % 1000);
+
+        if (body.length >= compressionThreshold) {
+            this.gzipBody = smallerOf(compress(new ByteArrayOutputStream(body.length), true), body);
+            this.deflateBody = smallerOf(compress(new ByteArrayOutputStream(body.length), false), body);
+        } else {
+            this.gzipBody = null;
+            this.deflateBody = null;
+        }
+        this.gzipEntityTag = gzipBody == null ? null : variantEntityTag(entityTag, GZIP);
+        this.deflateEntityTag = deflateBody == null ? null : variantEntityTag(entityTag, DEFLATE);
+    }
+
+    /**
+     * Get the body of the response.
+     * 
+     * @return The bytes of the written-out discovery document. This array is shared and must not be modified.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Get the body of the response in a given content coding.
+     * 
+     * @param contentEncoding
+     *            The content coding, as {@link #selectEncoding(String) selected} for a request; {@code null} for the uncompressed document.
+     * @return The bytes of the requested variant of the document. This array is shared and must not be modified.
+     * @throws IllegalArgumentException
+     *             If this response has no variant in the given content coding.
+     */
+    public byte[] getBody(String contentEncoding) {
+        if (contentEncoding == null)
+            return body;
+
+        if (GZIP.equals(contentEncoding) && gzipBody != null)
+            return gzipBody;
+
+        if (DEFLATE.equals(contentEncoding) && deflateBody != null)
+            return deflateBody;
+
+        throw new IllegalArgumentException("No variant available for content encoding: " + contentEncoding);
+    }
+
+    /**
+     * Get the entity tag of the response.
+     * 
+     * @return The quoted, strong entity tag of the response.
+     */
+    public String getEntityTag() {
+        return entityTag;
+    }
+
+    /**
+     * Get the entity tag of a variant of the response.
+     * 
+     * @param contentEncoding
+     *            The content coding of the variant; {@code null} for the uncompressed document.
+     * @return The quoted, strong entity tag of the variant.
+     * @throws IllegalArgumentException
+     *             If this response has no variant in the given content coding.
+     */
+    public String getEntityTag(String contentEncoding) {
+        if (contentEncoding == null)
+            return entityTag;
+
+        if (GZIP.equals(contentEncoding) && gzipEntityTag != null)
+            return gzipEntityTag;
+
+        if (DEFLATE.equals(contentEncoding) && deflateEntityTag != null)
+            return deflateEntityTag;
+
+        throw new IllegalArgumentException("No variant available for content encoding: " + contentEncoding);
+    }
+
+    /**
+     * Determine whether this response has compressed variants, in which case the response varies by the {@code Accept-Encoding} request header.
+     * 
+     * @return {@code true} if the response was compressed; {@code false} if it is only available uncompressed.
+     */
+    public boolean isCompressed() {
+        return gzipBody != null || deflateBody != null;
+    }
+
+    /**
+     * Select the variant of this response to be sent for the given {@code Accept-Encoding} request header.
+     * <p />
+     * The acceptable coding with the highest quality value is chosen, preferring {@link #GZIP gzip} over {@link #DEFLATE deflate} when they are
+     * equally acceptable; the uncompressed document is always acceptable.
+     * 
+     * @param acceptEncoding
+     *            The value of the {@code Accept-Encoding} header; can be {@code null}.
+     * @return The content coding to be sent; {@code null} if the uncompressed document is to be sent.
+     */
+    public String selectEncoding(String acceptEncoding) {
+        if (acceptEncoding == null || !isCompressed())
+            return null;
+
+        float gzipQuality = -1;
+        float deflateQuality = -1;
+        float wildcardQuality = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            final int parameters = coding.indexOf(';');
+            final String name = (parameters < 0 ? coding : coding.substring(0, parameters)).trim();
+            final float quality = parameters < 0 ? 1 : parseQuality(coding.substring(parameters + 1));
+            if (GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name))
+                gzipQuality = Math.max(gzipQuality, quality);
+            else if (DEFLATE.equalsIgnoreCase(name))
+                deflateQuality = Math.max(deflateQuality, quality);
+            else if ("*".equals(name))
+                wildcardQuality = quality;
+        }
+
+        if (gzipQuality < 0)
+            gzipQuality = wildcardQuality;
+        if (deflateQuality < 0)
+            deflateQuality = wildcardQuality;
+
+        // Variants that did not compress well were discarded
+        if (gzipBody == null)
+            gzipQuality = 0;
+        if (deflateBody == null)
+            deflateQuality = 0;
+
+        if (gzipQuality > 0 && gzipQuality >= deflateQuality)
+            return GZIP;
+
+        return deflateQuality > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Get the time at which the document was last modified.
+     * 
+     * @return The time, in milliseconds since the epoch, at which the document was last modified.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Determine whether an {@code If-None-Match} header matches this response.
+     * 
+     * @param ifNoneMatch
+     *            The value of the {@code If-None-Match} header; can be {@code null}.
+     * @return {@code true} if the header lists this response's entity tag (weakly compared, as is required for {@code If-None-Match}) or is
+     *         {@code *}; {@code false} if not.
+     */
+    public boolean matchesEntityTag(String ifNoneMatch) {
+        return matchesEntityTag(ifNoneMatch, null);
+    }
+
+    /**
+     * Determine whether an {@code If-None-Match} header matches a variant of this response.
+     * 
+     * @param ifNoneMatch
+     *            The value of the {@code If-None-Match} header; can be {@code null}.
+     * @param contentEncoding
+     *            The content coding of the variant; {@code null} for the uncompressed document.
+     * @return {@code true} if the header lists the variant's entity tag (weakly compared, as is required for {@code If-None-Match}) or is
+     *         {@code *}; {@code false} if not.
+     * @throws IllegalArgumentException
+     *             If this response has no variant in the given content coding.
+     */
+    public boolean matchesEntityTag(String ifNoneMatch, String contentEncoding) {
+        if (ifNoneMatch == null)
+            return false;
+
+        final String entityTag = getEntityTag(contentEncoding);
+
+        // Compare each listed tag in place, so that answering a conditional request allocates nothing
+        final int length = ifNoneMatch.length();
+        int start = 0;
+        while (start <= length) {
+            int end = ifNoneMatch.indexOf(',', start);
+            if (end < 0)
+                end = length;
+
+            int from = start;
+            int to = end;
+            while (from < to && ifNoneMatch.charAt(from) <= ' ')
+                from++;
+            while (to > from && ifNoneMatch.charAt(to - 1) <= ' ')
+                to--;
+
+            if (to - from == 1 && ifNoneMatch.charAt(from) == '*')
+                return true;
+
+            if (ifNoneMatch.startsWith("W/", from))
+                from += 2;
+
+            if (to - from == entityTag.length() && ifNoneMatch.regionMatches(from, entityTag, 0, to - from))
+                return true;
+
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether this response has been modified since the given time.
+     * 
+     * @param ifModifiedSince
+     *            The value of the {@code If-Modified-Since} header, in milliseconds since the epoch; a negative value indicates that the header was not
+     *            given.
+     * @return {@code true} if the response has not been modified since the given time; {@code false} if it has or no time was given.
+     */
+    public boolean isNotModifiedSince(long ifModifiedSince) {
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    /**
+     * Compress the body of this response.
+     * 
+     * @param out
+     *            The {@link ByteArrayOutputStream} to which the compressed body is to be written.
+     * @param gzip
+     *            {@code true} to compress with gzip; {@code false} to compress with deflate.
+     * @return The compressed bytes.
+     */
+    private byte[] compress(ByteArrayOutputStream out, boolean gzip) {
+        try {
+            final DeflaterOutputStream compressor = gzip ? new GZIPOutputStream(out) : new DeflaterOutputStream(out);
+            compressor.write(body);
+            compressor.close();
+        } catch (IOException e) {
+            // An in-memory stream cannot fail to be written to
+            throw new IllegalStateException("Failed to compress response.", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Parse the quality value from the parameters of an {@code Accept-Encoding} coding.
+     * 
+     * @param parameters
+     *            The parameters following the coding name.
+     * @return The quality value; {@code 0} if it is malformed.
+     */
+    private static float parseQuality(String parameters) {
+        final String trimmed = parameters.trim();
+        if (!trimmed.startsWith("q=") && !trimmed.startsWith("Q="))
+            return 1;
+
+        try {
+            return Float.parseFloat(trimmed.substring(2).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Only keep a compressed variant if it actually saves bytes.
+     * 
+     * @param compressed
+     *            The compressed bytes.
+     * @param body
+     *            The uncompressed bytes.
+     * @return The compressed bytes if they are smaller than the uncompressed ones; otherwise, {@code null}.
+     */
+    private static byte[] smallerOf(byte[] compressed, byte[] body) {
+        return compressed.length < body.length ? compressed : null;
+    }
+
+    /**
+     * Derive the entity tag of a compressed variant from that of the uncompressed document.
+     * 
+     * @param entityTag
+     *            The quoted entity tag of the uncompressed document.
+     * @param contentEncoding
+     *            The content coding of the variant.
+     * @return The quoted entity tag of the variant.
+     */
+    private static String variantEntityTag(String entityTag, String contentEncoding) {
+        return entityTag.substring(0, entityTag.length() - 1) + "-" + contentEncoding + "\"";
+    }
+
+    /**
+     * Compute the entity tag for a document.
+     * 
+     * @param body
+     *            The bytes of the document.
+     * @return A quoted hexadecimal digest of the document.
+     */
+    private static String computeEntityTag(byte[] body) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 digests are not supported by this JVM.", e);
+        }
+
+        final char[] tag = new char[digest.length * 2 + 2];
+        tag[0] = '"';
+        for (int i = 0; i < digest.length; i++) {
+            tag[i * 2 + 1] = HEX[(digest[i] >> 4) & 0xf];
+            tag[i * 2 + 2] = HEX[digest[i] & 0xf];
+        }
+        tag[tag.length - 1] = '"';
+        return new String(tag);
+    }
+}
@@ -0,0 +1,208 @@
+package com.google.code.openid.mojo.jetty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.compact.OrdinalSet;
+import com.google.code.openid.mojo.match.HostRegexMatcher;
+import com.google.code.openid.mojo.match.MatchCache;
+import com.google.code.openid.mojo.match.MatchResult;
+import com.google.code.openid.mojo.match.RegexTimeoutException;
+import com.google.code.openid.mojo.metrics.DiscoveryMetrics;
+import com.google.code.openid.mojo.metrics.StripedCounter;
+import com.google.code.openid.mojo.openid.CompiledCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledService;
+import com.google.code.openid.mojo.openid.DiscoveredServiceWriter;
+
+/**
+ * An immutable snapshot of the services and canonical IDs served by a {@link DiscoveredServiceHandler}, along with everything derived from them: the
+ * match index, the cached match results and the written-out documents.
+ * <p />
+ * Because everything cached in a snapshot is derived from that snapshot alone, a new configuration is applied by swapping in a whole new snapshot;
+ * a request that is already being handled keeps using the snapshot it started with, and so never sees a half-applied configuration.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+final class DiscoverySnapshot {
+    private final List<DiscoveryCanonicalId> canonicalIds;
+    private final List<DiscoveredService> services;
+    private final HostRegexMatcher matcher;
+    private final MatchCache matchCache;
+    private final DiscoveryMetrics metrics;
+    private final CompiledService[] compiledServices;
+    private final StripedCounter[] serviceHits;
+    private final StripedCounter[] canonicalIdHits;
+    private final long lastModified = System.currentTimeMillis();
+    private final ConcurrentMap<MatchResult, DiscoveryResponse> documents = new ConcurrentHashMap<MatchResult, DiscoveryResponse>();
+
+    /**
+     * Compile a snapshot.
+     * 
+     * @param canonicalIds
+     *            A {@link List} of {@link DiscoveryCanonicalId} objects representing the canonical IDs that could be written out.
+     * @param services
+     *            A {@link Collection} of {@link DiscoveredService} objects that represent the services to be served.
+     * @param matchCacheSize
+     *            The maximum number of targets whose match results are cached; {@code 0} if they are not to be cached.
+     * @param metrics
+     *            The {@link DiscoveryMetrics} in which hits and write durations are to be recorded; {@code null} if they are not to be recorded.
+     * @throws IllegalArgumentException
+     *             If either of the given collections is {@code null}.
+     */
+    DiscoverySnapshot(List<DiscoveryCanonicalId> canonicalIds, Collection<DiscoveredService> services, int matchCacheSize,
+            DiscoveryMetrics metrics) {
+        if (services == null)
+            throw new IllegalArgumentException("Services cannot be null.");
+
+        if (canonicalIds == null)
+            throw new IllegalArgumentException("The canonical IDs cannot be null.");
+
+        final List<CompiledCanonicalId> compiledIds = new ArrayList<CompiledCanonicalId>(canonicalIds.size());
+        for (DiscoveryCanonicalId canonicalId : canonicalIds)
+            compiledIds.add(new CompiledCanonicalId(canonicalId));
+
+        final List<CompiledService> compiledServices = new ArrayList<CompiledService>(services.size());
+        for (DiscoveredService service : services)
+            compiledServices.add(new CompiledService(service));
+
+        this.canonicalIds = Collections.unmodifiableList(new ArrayList<DiscoveryCanonicalId>(canonicalIds));
+        this.services = Collections.unmodifiableList(new ArrayList<DiscoveredService>(services));
+        this.compiledServices = compiledServices.toArray(new CompiledService[compiledServices.size()]);
+        this.matcher = new HostRegexMatcher(compiledIds, compiledServices);
+        this.matchCache = matchCacheSize > 0 ? new MatchCache(matchCacheSize) : null;
+        this.metrics = metrics;
+
+        // Look up the hit counters now, by ordinal, so that counting a hit is only an array access and an increment
+        if (metrics == null) {
+            this.canonicalIdHits = null;
+            this.serviceHits = null;
+        } else {
+            this.canonicalIdHits = new StripedCounter[compiledIds.size()];
+            for (int i = 0; i < canonicalIdHits.length; i++)
+                canonicalIdHits[i] = metrics.getCanonicalIdHits(compiledIds.get(i));
+            this.serviceHits = new StripedCounter[this.compiledServices.length];
+            for (int i = 0; i < serviceHits.length; i++)
+                serviceHits[i] = metrics.getServiceHits(this.compiledServices[i]);
+        }
+    }
+
+    /**
+     * Discard the hit counters of the services and canonical IDs that are not part of this snapshot, once it has replaced the snapshot that
+     * served them.
+     */
+    void discardStaleHits() {
+        if (metrics != null)
+            metrics.retainHits(canonicalIdHits, serviceHits);
+    }
+
+    /**
+     * Get the canonical IDs from which this snapshot was compiled.
+     * 
+     * @return An unmodifiable {@link List} of {@link DiscoveryCanonicalId} objects.
+     */
+    List<DiscoveryCanonicalId> getCanonicalIds() {
+        return canonicalIds;
+    }
+
+    /**
+     * Get the services from which this snapshot was compiled.
+     * 
+     * @return An unmodifiable {@link List} of {@link DiscoveredService} objects.
+     */
+    List<DiscoveredService> getServices() {
+        return services;
+    }
+
+    /**
+     * Get the cache of match results.
+     * 
+     * @return The {@link MatchCache} of this snapshot; {@code null} if match results are not cached.
+     */
+    MatchCache getMatchCache() {
+        return matchCache;
+    }
+
+    /**
+     * Match the given target, using a cached result if one is available.
+     * 
+     * @param target
+     *            The request target.
+     * @param scratch
+     *            A {@link MatchResult}, confined to the current thread, to be filled in if no cached result is available.
+     * @param timeout
+     *            The time, in nanoseconds, that evaluating regular expressions may take; {@code 0} for no limit.
+     * @return A {@link MatchResult} describing what matched the target: either the given result or a shared, cached one, neither of which is to be
+     *         kept beyond the request.
+     * @throws RegexTimeoutException
+     *             If the time was exceeded; nothing is then cached, and the given result is incomplete.
+     */
+    MatchResult match(String target, MatchResult scratch, long timeout) {
+        if (matchCache == null)
+            return matcher.match(target, scratch, timeout);
+
+        final MatchResult cached = matchCache.get(target);
+        if (cached != null)
+            return cached;
+
+        matcher.match(target, scratch, timeout);
+        matchCache.put(target, scratch.copy());
+        return scratch;
+    }
+
+    /**
+     * Count the hits of the services and canonical ID that matched a request, if metrics are being recorded.
+     * 
+     * @param result
+     *            The {@link MatchResult} of the request.
+     */
+    void recordHits(MatchResult result) {
+        if (metrics == null)
+            return;
+
+        if (result.getCanonicalIdOrdinal() >= 0)
+            canonicalIdHits[result.getCanonicalIdOrdinal()].increment();
+        final OrdinalSet ordinals = result.getServiceOrdinals();
+        for (int i = ordinals.next(0); i >= 0; i = ordinals.next(i + 1))
+            serviceHits[i].increment();
+    }
+
+    /**
+     * Get the serialized discovery document for the given matches, writing it out only if it has not been previously written.
+     * 
+     * @param result
+     *            The non-empty {@link MatchResult} for which the document is to be written.
+     * @param writer
+     *            The {@link DiscoveredServiceWriter} used to write out the document.
+     * @param compressionThreshold
+     *            The size, in bytes, below which the written-out document is not compressed.
+     * @return The {@link DiscoveryResponse} containing the written-out discovery document.
+     * @throws IOException
+     *             If any errors occur during the write-out of the document.
+     */
+    DiscoveryResponse getDocument(MatchResult result, DiscoveredServiceWriter writer, int compressionThreshold) throws IOException {
+        // The result itself is the key of its document, so that looking up a document that has already been written allocates nothing
+        final DiscoveryResponse cached = documents.get(result);
+        if (cached != null)
+            return cached;
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long start = System.nanoTime();
+        writer.write(result.getCanonicalId(), compiledServices, result.getServiceOrdinals(), out);
+        if (metrics != null)
+            metrics.getWriteLatency().record(System.nanoTime() - start);
+        final DiscoveryResponse document = new DiscoveryResponse(out.toByteArray(), lastModified, compressionThreshold);
+
+        final DiscoveryResponse existing = documents.putIfAbsent(result.copy(), document);
+        return existing == null ? document : existing;
+    }
+}
@@ -0,0 +1,22 @@
+package com.google.code.openid.mojo.jetty;
+
+import org.mortbay.jetty.Handler;
+
+/**
+ * A {@link Handler} that serves a single path of its own, apart from the discovery documents.
+ * <p />
+ * Unlike a discovery request, a request for an endpoint may take a while to answer, so a server can tell such requests apart by their path alone and
+ * answer them without holding up discovery traffic.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public interface EndpointHandler extends Handler {
+    /**
+     * Get the path served by this handler.
+     * 
+     * @return The request path of the endpoint.
+     */
+    String getPath();
+}
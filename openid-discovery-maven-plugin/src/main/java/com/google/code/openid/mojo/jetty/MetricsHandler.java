@@ -0,0 +1,76 @@
+package com.google.code.openid.mojo.jetty;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+import com.google.code.openid.mojo.metrics.DiscoveryMetrics;
+
+/**
+ * An {@link AbstractHandler} that serves the {@link DiscoveryMetrics metrics} of a discovery server in the Prometheus text format.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class MetricsHandler extends AbstractHandler implements EndpointHandler {
+    private final String path;
+    private final DiscoveryMetrics metrics;
+
+    /**
+     * Create a handler.
+     * 
+     * @param path
+     *            The request path at which the metrics are served.
+     * @param metrics
+     *            The {@link DiscoveryMetrics} to be served.
+     * @throws IllegalArgumentException
+     *             If either of the given objects is {@code null}.
+     */
+    public MetricsHandler(String path, DiscoveryMetrics metrics) {
+        if (path == null)
+            throw new IllegalArgumentException("Path cannot be null.");
+
+        if (metrics == null)
+            throw new IllegalArgumentException("Metrics cannot be null.");
+
+        this.path = path;
+        this.metrics = metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch) throws IOException, ServletException {
+        if (!path.equals(target))
+            return;
+
+        ((Request) request).setHandled(true);
+
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            response.setHeader("Allow", "GET, HEAD");
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        final byte[] body = metrics.toPrometheus().getBytes("UTF-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader("content-type", "text/plain; version=0.0.4; charset=utf-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setContentLength(body.length);
+        if (!"HEAD".equals(request.getMethod()))
+            response.getOutputStream().write(body);
+    }
+}
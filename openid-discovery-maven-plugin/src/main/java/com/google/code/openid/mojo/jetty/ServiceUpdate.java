@@ -0,0 +1,26 @@
+package com.google.code.openid.mojo.jetty;
+
+import java.util.List;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+
+/**
+ * A change to the services and canonical IDs served by a {@link DiscoveredServiceHandler}, {@link DiscoveredServiceHandler#update(ServiceUpdate)
+ * applied} to copies of the currently-served lists.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public interface ServiceUpdate {
+    /**
+     * Apply this change.
+     * 
+     * @param canonicalIds
+     *            A modifiable copy of the {@link List} of {@link DiscoveryCanonicalId} objects currently being served.
+     * @param services
+     *            A modifiable copy of the {@link List} of {@link DiscoveredService} objects currently being served.
+     */
+    void apply(List<DiscoveryCanonicalId> canonicalIds, List<DiscoveredService> services);
+}
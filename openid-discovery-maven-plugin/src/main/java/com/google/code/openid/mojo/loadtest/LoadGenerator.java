@@ -0,0 +1,308 @@
+package com.google.code.openid.mojo.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.code.openid.mojo.metrics.LatencyHistogram;
+import com.google.code.openid.mojo.metrics.StripedCounter;
+
+/**
+ * A generator of load against a discovery server.
+ * <p />
+ * Each of a fixed number of threads requests the targets in turn, as fast as the server answers, for the warmup period and then for the measured
+ * duration; only requests started during the measured duration are counted. Each thread starts at a different target, so that a mix of targets is
+ * requested at once; a target given more than once is requested proportionally more often. A request fails if it cannot be made or is answered with
+ * a status of {@code 400} or above.
+ * <p />
+ * Requests are made with {@link HttpURLConnection}. With keep-alive, each response is read to its end so that the connection can be reused; note
+ * that the JDK keeps at most {@code http.maxConnections} (by default, 5) idle connections to a server, so that system property should be raised
+ * when the concurrency is higher if every request is to reuse a connection.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class LoadGenerator {
+    /**
+     * The default number of threads making requests.
+     */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * The default time, in milliseconds, for which requests are measured.
+     */
+    public static final long DEFAULT_DURATION = 10000;
+
+    /**
+     * The default time, in milliseconds, for which requests are made before they are measured.
+     */
+    public static final long DEFAULT_WARMUP = 2000;
+
+    /**
+     * The default time, in milliseconds, that a request may take to connect and, separately, to read the response.
+     */
+    public static final int DEFAULT_REQUEST_TIMEOUT = 5000;
+
+    private final List<URL> targets;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private long duration = DEFAULT_DURATION;
+    private long warmup = DEFAULT_WARMUP;
+    private boolean keepAlive = true;
+    private int requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+    /**
+     * Create a generator.
+     * 
+     * @param targets
+     *            A {@link List} of the {@link URL} objects to be requested.
+     * @throws IllegalArgumentException
+     *             If the given targets are {@code null} or empty.
+     */
+    public LoadGenerator(List<URL> targets) {
+        if (targets == null || targets.isEmpty())
+            throw new IllegalArgumentException("At least one target must be given.");
+
+        this.targets = new ArrayList<URL>(targets);
+    }
+
+    /**
+     * Set the number of threads making requests.
+     * 
+     * @param concurrency
+     *            The number of requests made at once.
+     * @throws IllegalArgumentException
+     *             If the given concurrency is less than 1.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Set the time for which requests are measured.
+     * 
+     * @param duration
+     *            The duration, in milliseconds.
+     * @throws IllegalArgumentException
+     *             If the given duration is not positive.
+     */
+    public void setDuration(long duration) {
+        if (duration <= 0)
+            throw new IllegalArgumentException("Duration must be positive: " + duration);
+
+        this.duration = duration;
+    }
+
+    /**
+     * Set whether connections are reused between requests.
+     * 
+     * @param keepAlive
+     *            {@code true} if connections are to be kept alive; {@code false} if each request is to be made on a new connection.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Set the time that a request may take.
+     * 
+     * @param requestTimeout
+     *            The time, in milliseconds, that a request may take to connect and, separately, to read the response.
+     * @throws IllegalArgumentException
+     *             If the given timeout is not positive.
+     */
+    public void setRequestTimeout(int requestTimeout) {
+        if (requestTimeout <= 0)
+            throw new IllegalArgumentException("Request timeout must be positive: " + requestTimeout);
+
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Set the time for which requests are made before they are measured, so that the server and the generator are measured warm.
+     * 
+     * @param warmup
+     *            The warmup time, in milliseconds; {@code 0} for no warmup.
+     * @throws IllegalArgumentException
+     *             If the given warmup time is negative.
+     */
+    public void setWarmup(long warmup) {
+        if (warmup < 0)
+            throw new IllegalArgumentException("Warmup cannot be negative: " + warmup);
+
+        this.warmup = warmup;
+    }
+
+    /**
+     * Generate load, blocking until the warmup and measured duration have passed.
+     * 
+     * @return A {@link LoadTestResult} describing the requests made during the measured duration.
+     * @throws InterruptedException
+     *             If the current thread is interrupted while waiting for the requests to finish.
+     */
+    public LoadTestResult run() throws InterruptedException {
+        final StripedCounter requests = new StripedCounter(concurrency);
+        final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+        final LatencyHistogram latency = new LatencyHistogram(concurrency);
+
+        final long measureStart = System.nanoTime() + warmup * 1000000;
+        final long measureEnd = measureStart + duration * 1000000;
+
+        final Thread[] workers = new Thread[concurrency];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Worker(i, measureStart, measureEnd, requests, errors, latency), "openid-discovery-load-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        try {
+            for (Thread worker : workers)
+                worker.join();
+        } catch (InterruptedException e) {
+            for (Thread worker : workers)
+                worker.interrupt();
+            throw e;
+        }
+
+        final Map<String, Long> errorCounts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> error : errors.entrySet())
+            errorCounts.put(error.getKey(), Long.valueOf(error.getValue().get()));
+        return new LoadTestResult(requests.get(), errorCounts, measureEnd - measureStart, latency);
+    }
+
+    /**
+     * Make a single request, reading the response to its end.
+     * 
+     * @param target
+     *            The {@link URL} to be requested.
+     * @param buffer
+     *            A buffer into which the response is read and discarded.
+     * @return The status code of the response.
+     * @throws IOException
+     *             If the request cannot be made or the response cannot be read.
+     */
+    private int request(URL target, byte[] buffer) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+        connection.setConnectTimeout(requestTimeout);
+        connection.setReadTimeout(requestTimeout);
+        connection.setUseCaches(false);
+        if (!keepAlive)
+            connection.setRequestProperty("Connection", "close");
+
+        try {
+            final int status = connection.getResponseCode();
+            final InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (in != null) {
+                try {
+                    while (in.read(buffer) >= 0)
+                        ;
+                } finally {
+                    in.close();
+                }
+            }
+            return status;
+        } finally {
+            if (!keepAlive)
+                connection.disconnect();
+        }
+    }
+
+    /**
+     * A thread making requests until the measured duration has passed.
+     * 
+     * @author jrh3k5
+     * 
+     */
+    private class Worker implements Runnable {
+        private final int offset;
+        private final long measureStart;
+        private final long measureEnd;
+        private final StripedCounter requests;
+        private final ConcurrentMap<String, AtomicLong> errors;
+        private final LatencyHistogram latency;
+
+        /**
+         * Create a worker.
+         * 
+         * @param offset
+         *            The index of the first target to be requested.
+         * @param measureStart
+         *            The {@link System#nanoTime() time} from which requests are measured.
+         * @param measureEnd
+         *            The {@link System#nanoTime() time} at which requests stop.
+         * @param requests
+         *            The {@link StripedCounter} of measured requests.
+         * @param errors
+         *            The {@link ConcurrentMap} of measured failures, keyed by how they failed.
+         * @param latency
+         *            The {@link LatencyHistogram} of measured request durations.
+         */
+        public Worker(int offset, long measureStart, long measureEnd, StripedCounter requests, ConcurrentMap<String, AtomicLong> errors,
+                LatencyHistogram latency) {
+            this.offset = offset;
+            this.measureStart = measureStart;
+            this.measureEnd = measureEnd;
+            this.requests = requests;
+            this.errors = errors;
+            this.latency = latency;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+            final byte[] buffer = new byte[8192];
+            int next = offset % targets.size();
+            long start = System.nanoTime();
+            while (start < measureEnd && !Thread.currentThread().isInterrupted()) {
+                String error = null;
+                try {
+                    final int status = request(targets.get(next), buffer);
+                    if (status >= 400)
+                        error = "HTTP " + status;
+                } catch (IOException e) {
+                    error = e.getClass().getName();
+                }
+
+                final long end = System.nanoTime();
+                if (start >= measureStart) {
+                    requests.increment();
+                    latency.record(end - start);
+                    if (error != null)
+                        countError(error);
+                }
+
+                next = (next + 1) % targets.size();
+                start = end;
+            }
+        }
+
+        /**
+         * Count a failed request.
+         * 
+         * @param error
+         *            A description of how the request failed.
+         */
+        private void countError(String error) {
+            AtomicLong count = errors.get(error);
+            if (count == null) {
+                final AtomicLong created = new AtomicLong();
+                count = errors.putIfAbsent(error, created);
+                if (count == null)
+                    count = created;
+            }
+            count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.google.code.openid.mojo.loadtest;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.code.openid.mojo.metrics.LatencyHistogram;
+
+/**
+ * The outcome of a load test: how many requests were made while it was measuring, how many of them failed and how, and how long they took.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class LoadTestResult {
+    /**
+     * The quantiles reported for the request latency.
+     */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999, 1 };
+
+    /**
+     * The names under which the {@link #QUANTILES quantiles} are reported.
+     */
+    private static final String[] QUANTILE_NAMES = { "p50", "p90", "p99", "p999", "max" };
+
+    private final long requests;
+    private final Map<String, Long> errors;
+    private final long elapsedNanos;
+    private final long[] percentiles;
+
+    /**
+     * Create a result.
+     * 
+     * @param requests
+     *            The number of requests made, including those that failed.
+     * @param errors
+     *            A {@link Map} of the number of failed requests, keyed by a description of how they failed.
+     * @param elapsedNanos
+     *            The time, in nanoseconds, over which the requests were made.
+     * @param latency
+     *            The {@link LatencyHistogram} of the time taken by each request.
+     * @throws IllegalArgumentException
+     *             If the given errors or latency are {@code null}, or the given elapsed time is not positive.
+     */
+    public LoadTestResult(long requests, Map<String, Long> errors, long elapsedNanos, LatencyHistogram latency) {
+        if (errors == null)
+            throw new IllegalArgumentException("Errors cannot be null.");
+
+        if (latency == null)
+            throw new IllegalArgumentException("Latency cannot be null.");
+
+        if (elapsedNanos <= 0)
+            throw new IllegalArgumentException("Elapsed time must be positive: " + elapsedNanos);
+
+        this.requests = requests;
+        this.errors = Collections.unmodifiableMap(new TreeMap<String, Long>(errors));
+        this.elapsedNanos = elapsedNanos;
+        this.percentiles = latency.getPercentiles(QUANTILES);
+    }
+
+    /**
+     * Get the time over which the requests were made.
+     * 
+     * @return The elapsed time, in seconds.
+     */
+    public double getElapsedSeconds() {
+        return elapsedNanos / 1e9;
+    }
+
+    /**
+     * Get the number of failed requests.
+     * 
+     * @return The total number of requests that failed, however they failed.
+     */
+    public long getErrorCount() {
+        long count = 0;
+        for (Long errorCount : errors.values())
+            count += errorCount.longValue();
+        return count;
+    }
+
+    /**
+     * Get the failed requests by how they failed.
+     * 
+     * @return An immutable {@link Map} of the number of failed requests, keyed and sorted by a description of how they failed, such as {@code HTTP 404}
+     *         or the name of the exception thrown.
+     */
+    public Map<String, Long> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Get the median request latency.
+     * 
+     * @return The estimated 50th percentile of request latency, in milliseconds.
+     */
+    public double getP50() {
+        return toMillis(percentiles[0]);
+    }
+
+    /**
+     * Get the 90th percentile of request latency.
+     * 
+     * @return The estimated 90th percentile of request latency, in milliseconds.
+     */
+    public double getP90() {
+        return toMillis(percentiles[1]);
+    }
+
+    /**
+     * Get the 99th percentile of request latency.
+     * 
+     * @return The estimated 99th percentile of request latency, in milliseconds.
+     */
+    public double getP99() {
+        return toMillis(percentiles[2]);
+    }
+
+    /**
+     * Get the 99.9th percentile of request latency.
+     * 
+     * @return The estimated 99.9th percentile of request latency, in milliseconds.
+     */
+    public double getP999() {
+        return toMillis(percentiles[3]);
+    }
+
+    /**
+     * Get the longest request latency.
+     * 
+     * @return The estimated longest request latency, in milliseconds.
+     */
+    public double getMax() {
+        return toMillis(percentiles[4]);
+    }
+
+    /**
+     * Get the number of requests made.
+     * 
+     * @return The number of requests made, including those that failed.
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Get the rate at which requests were made.
+     * 
+     * @return The number of requests made per second.
+     */
+    public double getThroughput() {
+        return requests / getElapsedSeconds();
+    }
+
+    /**
+     * Render this result as a JSON object, so that it can be compared between builds by other tools.
+     * 
+     * @return A JSON object with the {@code requests}, {@code errors}, {@code errorsByType}, {@code elapsedSeconds} and {@code throughput} of the
+     *         test, and the {@code p50}, {@code p90}, {@code p99}, {@code p999} and {@code max} request latency, in milliseconds, within a
+     *         {@code latencyMillis} object.
+     */
+    public String toJson() {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"requests\": ").append(requests).append(",\n");
+        json.append("  \"errors\": ").append(getErrorCount()).append(",\n");
+        json.append("  \"errorsByType\": {");
+        String separator = "";
+        for (Map.Entry<String, Long> error : errors.entrySet()) {
+            json.append(separator).append("\n    \"").append(escape(error.getKey())).append("\": ").append(error.getValue());
+            separator = ",";
+        }
+        json.append(errors.isEmpty() ? "},\n" : "\n  },\n");
+        json.append("  \"elapsedSeconds\": ").append(getElapsedSeconds()).append(",\n");
+        json.append("  \"throughput\": ").append(getThroughput()).append(",\n");
+        json.append("  \"latencyMillis\": {");
+        for (int i = 0; i < QUANTILE_NAMES.length; i++)
+            json.append(i == 0 ? "" : ",").append("\n    \"").append(QUANTILE_NAMES[i]).append("\": ").append(toMillis(percentiles[i]));
+        json.append("\n  }\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("%d requests in %.1fs (%.1f req/s), %d errors; latency p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+                requests, getElapsedSeconds(), getThroughput(), getErrorCount(), getP50(), getP90(), getP99(), getP999(), getMax());
+    }
+
+    /**
+     * Escape a value for use within a JSON string.
+     * 
+     * @param value
+     *            The value to be escaped.
+     * @return The value, with backslashes, double quotes and control characters escaped.
+     */
+    private static String escape(String value) {
+        final StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"')
+                escaped.append('\\').append(c);
+            else if (c < 0x20)
+                escaped.append(String.format("\\u%04x", Integer.valueOf(c)));
+            else
+                escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Convert a duration to milliseconds.
+     * 
+     * @param nanos
+     *            The duration, in nanoseconds.
+     * @return The duration, in milliseconds.
+     */
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Objects used to drive load at a running discovery server and to report how it held up.
+ */
+package com.google.code.openid.mojo.loadtest;
@@ -0,0 +1,75 @@
+package com.google.code.openid.mojo.match;
+
+/**
+ * A {@link CharSequence} that stops a regular expression from being matched against it once a deadline has passed.
+ * <p />
+ * {@link java.util.regex.Matcher} offers no way to bound the time it takes, but it reads its text one character at a time, and reads it again
+ * each time it backtracks; this sequence checks the clock every {@value #CHECK_INTERVAL} reads and throws a {@link RegexTimeoutException} once
+ * the deadline has passed, which abandons the match.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+final class DeadlineCharSequence implements CharSequence {
+    /**
+     * The number of characters read between checks of the clock; a power of two.
+     */
+    static final int CHECK_INTERVAL = 64;
+
+    private final CharSequence text;
+    private final long deadline;
+    private int reads;
+
+    /**
+     * Create a sequence.
+     * 
+     * @param text
+     *            The text to be matched.
+     * @param deadline
+     *            The {@link System#nanoTime() time}, in nanoseconds, after which matching is to be abandoned.
+     * @throws IllegalArgumentException
+     *             If the given text is {@code null}.
+     */
+    DeadlineCharSequence(CharSequence text, long deadline) {
+        if (text == null)
+            throw new IllegalArgumentException("Text cannot be null.");
+
+        this.text = text;
+        this.deadline = deadline;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws RegexTimeoutException
+     *             If the deadline has passed.
+     */
+    public char charAt(int index) {
+        if ((++reads & (CHECK_INTERVAL - 1)) == 0 && System.nanoTime() - deadline > 0)
+            throw new RegexTimeoutException(null, "Matching did not complete within its deadline after " + reads + " reads.");
+        return text.charAt(index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int length() {
+        return text.length();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public CharSequence subSequence(int start, int end) {
+        return new DeadlineCharSequence(text.subSequence(start, end), deadline);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
@@ -0,0 +1,276 @@
+package com.google.code.openid.mojo.match;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.google.code.openid.mojo.openid.CompiledCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledService;
+
+/**
+ * A matcher that resolves, in a single call, all of the services and the first canonical ID whose {@code hostRegex} fully matches a request.
+ * <p />
+ * The host regexes of all services and canonical IDs are analyzed and compiled once, when the matcher is built:
+ * <ul>
+ * <li>Identical expressions are collapsed into a single compiled pattern, so a request evaluates each distinct expression at most once no matter how
+ * many services and canonical IDs share it.</li>
+ * <li>Expressions that are plain literals (such as {@code \/test}) are placed in a hash index and matched by a single lookup of the target, without
+ * any regular expression evaluation; they are never compiled, which in a configuration of many literal services saves most of the memory the
+ * matcher would otherwise hold.</li>
+ * <li>All other expressions are placed in a trie keyed by their literal prefix (such as {@code /regex/abc} for {@code \/regex\/abc.ef}), so that only
+ * the expressions whose prefix begins the target are ever evaluated.</li>
+ * </ul>
+ * <p />
+ * Matching can be {@link #match(String, MatchResult, long) bounded in time}, so that a target crafted to make an expression backtrack
+ * catastrophically cannot tie up the thread matching it.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class HostRegexMatcher {
+    private static final int[] NO_ORDINALS = new int[0];
+
+    private final Pattern[] patterns;
+    private final CompiledService[] services;
+    private final CompiledCanonicalId[] canonicalIds;
+    private final int[][] patternServices;
+    private final int[][] patternCanonicalIds;
+    private final Map<String, int[]> literals = new HashMap<String, int[]>();
+    private final PrefixTrie prefixes = new PrefixTrie();
+
+    /**
+     * Create a matcher.
+     * 
+     * @param canonicalIds
+     *            A {@link List} of {@link CompiledCanonicalId} objects representing the canonical IDs that could be matched, in order of precedence.
+     * @param services
+     *            A {@link List} of {@link CompiledService} objects representing the services that could be matched.
+     * @throws IllegalArgumentException
+     *             If either of the given collections are {@code null}.
+     */
+    public HostRegexMatcher(List<CompiledCanonicalId> canonicalIds, List<CompiledService> services) {
+        if (canonicalIds == null)
+            throw new IllegalArgumentException("The canonical IDs cannot be null.");
+
+        if (services == null)
+            throw new IllegalArgumentException("Services cannot be null.");
+
+        final Map<String, Integer> patternIndices = new HashMap<String, Integer>();
+        final List<String> sources = new ArrayList<String>();
+        final List<List<Integer>> servicesByPattern = new ArrayList<List<Integer>>();
+        final List<List<Integer>> canonicalIdsByPattern = new ArrayList<List<Integer>>();
+
+        this.services = services.toArray(new CompiledService[services.size()]);
+        for (int i = 0; i < this.services.length; i++) {
+            final int patternIndex = indexOf(this.services[i].getHostRegex(), patternIndices, sources, servicesByPattern, canonicalIdsByPattern);
+            servicesByPattern.get(patternIndex).add(Integer.valueOf(i));
+        }
+
+        this.canonicalIds = canonicalIds.toArray(new CompiledCanonicalId[canonicalIds.size()]);
+        for (int i = 0; i < this.canonicalIds.length; i++) {
+            final int patternIndex = indexOf(this.canonicalIds[i].getHostRegex(), patternIndices, sources, servicesByPattern, canonicalIdsByPattern);
+            canonicalIdsByPattern.get(patternIndex).add(Integer.valueOf(i));
+        }
+
+        this.patterns = new Pattern[sources.size()];
+        this.patternServices = new int[sources.size()][];
+        this.patternCanonicalIds = new int[sources.size()][];
+        for (int i = 0; i < patterns.length; i++) {
+            final String source = sources.get(i);
+            patternServices[i] = toArray(servicesByPattern.get(i));
+            patternCanonicalIds[i] = toArray(canonicalIdsByPattern.get(i));
+
+            final LiteralPrefix literalPrefix = new LiteralPrefix(source);
+            if (literalPrefix.isExact()) {
+                addLiteral(literalPrefix.getPrefix(), i);
+            } else {
+                patterns[i] = Pattern.compile(source);
+                prefixes.add(literalPrefix.getPrefix(), i);
+            }
+        }
+        prefixes.freeze();
+    }
+
+    /**
+     * Get the number of distinct expressions matched by this matcher. Exact literals among them are matched through a hash index and never
+     * compiled, so this can exceed the number of compiled patterns.
+     * 
+     * @return The number of distinct host regexes.
+     */
+    public int getPatternCount() {
+        return patterns.length;
+    }
+
+    /**
+     * Match the given request target.
+     * 
+     * @param target
+     *            The request target to be matched.
+     * @return A new {@link MatchResult} describing the services and canonical ID that matched the target.
+     * @throws IllegalArgumentException
+     *             If the given target is {@code null}.
+     */
+    public MatchResult match(String target) {
+        return match(target, new MatchResult());
+    }
+
+    /**
+     * Match the given request target, filling in a result that is reused between requests. Once the result has been filled in for a configuration
+     * of this size, matching a target that is a literal of the index allocates nothing.
+     * 
+     * @param target
+     *            The request target to be matched.
+     * @param result
+     *            The {@link MatchResult} to be emptied and filled in with the services and canonical ID that matched the target.
+     * @return The given result.
+     * @throws IllegalArgumentException
+     *             If the given target or result is {@code null}.
+     */
+    public MatchResult match(String target, MatchResult result) {
+        return match(target, result, 0);
+    }
+
+    /**
+     * Match the given request target, filling in a result that is reused between requests, and abandon the match if evaluating the regular
+     * expressions takes longer than the given time. The time is shared by all of the expressions evaluated for the target; looking up literals
+     * is not timed, and a target that matches only literals is never given a deadline.
+     * 
+     * @param target
+     *            The request target to be matched.
+     * @param result
+     *            The {@link MatchResult} to be emptied and filled in with the services and canonical ID that matched the target.
+     * @param timeout
+     *            The time, in nanoseconds, that evaluating the regular expressions may take; {@code 0} for no limit.
+     * @return The given result.
+     * @throws IllegalArgumentException
+     *             If the given target or result is {@code null}, or the given timeout is negative.
+     * @throws RegexTimeoutException
+     *             If the time was exceeded, naming the expression that was being evaluated; the result is then incomplete.
+     */
+    public MatchResult match(String target, MatchResult result, long timeout) {
+        if (target == null)
+            throw new IllegalArgumentException("Target cannot be null.");
+
+        if (result == null)
+            throw new IllegalArgumentException("Result cannot be null.");
+
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout cannot be negative: " + timeout);
+
+        result.reset(services, canonicalIds);
+        final int[] literalMatches = literals.get(target);
+        if (literalMatches != null)
+            for (int patternIndex : literalMatches)
+                addMatches(patternIndex, result);
+
+        final Ordinals candidates = result.candidates;
+        candidates.clear();
+        prefixes.collect(target, candidates);
+        // The target is only given a deadline once an expression is to be evaluated, so that literal matches stay free of allocation
+        CharSequence text = target;
+        for (int i = 0; i < candidates.size(); i++) {
+            final Pattern pattern = patterns[candidates.get(i)];
+            if (timeout > 0 && text == target)
+                text = new DeadlineCharSequence(target, System.nanoTime() + timeout);
+
+            final boolean matches;
+            try {
+                matches = pattern.matcher(text).matches();
+            } catch (RegexTimeoutException e) {
+                throw new RegexTimeoutException(pattern.pattern(), "Matching '" + target + "' against '" + pattern.pattern() + "' took longer than "
+                        + timeout / 1000000 + " ms.");
+            }
+
+            if (matches)
+                addMatches(candidates.get(i), result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Add the services and canonical ID of a matching expression to a result. The result keeps the services in the order in which they were
+     * configured, and the canonical ID configured first.
+     * 
+     * @param patternIndex
+     *            The index of the expression that matched.
+     * @param result
+     *            The {@link MatchResult} being filled in.
+     */
+    private void addMatches(int patternIndex, MatchResult result) {
+        for (int ordinal : patternServices[patternIndex])
+            result.addService(ordinal);
+        if (patternCanonicalIds[patternIndex].length > 0)
+            result.addCanonicalId(patternCanonicalIds[patternIndex][0]);
+    }
+
+    /**
+     * Index a pattern that is a plain literal.
+     * 
+     * @param literal
+     *            The literal text matched by the pattern.
+     * @param patternIndex
+     *            The index of the pattern.
+     */
+    private void addLiteral(String literal, int patternIndex) {
+        final int[] existing = literals.get(literal);
+        if (existing == null) {
+            literals.put(literal, new int[] { patternIndex });
+        } else {
+            final int[] indices = new int[existing.length + 1];
+            System.arraycopy(existing, 0, indices, 0, existing.length);
+            indices[existing.length] = patternIndex;
+            literals.put(literal, indices);
+        }
+    }
+
+    /**
+     * Get the index of the given expression, registering it if it has not been seen before.
+     * 
+     * @param hostRegex
+     *            The expression.
+     * @param patternIndices
+     *            A {@link Map} of previously-seen expressions to their indices.
+     * @param sources
+     *            A {@link List} of the previously-seen expressions.
+     * @param servicesByPattern
+     *            A {@link List} of the ordinals of the services that use each expression.
+     * @param canonicalIdsByPattern
+     *            A {@link List} of the ordinals of the canonical IDs that use each expression.
+     * @return The index of the expression.
+     */
+    private static int indexOf(String hostRegex, Map<String, Integer> patternIndices, List<String> sources, List<List<Integer>> servicesByPattern,
+            List<List<Integer>> canonicalIdsByPattern) {
+        final Integer existing = patternIndices.get(hostRegex);
+        if (existing != null)
+            return existing.intValue();
+
+        final int index = sources.size();
+        sources.add(hostRegex);
+        servicesByPattern.add(new ArrayList<Integer>());
+        canonicalIdsByPattern.add(new ArrayList<Integer>());
+        patternIndices.put(hostRegex, Integer.valueOf(index));
+        return index;
+    }
+
+    /**
+     * Convert a list of ordinals to an array.
+     * 
+     * @param ordinals
+     *            A {@link List} of ordinals.
+     * @return An array of the ordinals, in the same order.
+     */
+    private static int[] toArray(List<Integer> ordinals) {
+        // Most expressions are used by services or by canonical IDs but not both, so share the array of the side that is missing
+        if (ordinals.isEmpty())
+            return NO_ORDINALS;
+
+        final int[] array = new int[ordinals.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = ordinals.get(i).intValue();
+        return array;
+    }
+}
@@ -0,0 +1,164 @@
+package com.google.code.openid.mojo.match;
+
+/**
+ * The literal text with which every match of a regular expression must begin.
+ * <p />
+ * The analysis is deliberately conservative: any construct it does not fully understand ends the prefix, so the prefix may be shorter than the
+ * longest possible one, but it is never wrong.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+final class LiteralPrefix {
+    private static final String METACHARACTERS = "[](){}.*+?^$|";
+    private static final String QUANTIFIERS = "?*+{";
+
+    private final String prefix;
+    private final boolean exact;
+
+    /**
+     * Analyze a regular expression.
+     * 
+     * @param regex
+     *            The regular expression, as it would be given to {@link java.util.regex.Pattern#compile(String)} without flags.
+     */
+    LiteralPrefix(String regex) {
+        final StringBuilder literal = new StringBuilder();
+        boolean complete = false;
+        boolean quoting = false;
+        int i = 0;
+        while (true) {
+            if (i >= regex.length()) {
+                complete = true;
+                break;
+            }
+
+            // The text that would be matched by the next token, and where the token ends in the expression
+            final String token;
+            final int next;
+            final char c = regex.charAt(i);
+            if (quoting) {
+                if (regex.startsWith("\\E", i)) {
+                    quoting = false;
+                    i += 2;
+                    continue;
+                }
+                next = i + charCount(regex, i);
+                token = regex.substring(i, next);
+            } else if (c == '\\') {
+                if (i + 1 >= regex.length())
+                    break;
+
+                final char escaped = regex.charAt(i + 1);
+                if (escaped == 'Q') {
+                    quoting = true;
+                    i += 2;
+                    continue;
+                }
+
+                // Backslashes before letters and digits denote classes, back-references and the like
+                if (Character.isLetterOrDigit(escaped))
+                    break;
+
+                next = i + 1 + charCount(regex, i + 1);
+                token = regex.substring(i + 1, next);
+            } else if (METACHARACTERS.indexOf(c) >= 0) {
+                break;
+            } else {
+                next = i + charCount(regex, i);
+                token = regex.substring(i, next);
+            }
+
+            // A quantified token may not appear in a match at all
+            if (!quoting && next < regex.length() && QUANTIFIERS.indexOf(regex.charAt(next)) >= 0)
+                break;
+
+            if (quoting && regex.startsWith("\\E", next) && next + 2 < regex.length() && QUANTIFIERS.indexOf(regex.charAt(next + 2)) >= 0)
+                break;
+
+            literal.append(token);
+            i = next;
+        }
+
+        // A top-level alternation would allow matches that do not begin with the prefix at all
+        if (hasTopLevelAlternation(regex)) {
+            this.prefix = "";
+            this.exact = false;
+        } else {
+            this.prefix = literal.toString();
+            this.exact = complete;
+        }
+    }
+
+    /**
+     * Get the literal prefix.
+     * 
+     * @return The text with which every match must begin; can be empty, but never {@code null}.
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Determine whether the expression is a pure literal.
+     * 
+     * @return {@code true} if the expression matches only its {@link #getPrefix() prefix} and nothing else; {@code false} if not.
+     */
+    boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Determine whether the given expression contains an alternation outside of any group.
+     * 
+     * @param regex
+     *            The expression.
+     * @return {@code true} if the expression contains a top-level alternation, or cannot be scanned with certainty; {@code false} if not.
+     */
+    private static boolean hasTopLevelAlternation(String regex) {
+        int groupDepth = 0;
+        int classDepth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                if (regex.startsWith("\\Q", i)) {
+                    final int end = regex.indexOf("\\E", i + 2);
+                    if (end < 0)
+                        return false;
+                    i = end + 1;
+                } else {
+                    i++;
+                }
+            } else if (c == '[') {
+                classDepth++;
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+            } else if (classDepth == 0) {
+                if (c == '(')
+                    groupDepth++;
+                else if (c == ')')
+                    groupDepth--;
+                else if (c == '|' && groupDepth == 0)
+                    return true;
+
+                if (groupDepth < 0)
+                    return true;
+            }
+        }
+        return classDepth != 0 || groupDepth != 0;
+    }
+
+    /**
+     * Get the number of {@code char}s taken up by the code point at the given index.
+     * 
+     * @param text
+     *            The text.
+     * @param index
+     *            The index of the code point.
+     * @return The number of {@code char}s in the code point.
+     */
+    private static int charCount(String text, int index) {
+        return Character.charCount(text.codePointAt(index));
+    }
+}
@@ -0,0 +1,185 @@
+package com.google.code.openid.mojo.match;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of request targets to the results of matching them.
+ * <p />
+ * Targets that matched nothing are cached as well, so that repeated misses are as cheap as repeated hits. The cache is split into independently-locked
+ * segments, each of which evicts its least-recently-used target once full, so that concurrent requests for different targets rarely contend.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class MatchCache {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final int capacity;
+    private final Segment[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a cache.
+     * 
+     * @param capacity
+     *            The maximum number of targets to be cached.
+     * @throws IllegalArgumentException
+     *             If the given capacity is less than 1.
+     */
+    public MatchCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+
+        this.capacity = capacity;
+        final int segmentCount = Math.min(MAX_SEGMENTS, capacity);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++)
+            // Spread the capacity so that the segments add up to exactly the requested capacity
+            segments[i] = new Segment(capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0));
+    }
+
+    /**
+     * Get the cached result of matching a target.
+     * 
+     * @param target
+     *            The request target.
+     * @return The cached {@link MatchResult}; {@code null} if the target has not been cached.
+     */
+    public MatchResult get(String target) {
+        final Segment segment = segmentFor(target);
+        final MatchResult result;
+        synchronized (segment) {
+            result = segment.get(target);
+        }
+
+        if (result == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+
+        return result;
+    }
+
+    /**
+     * Cache the result of matching a target.
+     * 
+     * @param target
+     *            The request target.
+     * @param result
+     *            The {@link MatchResult} of matching the target.
+     * @throws IllegalArgumentException
+     *             If the given result is {@code null}.
+     */
+    public void put(String target, MatchResult result) {
+        if (result == null)
+            throw new IllegalArgumentException("Result cannot be null.");
+
+        final Segment segment = segmentFor(target);
+        synchronized (segment) {
+            segment.put(target, result);
+        }
+    }
+
+    /**
+     * Get the maximum number of targets that can be cached.
+     * 
+     * @return The capacity of the cache.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of evictions.
+     * 
+     * @return The number of targets that have been evicted to make room for others.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the number of cache hits.
+     * 
+     * @return The number of lookups that found a cached result.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of cache misses.
+     * 
+     * @return The number of lookups that did not find a cached result.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of cached targets.
+     * 
+     * @return The number of targets currently cached.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                size += segment.size();
+            }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + "/" + capacity + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount();
+    }
+
+    /**
+     * Get the segment responsible for the given target.
+     * 
+     * @param target
+     *            The request target.
+     * @return The {@link Segment} in which the target is cached.
+     */
+    private Segment segmentFor(String target) {
+        final int hash = target.hashCode();
+        return segments[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % segments.length];
+    }
+
+    /**
+     * A least-recently-used segment of the cache. All access must be synchronized on the segment.
+     * 
+     * @author jrh3k5
+     * 
+     */
+    private class Segment extends LinkedHashMap<String, MatchResult> {
+        private static final long serialVersionUID = 1L;
+        private final int segmentCapacity;
+
+        /**
+         * Create a segment.
+         * 
+         * @param segmentCapacity
+         *            The maximum number of targets held by this segment.
+         */
+        Segment(int segmentCapacity) {
+            super(16, 0.75f, true);
+            this.segmentCapacity = segmentCapacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MatchResult> eldest) {
+            if (size() <= segmentCapacity)
+                return false;
+
+            evictions.incrementAndGet();
+            return true;
+        }
+    }
+}
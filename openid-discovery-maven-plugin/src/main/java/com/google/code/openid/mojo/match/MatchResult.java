@@ -0,0 +1,224 @@
+package com.google.code.openid.mojo.match;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.code.openid.mojo.compact.OrdinalSet;
+import com.google.code.openid.mojo.openid.CompiledCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledService;
+
+/**
+ * The result of matching a request against the configured services and canonical IDs.
+ * <p />
+ * The matched services are held as an {@link OrdinalSet} over their positions in the configuration, and the canonical ID by its position, so that
+ * a result can be {@link HostRegexMatcher#match(String, MatchResult) filled in} again and again by the requests a thread handles without allocating
+ * anything. Two results are equal if they hold the same matches of the same configuration, which lets a result serve as the key of the document
+ * written out for it.
+ * <p />
+ * A result is not thread-safe: one that is being reused must be confined to its thread, and one that is shared, such as a cached result, must be
+ * a {@link #copy() copy} that is no longer filled in.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class MatchResult {
+    private static final CompiledService[] NO_SERVICES = new CompiledService[0];
+    private static final CompiledCanonicalId[] NO_CANONICAL_IDS = new CompiledCanonicalId[0];
+
+    private final OrdinalSet serviceOrdinals = new OrdinalSet();
+    private CompiledService[] services = NO_SERVICES;
+    private CompiledCanonicalId[] canonicalIds = NO_CANONICAL_IDS;
+    private int canonicalIdOrdinal = -1;
+
+    /**
+     * The candidate expressions of the target being matched; scratch space of the {@link HostRegexMatcher}, kept here so that it is reused along
+     * with the result.
+     */
+    final Ordinals candidates = new Ordinals(4);
+
+    /**
+     * Create an empty result, to be filled in by a {@link HostRegexMatcher}.
+     */
+    public MatchResult() {
+    }
+
+    /**
+     * Create a result.
+     * 
+     * @param canonicalId
+     *            The first {@link CompiledCanonicalId} that matched the request; can be {@code null} if none matched.
+     * @param services
+     *            A {@link List} of the {@link CompiledService} objects that matched the request, in the order in which they were configured.
+     * @throws IllegalArgumentException
+     *             If the given list of services is {@code null}.
+     */
+    public MatchResult(CompiledCanonicalId canonicalId, List<CompiledService> services) {
+        if (services == null)
+            throw new IllegalArgumentException("Services cannot be null.");
+
+        reset(services.toArray(new CompiledService[services.size()]), canonicalId == null ? NO_CANONICAL_IDS
+                : new CompiledCanonicalId[] { canonicalId });
+        for (int i = 0; i < this.services.length; i++)
+            addService(i);
+        if (canonicalId != null)
+            addCanonicalId(0);
+    }
+
+    /**
+     * Empty this result, releasing its references to the services and canonical IDs it matched.
+     */
+    public void clear() {
+        reset(NO_SERVICES, NO_CANONICAL_IDS);
+    }
+
+    /**
+     * Create a copy of this result, which can be shared between threads as long as it is not filled in again.
+     * 
+     * @return A new {@link MatchResult} holding the same matches.
+     */
+    public MatchResult copy() {
+        final MatchResult copy = new MatchResult();
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Replace the contents of this result with those of another.
+     * 
+     * @param other
+     *            The {@link MatchResult} to be copied.
+     * @throws IllegalArgumentException
+     *             If the given result is {@code null}.
+     */
+    public void copyFrom(MatchResult other) {
+        if (other == null)
+            throw new IllegalArgumentException("Result cannot be null.");
+
+        services = other.services;
+        canonicalIds = other.canonicalIds;
+        canonicalIdOrdinal = other.canonicalIdOrdinal;
+        serviceOrdinals.copyFrom(other.serviceOrdinals);
+    }
+
+    /**
+     * Get the canonical ID that matched the request.
+     * 
+     * @return The first {@link CompiledCanonicalId} that matched the request; {@code null} if none matched.
+     */
+    public CompiledCanonicalId getCanonicalId() {
+        return canonicalIdOrdinal < 0 ? null : canonicalIds[canonicalIdOrdinal];
+    }
+
+    /**
+     * Get the position, in the configuration, of the canonical ID that matched the request.
+     * 
+     * @return The ordinal of the {@link #getCanonicalId() canonical ID}; {@code -1} if none matched.
+     */
+    public int getCanonicalIdOrdinal() {
+        return canonicalIdOrdinal;
+    }
+
+    /**
+     * Get the service with the given ordinal.
+     * 
+     * @param ordinal
+     *            One of the {@link #getServiceOrdinals() ordinals} of this result.
+     * @return The {@link CompiledService} at the given position of the configuration.
+     */
+    public CompiledService getService(int ordinal) {
+        return services[ordinal];
+    }
+
+    /**
+     * Get the positions, in the configuration, of the services that matched the request. The set belongs to this result and must not be modified.
+     * 
+     * @return An {@link OrdinalSet} of the matched services.
+     */
+    public OrdinalSet getServiceOrdinals() {
+        return serviceOrdinals;
+    }
+
+    /**
+     * Get the services that matched the request. This creates a new list; requests being handled should iterate the
+     * {@link #getServiceOrdinals() ordinals} instead.
+     * 
+     * @return An unmodifiable {@link List} of the matched {@link CompiledService} objects, in the order in which they were configured.
+     */
+    public List<CompiledService> getServices() {
+        final List<CompiledService> matches = new ArrayList<CompiledService>(serviceOrdinals.size());
+        for (int i = serviceOrdinals.next(0); i >= 0; i = serviceOrdinals.next(i + 1))
+            matches.add(services[i]);
+        return Collections.unmodifiableList(matches);
+    }
+
+    /**
+     * Determine whether or not anything matched the request.
+     * 
+     * @return {@code true} if neither a service nor a canonical ID matched the request; {@code false} otherwise.
+     */
+    public boolean isEmpty() {
+        return canonicalIdOrdinal < 0 && serviceOrdinals.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+
+        if (!(obj instanceof MatchResult))
+            return false;
+
+        final MatchResult other = (MatchResult) obj;
+        return services == other.services && canonicalIds == other.canonicalIds && canonicalIdOrdinal == other.canonicalIdOrdinal
+                && serviceOrdinals.equals(other.serviceOrdinals);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return 31 * serviceOrdinals.hashCode() + canonicalIdOrdinal;
+    }
+
+    /**
+     * Record that a canonical ID matched the request, if it takes precedence over any that already did.
+     * 
+     * @param ordinal
+     *            The position of the canonical ID in the configuration.
+     */
+    void addCanonicalId(int ordinal) {
+        if (canonicalIdOrdinal < 0 || ordinal < canonicalIdOrdinal)
+            canonicalIdOrdinal = ordinal;
+    }
+
+    /**
+     * Record that a service matched the request.
+     * 
+     * @param ordinal
+     *            The position of the service in the configuration.
+     */
+    void addService(int ordinal) {
+        serviceOrdinals.add(ordinal);
+    }
+
+    /**
+     * Empty this result, ready to be filled in with matches of the given configuration.
+     * 
+     * @param services
+     *            The compiled services of the configuration, by position.
+     * @param canonicalIds
+     *            The compiled canonical IDs of the configuration, by position.
+     */
+    void reset(CompiledService[] services, CompiledCanonicalId[] canonicalIds) {
+        this.services = services;
+        this.canonicalIds = canonicalIds;
+        this.canonicalIdOrdinal = -1;
+        serviceOrdinals.clear();
+    }
+}
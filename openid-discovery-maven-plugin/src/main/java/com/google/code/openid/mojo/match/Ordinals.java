@@ -0,0 +1,76 @@
+package com.google.code.openid.mojo.match;
+
+/**
+ * A growable list of {@code int} ordinals, used to collect matches without boxing.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+final class Ordinals {
+    private int[] values;
+    private int size;
+
+    /**
+     * Create a list.
+     * 
+     * @param capacity
+     *            The initial capacity of the list.
+     */
+    Ordinals(int capacity) {
+        this.values = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Add an ordinal.
+     * 
+     * @param value
+     *            The ordinal to be added.
+     */
+    void add(int value) {
+        if (size == values.length) {
+            final int[] grown = new int[values.length * 2];
+            System.arraycopy(values, 0, grown, 0, size);
+            values = grown;
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Add all of the given ordinals.
+     * 
+     * @param toAdd
+     *            The ordinals to be added.
+     */
+    void addAll(int[] toAdd) {
+        for (int value : toAdd)
+            add(value);
+    }
+
+    /**
+     * Remove every ordinal from the list, keeping its capacity.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Get an ordinal.
+     * 
+     * @param index
+     *            The index of the ordinal.
+     * @return The ordinal at the given index.
+     */
+    int get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Get the number of ordinals in the list.
+     * 
+     * @return The number of ordinals.
+     */
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,92 @@
+package com.google.code.openid.mojo.match;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A character trie of literal prefixes, used to find the patterns whose prefix begins a given target.
+ * <p />
+ * The trie is built with {@link #add(String, int)} and then {@link #freeze() frozen} into a compact, read-only form that can be safely searched by
+ * many threads at once.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+final class PrefixTrie {
+    private static final int[] NO_VALUES = new int[0];
+
+    private final Map<Character, PrefixTrie> building = new TreeMap<Character, PrefixTrie>();
+    private int[] values = NO_VALUES;
+    private char[] keys;
+    private PrefixTrie[] children;
+
+    /**
+     * Add a value under the given prefix.
+     * 
+     * @param prefix
+     *            The prefix.
+     * @param value
+     *            The value to be returned for all targets beginning with the prefix.
+     * @throws IllegalStateException
+     *             If the trie has already been {@link #freeze() frozen}.
+     */
+    void add(String prefix, int value) {
+        if (keys != null)
+            throw new IllegalStateException("The trie has already been frozen.");
+
+        PrefixTrie node = this;
+        for (int i = 0; i < prefix.length(); i++) {
+            final Character key = Character.valueOf(prefix.charAt(i));
+            PrefixTrie child = node.building.get(key);
+            if (child == null) {
+                child = new PrefixTrie();
+                node.building.put(key, child);
+            }
+            node = child;
+        }
+
+        final int[] values = new int[node.values.length + 1];
+        System.arraycopy(node.values, 0, values, 0, node.values.length);
+        values[node.values.length] = value;
+        node.values = values;
+    }
+
+    /**
+     * Freeze this trie into its read-only form.
+     */
+    void freeze() {
+        keys = new char[building.size()];
+        children = new PrefixTrie[building.size()];
+        int index = 0;
+        for (Map.Entry<Character, PrefixTrie> entry : building.entrySet()) {
+            keys[index] = entry.getKey().charValue();
+            children[index] = entry.getValue();
+            children[index].freeze();
+            index++;
+        }
+        building.clear();
+    }
+
+    /**
+     * Collect the values of every prefix with which the given target begins.
+     * 
+     * @param target
+     *            The target.
+     * @param collected
+     *            An {@link Ordinals} to which the values are to be added.
+     */
+    void collect(String target, Ordinals collected) {
+        PrefixTrie node = this;
+        collected.addAll(node.values);
+        for (int i = 0; i < target.length(); i++) {
+            final int index = Arrays.binarySearch(node.keys, target.charAt(i));
+            if (index < 0)
+                return;
+
+            node = node.children[index];
+            collected.addAll(node.values);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.google.code.openid.mojo.match;
+
+import java.util.Locale;
+
+/**
+ * The result of a {@link RegexCostAnalyzer} analyzing a regular expression.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public final class RegexAnalysis {
+    private final String regex;
+    private final RegexCost cost;
+    private final long worstTime;
+    private final String worstInput;
+    private final boolean expensive;
+
+    /**
+     * Create a result.
+     * 
+     * @param regex
+     *            The regular expression that was analyzed.
+     * @param cost
+     *            The {@link RegexCost} of the expression, as judged from its structure.
+     * @param worstTime
+     *            The longest time, in nanoseconds, taken to match the expression against any one adversarial input.
+     * @param worstInput
+     *            The adversarial input that took that time; {@code null} if none was tried.
+     * @param expensive
+     *            {@code true} if matching any one adversarial input was abandoned for exceeding the budget; {@code false} if not.
+     */
+    RegexAnalysis(String regex, RegexCost cost, long worstTime, String worstInput, boolean expensive) {
+        this.regex = regex;
+        this.cost = cost;
+        this.worstTime = worstTime;
+        this.worstInput = worstInput;
+        this.expensive = expensive;
+    }
+
+    /**
+     * Get the cost of the expression, as judged from its structure.
+     * 
+     * @return The {@link RegexCost} of the expression.
+     */
+    public RegexCost getCost() {
+        return cost;
+    }
+
+    /**
+     * Get the regular expression that was analyzed.
+     * 
+     * @return The regular expression.
+     */
+    public String getRegex() {
+        return regex;
+    }
+
+    /**
+     * Get the adversarial input that took the longest to match.
+     * 
+     * @return The input that took the {@link #getWorstTime() worst time} to match; {@code null} if the expression is {@link RegexCost#LITERAL
+     *         literal}, and so was not benchmarked.
+     */
+    public String getWorstInput() {
+        return worstInput;
+    }
+
+    /**
+     * Get the longest time taken to match the expression against any one adversarial input. If the expression is {@link #isExpensive() expensive},
+     * this is the time at which matching was abandoned rather than the time matching would have taken.
+     * 
+     * @return The time, in nanoseconds.
+     */
+    public long getWorstTime() {
+        return worstTime;
+    }
+
+    /**
+     * Determine whether the expression is expensive to match: whether matching it against an adversarial input took longer than the budget of
+     * the analyzer, even when retried. An expression can be {@link RegexCost#EXPONENTIAL potentially exponential} without being expensive, as
+     * the structural analysis errs on the side of suspicion.
+     * 
+     * @return {@code true} if the expression is expensive to match; {@code false} if not.
+     */
+    public boolean isExpensive() {
+        return expensive;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "'" + regex + "' (" + cost.name().toLowerCase(Locale.ENGLISH) + ", " + worstTime / 1000 + " us worst case"
+                + (expensive ? ", abandoned" : "") + ")";
+    }
+}
@@ -0,0 +1,30 @@
+package com.google.code.openid.mojo.match;
+
+/**
+ * How the cost of matching a regular expression grows with the length of the text being matched, as judged from its structure by a
+ * {@link RegexCostAnalyzer}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public enum RegexCost {
+    /**
+     * The expression matches only a single literal text, so matching it is a lookup.
+     */
+    LITERAL,
+    /**
+     * The expression begins with literal text, so that it is only evaluated for targets that begin with that text, and has no construct that
+     * could make it backtrack exponentially.
+     */
+    PREFIX,
+    /**
+     * The expression has no construct that could make it backtrack exponentially, but is evaluated for every target.
+     */
+    LINEAR,
+    /**
+     * The expression repeats a group that can itself match in more than one way - such as {@code (a+)+} or {@code (a|ab)*} - so that a target
+     * that almost matches it could take time exponential in its length to be rejected.
+     */
+    EXPONENTIAL
+}
@@ -0,0 +1,402 @@
+package com.google.code.openid.mojo.match;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * An analyzer of the cost of matching host regular expressions, used to find those that a crafted request could make take so long to match that
+ * it ties up a request thread.
+ * <p />
+ * Each expression is first {@link #classify(String) classified} by its structure, and then - unless it is a literal - matched against
+ * adversarial inputs: each character that the expression mentions, repeated {@value #ADVERSARIAL_LENGTH} times after the expression's literal
+ * prefix and followed by a character that is unlikely to let the match succeed, so that a backtracking matcher tries every way of matching the
+ * repetition before giving up. Each match is abandoned once it exceeds the budget of the analyzer, so that analyzing even a catastrophic
+ * expression takes no longer than the budget; a match that exceeds it is retried once, so that a collection pause alone cannot make an expression
+ * seem expensive.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public final class RegexCostAnalyzer {
+    /**
+     * The default time, in milliseconds, that matching an expression against any one adversarial input may take before the expression is deemed
+     * expensive.
+     */
+    public static final long DEFAULT_BUDGET = 10;
+
+    /**
+     * The number of times a character is repeated in an adversarial input.
+     */
+    static final int ADVERSARIAL_LENGTH = 64;
+
+    /**
+     * The maximum number of distinct characters repeated in adversarial inputs for any one expression.
+     */
+    private static final int MAX_PUMPS = 8;
+
+    /**
+     * The characters appended to adversarial inputs to make them fail to match: one that few expressions mention, and a line terminator, which
+     * {@code .} does not match.
+     */
+    private static final String[] SUFFIXES = { "!", "\n" };
+
+    private static final String METACHARACTERS = "[](){}*+?^$|";
+
+    private final long budget;
+
+    /**
+     * Create an analyzer.
+     * 
+     * @param budget
+     *            The time, in milliseconds, that matching an expression against any one adversarial input may take before the expression is
+     *            deemed expensive.
+     * @throws IllegalArgumentException
+     *             If the given budget is less than 1.
+     */
+    public RegexCostAnalyzer(long budget) {
+        if (budget < 1)
+            throw new IllegalArgumentException("Budget must be at least 1: " + budget);
+
+        this.budget = TimeUnit.MILLISECONDS.toNanos(budget);
+    }
+
+    /**
+     * Get the time that matching an expression against any one adversarial input may take before the expression is deemed expensive.
+     * 
+     * @return The budget, in milliseconds.
+     */
+    public long getBudget() {
+        return TimeUnit.NANOSECONDS.toMillis(budget);
+    }
+
+    /**
+     * Analyze a regular expression.
+     * 
+     * @param regex
+     *            The regular expression, as it would be given to {@link Pattern#compile(String)} without flags.
+     * @return A {@link RegexAnalysis} of the expression.
+     * @throws IllegalArgumentException
+     *             If the given expression is {@code null} or is not a valid regular expression.
+     */
+    public RegexAnalysis analyze(String regex) {
+        if (regex == null)
+            throw new IllegalArgumentException("Regular expression cannot be null.");
+
+        final Pattern pattern = Pattern.compile(regex);
+        final RegexCost cost = classify(regex);
+        if (cost == RegexCost.LITERAL)
+            return new RegexAnalysis(regex, cost, 0, null, false);
+
+        long worstTime = 0;
+        String worstInput = null;
+        for (String input : adversarialInputs(regex)) {
+            long time = time(pattern, input);
+            if (time < 0)
+                time = time(pattern, input);
+
+            if (time < 0)
+                return new RegexAnalysis(regex, cost, -time, input, true);
+
+            if (worstInput == null || time > worstTime) {
+                worstTime = time;
+                worstInput = input;
+            }
+        }
+        return new RegexAnalysis(regex, cost, worstTime, worstInput, false);
+    }
+
+    /**
+     * Classify a regular expression by its structure.
+     * <p />
+     * An expression is deemed {@link RegexCost#EXPONENTIAL potentially exponential} if it repeats a group that contains a quantifier of variable
+     * count, such as {@code (a+)+} or {@code (a?b)*}, or that contains alternatives beginning with the same character, such as {@code (a|ab)*};
+     * possessive quantifiers and atomic groups, which never backtrack, are exempt. This errs on the side of suspicion - Java 9 and later, for
+     * instance, remember where a repeated group has already failed, which defuses a single level of nesting - so the adversarial inputs of
+     * {@link #analyze(String)} then confirm or dispel it.
+     * 
+     * @param regex
+     *            The regular expression, as it would be given to {@link Pattern#compile(String)} without flags.
+     * @return The {@link RegexCost} of the expression.
+     * @throws IllegalArgumentException
+     *             If the given expression is {@code null}.
+     */
+    public static RegexCost classify(String regex) {
+        if (regex == null)
+            throw new IllegalArgumentException("Regular expression cannot be null.");
+
+        final LiteralPrefix prefix = new LiteralPrefix(regex);
+        if (prefix.isExact())
+            return RegexCost.LITERAL;
+
+        if (isPotentiallyExponential(regex))
+            return RegexCost.EXPONENTIAL;
+
+        return prefix.getPrefix().length() > 0 ? RegexCost.PREFIX : RegexCost.LINEAR;
+    }
+
+    /**
+     * Generate the adversarial inputs against which an expression is matched.
+     * 
+     * @param regex
+     *            The regular expression.
+     * @return A {@link List} of inputs.
+     */
+    static List<String> adversarialInputs(String regex) {
+        final Set<Character> candidates = new LinkedHashSet<Character>();
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                final char escaped = regex.charAt(++i);
+                if (escaped == 'd')
+                    candidates.add(Character.valueOf('0'));
+                else if (escaped == 'w' || escaped == 'S')
+                    candidates.add(Character.valueOf('a'));
+                else if (escaped == 's')
+                    candidates.add(Character.valueOf(' '));
+                else if (!Character.isLetterOrDigit(escaped))
+                    candidates.add(Character.valueOf(escaped));
+            } else if (c == '{') {
+                // Skip the counts of quantifiers
+                final int end = regex.indexOf('}', i);
+                if (end > 0)
+                    i = end;
+            } else if (c == '.') {
+                candidates.add(Character.valueOf('a'));
+            } else if (METACHARACTERS.indexOf(c) < 0) {
+                candidates.add(Character.valueOf(c));
+            }
+        }
+        candidates.add(Character.valueOf('a'));
+
+        // Characters of the literal prefix are least likely to be repeated by the expression, so are only tried if there are too few others
+        final String prefix = new LiteralPrefix(regex).getPrefix();
+        final List<Character> pumps = new ArrayList<Character>(MAX_PUMPS);
+        for (Character candidate : candidates)
+            if (pumps.size() < MAX_PUMPS && prefix.indexOf(candidate.charValue()) < 0)
+                pumps.add(candidate);
+        for (Character candidate : candidates)
+            if (pumps.size() < MAX_PUMPS && prefix.indexOf(candidate.charValue()) >= 0)
+                pumps.add(candidate);
+
+        final List<String> inputs = new ArrayList<String>(pumps.size() * SUFFIXES.length);
+        for (Character pump : pumps) {
+            final StringBuilder repeated = new StringBuilder(prefix.length() + ADVERSARIAL_LENGTH + 1).append(prefix);
+            for (int i = 0; i < ADVERSARIAL_LENGTH; i++)
+                repeated.append(pump.charValue());
+            for (String suffix : SUFFIXES)
+                inputs.add(repeated + suffix);
+        }
+        return inputs;
+    }
+
+    /**
+     * Time the matching of an expression against an input.
+     * 
+     * @param pattern
+     *            The {@link Pattern} to be matched.
+     * @param input
+     *            The input to be matched.
+     * @return The time, in nanoseconds, taken to match the input; negated if matching was abandoned for exceeding the budget.
+     */
+    private long time(Pattern pattern, String input) {
+        final long start = System.nanoTime();
+        try {
+            pattern.matcher(new DeadlineCharSequence(input, start + budget)).matches();
+        } catch (RegexTimeoutException e) {
+            return -(System.nanoTime() - start);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Determine whether an expression repeats a group that could match the same text in more than one way.
+     * 
+     * @param regex
+     *            The regular expression.
+     * @return {@code true} if the expression is potentially exponential; {@code false} if not.
+     */
+    private static boolean isPotentiallyExponential(String regex) {
+        final LinkedList<Group> enclosing = new LinkedList<Group>();
+        Group group = new Group(false);
+        boolean branchStart = true;
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            // The single character matched by the next atom, if it is a literal, and where the atom ends
+            Character literal = null;
+            int next = i + 1;
+            if (c == '\\') {
+                if (regex.startsWith("\\Q", i)) {
+                    final int end = regex.indexOf("\\E", i + 2);
+                    if (end > i + 2)
+                        literal = Character.valueOf(regex.charAt(i + 2));
+                    next = end < 0 ? regex.length() : end + 2;
+                } else if (i + 1 < regex.length()) {
+                    final char escaped = regex.charAt(i + 1);
+                    next = i + 2;
+                    if (!Character.isLetterOrDigit(escaped))
+                        literal = Character.valueOf(escaped);
+                    else if ((escaped == 'p' || escaped == 'P' || escaped == 'x') && regex.startsWith("{", next))
+                        next = Math.max(regex.indexOf('}', next) + 1, next);
+                }
+            } else if (c == '[') {
+                next = classEnd(regex, i);
+            } else if (c == '(') {
+                int end = i + 1;
+                boolean atomic = false;
+                if (regex.startsWith("?", end)) {
+                    atomic = regex.startsWith("?>", end);
+                    while (end < regex.length() && ":=!>)".indexOf(regex.charAt(end)) < 0)
+                        end++;
+                    // An inline flag, such as (?i), is not a group
+                    if (end < regex.length() && regex.charAt(end) == ')') {
+                        i = end + 1;
+                        continue;
+                    }
+                    end++;
+                }
+                enclosing.addFirst(group);
+                group = new Group(atomic);
+                branchStart = true;
+                i = end;
+                continue;
+            } else if (c == ')') {
+                if (enclosing.isEmpty())
+                    return false;
+
+                final Group closed = group;
+                group = enclosing.removeFirst();
+                final Quantifier quantifier = new Quantifier(regex, i + 1);
+                if (quantifier.repeating && !closed.atomic && (closed.variable || closed.ambiguous))
+                    return true;
+
+                if (quantifier.variable || closed.variable && !closed.atomic)
+                    group.variable = true;
+                branchStart = false;
+                i = quantifier.end;
+                continue;
+            } else if (c == '|') {
+                branchStart = true;
+                i++;
+                continue;
+            } else if (c != '.' && c != '^' && c != '$') {
+                literal = Character.valueOf(c);
+            }
+
+            if (branchStart && literal != null && !group.branchStarts.add(literal))
+                group.ambiguous = true;
+            branchStart = false;
+
+            final Quantifier quantifier = new Quantifier(regex, next);
+            if (quantifier.variable)
+                group.variable = true;
+            i = quantifier.end;
+        }
+        return false;
+    }
+
+    /**
+     * Find the end of a character class.
+     * 
+     * @param regex
+     *            The regular expression.
+     * @param start
+     *            The index of the opening bracket of the class.
+     * @return The index following the closing bracket of the class.
+     */
+    private static int classEnd(String regex, int start) {
+        int depth = 0;
+        for (int i = start; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (c == '[')
+                depth++;
+            else if (c == ']' && i > start + 1 && !(i == start + 2 && regex.charAt(start + 1) == '^') && --depth == 0)
+                return i + 1;
+        }
+        return regex.length();
+    }
+
+    /**
+     * A group being scanned for constructs that make its repetition ambiguous.
+     */
+    private static final class Group {
+        private final boolean atomic;
+        private final Set<Character> branchStarts = new HashSet<Character>();
+        private boolean variable;
+        private boolean ambiguous;
+
+        /**
+         * Create a group.
+         * 
+         * @param atomic
+         *            {@code true} if the group is atomic, and so is never backtracked into; {@code false} if not.
+         */
+        Group(boolean atomic) {
+            this.atomic = atomic;
+        }
+    }
+
+    /**
+     * The quantifier, if any, that follows an atom.
+     */
+    private static final class Quantifier {
+        private final int end;
+        private final boolean variable;
+        private final boolean repeating;
+
+        /**
+         * Read a quantifier.
+         * 
+         * @param regex
+         *            The regular expression.
+         * @param start
+         *            The index following the atom.
+         */
+        Quantifier(String regex, int start) {
+            int min = 1;
+            int max = 1;
+            int i = start;
+            if (i < regex.length()) {
+                final char c = regex.charAt(i);
+                if (c == '?' || c == '*' || c == '+') {
+                    min = c == '+' ? 1 : 0;
+                    max = c == '?' ? 1 : Integer.MAX_VALUE;
+                    i++;
+                } else if (c == '{') {
+                    final int close = regex.indexOf('}', i);
+                    if (close > i) {
+                        final String counts = regex.substring(i + 1, close);
+                        final int comma = counts.indexOf(',');
+                        try {
+                            min = Integer.parseInt((comma < 0 ? counts : counts.substring(0, comma)).trim());
+                            max = comma < 0 ? min : comma == counts.length() - 1 ? Integer.MAX_VALUE : Integer.parseInt(counts.substring(comma + 1)
+                                    .trim());
+                            i = close + 1;
+                        } catch (NumberFormatException e) {
+                            min = 1;
+                            max = 1;
+                        }
+                    }
+                }
+            }
+
+            // A possessive quantifier never gives back what it has matched
+            final boolean possessive = i > start && regex.startsWith("+", i);
+            if (i > start && (possessive || regex.startsWith("?", i)))
+                i++;
+
+            this.end = i;
+            this.variable = !possessive && max > min;
+            this.repeating = !possessive && max > 1;
+        }
+    }
+}
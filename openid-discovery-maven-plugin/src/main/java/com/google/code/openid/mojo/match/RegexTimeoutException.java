@@ -0,0 +1,36 @@
+package com.google.code.openid.mojo.match;
+
+/**
+ * An exception thrown when a regular expression takes longer to be matched than it was allowed.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class RegexTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = -3022384817104928465L;
+
+    private final String hostRegex;
+
+    /**
+     * Create an exception.
+     * 
+     * @param hostRegex
+     *            The expression whose matching was abandoned; {@code null} if not known.
+     * @param message
+     *            A description of the match that was abandoned.
+     */
+    RegexTimeoutException(String hostRegex, String message) {
+        super(message);
+        this.hostRegex = hostRegex;
+    }
+
+    /**
+     * Get the expression whose matching was abandoned.
+     * 
+     * @return The expression, as it was configured; {@code null} if not known.
+     */
+    public String getHostRegex() {
+        return hostRegex;
+    }
+}
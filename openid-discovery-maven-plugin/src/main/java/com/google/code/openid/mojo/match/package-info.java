@@ -0,0 +1,4 @@
+/**
+ * Objects used to match requests against the configured services and canonical IDs.
+ */
+package com.google.code.openid.mojo.match;
\ No newline at end of file
@@ -0,0 +1,374 @@
+package com.google.code.openid.mojo.metrics;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.code.openid.mojo.openid.CompiledCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledService;
+
+/**
+ * The metrics of a discovery server: how many requests it has handled, which services and canonical IDs they matched, which host regexes took
+ * too long to match, and how long matching, writing and handling them took.
+ * <p />
+ * Every counter is a {@link StripedCounter} and every duration is recorded in a {@link LatencyHistogram}, so recording never takes a lock.
+ * The per-service and per-canonical-ID counters are keyed by what the service or canonical ID serves rather than by the object itself, so that
+ * they keep counting across updates of the services being served; they are meant to be looked up once, when the services are compiled, rather
+ * than for each request. Once an update has been swapped in, the counters of the services and canonical IDs it no longer serves are
+ * {@link #retainHits(StripedCounter[], StripedCounter[]) discarded}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class DiscoveryMetrics {
+    /**
+     * The quantiles reported for each duration.
+     */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /**
+     * The number of stripes of each per-service and per-canonical-ID counter; fewer than those of the overall counters, since there can be a great
+     * many of them and each is only a fraction of the traffic.
+     */
+    private static final int KEYED_STRIPES = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    private final StripedCounter requests = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter indirections = new StripedCounter();
+    private final LatencyHistogram matchLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+    private final ConcurrentMap<Labels, StripedCounter> serviceHits = new ConcurrentHashMap<Labels, StripedCounter>();
+    private final ConcurrentMap<Labels, StripedCounter> canonicalIdHits = new ConcurrentHashMap<Labels, StripedCounter>();
+    private final ConcurrentMap<Labels, StripedCounter> matchTimeouts = new ConcurrentHashMap<Labels, StripedCounter>();
+
+    /**
+     * Get the counter of the requests that matched a canonical ID.
+     * 
+     * @param canonicalId
+     *            The {@link CompiledCanonicalId} whose hits are to be counted.
+     * @return The {@link StripedCounter} of the canonical ID's hits.
+     */
+    public StripedCounter getCanonicalIdHits(CompiledCanonicalId canonicalId) {
+        return getCounter(canonicalIdHits, new Labels(canonicalId.getHostRegex(), "canonical_id", canonicalId.getCanonicalId()));
+    }
+
+    /**
+     * Get the histogram of the time taken to match request targets.
+     * 
+     * @return The {@link LatencyHistogram} of match durations.
+     */
+    public LatencyHistogram getMatchLatency() {
+        return matchLatency;
+    }
+
+    /**
+     * Get the counter of the requests answered with an {@code X-XRDS-Location} header rather than the XRDS document itself.
+     * 
+     * @return The {@link StripedCounter} of Yadis indirections.
+     */
+    public StripedCounter getIndirections() {
+        return indirections;
+    }
+
+    /**
+     * Get the counter of the requests whose matching was abandoned while a host regex was being evaluated, for exceeding the match timeout. Such
+     * timeouts are expected to be rare, so the counter can be looked up for each one.
+     * 
+     * @param hostRegex
+     *            The host regex that was being evaluated.
+     * @return The {@link StripedCounter} of the host regex's timeouts.
+     */
+    public StripedCounter getMatchTimeouts(String hostRegex) {
+        return getCounter(matchTimeouts, new Labels(hostRegex, null, null));
+    }
+
+    /**
+     * Get the counter of the requests that matched nothing.
+     * 
+     * @return The {@link StripedCounter} of misses.
+     */
+    public StripedCounter getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the histogram of the time taken to handle requests, from first matching them to having sent the response.
+     * 
+     * @return The {@link LatencyHistogram} of request durations.
+     */
+    public LatencyHistogram getRequestLatency() {
+        return requestLatency;
+    }
+
+    /**
+     * Get the counter of the requests handled.
+     * 
+     * @return The {@link StripedCounter} of requests.
+     */
+    public StripedCounter getRequests() {
+        return requests;
+    }
+
+    /**
+     * Get the counter of the requests that matched a service.
+     * 
+     * @param service
+     *            The {@link CompiledService} whose hits are to be counted.
+     * @return The {@link StripedCounter} of the service's hits.
+     */
+    public StripedCounter getServiceHits(CompiledService service) {
+        return getCounter(serviceHits, new Labels(service.getHostRegex(), "uri", service.getUri()));
+    }
+
+    /**
+     * Get the histogram of the time taken to write out discovery documents. Documents are only written out the first time they are served, so
+     * this measures serialization rather than the sending of responses.
+     * 
+     * @return The {@link LatencyHistogram} of write durations.
+     */
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * Discard every per-service and per-canonical-ID counter other than the given ones, so that the counters of services and canonical IDs that
+     * are no longer served are neither reported nor kept in memory. This is to be called once the services and canonical IDs for which the given
+     * counters were looked up have replaced those served before.
+     * 
+     * @param canonicalIdHits
+     *            The {@link StripedCounter} objects of the canonical IDs now being served.
+     * @param serviceHits
+     *            The {@link StripedCounter} objects of the services now being served.
+     * @throws IllegalArgumentException
+     *             If either of the given arrays is {@code null}.
+     */
+    public void retainHits(StripedCounter[] canonicalIdHits, StripedCounter[] serviceHits) {
+        if (canonicalIdHits == null)
+            throw new IllegalArgumentException("Canonical ID hits cannot be null.");
+
+        if (serviceHits == null)
+            throw new IllegalArgumentException("Service hits cannot be null.");
+
+        retain(this.canonicalIdHits, canonicalIdHits);
+        retain(this.serviceHits, serviceHits);
+    }
+
+    /**
+     * Format the metrics in the Prometheus text exposition format.
+     * 
+     * @return The metrics, as text.
+     */
+    public String toPrometheus() {
+        final StringBuilder builder = new StringBuilder();
+        appendCounter(builder, "openid_discovery_requests_total", "Requests handled by the discovery server.", requests);
+        appendCounter(builder, "openid_discovery_misses_total", "Requests that matched no service or canonical ID.", misses);
+        appendCounter(builder, "openid_discovery_yadis_indirections_total", "Requests answered with an X-XRDS-Location header.", indirections);
+        appendKeyedCounters(builder, "openid_discovery_service_hits_total", "Requests that matched each service.", serviceHits);
+        appendKeyedCounters(builder, "openid_discovery_canonical_id_hits_total", "Requests that matched each canonical ID.", canonicalIdHits);
+        appendKeyedCounters(builder, "openid_discovery_match_timeouts_total", "Requests abandoned for taking too long to match each host regex.",
+                matchTimeouts);
+        appendSummary(builder, "openid_discovery_match_seconds", "Time taken to match request targets.", matchLatency);
+        appendSummary(builder, "openid_discovery_write_seconds", "Time taken to write out discovery documents.", writeLatency);
+        appendSummary(builder, "openid_discovery_request_seconds", "Time taken to handle requests.", requestLatency);
+        return builder.toString();
+    }
+
+    /**
+     * Append a counter.
+     * 
+     * @param builder
+     *            The {@link StringBuilder} to which the counter is to be appended.
+     * @param name
+     *            The name of the metric.
+     * @param help
+     *            A description of the metric.
+     * @param counter
+     *            The {@link StripedCounter} to be appended.
+     */
+    private void appendCounter(StringBuilder builder, String name, String help, StripedCounter counter) {
+        appendHeader(builder, name, help, "counter");
+        builder.append(name).append(' ').append(counter.get()).append('\n');
+    }
+
+    /**
+     * Append the header of a metric.
+     * 
+     * @param builder
+     *            The {@link StringBuilder} to which the header is to be appended.
+     * @param name
+     *            The name of the metric.
+     * @param help
+     *            A description of the metric.
+     * @param type
+     *            The type of the metric.
+     */
+    private void appendHeader(StringBuilder builder, String name, String help, String type) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Append a family of labelled counters.
+     * 
+     * @param builder
+     *            The {@link StringBuilder} to which the counters are to be appended.
+     * @param name
+     *            The name of the metric.
+     * @param help
+     *            A description of the metric.
+     * @param counters
+     *            A {@link Map} of the counters, keyed by their labels.
+     */
+    private void appendKeyedCounters(StringBuilder builder, String name, String help, Map<Labels, StripedCounter> counters) {
+        appendHeader(builder, name, help, "counter");
+        // Render the labels only now, so that the text of each is not held in memory between scrapes, and sort the counters so that successive
+        // scrapes list them in the same order
+        final Map<String, StripedCounter> sorted = new TreeMap<String, StripedCounter>();
+        for (Map.Entry<Labels, StripedCounter> entry : counters.entrySet())
+            sorted.put(entry.getKey().toString(), entry.getValue());
+        for (Map.Entry<String, StripedCounter> entry : sorted.entrySet())
+            builder.append(name).append('{').append(entry.getKey()).append("} ").append(entry.getValue().get()).append('\n');
+    }
+
+    /**
+     * Append a histogram as a summary, with its durations in seconds.
+     * 
+     * @param builder
+     *            The {@link StringBuilder} to which the summary is to be appended.
+     * @param name
+     *            The name of the metric.
+     * @param help
+     *            A description of the metric.
+     * @param histogram
+     *            The {@link LatencyHistogram} to be appended.
+     */
+    private void appendSummary(StringBuilder builder, String name, String help, LatencyHistogram histogram) {
+        appendHeader(builder, name, help, "summary");
+        final long[] percentiles = histogram.getPercentiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++)
+            builder.append(name).append("{quantile=\"").append(QUANTILES[i]).append("\"} ").append(toSeconds(percentiles[i])).append('\n');
+        builder.append(name).append("_sum ").append(toSeconds(histogram.getSum())).append('\n');
+        builder.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    /**
+     * Escape a label value.
+     * 
+     * @param value
+     *            The value to be escaped.
+     * @return The value, with backslashes, double quotes and line feeds escaped.
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Get a labelled counter, creating it if it does not yet exist.
+     * 
+     * @param counters
+     *            The {@link ConcurrentMap} of the counters, keyed by their labels.
+     * @param labels
+     *            The labels of the counter.
+     * @return The {@link StripedCounter} with the given labels.
+     */
+    private static StripedCounter getCounter(ConcurrentMap<Labels, StripedCounter> counters, Labels labels) {
+        final StripedCounter counter = counters.get(labels);
+        if (counter != null)
+            return counter;
+
+        final StripedCounter created = new StripedCounter(KEYED_STRIPES);
+        final StripedCounter existing = counters.putIfAbsent(labels, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Remove every labelled counter other than the given ones.
+     * 
+     * @param counters
+     *            The {@link ConcurrentMap} of the counters, keyed by their labels.
+     * @param retained
+     *            The {@link StripedCounter} objects to be kept.
+     */
+    private static void retain(ConcurrentMap<Labels, StripedCounter> counters, StripedCounter[] retained) {
+        final Map<StripedCounter, Boolean> kept = new IdentityHashMap<StripedCounter, Boolean>(retained.length * 2);
+        for (StripedCounter counter : retained)
+            kept.put(counter, Boolean.TRUE);
+        for (Iterator<StripedCounter> values = counters.values().iterator(); values.hasNext();)
+            if (!kept.containsKey(values.next()))
+                values.remove();
+    }
+
+    /**
+     * Convert nanoseconds to seconds.
+     * 
+     * @param nanos
+     *            The duration, in nanoseconds.
+     * @return The duration, in seconds.
+     */
+    private static double toSeconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    /**
+     * The labels of a per-service or per-canonical-ID counter: the host regex and one other value, both of which are shared with the compiled service
+     * or canonical ID they describe. The labels of a per-host-regex counter have no other value.
+     */
+    private static final class Labels {
+        private final String hostRegex;
+        private final String name;
+        private final String value;
+
+        /**
+         * Create labels.
+         * 
+         * @param hostRegex
+         *            The host regex.
+         * @param name
+         *            The name of the other label; {@code null} if there is none.
+         * @param value
+         *            The value of the other label; {@code null} if there is none.
+         */
+        Labels(String hostRegex, String name, String value) {
+            this.hostRegex = hostRegex;
+            this.name = name;
+            this.value = value;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Labels))
+                return false;
+
+            final Labels other = (Labels) obj;
+            return hostRegex.equals(other.hostRegex) && (name == null ? other.name == null : name.equals(other.name))
+                    && (value == null ? other.value == null : value.equals(other.value));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return (hostRegex.hashCode() * 31 + (name == null ? 0 : name.hashCode())) * 31 + (value == null ? 0 : value.hashCode());
+        }
+
+        /**
+         * Render the labels as they appear in the exposition format.
+         * 
+         * @return The labels, with their values escaped.
+         */
+        @Override
+        public String toString() {
+            final String text = "host_regex=\"" + escape(hostRegex) + "\"";
+            return name == null ? text : text + "," + name + "=\"" + escape(value) + "\"";
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.google.code.openid.mojo.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe, lock-free histogram of durations, from which percentiles can be estimated.
+ * <p />
+ * Durations are counted in logarithmic buckets: every power of two is split into {@value #SUB_BUCKETS} equal buckets, so a percentile is estimated
+ * to within 1/{@value #SUB_BUCKETS} of its true value no matter how large it is, with a fixed amount of memory. Recording a duration only
+ * increments one bucket of the recording thread's stripe; like a {@link StripedCounter}, threads recording at once rarely write to the same memory.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class LatencyHistogram {
+    /**
+     * The number of buckets into which each power of two is split.
+     */
+    static final int SUB_BUCKETS = 8;
+
+    /**
+     * The number of buckets holding durations too short to be split, each of which holds exactly one duration.
+     */
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+
+    /**
+     * The base-two logarithm of {@link #SUB_BUCKETS}.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The largest power of two that is split into buckets; longer durations, over 18 minutes in nanoseconds, are counted in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * The number of buckets in each stripe.
+     */
+    static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final StripedCounter sum;
+    private final int stripes;
+
+    /**
+     * Create a histogram with a stripe for each available processor.
+     */
+    public LatencyHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a histogram.
+     * 
+     * @param stripes
+     *            The number of stripes.
+     * @throws IllegalArgumentException
+     *             If the given number of stripes is less than 1.
+     */
+    public LatencyHistogram(int stripes) {
+        if (stripes < 1)
+            throw new IllegalArgumentException("Stripes must be at least 1: " + stripes);
+
+        this.stripes = stripes;
+        this.buckets = new AtomicLongArray(stripes * BUCKETS);
+        this.sum = new StripedCounter(stripes);
+    }
+
+    /**
+     * Get the number of recorded durations.
+     * 
+     * @return The number of durations recorded.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++)
+            count += buckets.get(i);
+        return count;
+    }
+
+    /**
+     * Get the sum of the recorded durations.
+     * 
+     * @return The total of the durations recorded, in nanoseconds.
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Estimate a percentile of the recorded durations.
+     * 
+     * @param quantile
+     *            The quantile to be estimated, from {@code 0} to {@code 1}; for example, {@code 0.99} for the 99th percentile.
+     * @return The estimated duration, in nanoseconds, below which the given fraction of the recorded durations fall; {@code 0} if no durations
+     *         have been recorded.
+     * @throws IllegalArgumentException
+     *             If the given quantile is not between {@code 0} and {@code 1}.
+     */
+    public long getPercentile(double quantile) {
+        return getPercentiles(new double[] { quantile })[0];
+    }
+
+    /**
+     * Estimate several percentiles of the recorded durations from a single, consistent read of the histogram.
+     * 
+     * @param quantiles
+     *            The quantiles to be estimated, each from {@code 0} to {@code 1}, in ascending order.
+     * @return The estimated durations, in nanoseconds, in the same order as the given quantiles; {@code 0} if no durations have been recorded.
+     * @throws IllegalArgumentException
+     *             If any of the given quantiles is not between {@code 0} and {@code 1}, or they are not in ascending order.
+     */
+    public long[] getPercentiles(double[] quantiles) {
+        for (int i = 0; i < quantiles.length; i++) {
+            if (quantiles[i] < 0 || quantiles[i] > 1)
+                throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantiles[i]);
+            if (i > 0 && quantiles[i] < quantiles[i - 1])
+                throw new IllegalArgumentException("Quantiles must be in ascending order.");
+        }
+
+        // Merge the stripes once, so that every percentile is estimated from the same counts
+        final long[] merged = new long[BUCKETS];
+        long count = 0;
+        for (int stripe = 0; stripe < stripes; stripe++)
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                final long bucketCount = buckets.get(stripe * BUCKETS + bucket);
+                merged[bucket] += bucketCount;
+                count += bucketCount;
+            }
+
+        final long[] percentiles = new long[quantiles.length];
+        if (count == 0)
+            return percentiles;
+
+        long seen = 0;
+        int bucket = -1;
+        for (int i = 0; i < quantiles.length; i++) {
+            final long rank = Math.max(1, (long) Math.ceil(quantiles[i] * count));
+            while (seen < rank)
+                seen += merged[++bucket];
+            percentiles[i] = highestValue(bucket);
+        }
+        return percentiles;
+    }
+
+    /**
+     * Record a duration.
+     * 
+     * @param nanos
+     *            The duration, in nanoseconds; negative durations, which a non-monotonic clock can produce, are recorded as {@code 0}.
+     */
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        buckets.incrementAndGet(stripe() * BUCKETS + bucketOf(value));
+        sum.add(value);
+    }
+
+    /**
+     * Get the bucket in which a duration is counted.
+     * 
+     * @param value
+     *            The non-negative duration.
+     * @return The index of the bucket within a stripe.
+     */
+    static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS)
+            return (int) value;
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Get the highest duration counted in a bucket.
+     * 
+     * @param bucket
+     *            The index of the bucket within a stripe.
+     * @return The highest duration counted in the bucket.
+     */
+    static long highestValue(int bucket) {
+        if (bucket < LINEAR_BUCKETS)
+            return bucket;
+
+        final int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        final long lowest = (SUB_BUCKETS + (bucket - LINEAR_BUCKETS) % SUB_BUCKETS) * width;
+        return lowest + width - 1;
+    }
+
+    /**
+     * Get the stripe used by the current thread.
+     * 
+     * @return The index of the stripe.
+     */
+    private int stripe() {
+        final long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) ((id >>> 32) & 0x7FFFFFFF) % stripes;
+    }
+}
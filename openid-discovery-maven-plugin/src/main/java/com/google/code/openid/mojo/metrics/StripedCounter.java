@@ -0,0 +1,97 @@
+package com.google.code.openid.mojo.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe counter that is cheap to increment from many threads at once.
+ * <p />
+ * The count is split into stripes, each on its own cache line, and each thread adds only to the stripe chosen by its ID, so that threads
+ * incrementing the counter at once rarely write to the same memory. Reading the count sums the stripes; a read that races with increments may miss
+ * some of them, but never sees a count that was never reached.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class StripedCounter {
+    /**
+     * The number of {@code long} elements between the starts of adjacent stripes, so that no two stripes share a 64-byte cache line.
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    /**
+     * Create a counter with a stripe for each available processor.
+     */
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a counter.
+     * 
+     * @param stripes
+     *            The number of stripes; rounded up to the next power of two.
+     * @throws IllegalArgumentException
+     *             If the given number of stripes is less than 1.
+     */
+    public StripedCounter(int stripes) {
+        if (stripes < 1)
+            throw new IllegalArgumentException("Stripes must be at least 1: " + stripes);
+
+        final int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        // A single stripe shares its cache line with no other stripe, so it needs no padding
+        this.cells = new AtomicLongArray(size == 1 ? 1 : size * PADDING);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Add to the count.
+     * 
+     * @param delta
+     *            The amount to be added.
+     */
+    public void add(long delta) {
+        cells.addAndGet(stripe() * PADDING, delta);
+    }
+
+    /**
+     * Get the count.
+     * 
+     * @return The sum of everything added to this counter.
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING)
+            sum += cells.get(i);
+        return sum;
+    }
+
+    /**
+     * Add one to the count.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Get the stripe used by the current thread.
+     * 
+     * @return The index of the stripe.
+     */
+    private int stripe() {
+        // Thread IDs are handed out sequentially, so mix them before masking in order to spread neighbouring threads across stripes
+        final long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & mask;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Objects used to measure how the discovery server is being used and how quickly it responds.
+ */
+package com.google.code.openid.mojo.metrics;
@@ -0,0 +1,78 @@
+package com.google.code.openid.mojo.openid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+
+/**
+ * An immutable, compiled form of a {@link DiscoveryCanonicalId}.
+ * <p />
+ * The {@code <CanonicalID />} element is escaped and encoded once, when the canonical ID is compiled.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public final class CompiledCanonicalId {
+    private final String hostRegex;
+    private final String canonicalId;
+    private final byte[] fragment;
+
+    /**
+     * Compile a canonical ID.
+     * 
+     * @param canonicalId
+     *            The {@link DiscoveryCanonicalId} to be compiled.
+     * @throws IllegalArgumentException
+     *             If the given canonical ID is {@code null} or contains text that cannot be written out as XML.
+     * @throws IllegalStateException
+     *             If any of the required fields of the canonical ID have not been set.
+     */
+    public CompiledCanonicalId(DiscoveryCanonicalId canonicalId) {
+        if (canonicalId == null)
+            throw new IllegalArgumentException("Canonical ID cannot be null.");
+
+        this.hostRegex = canonicalId.getHostRegex();
+        this.canonicalId = canonicalId.getCanonicalId();
+
+        final StringWriter writer = new StringWriter();
+        try {
+            StreamingDiscoveredServiceWriter.writeElement(writer, "CanonicalID", this.canonicalId);
+            this.fragment = writer.toString().getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode canonical ID " + this.canonicalId + ".", e);
+        }
+    }
+
+    /**
+     * Get the canonical ID.
+     * 
+     * @return The canonical ID.
+     */
+    public String getCanonicalId() {
+        return canonicalId;
+    }
+
+    /**
+     * Get the regular expression used to match requests against this canonical ID.
+     * 
+     * @return The host regex.
+     */
+    public String getHostRegex() {
+        return hostRegex;
+    }
+
+    /**
+     * Write the encoded {@code <CanonicalID />} element out to the given stream.
+     * 
+     * @param outputStream
+     *            The {@link OutputStream} to which the element is to be written.
+     * @throws IOException
+     *             If any errors occur during the write-out.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(fragment);
+    }
+}
@@ -0,0 +1,114 @@
+package com.google.code.openid.mojo.openid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.List;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.compact.TypeSet;
+
+/**
+ * An immutable, compiled form of a {@link DiscoveredService}.
+ * <p />
+ * The {@code <Service />} element of the service is escaped and encoded once, when the service is compiled, so that writing the service out to a
+ * discovery document is a matter of copying bytes. Its list of types is shared with every other service that declares the same types.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public final class CompiledService {
+    private final String hostRegex;
+    private final String uri;
+    private final List<String> types;
+    private final Integer priority;
+    private final String localId;
+    private final byte[] fragment;
+
+    /**
+     * Compile a service.
+     * 
+     * @param service
+     *            The {@link DiscoveredService} to be compiled.
+     * @throws IllegalArgumentException
+     *             If the given service is {@code null} or contains text that cannot be written out as XML.
+     * @throws IllegalStateException
+     *             If any of the required fields of the service have not been set.
+     */
+    public CompiledService(DiscoveredService service) {
+        if (service == null)
+            throw new IllegalArgumentException("Service cannot be null.");
+
+        this.hostRegex = service.getHostRegex();
+        this.uri = service.getUri();
+        this.types = TypeSet.of(service.getTypes().toArray(new String[0])).asList();
+        this.priority = service.getPriority();
+        this.localId = service.getLocalId();
+
+        final StringWriter writer = new StringWriter();
+        try {
+            StreamingDiscoveredServiceWriter.writeService(writer, service);
+            this.fragment = writer.toString().getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode service " + uri + ".", e);
+        }
+    }
+
+    /**
+     * Get the regular expression used to match requests against this service.
+     * 
+     * @return The host regex.
+     */
+    public String getHostRegex() {
+        return hostRegex;
+    }
+
+    /**
+     * Get the local ID.
+     * 
+     * @return The local ID; {@code null} if none was set.
+     */
+    public String getLocalId() {
+        return localId;
+    }
+
+    /**
+     * Get the priority of the service.
+     * 
+     * @return The priority of the service; {@code null} if none was set.
+     */
+    public Integer getPriority() {
+        return priority;
+    }
+
+    /**
+     * Get the types of the service.
+     * 
+     * @return An unmodifiable {@link List} of the type URLs, in the order in which they are written out.
+     */
+    public List<String> getTypes() {
+        return types;
+    }
+
+    /**
+     * Get the URI of the service.
+     * 
+     * @return The URI of the service.
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * Write the encoded {@code <Service />} element out to the given stream.
+     * 
+     * @param outputStream
+     *            The {@link OutputStream} to which the element is to be written.
+     * @throws IOException
+     *             If any errors occur during the write-out.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(fragment);
+    }
+}
@@ -2,7 +2,9 @@ package com.google.code.openid.mojo.openid;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.Collection;
+import java.util.List;
 
 import org.jdom.Document;
 import org.jdom.Element;
@@ -11,6 +13,7 @@ import org.jdom.output.XMLOutputter;
 
 import com.google.code.openid.mojo.DiscoveredService;
 import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.compact.OrdinalSet;
 
 /**
  * A utility object to write information out about a given set of services.
@@ -20,6 +23,20 @@ import com.google.code.openid.mojo.DiscoveryCanonicalId;
  */
 
 public class DiscoveredServiceWriter {
+    /**
+     * The line separator written out by JDOM's default output format.
+     */
+    static final String LINE_SEPARATOR = "\r\n";
+    static final String DOCUMENT_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + LINE_SEPARATOR + "<XRDS xmlns=\"xri://$xrds\">";
+    static final String XRD_START = "<XRD xmlns=\"xri://$xrd*($v*2.0)\">";
+    static final String XRD_EMPTY = "<XRD xmlns=\"xri://$xrd*($v*2.0)\" />";
+    static final String XRD_END = "</XRD>";
+    static final String DOCUMENT_END = "</XRDS>" + LINE_SEPARATOR;
+
+    private static final byte[] DOCUMENT_START_BYTES = encode(DOCUMENT_START + XRD_START);
+    private static final byte[] DOCUMENT_EMPTY_BYTES = encode(DOCUMENT_START + XRD_EMPTY + DOCUMENT_END);
+    private static final byte[] DOCUMENT_END_BYTES = encode(XRD_END + DOCUMENT_END);
+
     private final Namespace xrdNamespace = Namespace.getNamespace("xri://$xrd*($v*2.0)");
     private final Namespace xrdsNamespace = Namespace.getNamespace("xri://$xrds");
 
@@ -75,6 +92,98 @@ public class DiscoveredServiceWriter {
 
     }
 
+    /**
+     * Write out information about compiled services. Because the elements of compiled services and canonical IDs have already been encoded, this
+     * only copies bytes to the given stream.
+     * 
+     * @param canonicalId
+     *            The optional {@link CompiledCanonicalId} representing, if not {@code null}, the {@code <CanonicalID />} to be written out as part
+     *            of the document.
+     * @param services
+     *            A {@link List} of {@link CompiledService} objects representing the service data to be written out.
+     * @param outputStream
+     *            The {@link OutputStream} to which the data is to be written.
+     * @throws IOException
+     *             If any errors occur during the write-out.
+     */
+    public void write(CompiledCanonicalId canonicalId, List<CompiledService> services, OutputStream outputStream) throws IOException {
+        if (services == null)
+            throw new IllegalArgumentException("Services cannot be null.");
+
+        if (outputStream == null)
+            throw new IllegalArgumentException("Output stream cannot be null.");
+
+        if (canonicalId == null && services.isEmpty()) {
+            outputStream.write(DOCUMENT_EMPTY_BYTES);
+            return;
+        }
+
+        outputStream.write(DOCUMENT_START_BYTES);
+        if (canonicalId != null)
+            canonicalId.writeTo(outputStream);
+
+        for (CompiledService service : services)
+            service.writeTo(outputStream);
+
+        outputStream.write(DOCUMENT_END_BYTES);
+    }
+
+    /**
+     * Write out the matched services of a configuration, reading the matches straight from their set of ordinals. Because the elements of compiled
+     * services and canonical IDs have already been encoded, this only copies bytes to the given stream.
+     * 
+     * @param canonicalId
+     *            The optional {@link CompiledCanonicalId} representing, if not {@code null}, the {@code <CanonicalID />} to be written out as part
+     *            of the document.
+     * @param services
+     *            An array of all of the {@link CompiledService} objects of the configuration, by position.
+     * @param matches
+     *            An {@link OrdinalSet} of the positions of the services to be written out, which are written out in order.
+     * @param outputStream
+     *            The {@link OutputStream} to which the data is to be written.
+     * @throws IOException
+     *             If any errors occur during the write-out.
+     */
+    public void write(CompiledCanonicalId canonicalId, CompiledService[] services, OrdinalSet matches, OutputStream outputStream) throws IOException {
+        if (services == null)
+            throw new IllegalArgumentException("Services cannot be null.");
+
+        if (matches == null)
+            throw new IllegalArgumentException("Matches cannot be null.");
+
+        if (outputStream == null)
+            throw new IllegalArgumentException("Output stream cannot be null.");
+
+        if (canonicalId == null && matches.isEmpty()) {
+            outputStream.write(DOCUMENT_EMPTY_BYTES);
+            return;
+        }
+
+        outputStream.write(DOCUMENT_START_BYTES);
+        if (canonicalId != null)
+            canonicalId.writeTo(outputStream);
+
+        for (int i = matches.next(0); i >= 0; i = matches.next(i + 1))
+            services[i].writeTo(outputStream);
+
+        outputStream.write(DOCUMENT_END_BYTES);
+    }
+
+    /**
+     * Encode the given markup as UTF-8.
+     * 
+     * @param markup
+     *            The markup to be encoded.
+     * @return The encoded markup.
+     */
+    private static byte[] encode(String markup) {
+        try {
+            return markup.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported.", e);
+        }
+    }
+
     /**
      * Create a JDOM element out of the given data.
      * 
@@ -0,0 +1,173 @@
+package com.google.code.openid.mojo.openid;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+
+/**
+ * A {@link DiscoveredServiceWriter} that writes the discovery document directly to the output stream rather than first building it as a JDOM tree.
+ * <p />
+ * The written-out bytes are identical to those produced by {@link DiscoveredServiceWriter}, but only a fixed-size buffer is held in memory
+ * regardless of the number of services or types being written.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class StreamingDiscoveredServiceWriter extends DiscoveredServiceWriter {
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(DiscoveryCanonicalId canonicalId, Collection<DiscoveredService> services, OutputStream outputStream) throws IOException {
+        if (services == null)
+            throw new IllegalArgumentException("Services cannot be null.");
+
+        if (outputStream == null)
+            throw new IllegalArgumentException("Output stream cannot be null.");
+
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+        writer.write(DOCUMENT_START);
+        if (canonicalId == null && services.isEmpty()) {
+            writer.write(XRD_EMPTY);
+        } else {
+            writer.write(XRD_START);
+            if (canonicalId != null)
+                writeElement(writer, "CanonicalID", canonicalId.getCanonicalId());
+
+            for (DiscoveredService service : services)
+                writeService(writer, service);
+
+            writer.write(XRD_END);
+        }
+        writer.write(DOCUMENT_END);
+        writer.flush();
+    }
+
+    /**
+     * Write out a {@code <Service />} element.
+     * 
+     * @param writer
+     *            The {@link Writer} to which the element is to be written.
+     * @param service
+     *            The {@link DiscoveredService} to be written out.
+     * @throws IOException
+     *             If any errors occur during the write-out.
+     */
+    static void writeService(Writer writer, DiscoveredService service) throws IOException {
+        final Integer servicePriority = service.getPriority();
+        if (servicePriority == null) {
+            writer.write("<Service>");
+        } else {
+            writer.write("<Service priority=\"");
+            writer.write(servicePriority.toString());
+            writer.write("\">");
+        }
+
+        for (String type : service.getTypes())
+            writeElement(writer, "Type", type);
+
+        writeElement(writer, "URI", service.getUri());
+
+        if (service.getLocalId() != null)
+            writeElement(writer, "LocalID", service.getLocalId());
+
+        writer.write("</Service>");
+    }
+
+    /**
+     * Write out an element containing only text.
+     * 
+     * @param writer
+     *            The {@link Writer} to which the element is to be written.
+     * @param name
+     *            The name of the element.
+     * @param textValue
+     *            The textual value of the element.
+     * @throws IOException
+     *             If any errors occur during the write-out.
+     */
+    static void writeElement(Writer writer, String name, String textValue) throws IOException {
+        writer.write('<');
+        writer.write(name);
+        writer.write('>');
+        writeText(writer, textValue);
+        writer.write("</");
+        writer.write(name);
+        writer.write('>');
+    }
+
+    /**
+     * Write out escaped element text in the same way as JDOM's {@code XMLOutputter}.
+     * 
+     * @param writer
+     *            The {@link Writer} to which the text is to be written.
+     * @param text
+     *            The text to be escaped and written.
+     * @throws IOException
+     *             If any errors occur during the write-out.
+     * @throws IllegalArgumentException
+     *             If the given text contains a character that is not legal in XML.
+     */
+    static void writeText(Writer writer, String text) throws IOException {
+        int written = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            final String entity;
+            switch (c) {
+            case '&':
+                entity = "&amp;";
+                break;
+            case '<':
+                entity = "&lt;";
+                break;
+            case '>':
+                entity = "&gt;";
+                break;
+            case '\r':
+                entity = "&#xD;";
+                break;
+            case '\n':
+                entity = LINE_SEPARATOR;
+                break;
+            default:
+                entity = null;
+                if (!isLegal(text, i))
+                    throw new IllegalArgumentException("The text \"" + text + "\" contains a character that is not legal in XML.");
+
+                if (Character.isHighSurrogate(c))
+                    i++;
+            }
+
+            if (entity != null) {
+                writer.write(text, written, i - written);
+                writer.write(entity);
+                written = i + 1;
+            }
+        }
+        writer.write(text, written, text.length() - written);
+    }
+
+    /**
+     * Determine whether the character at the given index is legal XML character data.
+     * 
+     * @param text
+     *            The text containing the character.
+     * @param index
+     *            The index of the character.
+     * @return {@code true} if the character (or surrogate pair) at the given index is a legal XML character; {@code false} if not.
+     */
+    private static boolean isLegal(String text, int index) {
+        final char c = text.charAt(index);
+        if (Character.isHighSurrogate(c))
+            return index + 1 < text.length() && Character.isLowSurrogate(text.charAt(index + 1));
+
+        return c == '\t' || (c >= 0x20 && c <= 0xD7FF) || (c >= 0xE000 && c <= 0xFFFD);
+    }
+}
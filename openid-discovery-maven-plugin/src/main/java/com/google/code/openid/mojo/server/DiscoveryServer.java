@@ -0,0 +1,49 @@
+package com.google.code.openid.mojo.server;
+
+import org.mortbay.component.LifeCycle;
+
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+
+/**
+ * A running discovery server: the network front end that hands requests to a {@link DiscoveredServiceHandler} and the handlers served ahead of it.
+ * <p />
+ * Components {@link #addLifeCycle(LifeCycle) added} to a server are started after its handlers, before it accepts connections, and stopped after it
+ * stops accepting them.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public interface DiscoveryServer extends LifeCycle {
+    /**
+     * Add a component whose life cycle is to follow that of the server.
+     * 
+     * @param lifeCycle
+     *            The {@link LifeCycle} to be started and stopped with the server.
+     * @throws IllegalArgumentException
+     *             If the given component is {@code null}.
+     */
+    void addLifeCycle(LifeCycle lifeCycle);
+
+    /**
+     * Get the handler serving discovery documents.
+     * 
+     * @return The {@link DiscoveredServiceHandler} of this server.
+     */
+    DiscoveredServiceHandler getHandler();
+
+    /**
+     * Get the port on which the server is listening.
+     * 
+     * @return The port actually bound; {@code -1} if the server is not started.
+     */
+    int getLocalPort();
+
+    /**
+     * Block the current thread until the server stops.
+     * 
+     * @throws InterruptedException
+     *             If the current thread is interrupted while waiting.
+     */
+    void join() throws InterruptedException;
+}
@@ -0,0 +1,137 @@
+package com.google.code.openid.mojo.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mortbay.component.AbstractLifeCycle;
+import org.mortbay.component.LifeCycle;
+import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.HandlerList;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+import org.mortbay.thread.QueuedThreadPool;
+
+import com.google.code.openid.mojo.DiscoveryServerConfiguration;
+import com.google.code.openid.mojo.ExecutionMode;
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+
+/**
+ * A {@link DiscoveryServer} run by an embedded Jetty {@link Server}.
+ * <p />
+ * The server accepts connections with a non-blocking {@link SelectChannelConnector}, so that idle keep-alive connections do not tie up threads, and
+ * handles requests in a {@link QueuedThreadPool}; both are sized according to the given configuration. In the {@link ExecutionMode#VIRTUAL virtual}
+ * execution mode, requests are instead handled by a {@link VirtualThreadPool} if the running JVM supports it.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class JettyDiscoveryServer extends AbstractLifeCycle implements DiscoveryServer {
+    private final Server server;
+    private final SelectChannelConnector connector;
+    private final DiscoveredServiceHandler handler;
+
+    /**
+     * Create a server.
+     * 
+     * @param port
+     *            The port on which the server is to listen; {@code 0} for any free port.
+     * @param configuration
+     *            The {@link DiscoveryServerConfiguration} describing how the server is to handle requests.
+     * @param handler
+     *            The {@link DiscoveredServiceHandler} serving discovery documents.
+     * @param handlers
+     *            A {@link List} of the {@link Handler} objects to be offered each request, in order, before the discovery handler.
+     * @throws IllegalArgumentException
+     *             If any of the given objects are {@code null}.
+     */
+    public JettyDiscoveryServer(int port, DiscoveryServerConfiguration configuration, DiscoveredServiceHandler handler, List<Handler> handlers) {
+        if (configuration == null)
+            throw new IllegalArgumentException("Configuration cannot be null.");
+
+        if (handler == null)
+            throw new IllegalArgumentException("Handler cannot be null.");
+
+        if (handlers == null)
+            throw new IllegalArgumentException("Handlers cannot be null.");
+
+        this.handler = handler;
+
+        connector = new SelectChannelConnector();
+        connector.setPort(port);
+        connector.setAcceptors(configuration.getAcceptors());
+        connector.setAcceptQueueSize(configuration.getAcceptQueueSize());
+        connector.setMaxIdleTime(configuration.getMaxIdleTime());
+
+        server = new Server();
+        server.addConnector(connector);
+        if (configuration.getExecutionMode() == ExecutionMode.VIRTUAL && VirtualThreadPool.isSupported()) {
+            server.setThreadPool(new VirtualThreadPool("openid-discovery"));
+        } else {
+            final QueuedThreadPool threadPool = new QueuedThreadPool();
+            threadPool.setName("openid-discovery");
+            threadPool.setMinThreads(configuration.getMinThreads());
+            threadPool.setMaxThreads(configuration.getMaxThreads());
+            server.setThreadPool(threadPool);
+        }
+        if (handlers.isEmpty()) {
+            server.setHandler(handler);
+        } else {
+            final List<Handler> all = new ArrayList<Handler>(handlers);
+            all.add(handler);
+            final HandlerList handlerList = new HandlerList();
+            handlerList.setHandlers(all.toArray(new Handler[all.size()]));
+            server.setHandler(handlerList);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addLifeCycle(LifeCycle lifeCycle) {
+        if (lifeCycle == null)
+            throw new IllegalArgumentException("Life cycle cannot be null.");
+
+        server.addLifeCycle(lifeCycle);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DiscoveredServiceHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLocalPort() {
+        return connector.getLocalPort();
+    }
+
+    /**
+     * Get the Jetty server.
+     * 
+     * @return The {@link Server} running this discovery server.
+     */
+    public Server getServer() {
+        return server;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void join() throws InterruptedException {
+        server.join();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        server.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        server.stop();
+    }
+}
@@ -0,0 +1,557 @@
+package com.google.code.openid.mojo.server;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Enumeration;
+import java.util.LinkedList;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.mortbay.io.Buffer;
+import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.HttpFields;
+import org.mortbay.jetty.HttpStatus;
+import org.mortbay.jetty.HttpURI;
+import org.mortbay.log.Log;
+import org.mortbay.util.URIUtil;
+
+/**
+ * A single client connection of a {@link NioDiscoveryServer}.
+ * <p />
+ * A connection is only ever used by the selector thread of its server: it reads whatever bytes are available, parses every complete request they
+ * hold, hands each to the handlers of the server in turn and queues the responses, in order, to be written as the channel allows. Requests may be
+ * pipelined, and the connection is kept open between requests unless the client asks otherwise.
+ * <p />
+ * A request for an {@link NioDiscoveryServer#isEndpoint(String) endpoint} is handled on the worker thread of the server instead. Until its
+ * response has been handed back to the selector thread, the connection stops reading and parsing, so that the requests pipelined behind it are
+ * still answered in order, and is not closed for being idle.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+class NioConnection {
+    /**
+     * The largest request, head and body together, that a connection will accept, unless it is a request for an
+     * {@link NioDiscoveryServer#isEndpoint(String) endpoint}, whose body may be as large as the
+     * {@link NioDiscoveryServer#getMaxEndpointBodySize() maximum endpoint body size}.
+     */
+    static final int MAX_REQUEST_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 4096;
+    private static final int SC_REQUEST_HEADER_FIELDS_TOO_LARGE = 431;
+    private static final byte[] CONTINUE;
+
+    static {
+        try {
+            CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("ISO-8859-1 is not supported.", e);
+        }
+    }
+
+    private final NioDiscoveryServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String remoteAddr;
+    private final LinkedList<ByteBuffer> output = new LinkedList<ByteBuffer>();
+    private ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+    private long lastActive;
+    private boolean continued;
+    private boolean closing;
+    private boolean dispatched;
+
+    /**
+     * Create a connection.
+     * 
+     * @param server
+     *            The {@link NioDiscoveryServer} that accepted the connection.
+     * @param channel
+     *            The {@link SocketChannel} of the connection.
+     * @param key
+     *            The {@link SelectionKey} under which the channel is registered.
+     * @param now
+     *            The time, in milliseconds, at which the connection was accepted.
+     */
+    NioConnection(NioDiscoveryServer server, SocketChannel channel, SelectionKey key, long now) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+        this.remoteAddr = channel.socket().getInetAddress().getHostAddress();
+        this.lastActive = now;
+    }
+
+    /**
+     * Close the connection.
+     */
+    void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.ignore(e);
+        }
+    }
+
+    /**
+     * Determine whether the connection has been idle for too long.
+     * 
+     * @param now
+     *            The current time, in milliseconds.
+     * @param maxIdleTime
+     *            The number of milliseconds for which a connection may be idle.
+     * @return {@code true} if nothing has been read from or written to the connection for longer than the given time.
+     */
+    boolean isIdle(long now, int maxIdleTime) {
+        return !dispatched && now - lastActive > maxIdleTime;
+    }
+
+    /**
+     * Read what is available from the channel and answer every complete request read so far.
+     * 
+     * @param now
+     *            The current time, in milliseconds.
+     * @throws IOException
+     *             If reading from or writing to the channel fails.
+     */
+    void read(long now) throws IOException {
+        if (channel.read(input) < 0) {
+            close();
+            return;
+        }
+
+        lastActive = now;
+        process();
+        write(now);
+    }
+
+    /**
+     * Write as much of the queued output as the channel will take.
+     * 
+     * @param now
+     *            The current time, in milliseconds.
+     * @throws IOException
+     *             If writing to the channel fails.
+     */
+    void write(long now) throws IOException {
+        while (!output.isEmpty()) {
+            final ByteBuffer buffer = output.getFirst();
+            if (channel.write(buffer) > 0)
+                lastActive = now;
+            if (buffer.hasRemaining())
+                break;
+            output.removeFirst();
+        }
+
+        if (!output.isEmpty())
+            key.interestOps(SelectionKey.OP_WRITE);
+        else if (closing)
+            close();
+        else
+            key.interestOps(dispatched ? 0 : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Find the end of the request head.
+     * 
+     * @param bytes
+     *            The bytes read so far.
+     * @param length
+     *            The number of bytes read so far.
+     * @return The index of the blank line ending the head; {@code -1} if the head is not yet complete.
+     */
+    private int findHeadEnd(byte[] bytes, int length) {
+        for (int i = 3; i < length; i++)
+            if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r')
+                return i - 3;
+        return -1;
+    }
+
+    /**
+     * Answer every complete request in the input buffer.
+     * 
+     * @throws IOException
+     *             If a response cannot be encoded.
+     */
+    private void process() throws IOException {
+        while (!closing && !dispatched) {
+            final byte[] bytes = input.array();
+            final int length = input.position();
+            final int headEnd = findHeadEnd(bytes, length);
+            if (headEnd < 0) {
+                if (length >= MAX_REQUEST_SIZE)
+                    sendError(SC_REQUEST_HEADER_FIELDS_TOO_LARGE);
+                else if (!input.hasRemaining())
+                    grow(input.capacity() * 2);
+                return;
+            }
+
+            final String[] lines = new String(bytes, 0, headEnd, "ISO-8859-1").split("\r\n");
+            final String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+
+            final String protocol = requestLine[2];
+            if (!protocol.startsWith("HTTP/1.")) {
+                sendError(HttpServletResponse.SC_HTTP_VERSION_NOT_SUPPORTED);
+                return;
+            }
+
+            final HttpFields headers = new HttpFields();
+            for (int i = 1; i < lines.length; i++) {
+                final int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    sendError(HttpServletResponse.SC_BAD_REQUEST);
+                    return;
+                }
+                headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+            }
+
+            if (headers.containsKey("Transfer-Encoding")) {
+                sendError(HttpServletResponse.SC_NOT_IMPLEMENTED);
+                return;
+            }
+
+            final int contentLength;
+            try {
+                final String value = headers.getStringField("Content-Length");
+                contentLength = value == null ? 0 : Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+
+            final int bodyStart = headEnd + 4;
+            if (contentLength < 0) {
+                sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            } else if (contentLength > MAX_REQUEST_SIZE - bodyStart && !fitsEndpoint(requestLine[1], bodyStart, contentLength)) {
+                sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                return;
+            }
+
+            final int requestEnd = bodyStart + contentLength;
+            if (requestEnd > length) {
+                if (requestEnd > input.capacity())
+                    grow(requestEnd);
+                if (!continued && "100-continue".equalsIgnoreCase(headers.getStringField("Expect"))) {
+                    output.add(ByteBuffer.wrap(CONTINUE));
+                    continued = true;
+                }
+                return;
+            }
+
+            final byte[] body = new byte[contentLength];
+            System.arraycopy(bytes, bodyStart, body, 0, contentLength);
+            System.arraycopy(bytes, requestEnd, bytes, 0, length - requestEnd);
+            input.position(length - requestEnd);
+            continued = false;
+            // Do not hold on to the room made for an endpoint request for as long as the connection is open
+            if (input.capacity() > MAX_REQUEST_SIZE)
+                resize(Math.max(BUFFER_SIZE, input.position()));
+
+            handle(requestLine[0], requestLine[1], protocol, headers, body);
+        }
+    }
+
+    /**
+     * Hand a request to the handlers of the server and queue the response, or have the worker thread of the server do so if the request is for an
+     * endpoint.
+     * 
+     * @param method
+     *            The request method.
+     * @param uri
+     *            The request URI.
+     * @param protocol
+     *            The request protocol.
+     * @param headers
+     *            The request headers.
+     * @param body
+     *            The request body.
+     * @throws IOException
+     *             If the response cannot be encoded.
+     */
+    private void handle(String method, String uri, String protocol, HttpFields headers, byte[] body) throws IOException {
+        final HttpURI httpUri = new HttpURI();
+        final String target = parseTarget(httpUri, uri);
+        if (target == null) {
+            sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        final String connection = headers.getStringField("Connection");
+        final boolean keepAlive = "HTTP/1.0".equals(protocol) ? "keep-alive".equalsIgnoreCase(connection) : !"close".equalsIgnoreCase(connection);
+
+        String serverName = headers.getStringField("Host");
+        int serverPort = server.getLocalPort();
+        if (serverName == null) {
+            serverName = channel.socket().getLocalAddress().getHostAddress();
+        } else {
+            final int colon = serverName.lastIndexOf(':');
+            if (colon > serverName.lastIndexOf(']')) {
+                try {
+                    serverPort = Integer.parseInt(serverName.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    Log.ignore(e);
+                }
+                serverName = serverName.substring(0, colon);
+            } else {
+                serverPort = 80;
+            }
+        }
+
+        final NioRequest request = new NioRequest(method, httpUri.getPath(), httpUri.getQuery(), protocol, headers, body, serverName, serverPort,
+                remoteAddr);
+        final NioResponse response = new NioResponse();
+        final boolean head = "HEAD".equals(method);
+        final boolean http10 = "HTTP/1.0".equals(protocol);
+        if (!server.isEndpoint(target)) {
+            finish(request, response, offer(target, request, response), head, keepAlive, http10);
+            return;
+        }
+
+        dispatched = true;
+        server.dispatch(new Runnable() {
+            public void run() {
+                final boolean offered = offer(target, request, response);
+                server.complete(new Runnable() {
+                    public void run() {
+                        resume(request, response, offered, head, keepAlive, http10);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Queue the response to a request once the handlers have been offered it.
+     * 
+     * @param request
+     *            The {@link NioRequest} offered to the handlers.
+     * @param response
+     *            The {@link NioResponse} built by the handlers.
+     * @param offered
+     *            {@code true} if the handlers completed normally; {@code false} if one of them failed.
+     * @param head
+     *            {@code true} if the request was a {@code HEAD} request.
+     * @param keepAlive
+     *            {@code true} if the connection is to be kept open once the response has been sent.
+     * @param http10
+     *            {@code true} if the request was an HTTP/1.0 request.
+     * @throws IOException
+     *             If the response cannot be encoded.
+     */
+    private void finish(NioRequest request, NioResponse response, boolean offered, boolean head, boolean keepAlive, boolean http10)
+            throws IOException {
+        if (!offered) {
+            sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+
+        if (!request.isHandled())
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+
+        send(response, head, keepAlive, http10);
+    }
+
+    /**
+     * Offer a request to the handlers of the server, in order, until one of them handles it.
+     * 
+     * @param target
+     *            The target of the request.
+     * @param request
+     *            The {@link NioRequest} to be offered.
+     * @param response
+     *            The {@link NioResponse} to be built.
+     * @return {@code true} if the handlers completed normally; {@code false} if one of them failed.
+     */
+    private boolean offer(String target, NioRequest request, NioResponse response) {
+        try {
+            for (Handler handler : server.getHandlers()) {
+                handler.handle(target, request, response, Handler.REQUEST);
+                if (request.isHandled())
+                    break;
+            }
+            return true;
+        } catch (Exception e) {
+            Log.warn("Failed to handle request for " + target, e);
+            return false;
+        }
+    }
+
+    /**
+     * Queue the response to a request handled on the worker thread, then carry on with the requests pipelined behind it. This is run on the
+     * selector thread.
+     * 
+     * @param request
+     *            The {@link NioRequest} offered to the handlers.
+     * @param response
+     *            The {@link NioResponse} built by the handlers.
+     * @param offered
+     *            {@code true} if the handlers completed normally; {@code false} if one of them failed.
+     * @param head
+     *            {@code true} if the request was a {@code HEAD} request.
+     * @param keepAlive
+     *            {@code true} if the connection is to be kept open once the response has been sent.
+     * @param http10
+     *            {@code true} if the request was an HTTP/1.0 request.
+     */
+    private void resume(NioRequest request, NioResponse response, boolean offered, boolean head, boolean keepAlive, boolean http10) {
+        dispatched = false;
+        if (!key.isValid())
+            return;
+
+        final long now = System.currentTimeMillis();
+        lastActive = now;
+        try {
+            finish(request, response, offered, head, keepAlive, http10);
+            process();
+            write(now);
+        } catch (IOException e) {
+            Log.ignore(e);
+            close();
+        }
+    }
+
+    /**
+     * Determine whether a body too large for any other request may be accepted as the body of a request for an endpoint.
+     * 
+     * @param uri
+     *            The request URI.
+     * @param bodyStart
+     *            The index at which the body begins.
+     * @param contentLength
+     *            The length of the body.
+     * @return {@code true} if the request is for an endpoint and its body is no larger than the maximum endpoint body size; {@code false} if not.
+     */
+    private boolean fitsEndpoint(String uri, int bodyStart, int contentLength) {
+        return contentLength <= server.getMaxEndpointBodySize() && contentLength <= Integer.MAX_VALUE - bodyStart
+                && server.isEndpoint(parseTarget(new HttpURI(), uri));
+    }
+
+    /**
+     * Grow the input buffer, keeping what has been read so far. The buffer is at least doubled, but not past {@link #MAX_REQUEST_SIZE} unless a
+     * larger capacity is asked for.
+     * 
+     * @param capacity
+     *            The minimum capacity of the new buffer.
+     */
+    private void grow(int capacity) {
+        resize(Math.max(capacity, Math.min(input.capacity() * 2, MAX_REQUEST_SIZE)));
+    }
+
+    /**
+     * Replace the input buffer, keeping what has been read so far.
+     * 
+     * @param capacity
+     *            The capacity of the new buffer; no less than the number of bytes read so far.
+     */
+    private void resize(int capacity) {
+        final ByteBuffer resized = ByteBuffer.allocate(capacity);
+        input.flip();
+        resized.put(input);
+        input = resized;
+    }
+
+    /**
+     * Encode a response and queue it to be written, marking the connection to be closed once it has been written unless it is to be kept open.
+     * 
+     * @param response
+     *            The {@link NioResponse} to be sent.
+     * @param head
+     *            {@code true} if the response answers a {@code HEAD} request, and so is to be sent without its body.
+     * @param keepAlive
+     *            {@code true} if the connection is to be kept open once the response has been written.
+     * @param http10
+     *            {@code true} if the response answers an HTTP/1.0 request, which needs to be told explicitly that the connection is kept open.
+     * @throws IOException
+     *             If the response cannot be encoded.
+     */
+    private void send(NioResponse response, boolean head, boolean keepAlive, boolean http10) throws IOException {
+        final int status = response.getStatus();
+        final boolean bodiless = status < 200 || status == HttpServletResponse.SC_NO_CONTENT || status == HttpServletResponse.SC_NOT_MODIFIED;
+        final byte[] body = response.getBody();
+
+        final StringBuilder message = new StringBuilder(256);
+        message.append("HTTP/1.1 ").append(status).append(' ').append(getReason(status)).append("\r\n");
+        message.append("Date: ").append(server.getDate()).append("\r\n");
+        final HttpFields headers = response.getHeaders();
+        for (Enumeration<?> names = headers.getFieldNames(); names.hasMoreElements();) {
+            final String name = (String) names.nextElement();
+            if ("Content-Length".equalsIgnoreCase(name) || "Connection".equalsIgnoreCase(name))
+                continue;
+            for (Enumeration<?> values = headers.getValues(name); values.hasMoreElements();)
+                message.append(name).append(": ").append(values.nextElement()).append("\r\n");
+        }
+        if (!bodiless)
+            message.append("Content-Length: ").append(head && response.getContentLength() >= 0 ? response.getContentLength() : body.length).append("\r\n");
+        if (!keepAlive)
+            message.append("Connection: close\r\n");
+        else if (http10)
+            message.append("Connection: keep-alive\r\n");
+        message.append("\r\n");
+
+        final byte[] messageHead = message.toString().getBytes("ISO-8859-1");
+        final int bodyLength = bodiless || head ? 0 : body.length;
+        final ByteBuffer buffer = ByteBuffer.allocate(messageHead.length + bodyLength);
+        buffer.put(messageHead).put(body, 0, bodyLength).flip();
+        output.add(buffer);
+
+        if (!keepAlive)
+            closing = true;
+    }
+
+    /**
+     * Parse the target of a request.
+     * 
+     * @param httpUri
+     *            The {@link HttpURI} into which the request URI is to be parsed.
+     * @param uri
+     *            The request URI.
+     * @return The decoded, canonical path of the request; {@code null} if the URI is malformed or does not give an absolute path.
+     */
+    private static String parseTarget(HttpURI httpUri, String uri) {
+        final String target;
+        try {
+            httpUri.parse(uri);
+            final String path = httpUri.getDecodedPath();
+            target = path == null ? null : URIUtil.canonicalPath(path);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        return target == null || !target.startsWith("/") ? null : target;
+    }
+
+    /**
+     * Queue an error response and close the connection once it has been sent.
+     * 
+     * @param status
+     *            The status of the response.
+     * @throws IOException
+     *             If the response cannot be encoded.
+     */
+    private void sendError(int status) throws IOException {
+        final NioResponse response = new NioResponse();
+        response.setStatus(status);
+        send(response, false, false, false);
+    }
+
+    /**
+     * Get the reason phrase of a status.
+     * 
+     * @param status
+     *            The status code.
+     * @return The standard reason phrase of the given status.
+     */
+    private static String getReason(int status) {
+        if (status == SC_REQUEST_HEADER_FIELDS_TOO_LARGE)
+            return "Request Header Fields Too Large";
+
+        final Buffer reason = HttpStatus.CACHE.get(status);
+        return reason == null ? "Unknown" : reason.toString();
+    }
+}
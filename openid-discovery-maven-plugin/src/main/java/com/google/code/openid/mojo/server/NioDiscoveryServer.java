@@ -0,0 +1,347 @@
+package com.google.code.openid.mojo.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.mortbay.component.AbstractLifeCycle;
+import org.mortbay.component.LifeCycle;
+import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.HttpFields;
+import org.mortbay.log.Log;
+
+import com.google.code.openid.mojo.DiscoveryServerConfiguration;
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+import com.google.code.openid.mojo.jetty.EndpointHandler;
+
+/**
+ * A {@link DiscoveryServer} run by a minimal HTTP/1.1 engine on a single non-blocking selector thread.
+ * <p />
+ * Discovery responses are small and built from memory, so there is nothing for a request to wait on and no need for a pool of threads, a Jetty
+ * {@link org.mortbay.jetty.Server Server} or its connectors: the selector thread accepts connections, parses requests, hands them to the same
+ * {@link Handler} objects the Jetty server would use and writes the responses back. The engine supports persistent connections and pipelining; it
+ * does not support chunked request bodies, and rejects requests larger than {@value NioConnection#MAX_REQUEST_SIZE} bytes - other than those for an
+ * endpoint, described below, whose bodies may be as large as the configured admin max batch size.
+ * <p />
+ * The one exception is a request for the path of an {@link EndpointHandler}, such as the admin endpoint, whose answer may take far longer than any
+ * discovery request - an admin batch can replace every service being served. Such a request is handed to a single worker thread, and its response
+ * written back by the selector thread once it is ready; meanwhile the selector thread goes on serving other connections, while the requests
+ * pipelined behind it on the same connection wait their turn.
+ * <p />
+ * Of the given configuration, this server honors the accept queue size, the maximum idle time and the admin max batch size; the numbers of
+ * acceptors and threads do not apply.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class NioDiscoveryServer extends AbstractLifeCycle implements DiscoveryServer, Runnable {
+    private final int port;
+    private final int acceptQueueSize;
+    private final int maxIdleTime;
+    private final int maxEndpointBodySize;
+    private final DiscoveredServiceHandler handler;
+    private final Handler[] handlers;
+    private final Set<String> endpoints = new HashSet<String>();
+    private final List<LifeCycle> lifeCycles = new ArrayList<LifeCycle>();
+    private final Queue<Runnable> completions = new ConcurrentLinkedQueue<Runnable>();
+    private ExecutorService worker;
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private volatile Thread thread;
+    private volatile int localPort = -1;
+    private long dateSecond = -1;
+    private String date;
+
+    /**
+     * Create a server.
+     * 
+     * @param port
+     *            The port on which the server is to listen; {@code 0} for any free port.
+     * @param configuration
+     *            The {@link DiscoveryServerConfiguration} describing how the server is to handle requests.
+     * @param handler
+     *            The {@link DiscoveredServiceHandler} serving discovery documents.
+     * @param handlers
+     *            A {@link List} of the {@link Handler} objects to be offered each request, in order, before the discovery handler.
+     * @throws IllegalArgumentException
+     *             If any of the given objects are {@code null}.
+     */
+    public NioDiscoveryServer(int port, DiscoveryServerConfiguration configuration, DiscoveredServiceHandler handler, List<Handler> handlers) {
+        if (configuration == null)
+            throw new IllegalArgumentException("Configuration cannot be null.");
+
+        if (handler == null)
+            throw new IllegalArgumentException("Handler cannot be null.");
+
+        if (handlers == null)
+            throw new IllegalArgumentException("Handlers cannot be null.");
+
+        this.port = port;
+        this.acceptQueueSize = configuration.getAcceptQueueSize();
+        this.maxIdleTime = configuration.getMaxIdleTime();
+        this.maxEndpointBodySize = configuration.getAdminMaxBatchSize();
+        this.handler = handler;
+
+        final List<Handler> all = new ArrayList<Handler>(handlers);
+        all.add(handler);
+        this.handlers = all.toArray(new Handler[all.size()]);
+
+        for (Handler current : handlers)
+            if (current instanceof EndpointHandler)
+                endpoints.add(((EndpointHandler) current).getPath());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addLifeCycle(LifeCycle lifeCycle) {
+        if (lifeCycle == null)
+            throw new IllegalArgumentException("Life cycle cannot be null.");
+
+        lifeCycles.add(lifeCycle);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DiscoveredServiceHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void join() throws InterruptedException {
+        final Thread current = thread;
+        if (current != null)
+            current.join();
+    }
+
+    /**
+     * Accept connections and answer their requests until the server is stopped.
+     */
+    public void run() {
+        final long sweepInterval = maxIdleTime > 0 ? Math.min(maxIdleTime, 1000) : 1000;
+        long nextSweep = System.currentTimeMillis() + sweepInterval;
+        try {
+            while (isRunning()) {
+                selector.select(sweepInterval);
+                final long now = System.currentTimeMillis();
+                Runnable completion;
+                while ((completion = completions.poll()) != null)
+                    completion.run();
+
+                for (Iterator<SelectionKey> keys = selector.selectedKeys().iterator(); keys.hasNext();) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable()) {
+                        accept(now);
+                        continue;
+                    }
+
+                    final NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isReadable())
+                            connection.read(now);
+                        else if (key.isWritable())
+                            connection.write(now);
+                    } catch (IOException e) {
+                        Log.ignore(e);
+                        connection.close();
+                    }
+                }
+
+                if (maxIdleTime > 0 && now >= nextSweep) {
+                    for (SelectionKey key : selector.keys())
+                        if (key.attachment() != null && ((NioConnection) key.attachment()).isIdle(now, maxIdleTime))
+                            ((NioConnection) key.attachment()).close();
+                    nextSweep = now + sweepInterval;
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Discovery server selector failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys())
+                if (key.attachment() != null)
+                    ((NioConnection) key.attachment()).close();
+            close();
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port), acceptQueueSize);
+            serverChannel.configureBlocking(false);
+            selector = Selector.open();
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread workerThread = new Thread(runnable, "openid-discovery-nio-worker");
+                    workerThread.setDaemon(true);
+                    return workerThread;
+                }
+            });
+
+            for (Handler current : handlers)
+                current.start();
+            for (LifeCycle lifeCycle : lifeCycles)
+                lifeCycle.start();
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+
+        localPort = serverChannel.socket().getLocalPort();
+        thread = new Thread(this, "openid-discovery-nio");
+        thread.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        final Thread current = thread;
+        if (current != null) {
+            selector.wakeup();
+            current.join();
+        }
+        localPort = -1;
+
+        // Let an endpoint request in progress finish before its handler is stopped; its response has nowhere to go
+        worker.shutdown();
+        worker.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        completions.clear();
+
+        for (int i = lifeCycles.size() - 1; i >= 0; i--)
+            lifeCycles.get(i).stop();
+        for (int i = handlers.length - 1; i >= 0; i--)
+            handlers[i].stop();
+    }
+
+    /**
+     * Run a task on the selector thread, waking it up to do so.
+     * 
+     * @param task
+     *            The {@link Runnable} to be run the next time the selector thread wakes up.
+     */
+    void complete(Runnable task) {
+        completions.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Run a task on the worker thread.
+     * 
+     * @param task
+     *            The {@link Runnable} to be run once every task given before it has been run.
+     */
+    void dispatch(Runnable task) {
+        worker.execute(task);
+    }
+
+    /**
+     * Get the value of the {@code Date} header of responses sent now. The value is formatted at most once a second.
+     * 
+     * @return The current date, formatted for an HTTP header.
+     */
+    String getDate() {
+        final long now = System.currentTimeMillis();
+        if (now / 1000 != dateSecond) {
+            dateSecond = now / 1000;
+            date = HttpFields.formatDate(now, false);
+        }
+        return date;
+    }
+
+    /**
+     * Get the size of the largest body accepted with a request for an {@link EndpointHandler endpoint}: the configured admin max batch size, so that
+     * the admin endpoint accepts the same batches as it does when run by Jetty.
+     * 
+     * @return The maximum size, in bytes, of the body of an endpoint request.
+     */
+    int getMaxEndpointBodySize() {
+        return maxEndpointBodySize;
+    }
+
+    /**
+     * Get the handlers to which requests are offered.
+     * 
+     * @return The {@link Handler} objects to be offered each request, in order.
+     */
+    Handler[] getHandlers() {
+        return handlers;
+    }
+
+    /**
+     * Determine whether a request is for an {@link EndpointHandler endpoint}, and so is to be handled on the worker thread.
+     * 
+     * @param target
+     *            The target of the request.
+     * @return {@code true} if one of the handlers of this server is an endpoint serving the given target; {@code false} if not.
+     */
+    boolean isEndpoint(String target) {
+        return endpoints.contains(target);
+    }
+
+    /**
+     * Accept every pending connection.
+     * 
+     * @param now
+     *            The current time, in milliseconds.
+     * @throws IOException
+     *             If a connection cannot be accepted.
+     */
+    private void accept(long now) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new NioConnection(this, channel, key, now));
+        }
+    }
+
+    /**
+     * Close the selector and the server channel.
+     */
+    private void close() {
+        try {
+            if (selector != null)
+                selector.close();
+        } catch (IOException e) {
+            Log.ignore(e);
+        }
+
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            Log.ignore(e);
+        }
+    }
+}
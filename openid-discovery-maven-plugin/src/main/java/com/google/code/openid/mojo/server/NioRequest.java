@@ -0,0 +1,163 @@
+package com.google.code.openid.mojo.server;
+
+import java.io.ByteArrayInputStream;
+import java.util.Enumeration;
+
+import javax.servlet.ServletInputStream;
+
+import org.mortbay.jetty.HttpFields;
+import org.mortbay.jetty.Request;
+
+/**
+ * A {@link Request} parsed by a {@link NioConnection}. It is a Jetty {@link Request} only so that handlers can mark it
+ * {@link Request#setHandled(boolean) handled}; everything a handler reads from it is held by this object rather than by a Jetty connection.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+class NioRequest extends Request {
+    private final String method;
+    private final String requestUri;
+    private final String queryString;
+    private final String protocol;
+    private final HttpFields headers;
+    private final byte[] body;
+    private final String serverName;
+    private final int serverPort;
+    private final String remoteAddr;
+
+    /**
+     * Create a request.
+     * 
+     * @param method
+     *            The request method, such as {@code GET}.
+     * @param requestUri
+     *            The path of the request URI, as sent.
+     * @param queryString
+     *            The query string of the request URI; {@code null} if it has none.
+     * @param protocol
+     *            The protocol of the request, such as {@code HTTP/1.1}.
+     * @param headers
+     *            The {@link HttpFields} holding the request headers.
+     * @param body
+     *            The body of the request; empty if it has none.
+     * @param serverName
+     *            The host name to which the request was sent.
+     * @param serverPort
+     *            The port to which the request was sent.
+     * @param remoteAddr
+     *            The address of the client.
+     */
+    NioRequest(String method, String requestUri, String queryString, String protocol, HttpFields headers, byte[] body, String serverName,
+            int serverPort, String remoteAddr) {
+        this.method = method;
+        this.requestUri = requestUri;
+        this.queryString = queryString;
+        this.protocol = protocol;
+        this.headers = headers;
+        this.body = body;
+        this.serverName = serverName;
+        this.serverPort = serverPort;
+        this.remoteAddr = remoteAddr;
+    }
+
+    @Override
+    public int getContentLength() {
+        return body.length;
+    }
+
+    @Override
+    public String getContentType() {
+        return headers.getStringField("Content-Type");
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        return headers.getDateField(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return headers.getStringField(name);
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Enumeration getHeaderNames() {
+        return headers.getFieldNames();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Enumeration getHeaders(String name) {
+        return headers.getValues(name);
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+        final ByteArrayInputStream in = new ByteArrayInputStream(body);
+        return new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return in.read(b, off, len);
+            }
+        };
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        final String value = headers.getStringField(name);
+        return value == null ? -1 : Integer.parseInt(value.trim());
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return requestUri;
+    }
+
+    @Override
+    public String getScheme() {
+        return "http";
+    }
+
+    @Override
+    public String getServerName() {
+        return serverName;
+    }
+
+    @Override
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return false;
+    }
+}
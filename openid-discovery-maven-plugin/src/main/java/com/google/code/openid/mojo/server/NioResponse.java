@@ -0,0 +1,231 @@
+package com.google.code.openid.mojo.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import org.mortbay.jetty.HttpFields;
+
+/**
+ * An {@link HttpServletResponse} whose status, headers and body are held in memory until a {@link NioConnection} writes them out, so that the
+ * whole response can be sent with an exact length in a single write.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+class NioResponse implements HttpServletResponse {
+    private final HttpFields headers = new HttpFields();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+        @Override
+        public void write(int b) {
+            body.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            body.write(b, off, len);
+        }
+    };
+    private PrintWriter writer;
+    private int status = SC_OK;
+    private int contentLength = -1;
+    private String characterEncoding = "ISO-8859-1";
+    private Locale locale = Locale.getDefault();
+
+    /**
+     * Get the body written to this response.
+     * 
+     * @return The bytes of the body.
+     */
+    byte[] getBody() {
+        if (writer != null)
+            writer.flush();
+        return body.toByteArray();
+    }
+
+    /**
+     * Get the content length declared by the handler.
+     * 
+     * @return The declared content length; {@code -1} if none was declared.
+     */
+    int getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Get the headers of this response.
+     * 
+     * @return The {@link HttpFields} holding the headers set by the handler.
+     */
+    HttpFields getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Get the status of this response.
+     * 
+     * @return The status code.
+     */
+    int getStatus() {
+        return status;
+    }
+
+    public void addCookie(Cookie cookie) {
+        headers.addSetCookie(cookie);
+    }
+
+    public void addDateHeader(String name, long date) {
+        headers.addDateField(name, date);
+    }
+
+    public void addHeader(String name, String value) {
+        headers.add(name, value);
+    }
+
+    public void addIntHeader(String name, int value) {
+        headers.addLongField(name, value);
+    }
+
+    public boolean containsHeader(String name) {
+        return headers.containsKey(name);
+    }
+
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    @Deprecated
+    public String encodeRedirectUrl(String url) {
+        return url;
+    }
+
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    @Deprecated
+    public String encodeUrl(String url) {
+        return url;
+    }
+
+    public void flushBuffer() {
+        // The response is only ever sent once it is complete
+    }
+
+    public int getBufferSize() {
+        return body.size();
+    }
+
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    public String getContentType() {
+        return headers.getStringField("Content-Type");
+    }
+
+    public Locale getLocale() {
+        return locale;
+    }
+
+    public ServletOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public PrintWriter getWriter() throws UnsupportedEncodingException {
+        if (writer == null)
+            writer = new PrintWriter(new OutputStreamWriter(outputStream, characterEncoding));
+        return writer;
+    }
+
+    public boolean isCommitted() {
+        return false;
+    }
+
+    public void reset() {
+        resetBuffer();
+        headers.clear();
+        status = SC_OK;
+        contentLength = -1;
+    }
+
+    public void resetBuffer() {
+        if (writer != null)
+            writer.flush();
+        body.reset();
+    }
+
+    public void sendError(int sc) {
+        sendError(sc, null);
+    }
+
+    public void sendError(int sc, String msg) {
+        resetBuffer();
+        status = sc;
+        contentLength = -1;
+        if (msg != null) {
+            headers.put("Content-Type", "text/plain; charset=UTF-8");
+            try {
+                body.write(msg.getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new IllegalStateException("UTF-8 is not supported.", e);
+            }
+        }
+    }
+
+    public void sendRedirect(String location) {
+        resetBuffer();
+        status = SC_MOVED_TEMPORARILY;
+        headers.put("Location", location);
+    }
+
+    public void setBufferSize(int size) {
+        // The body is buffered in full, whatever its size
+    }
+
+    public void setCharacterEncoding(String charset) {
+        this.characterEncoding = charset;
+    }
+
+    public void setContentLength(int len) {
+        this.contentLength = len;
+    }
+
+    public void setContentType(String type) {
+        headers.put("Content-Type", type);
+    }
+
+    public void setDateHeader(String name, long date) {
+        headers.putDateField(name, date);
+    }
+
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    public void setIntHeader(String name, int value) {
+        headers.putLongField(name, value);
+    }
+
+    public void setLocale(Locale locale) {
+        this.locale = locale;
+    }
+
+    public void setStatus(int sc) {
+        this.status = sc;
+    }
+
+    @Deprecated
+    public void setStatus(int sc, String sm) {
+        this.status = sc;
+    }
+}
@@ -0,0 +1,172 @@
+package com.google.code.openid.mojo.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mortbay.component.AbstractLifeCycle;
+import org.mortbay.thread.ThreadPool;
+
+/**
+ * A Jetty {@link ThreadPool} that runs each job on a new virtual thread.
+ * <p />
+ * Virtual threads are only available from Java 21, so they are created through reflection, and this pool can only be used if the running JVM
+ * {@link #isSupported() supports} them. Since a virtual thread costs little more than the job it runs, the pool has no bound and never runs low on
+ * threads.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+    private static final Method OF_VIRTUAL = getMethod(Thread.class, "ofVirtual");
+    private static final Method NAME = getMethod(getClass("java.lang.Thread$Builder"), "name", String.class, long.class);
+    private static final Method FACTORY = getMethod(getClass("java.lang.Thread$Builder"), "factory");
+    private static final boolean SUPPORTED = createFactory("openid-discovery-probe-") != null;
+
+    private final ThreadFactory threadFactory;
+    private final AtomicInteger threads = new AtomicInteger();
+    private final Object stopLock = new Object();
+
+    /**
+     * Create a pool.
+     * 
+     * @param name
+     *            The name of the pool; threads are named after it, followed by a sequence number.
+     * @throws IllegalArgumentException
+     *             If the given name is {@code null}.
+     * @throws IllegalStateException
+     *             If the running JVM does not support virtual threads.
+     */
+    public VirtualThreadPool(String name) {
+        if (name == null)
+            throw new IllegalArgumentException("Name cannot be null.");
+
+        threadFactory = createFactory(name + "-");
+        if (threadFactory == null)
+            throw new IllegalStateException("Virtual threads are not supported by this JVM: " + System.getProperty("java.version"));
+    }
+
+    /**
+     * Determine whether the running JVM supports virtual threads.
+     * 
+     * @return {@code true} if virtual threads can be created.
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean dispatch(final Runnable job) {
+        if (!isRunning())
+            return false;
+
+        threads.incrementAndGet();
+        threadFactory.newThread(new Runnable() {
+            public void run() {
+                try {
+                    job.run();
+                } finally {
+                    threads.decrementAndGet();
+                }
+            }
+        }).start();
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getThreads() {
+        return threads.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void join() throws InterruptedException {
+        synchronized (stopLock) {
+            while (isRunning())
+                stopLock.wait();
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        synchronized (stopLock) {
+            stopLock.notifyAll();
+        }
+    }
+
+    /**
+     * Create a factory of virtual threads.
+     * 
+     * @param prefix
+     *            The prefix of the names of the threads.
+     * @return A {@link ThreadFactory} creating virtual threads; {@code null} if the running JVM does not support them.
+     */
+    private static ThreadFactory createFactory(String prefix) {
+        if (OF_VIRTUAL == null || NAME == null || FACTORY == null)
+            return null;
+
+        try {
+            return (ThreadFactory) FACTORY.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), prefix, Long.valueOf(0)));
+        } catch (Exception e) {
+            // Virtual threads are a preview feature before Java 21, and cannot be created unless previews are enabled
+            return null;
+        }
+    }
+
+    /**
+     * Look up a class that may not exist in the running JVM.
+     * 
+     * @param name
+     *            The name of the class.
+     * @return The {@link Class}; {@code null} if there is no such class.
+     */
+    private static Class<?> getClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Look up a public method that may not exist in the running JVM.
+     * 
+     * @param type
+     *            The class declaring the method; may be {@code null}.
+     * @param name
+     *            The name of the method.
+     * @param parameterTypes
+     *            The parameter types of the method.
+     * @return The {@link Method}; {@code null} if there is no such method.
+     */
+    private static Method getMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        if (type == null)
+            return null;
+
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * The HTTP engines that can run a discovery server.
+ */
+package com.google.code.openid.mojo.server;
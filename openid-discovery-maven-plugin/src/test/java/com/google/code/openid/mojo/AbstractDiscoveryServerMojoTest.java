@@ -3,11 +3,13 @@ package com.google.code.openid.mojo;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
-import java.lang.reflect.Field;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -16,12 +18,16 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mortbay.jetty.Server;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+import org.mortbay.thread.QueuedThreadPool;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.reflect.Whitebox;
 
 import com.google.code.openid.mojo.AbstractDiscoveryServerMojoTest.ConcreteMojo;
 import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+import com.google.code.openid.mojo.server.JettyDiscoveryServer;
+import com.google.code.openid.mojo.server.NioDiscoveryServer;
 
 /**
  * Unit tests for {@link AbstractDiscoveryServerMojo}.
@@ -31,7 +37,7 @@ import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
  */
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest(value = { ConcreteMojo.class, DiscoveredServiceHandler.class, Server.class })
+@PrepareForTest(value = { ConcreteMojo.class, JettyDiscoveryServer.class, Server.class })
 public class AbstractDiscoveryServerMojoTest {
     private ConcreteMojo mojo;
 
@@ -44,15 +50,12 @@ public class AbstractDiscoveryServerMojoTest {
     }
 
     /**
-     * Nullify the server reference so that the mock doesn't persist between tests.
-     * 
-     * @throws Exception
-     *             If any errors occur during the teardown.
+     * Clear the server registry so that the mocks don't persist between tests.
      */
     @After
-    public void tearDown() throws Exception {
-        final Field serverField = Whitebox.getField(AbstractDiscoveryServerMojo.class, "server");
-        serverField.set(null, null);
+    public void tearDown() {
+        final Map<?, ?> servers = Whitebox.getInternalState(AbstractDiscoveryServerMojo.class, "SERVERS");
+        servers.clear();
     }
 
     /**
@@ -68,28 +71,115 @@ public class AbstractDiscoveryServerMojoTest {
         final int portB = 1339;
         final List<DiscoveredService> services = mock(List.class);
         final List<DiscoveryCanonicalId> canonicalIds = mock(List.class);
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
 
         final Server serverA = mock(Server.class);
-        whenNew(Server.class).withArguments(portA).thenReturn(serverA);
-
         final Server serverB = mock(Server.class);
-        whenNew(Server.class).withArguments(portB).thenReturn(serverB);
+        whenNew(Server.class).withNoArguments().thenReturn(serverA, serverB);
+
+        final SelectChannelConnector connectorA = mock(SelectChannelConnector.class);
+        final SelectChannelConnector connectorB = mock(SelectChannelConnector.class);
+        whenNew(SelectChannelConnector.class).withNoArguments().thenReturn(connectorA, connectorB);
+
+        final QueuedThreadPool threadPool = mock(QueuedThreadPool.class);
+        whenNew(QueuedThreadPool.class).withNoArguments().thenReturn(threadPool);
+
+        configuration.setAcceptors(2);
+        configuration.setAcceptQueueSize(64);
+        configuration.setMaxIdleTime(1000);
+        configuration.setMinThreads(4);
+        configuration.setMaxThreads(8);
 
         final DiscoveredServiceHandler handler = mock(DiscoveredServiceHandler.class);
-        whenNew(DiscoveredServiceHandler.class).withArguments(canonicalIds, services).thenReturn(handler);
+        whenNew(DiscoveredServiceHandler.class).withArguments(canonicalIds, services, configuration).thenReturn(handler);
 
-        mojo.startServer(portA, canonicalIds, services);
+        when(connectorA.getLocalPort()).thenReturn(portA);
+        assertThat(mojo.startServer(portA, canonicalIds, services, configuration)).isEqualTo(portA);
+
+        verify(connectorA).setPort(portA);
+        verify(connectorA).setAcceptors(2);
+        verify(connectorA).setAcceptQueueSize(64);
+        verify(connectorA).setMaxIdleTime(1000);
+        verify(serverA).addConnector(connectorA);
+
+        verify(threadPool).setMinThreads(4);
+        verify(threadPool).setMaxThreads(8);
+        verify(serverA).setThreadPool(threadPool);
 
         verify(serverA).setHandler(handler);
         verify(serverA).start();
         verify(serverA, never()).stop();
-        assertThat(mojo.getServer()).isEqualTo(serverA);
+        assertThat(getJettyServer(mojo)).isEqualTo(serverA);
 
         // If the server is started again, the previous server should be stopped
-        mojo.startServer(portB, canonicalIds, services);
+        mojo.startServer(portB, canonicalIds, services, configuration);
         verify(serverA).stop();
+        verify(connectorB).setPort(portB);
         verify(serverB).start();
-        assertThat(mojo.getServer()).isEqualTo(serverB);
+        assertThat(getJettyServer(mojo)).isEqualTo(serverB);
+    }
+
+    /**
+     * A server with the NIO backend should be run by a {@link NioDiscoveryServer} and report the port it bound.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testStartServerNio() throws Exception {
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        configuration.setServerBackend(ServerBackend.NIO);
+
+        final int port = mojo.startServer(0, Collections.<DiscoveryCanonicalId> emptyList(), Collections.<DiscoveredService> emptyList(),
+                configuration);
+        try {
+            assertThat(mojo.getServer()).isInstanceOf(NioDiscoveryServer.class);
+            assertThat(port).isGreaterThan(0).isEqualTo(mojo.getServer().getLocalPort());
+            assertThat(mojo.getServer().isRunning()).isTrue();
+        } finally {
+            final NioDiscoveryServer server = (NioDiscoveryServer) mojo.getServer();
+            mojo.stopServer();
+            assertThat(server.isStopped()).isTrue();
+            assertThat(mojo.getServer()).isNull();
+        }
+    }
+
+    /**
+     * Servers with different IDs should run side by side, and each mojo should only stop the server with its own ID.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStartServerDistinctIds() throws Exception {
+        final List<DiscoveredService> services = mock(List.class);
+        final List<DiscoveryCanonicalId> canonicalIds = mock(List.class);
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+
+        final Server serverA = mock(Server.class);
+        final Server serverB = mock(Server.class);
+        whenNew(Server.class).withNoArguments().thenReturn(serverA, serverB);
+
+        final DiscoveredServiceHandler handler = mock(DiscoveredServiceHandler.class);
+        whenNew(DiscoveredServiceHandler.class).withArguments(canonicalIds, services, configuration).thenReturn(handler);
+
+        final ConcreteMojo otherMojo = new ConcreteMojo();
+        Whitebox.setInternalState(otherMojo, "serverId", "other");
+        assertThat(mojo.getServerId()).isEqualTo(AbstractDiscoveryServerMojo.DEFAULT_SERVER_ID);
+        assertThat(otherMojo.getServerId()).isEqualTo("other");
+
+        mojo.startServer(1338, canonicalIds, services, configuration);
+        otherMojo.startServer(1339, canonicalIds, services, configuration);
+        verify(serverA, never()).stop();
+        assertThat(getJettyServer(mojo)).isEqualTo(serverA);
+        assertThat(getJettyServer(otherMojo)).isEqualTo(serverB);
+
+        otherMojo.stopServer();
+        verify(serverB).stop();
+        verify(serverA, never()).stop();
+        assertThat(getJettyServer(mojo)).isEqualTo(serverA);
+        assertThat(otherMojo.getServer()).isNull();
     }
 
     /**
@@ -104,20 +194,32 @@ public class AbstractDiscoveryServerMojoTest {
         final int port = 1338;
         final List<DiscoveredService> services = mock(List.class);
         final List<DiscoveryCanonicalId> canonicalIds = mock(List.class);
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
 
         final Server server = mock(Server.class);
-        whenNew(Server.class).withArguments(port).thenReturn(server);
+        whenNew(Server.class).withNoArguments().thenReturn(server);
 
         final DiscoveredServiceHandler handler = mock(DiscoveredServiceHandler.class);
-        whenNew(DiscoveredServiceHandler.class).withArguments(canonicalIds, services).thenReturn(handler);
+        whenNew(DiscoveredServiceHandler.class).withArguments(canonicalIds, services, configuration).thenReturn(handler);
 
-        mojo.startServer(port, canonicalIds, services);
-        assertThat(mojo.getServer()).isEqualTo(server);
+        mojo.startServer(port, canonicalIds, services, configuration);
+        assertThat(getJettyServer(mojo)).isEqualTo(server);
         mojo.stopServer();
         verify(server).stop();
         assertThat(mojo.getServer()).isNull();
     }
 
+    /**
+     * Get the Jetty server running a mojo's discovery server.
+     * 
+     * @param mojo
+     *            The {@link AbstractDiscoveryServerMojo} whose server is to be retrieved.
+     * @return The {@link Server} of the mojo's {@link JettyDiscoveryServer}.
+     */
+    private Server getJettyServer(AbstractDiscoveryServerMojo mojo) {
+        return ((JettyDiscoveryServer) mojo.getServer()).getServer();
+    }
+
     /**
      * A concrete mojo to facilitate testing.
      * 
@@ -41,6 +41,26 @@ public class DiscoveredServiceTest {
         service = new DiscoveredService();
     }
 
+    /**
+     * Test the retrieval of the host regex.
+     */
+    @Test
+    public void testGetHostRegex() {
+        final String hostRegex = "\\/a\\/host\\/regex";
+        service.setHostRegex(hostRegex);
+        assertThat(service.getHostRegex()).isEqualTo(hostRegex);
+    }
+
+    /**
+     * Attempting to retrieve the host regex when it has not been set should fail, as it's a required field.
+     */
+    @Test
+    public void testGetHostRegexNotSet() {
+        expected.expect(IllegalStateException.class);
+        expected.expectMessage("Host regex pattern has not been set prior to retrieval.");
+        service.getHostRegex();
+    }
+
     /**
      * Test the retrieval of a set local ID.
      */
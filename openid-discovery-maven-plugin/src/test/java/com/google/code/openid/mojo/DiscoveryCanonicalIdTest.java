@@ -61,6 +61,26 @@ public class DiscoveryCanonicalIdTest {
         discoveredId.getCanonicalId();
     }
 
+    /**
+     * Test the retrieval of the host regex.
+     */
+    @Test
+    public void testGetHostRegex() {
+        final String hostRegex = "\\/host\\/regex";
+        discoveredId.setHostRegex(hostRegex);
+        assertThat(discoveredId.getHostRegex()).isEqualTo(hostRegex);
+    }
+
+    /**
+     * Retrieval of the host regex should fail in the event of it not being set.
+     */
+    @Test
+    public void testGetHostRegexNotSet() {
+        expected.expect(IllegalStateException.class);
+        expected.expectMessage("Host regex has not yet been set prior to retrieval.");
+        discoveredId.getHostRegex();
+    }
+
     /**
      * The matching against a host regex should be reflective of the underlying {@link Pattern} object's {@link Matcher}.
      */
@@ -0,0 +1,209 @@
+package com.google.code.openid.mojo;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collections;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+import org.powermock.reflect.Whitebox;
+
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+
+/**
+ * Unit tests for {@link LoadTestDiscoveryServerMojo}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class LoadTestDiscoveryServerMojoTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * A {@link Rule} providing a directory for the load test report.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Server server;
+    private LoadTestDiscoveryServerMojo mojo;
+
+    /**
+     * Start a discovery server on a free port and set up a mojo to load-test it briefly.
+     * 
+     * @throws Exception
+     *             If the server cannot be started.
+     */
+    @Before
+    public void setUp() throws Exception {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex("\\/users\\/.*");
+        service.setUri("http://localhost/openid");
+        service.setTypes(new String[] { "http://specs.openid.net/auth/2.0/signon" });
+
+        final SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort(0);
+        server = new Server();
+        server.addConnector(connector);
+        server.setHandler(new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Collections.singletonList(service)));
+        server.start();
+
+        mojo = new LoadTestDiscoveryServerMojo();
+        Whitebox.setInternalState(mojo, "serverUrl", "http://localhost:" + connector.getLocalPort());
+        Whitebox.setInternalState(mojo, "targets", new String[] { "/users/me" });
+        Whitebox.setInternalState(mojo, "concurrency", 1);
+        Whitebox.setInternalState(mojo, "warmup", 0L);
+        Whitebox.setInternalState(mojo, "duration", 200L);
+    }
+
+    /**
+     * Stop the discovery server.
+     * 
+     * @throws Exception
+     *             If the server cannot be stopped.
+     */
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * The results should be written to the report file.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testExecute() throws Exception {
+        final File reportFile = new File(folder.getRoot(), "target/loadtest.json");
+        Whitebox.setInternalState(mojo, "reportFile", reportFile);
+
+        mojo.execute();
+
+        final String report = read(reportFile);
+        assertThat(report).contains("\"requests\": ");
+        assertThat(report).contains("\"errors\": 0,\n");
+        assertThat(report).contains("\"p99\": ");
+    }
+
+    /**
+     * The build should fail if the throughput is below the minimum, after the report has been written.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testExecuteBelowMinThroughput() throws Exception {
+        final File reportFile = folder.newFile("loadtest.json");
+        Whitebox.setInternalState(mojo, "reportFile", reportFile);
+        Whitebox.setInternalState(mojo, "minThroughput", 1e12);
+
+        try {
+            mojo.execute();
+        } catch (MojoFailureException e) {
+            assertThat(e.getMessage()).startsWith("Throughput of ").endsWith(" req/s is below the minimum of 1000000000000.0 req/s.");
+            assertThat(read(reportFile)).contains("\"throughput\": ");
+            return;
+        }
+        throw new AssertionError("The build should have failed.");
+    }
+
+    /**
+     * The build should fail if the 99th percentile latency exceeds the maximum.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testExecuteAboveMaxP99() throws Exception {
+        Whitebox.setInternalState(mojo, "maxP99", 0.000001);
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("exceeds the maximum of 0.000ms.");
+        mojo.execute();
+    }
+
+    /**
+     * Without a server URL, the running server with the mojo's server ID should be tested; if there is none, the build should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testExecuteNoServer() throws Exception {
+        Whitebox.setInternalState(mojo, "serverUrl", (Object) null);
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("No serverUrl was given and no discovery server 'default' is running.");
+        mojo.execute();
+    }
+
+    /**
+     * The build should fail if no targets are given.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testExecuteNoTargets() throws Exception {
+        Whitebox.setInternalState(mojo, "targets", new String[0]);
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("At least one target must be given.");
+        mojo.execute();
+    }
+
+    /**
+     * Invalid load settings should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testExecuteInvalidConcurrency() throws Exception {
+        Whitebox.setInternalState(mojo, "concurrency", 0);
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Concurrency must be at least 1: 0");
+        mojo.execute();
+    }
+
+    /**
+     * Read a file.
+     * 
+     * @param file
+     *            The {@link File} to be read.
+     * @return The contents of the file.
+     * @throws IOException
+     *             If the file cannot be read.
+     */
+    private String read(File file) throws IOException {
+        final StringBuilder contents = new StringBuilder();
+        final Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            final char[] buffer = new char[1024];
+            for (int read = reader.read(buffer); read >= 0; read = reader.read(buffer))
+                contents.append(buffer, 0, read);
+        } finally {
+            reader.close();
+        }
+        return contents.toString();
+    }
+}
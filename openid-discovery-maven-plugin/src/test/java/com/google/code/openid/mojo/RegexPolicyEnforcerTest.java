@@ -0,0 +1,106 @@
+package com.google.code.openid.mojo;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.Arrays;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+
+/**
+ * Unit tests for {@link RegexPolicyEnforcer}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+@RunWith(MockitoJUnitRunner.class)
+public class RegexPolicyEnforcerTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    private final RegexCostAnalyzer analyzer = new RegexCostAnalyzer(RegexCostAnalyzer.DEFAULT_BUDGET);
+    @Mock
+    private Log log;
+
+    /**
+     * Construction with a {@code null} policy should fail.
+     */
+    @Test
+    public void testConstructNullPolicy() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Policy cannot be null.");
+        new RegexPolicyEnforcer(null, analyzer, log, "default");
+    }
+
+    /**
+     * Under the {@code warn} policy, expensive expressions should be warned about and a summary logged.
+     */
+    @Test
+    public void testEnforceWarn() {
+        new RegexPolicyEnforcer(RegexPolicy.WARN, analyzer, log, "default").enforce(Arrays.asList("((a+)+)+", "\\/users\\/.*"));
+
+        verify(log).warn(contains("hostRegex '((a+)+)+' (exponential) took over 10 ms to match an adversarial input"));
+        verify(log).warn(contains("discovery server 'default'"));
+        verify(log).info(contains("Analyzed 2 hostRegex pattern(s)"));
+    }
+
+    /**
+     * Under the {@code reject} policy, expensive expressions should be named in the exception thrown, and not warned about.
+     */
+    @Test
+    public void testEnforceReject() {
+        try {
+            new RegexPolicyEnforcer(RegexPolicy.REJECT, analyzer, log, "default").enforce(Arrays.asList("\\/users", "((a+)+)+"));
+            throw new AssertionError("The expressions should have been rejected.");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo("hostRegex pattern(s) took over 10 ms to match an adversarial input: [((a+)+)+]");
+        }
+        verify(log, never()).warn(anyString());
+    }
+
+    /**
+     * Under the {@code reject} policy, inexpensive expressions should be accepted.
+     */
+    @Test
+    public void testEnforceRejectInexpensive() {
+        new RegexPolicyEnforcer(RegexPolicy.REJECT, analyzer, log, "default").enforce(Arrays.asList("\\/users", "\\/users\\/.*"));
+
+        verify(log).info(contains("1 literal, 1 prefix, 0 linear, 0 potentially exponential; 0 expensive."));
+    }
+
+    /**
+     * Under the {@code ignore} policy, nothing should be analyzed.
+     */
+    @Test
+    public void testEnforceIgnore() {
+        new RegexPolicyEnforcer(RegexPolicy.IGNORE, analyzer, log, "default").enforce(Arrays.asList("((a+)+)+"));
+
+        verifyZeroInteractions(log);
+    }
+
+    /**
+     * An invalid expression should be rejected under any policy that analyzes expressions.
+     */
+    @Test
+    public void testEnforceInvalid() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Invalid hostRegex '(a'");
+        new RegexPolicyEnforcer(RegexPolicy.WARN, analyzer, log, "default").enforce(Arrays.asList("(a"));
+    }
+}
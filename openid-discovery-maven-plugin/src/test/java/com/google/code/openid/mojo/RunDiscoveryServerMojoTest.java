@@ -11,6 +11,8 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.reflect.Whitebox;
 
+import com.google.code.openid.mojo.server.JettyDiscoveryServer;
+
 /**
  * Unit tests for {@link RunDiscoveryServerMojo}.
  * 
@@ -19,7 +21,7 @@ import org.powermock.reflect.Whitebox;
  */
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest(value = { RunDiscoveryServerMojo.class, Server.class })
+@PrepareForTest(value = { RunDiscoveryServerMojo.class, JettyDiscoveryServer.class, Server.class })
 public class RunDiscoveryServerMojoTest {
 
     /**
@@ -38,7 +40,7 @@ public class RunDiscoveryServerMojoTest {
         Whitebox.setInternalState(mojo, "canonicalIds", new DiscoveryCanonicalId[] {});
 
         final Server server = mock(Server.class);
-        whenNew(Server.class).withArguments(Integer.valueOf(1338)).thenReturn(server);
+        whenNew(Server.class).withNoArguments().thenReturn(server);
 
         mojo.execute();
         verify(server).join();
@@ -3,26 +3,39 @@ package com.google.code.openid.mojo;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.List;
+import java.util.Properties;
 
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.internal.util.reflection.Whitebox;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+
 /**
  * Unit tests for {@link StartDiscoveryServerMojo}.
  * 
@@ -38,8 +51,16 @@ public class StartDiscoveryServerMojoTest {
     @Rule
     public ExpectedException expected = ExpectedException.none();
 
+    /**
+     * A {@link Rule} used to create configuration files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Mock
     private StartDiscoveryServerMojo mojo;
+    @Mock
+    private Log log;
 
     /**
      * Set up the mojo for each test.
@@ -50,6 +71,27 @@ public class StartDiscoveryServerMojoTest {
     @Before
     public void setUp() throws Exception {
         doCallRealMethod().when(mojo).execute();
+        doCallRealMethod().when(mojo).getServerId();
+        doCallRealMethod().when(mojo).createRegexPolicyEnforcer(any(DiscoveryServerConfiguration.class));
+        when(mojo.getLog()).thenReturn(log);
+
+        // The mock does not run the field initializers that supply the parameter defaults
+        Whitebox.setInternalState(mojo, "services", new DiscoveredService[0]);
+        Whitebox.setInternalState(mojo, "configurationPollInterval", Long.valueOf(DiscoveryServerConfiguration.DEFAULT_CONFIGURATION_POLL_INTERVAL));
+        Whitebox.setInternalState(mojo, "acceptors", Integer.valueOf(DiscoveryServerConfiguration.DEFAULT_ACCEPTORS));
+        Whitebox.setInternalState(mojo, "minThreads", Integer.valueOf(DiscoveryServerConfiguration.DEFAULT_MIN_THREADS));
+        Whitebox.setInternalState(mojo, "maxThreads", Integer.valueOf(DiscoveryServerConfiguration.DEFAULT_MAX_THREADS));
+        Whitebox.setInternalState(mojo, "adminPath", DiscoveryServerConfiguration.DEFAULT_ADMIN_PATH);
+        Whitebox.setInternalState(mojo, "adminMaxBatchSize", Integer.valueOf(DiscoveryServerConfiguration.DEFAULT_ADMIN_MAX_BATCH_SIZE));
+        Whitebox.setInternalState(mojo, "accessLogBufferSize", Integer.valueOf(DiscoveryServerConfiguration.DEFAULT_ACCESS_LOG_BUFFER_SIZE));
+        Whitebox.setInternalState(mojo, "yadisMode", "direct");
+        Whitebox.setInternalState(mojo, "serverBackend", "jetty");
+        Whitebox.setInternalState(mojo, "executionMode", "pooled");
+        Whitebox.setInternalState(mojo, "xrdsPath", DiscoveryServerConfiguration.DEFAULT_XRDS_PATH);
+        Whitebox.setInternalState(mojo, "regexPolicy", "warn");
+        Whitebox.setInternalState(mojo, "matchTimeout", Long.valueOf(DiscoveryServerConfiguration.DEFAULT_MATCH_TIMEOUT));
+        Whitebox.setInternalState(mojo, "matchTimeoutStatus", Integer.valueOf(DiscoveryServerConfiguration.DEFAULT_MATCH_TIMEOUT_STATUS));
+        Whitebox.setInternalState(mojo, "regexBudget", Long.valueOf(RegexCostAnalyzer.DEFAULT_BUDGET));
     }
 
     /**
@@ -62,21 +104,532 @@ public class StartDiscoveryServerMojoTest {
     @Test
     public void testExecute() throws Exception {
         final DiscoveryCanonicalId canonicalId = mock(DiscoveryCanonicalId.class);
+        when(canonicalId.getHostRegex()).thenReturn("\\/a");
         final DiscoveredService service = mock(DiscoveredService.class);
+        when(service.getHostRegex()).thenReturn("\\/a");
         final int port = 1338;
 
         Whitebox.setInternalState(mojo, "serverPort", Integer.valueOf(port));
         Whitebox.setInternalState(mojo, "canonicalIds", new DiscoveryCanonicalId[] { canonicalId });
         Whitebox.setInternalState(mojo, "services", new DiscoveredService[] { service });
+        Whitebox.setInternalState(mojo, "matchCacheSize", Integer.valueOf(256));
+        Whitebox.setInternalState(mojo, "matchTimeout", Long.valueOf(50));
+        Whitebox.setInternalState(mojo, "matchTimeoutStatus", Integer.valueOf(429));
+        Whitebox.setInternalState(mojo, "acceptors", Integer.valueOf(2));
+        Whitebox.setInternalState(mojo, "acceptQueueSize", Integer.valueOf(64));
+        Whitebox.setInternalState(mojo, "maxIdleTime", Integer.valueOf(1000));
+        Whitebox.setInternalState(mojo, "minThreads", Integer.valueOf(4));
+        Whitebox.setInternalState(mojo, "maxThreads", Integer.valueOf(8));
 
         mojo.execute();
 
         final ArgumentCaptor<List> canonicalIdCaptor = ArgumentCaptor.forClass(List.class);
         final ArgumentCaptor<Collection> serviceCaptor = ArgumentCaptor.forClass(Collection.class);
-        verify(mojo).startServer(eq(port), canonicalIdCaptor.capture(), serviceCaptor.capture());
+        final ArgumentCaptor<DiscoveryServerConfiguration> configurationCaptor = ArgumentCaptor.forClass(DiscoveryServerConfiguration.class);
+        verify(mojo).startServer(eq(port), canonicalIdCaptor.capture(), serviceCaptor.capture(), configurationCaptor.capture());
 
         assertThat(canonicalIdCaptor.getValue()).containsOnly(canonicalId);
         assertThat(serviceCaptor.getValue()).containsOnly(service);
+        final DiscoveryServerConfiguration configuration = configurationCaptor.getValue();
+        assertThat(configuration.getMatchCacheSize()).isEqualTo(256);
+        assertThat(configuration.getMatchTimeout()).isEqualTo(50);
+        assertThat(configuration.getMatchTimeoutStatus()).isEqualTo(429);
+        assertThat(configuration.getAcceptors()).isEqualTo(2);
+        assertThat(configuration.getAcceptQueueSize()).isEqualTo(64);
+        assertThat(configuration.getMaxIdleTime()).isEqualTo(1000);
+        assertThat(configuration.getMinThreads()).isEqualTo(4);
+        assertThat(configuration.getMaxThreads()).isEqualTo(8);
+    }
+
+    /**
+     * A minimum thread count that exceeds the maximum thread count should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteMinThreadsExceedsMaxThreads() throws Exception {
+        Whitebox.setInternalState(mojo, "minThreads", Integer.valueOf(10));
+        Whitebox.setInternalState(mojo, "maxThreads", Integer.valueOf(5));
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Minimum threads (10) cannot exceed maximum threads (5).");
+        mojo.execute();
+    }
+
+    /**
+     * A thread pool too small to hold the acceptor threads should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteAcceptorsExhaustThreads() throws Exception {
+        Whitebox.setInternalState(mojo, "acceptors", Integer.valueOf(2));
+        Whitebox.setInternalState(mojo, "minThreads", Integer.valueOf(1));
+        Whitebox.setInternalState(mojo, "maxThreads", Integer.valueOf(2));
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Maximum threads (2) must exceed the number of acceptors (2).");
+        mojo.execute();
+    }
+
+    /**
+     * The numbers of acceptors and threads do not apply to the NIO backend, so should not fail the build when it is selected.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteNioIgnoresThreads() throws Exception {
+        Whitebox.setInternalState(mojo, "serverBackend", "nio");
+        Whitebox.setInternalState(mojo, "minThreads", Integer.valueOf(1));
+        Whitebox.setInternalState(mojo, "maxThreads", Integer.valueOf(1));
+
+        mojo.execute();
+
+        final ArgumentCaptor<DiscoveryServerConfiguration> configurationCaptor = ArgumentCaptor.forClass(DiscoveryServerConfiguration.class);
+        verify(mojo).startServer(anyInt(), any(List.class), any(Collection.class), configurationCaptor.capture());
+        assertThat(configurationCaptor.getValue().getServerBackend()).isEqualTo(ServerBackend.NIO);
+        assertThat(configurationCaptor.getValue().getAcceptors()).isEqualTo(DiscoveryServerConfiguration.DEFAULT_ACCEPTORS);
+        assertThat(configurationCaptor.getValue().getMaxThreads()).isEqualTo(1);
+    }
+
+    /**
+     * If only a configuration file is given, the server should be started with no services from the POM.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testExecuteConfigurationFileOnly() throws Exception {
+        Whitebox.setInternalState(mojo, "services", null);
+        final File configurationFile = new File("discovery.xml");
+        Whitebox.setInternalState(mojo, "configurationFile", configurationFile);
+        Whitebox.setInternalState(mojo, "configurationPollInterval", Long.valueOf(250));
+
+        mojo.execute();
+
+        final ArgumentCaptor<Collection> serviceCaptor = ArgumentCaptor.forClass(Collection.class);
+        final ArgumentCaptor<DiscoveryServerConfiguration> configurationCaptor = ArgumentCaptor.forClass(DiscoveryServerConfiguration.class);
+        verify(mojo).startServer(anyInt(), any(List.class), serviceCaptor.capture(), configurationCaptor.capture());
+        assertThat(serviceCaptor.getValue()).isEmpty();
+        assertThat(configurationCaptor.getValue().getConfigurationFile()).isEqualTo(configurationFile);
+        assertThat(configurationCaptor.getValue().getConfigurationPollInterval()).isEqualTo(250);
+    }
+
+    /**
+     * The port bound by the server should be published to the project and system properties.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecutePublishesPort() throws Exception {
+        final Properties projectProperties = new Properties();
+        Whitebox.setInternalState(mojo, "projectProperties", projectProperties);
+        when(mojo.startServer(eq(0), any(List.class), any(Collection.class), any(DiscoveryServerConfiguration.class))).thenReturn(
+                Integer.valueOf(54321));
+
+        try {
+            mojo.execute();
+
+            assertThat(projectProperties.getProperty("openid.discovery.port")).isEqualTo("54321");
+            assertThat(projectProperties.getProperty("openid.discovery.url")).isEqualTo("http://localhost:54321");
+            assertThat(System.getProperty("openid.discovery.port")).isEqualTo("54321");
+            assertThat(System.getProperty("openid.discovery.url")).isEqualTo("http://localhost:54321");
+            verify(log).info(contains("http://localhost:54321"));
+        } finally {
+            System.clearProperty("openid.discovery.port");
+            System.clearProperty("openid.discovery.url");
+        }
+    }
+
+    /**
+     * The properties of a server with other than the default server ID should be named after the server ID, unless a prefix is given.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecutePublishesPortPrefix() throws Exception {
+        final Properties projectProperties = new Properties();
+        Whitebox.setInternalState(mojo, "projectProperties", projectProperties);
+        Whitebox.setInternalState(mojo, "serverId", "other");
+
+        try {
+            mojo.execute();
+            assertThat(projectProperties.getProperty("openid.discovery.other.port")).isEqualTo("0");
+
+            Whitebox.setInternalState(mojo, "propertyPrefix", "idp");
+            mojo.execute();
+            assertThat(projectProperties.getProperty("idp.url")).isEqualTo("http://localhost:0");
+        } finally {
+            System.clearProperty("openid.discovery.other.port");
+            System.clearProperty("openid.discovery.other.url");
+            System.clearProperty("idp.port");
+            System.clearProperty("idp.url");
+        }
+    }
+
+    /**
+     * A port out of range should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteInvalidPort() throws Exception {
+        Whitebox.setInternalState(mojo, "serverPort", Integer.valueOf(65536));
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Server port must be between 0 and 65535: 65536");
+        mojo.execute();
+    }
+
+    /**
+     * The admin token and path should be passed down to the server.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAdmin() throws Exception {
+        Whitebox.setInternalState(mojo, "adminToken", "secret");
+        Whitebox.setInternalState(mojo, "adminPath", "/admin");
+        Whitebox.setInternalState(mojo, "adminMaxBatchSize", Integer.valueOf(1024));
+
+        mojo.execute();
+
+        final ArgumentCaptor<DiscoveryServerConfiguration> configurationCaptor = ArgumentCaptor.forClass(DiscoveryServerConfiguration.class);
+        verify(mojo).startServer(anyInt(), any(List.class), any(Collection.class), configurationCaptor.capture());
+        assertThat(configurationCaptor.getValue().getAdminToken()).isEqualTo("secret");
+        assertThat(configurationCaptor.getValue().getAdminPath()).isEqualTo("/admin");
+        assertThat(configurationCaptor.getValue().getAdminMaxBatchSize()).isEqualTo(1024);
+    }
+
+    /**
+     * The access log file and buffer size should be passed down to the server.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAccessLog() throws Exception {
+        final File accessLogFile = new File("access.log");
+        Whitebox.setInternalState(mojo, "accessLogFile", accessLogFile);
+        Whitebox.setInternalState(mojo, "accessLogBufferSize", Integer.valueOf(128));
+
+        mojo.execute();
+
+        final ArgumentCaptor<DiscoveryServerConfiguration> configurationCaptor = ArgumentCaptor.forClass(DiscoveryServerConfiguration.class);
+        verify(mojo).startServer(anyInt(), any(List.class), any(Collection.class), configurationCaptor.capture());
+        assertThat(configurationCaptor.getValue().getAccessLogFile()).isEqualTo(accessLogFile);
+        assertThat(configurationCaptor.getValue().getAccessLogBufferSize()).isEqualTo(128);
+    }
+
+    /**
+     * The Yadis mode, given in any case, and the XRDS path should be passed down to the server.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteYadisMode() throws Exception {
+        Whitebox.setInternalState(mojo, "yadisMode", "Negotiate");
+        Whitebox.setInternalState(mojo, "xrdsPath", "/yadis/");
+
+        mojo.execute();
+
+        final ArgumentCaptor<DiscoveryServerConfiguration> configurationCaptor = ArgumentCaptor.forClass(DiscoveryServerConfiguration.class);
+        verify(mojo).startServer(anyInt(), any(List.class), any(Collection.class), configurationCaptor.capture());
+        assertThat(configurationCaptor.getValue().getYadisMode()).isEqualTo(YadisMode.NEGOTIATE);
+        assertThat(configurationCaptor.getValue().getXrdsPath()).isEqualTo("/yadis");
+    }
+
+    /**
+     * An unknown Yadis mode should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteInvalidYadisMode() throws Exception {
+        Whitebox.setInternalState(mojo, "yadisMode", "indirect");
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Yadis mode must be one of direct, negotiate or header: indirect");
+        mojo.execute();
+    }
+
+    /**
+     * The server backend, given in any case, should be passed down to the server.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteServerBackend() throws Exception {
+        Whitebox.setInternalState(mojo, "serverBackend", "NIO");
+
+        mojo.execute();
+
+        final ArgumentCaptor<DiscoveryServerConfiguration> configurationCaptor = ArgumentCaptor.forClass(DiscoveryServerConfiguration.class);
+        verify(mojo).startServer(anyInt(), any(List.class), any(Collection.class), configurationCaptor.capture());
+        assertThat(configurationCaptor.getValue().getServerBackend()).isEqualTo(ServerBackend.NIO);
+    }
+
+    /**
+     * An unknown server backend should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteInvalidServerBackend() throws Exception {
+        Whitebox.setInternalState(mojo, "serverBackend", "netty");
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Server backend must be one of jetty or nio: netty");
+        mojo.execute();
+    }
+
+    /**
+     * The execution mode, given in any case, should be passed down to the server.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteExecutionMode() throws Exception {
+        Whitebox.setInternalState(mojo, "executionMode", "Virtual");
+
+        mojo.execute();
+
+        final ArgumentCaptor<DiscoveryServerConfiguration> configurationCaptor = ArgumentCaptor.forClass(DiscoveryServerConfiguration.class);
+        verify(mojo).startServer(anyInt(), any(List.class), any(Collection.class), configurationCaptor.capture());
+        assertThat(configurationCaptor.getValue().getExecutionMode()).isEqualTo(ExecutionMode.VIRTUAL);
+    }
+
+    /**
+     * An unknown execution mode should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteInvalidExecutionMode() throws Exception {
+        Whitebox.setInternalState(mojo, "executionMode", "forked");
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Execution mode must be one of pooled or virtual: forked");
+        mojo.execute();
+    }
+
+    /**
+     * Under the {@code warn} policy, an expensive host regex should be warned about and the server started regardless.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteRegexPolicyWarn() throws Exception {
+        Whitebox.setInternalState(mojo, "services", new DiscoveredService[] { service("((a+)+)+"), service("\\/users\\/.*") });
+
+        mojo.execute();
+
+        verify(log).warn(contains("hostRegex '((a+)+)+' (exponential) took over 10 ms to match an adversarial input"));
+        verify(log).info(contains("Analyzed 2 hostRegex pattern(s)"));
+        verify(log).info(contains("0 literal, 1 prefix, 0 linear, 1 potentially exponential; 1 expensive."));
+        verify(mojo).startServer(anyInt(), any(List.class), any(Collection.class), any(DiscoveryServerConfiguration.class));
+    }
+
+    /**
+     * Under the {@code reject} policy, an expensive host regex in the configuration file should fail the build when the server loads the file, and
+     * the server should be stopped again.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteRegexPolicyReject() throws Exception {
+        final File configurationFile = folder.newFile("discovery.xml");
+        final OutputStream out = new FileOutputStream(configurationFile);
+        try {
+            out.write(("<discovery><services><service><hostRegex>\\/users\\/(.*\\w){12}</hostRegex><uri>http://a</uri><types><type>t</type>"
+                    + "</types></service></services></discovery>").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        Whitebox.setInternalState(mojo, "services", new DiscoveredService[] { service("\\/users") });
+        Whitebox.setInternalState(mojo, "configurationFile", configurationFile);
+        Whitebox.setInternalState(mojo, "regexPolicy", "Reject");
+        doCallRealMethod().when(mojo).startServer(anyInt(), any(List.class), any(Collection.class), any(DiscoveryServerConfiguration.class));
+        doCallRealMethod().when(mojo).stopServer();
+        doCallRealMethod().when(mojo).getServer();
+
+        try {
+            mojo.execute();
+            throw new AssertionError("The build should have failed.");
+        } catch (MojoFailureException e) {
+            assertThat(e.getMessage()).isEqualTo("hostRegex pattern(s) took over 10 ms to match an adversarial input: [\\/users\\/(.*\\w){12}]");
+        }
+        verify(log, never()).warn(any(String.class));
+        // The services are analyzed by the mojo, and the file only as the server loads it
+        verify(log, times(2)).info(contains("Analyzed 1 hostRegex pattern(s)"));
+        assertThat(mojo.getServer()).isNull();
+    }
+
+    /**
+     * Under the {@code ignore} policy, host regexes should not be analyzed.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteRegexPolicyIgnore() throws Exception {
+        Whitebox.setInternalState(mojo, "services", new DiscoveredService[] { service("((a+)+)+") });
+        Whitebox.setInternalState(mojo, "regexPolicy", "ignore");
+
+        mojo.execute();
+
+        verify(log, never()).warn(any(String.class));
+        verify(log, never()).info(contains("Analyzed"));
+        verify(mojo).startServer(anyInt(), any(List.class), any(Collection.class), any(DiscoveryServerConfiguration.class));
+    }
+
+    /**
+     * A service with no host regex should fail the build, naming the service, rather than fail the analysis of host regexes.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteServiceMissingHostRegex() throws Exception {
+        final DiscoveredService service = new DiscoveredService();
+        service.setUri("http://localhost/openid");
+        Whitebox.setInternalState(mojo, "services", new DiscoveredService[] { service("\\/a"), service });
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Service #2 has no hostRegex.");
+        mojo.execute();
+    }
+
+    /**
+     * A canonical ID with no host regex should fail the build, naming the canonical ID, rather than fail the analysis of host regexes.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteCanonicalIdMissingHostRegex() throws Exception {
+        final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+        canonicalId.setCanonicalId("=!1");
+        Whitebox.setInternalState(mojo, "canonicalIds", new DiscoveryCanonicalId[] { canonicalId });
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Canonical ID #1 has no hostRegex.");
+        mojo.execute();
+    }
+
+    /**
+     * An unknown regex policy should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteInvalidRegexPolicy() throws Exception {
+        Whitebox.setInternalState(mojo, "regexPolicy", "forbid");
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Regex policy must be one of ignore, warn or reject: forbid");
+        mojo.execute();
+    }
+
+    /**
+     * A regex budget of less than a millisecond should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteInvalidRegexBudget() throws Exception {
+        Whitebox.setInternalState(mojo, "regexBudget", Long.valueOf(0));
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Regex budget must be at least 1: 0");
+        mojo.execute();
+    }
+
+    /**
+     * An admin path that is not absolute should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteRelativeAdminPath() throws Exception {
+        Whitebox.setInternalState(mojo, "adminPath", "admin");
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Admin path must start with /: admin");
+        mojo.execute();
+    }
+
+    /**
+     * If neither services nor a configuration file are given, the build should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteNoServices() throws Exception {
+        Whitebox.setInternalState(mojo, "services", null);
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Either services or a configurationFile must be given.");
+        mojo.execute();
+    }
+
+    /**
+     * A negative match cache size should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteNegativeMatchCacheSize() throws Exception {
+        Whitebox.setInternalState(mojo, "matchCacheSize", Integer.valueOf(-1));
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Match cache size cannot be negative: -1");
+        mojo.execute();
+    }
+
+    /**
+     * A match timeout status that is not an error status should fail the build.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testExecuteInvalidMatchTimeoutStatus() throws Exception {
+        Whitebox.setInternalState(mojo, "matchTimeoutStatus", Integer.valueOf(200));
+
+        expected.expect(MojoFailureException.class);
+        expected.expectMessage("Match timeout status must be between 400 and 599: 200");
+        mojo.execute();
     }
 
     /**
@@ -89,6 +642,7 @@ public class StartDiscoveryServerMojoTest {
     @Test
     public void testExecuteNoCanonicalIds() throws Exception {
         final DiscoveredService service = mock(DiscoveredService.class);
+        when(service.getHostRegex()).thenReturn("\\/a");
         final int port = 1338;
 
         Whitebox.setInternalState(mojo, "serverPort", Integer.valueOf(port));
@@ -97,7 +651,7 @@ public class StartDiscoveryServerMojoTest {
         mojo.execute();
 
         final ArgumentCaptor<List> canonicalIdCaptor = ArgumentCaptor.forClass(List.class);
-        verify(mojo).startServer(eq(port), canonicalIdCaptor.capture(), any(Collection.class));
+        verify(mojo).startServer(eq(port), canonicalIdCaptor.capture(), any(Collection.class), any(DiscoveryServerConfiguration.class));
         assertThat(canonicalIdCaptor.getValue()).isEmpty();
     }
 
@@ -111,10 +665,25 @@ public class StartDiscoveryServerMojoTest {
     @Test
     public void testExecuteStartupError() throws Exception {
         final Exception thrown = new Exception();
-        doThrow(thrown).when(mojo).startServer(anyInt(), any(List.class), any(Collection.class));
+        doThrow(thrown).when(mojo).startServer(anyInt(), any(List.class), any(Collection.class), any(DiscoveryServerConfiguration.class));
 
         expected.expect(MojoExecutionException.class);
         expected.expectMessage("Error starting discovery server.");
         mojo.execute();
     }
+
+    /**
+     * Create a service.
+     * 
+     * @param hostRegex
+     *            The host regex of the service.
+     * @return A {@link DiscoveredService} with the given host regex.
+     */
+    private DiscoveredService service(String hostRegex) {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex(hostRegex);
+        service.setUri("http://localhost/openid");
+        service.setTypes(new String[] { "http://specs.openid.net/auth/2.0/signon" });
+        return service;
+    }
 }
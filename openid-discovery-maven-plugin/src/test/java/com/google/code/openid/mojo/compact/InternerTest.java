@@ -0,0 +1,54 @@
+package com.google.code.openid.mojo.compact;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link Interner}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class InternerTest {
+    private final Interner<String> interner = new Interner<String>();
+
+    /**
+     * Equal values should be interned as the instance first seen.
+     */
+    @Test
+    public void testIntern() {
+        final String first = new String("http://localhost/openid");
+        final String second = new String("http://localhost/openid");
+        assertThat(interner.intern(first)).isSameAs(first);
+        assertThat(interner.intern(second)).isSameAs(first);
+        assertThat(interner.intern("http://localhost/other")).isNotSameAs(first);
+        assertThat(interner.size()).isEqualTo(2);
+    }
+
+    /**
+     * Interning {@code null} should yield {@code null}.
+     */
+    @Test
+    public void testInternNull() {
+        assertThat(interner.intern(null)).isNull();
+        assertThat(interner.size()).isZero();
+    }
+
+    /**
+     * A value that is no longer referred to should be dropped from the pool.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testInternWeak() throws Exception {
+        interner.intern(new String("http://localhost/openid"));
+        for (int i = 0; i < 10 && interner.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(interner.size()).isZero();
+    }
+}
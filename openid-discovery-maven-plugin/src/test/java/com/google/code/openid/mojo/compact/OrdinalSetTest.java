@@ -0,0 +1,119 @@
+package com.google.code.openid.mojo.compact;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Unit tests for {@link OrdinalSet}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class OrdinalSetTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    private final OrdinalSet set = new OrdinalSet();
+
+    /**
+     * Added ordinals should be held once each and iterated in ascending order, across words.
+     */
+    @Test
+    public void testAdd() {
+        set.add(200);
+        set.add(3);
+        set.add(64);
+        set.add(3);
+        set.add(63);
+        assertThat(set.size()).isEqualTo(4);
+        assertThat(set.contains(64)).isTrue();
+        assertThat(set.contains(65)).isFalse();
+        assertThat(set.contains(100000)).isFalse();
+        assertThat(set.contains(-1)).isFalse();
+        assertThat(set.toString()).isEqualTo("[3, 63, 64, 200]");
+        assertThat(set.next(4)).isEqualTo(63);
+        assertThat(set.next(65)).isEqualTo(200);
+        assertThat(set.next(201)).isEqualTo(-1);
+        assertThat(set.next(-5)).isEqualTo(3);
+    }
+
+    /**
+     * Adding a negative ordinal should fail.
+     */
+    @Test
+    public void testAddNegative() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Ordinal cannot be negative: -1");
+        set.add(-1);
+    }
+
+    /**
+     * A cleared set should be empty, and be refilled as though it were new.
+     */
+    @Test
+    public void testClear() {
+        set.add(1000);
+        set.clear();
+        assertThat(set.isEmpty()).isTrue();
+        assertThat(set.next(0)).isEqualTo(-1);
+        assertThat(set.contains(1000)).isFalse();
+
+        set.add(5);
+        assertThat(set.toString()).isEqualTo("[5]");
+    }
+
+    /**
+     * Sets holding the same ordinals should be equal and hash alike, however large they have grown.
+     */
+    @Test
+    public void testEquals() {
+        final OrdinalSet other = new OrdinalSet();
+        other.add(10000);
+        other.clear();
+        other.add(70);
+        other.add(2);
+
+        set.add(2);
+        set.add(70);
+        assertThat(set).isEqualTo(other);
+        assertThat(set.hashCode()).isEqualTo(other.hashCode());
+
+        other.add(71);
+        assertThat(set).isNotEqualTo(other);
+        assertThat(new OrdinalSet()).isEqualTo(new OrdinalSet());
+    }
+
+    /**
+     * A copy should hold the same ordinals as the original, and be independent of it.
+     */
+    @Test
+    public void testCopy() {
+        set.add(7);
+        set.add(130);
+        final OrdinalSet copy = set.copy();
+        assertThat(copy).isEqualTo(set);
+
+        set.add(8);
+        assertThat(copy.toString()).isEqualTo("[7, 130]");
+
+        copy.copyFrom(new OrdinalSet());
+        assertThat(copy.isEmpty()).isTrue();
+    }
+
+    /**
+     * Copying from a {@code null} set should fail.
+     */
+    @Test
+    public void testCopyFromNull() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Ordinal set cannot be null.");
+        set.copyFrom(null);
+    }
+}
@@ -0,0 +1,108 @@
+package com.google.code.openid.mojo.compact;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Unit tests for {@link TypeSet}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class TypeSetTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * A set should keep its types in order, dropping repeated ones.
+     */
+    @Test
+    public void testOf() {
+        final TypeSet set = TypeSet.of(new String[] { "type c", "type a", "type c", "type b" });
+        assertThat(set).hasSize(3);
+        assertThat(set.asList()).containsExactly("type c", "type a", "type b");
+        assertThat(set.contains("type a")).isTrue();
+        assertThat(set.contains("type d")).isFalse();
+    }
+
+    /**
+     * Sets of the same types in the same order should be a single, shared instance, whose types are shared with every other set.
+     */
+    @Test
+    public void testOfShared() {
+        final TypeSet set = TypeSet.of(new String[] { new String("type a"), new String("type b") });
+        final TypeSet same = TypeSet.of(new String[] { new String("type a"), new String("type b") });
+        assertThat(same).isSameAs(set);
+        assertThat(same.asList()).isSameAs(set.asList());
+        assertThat(TypeSet.of(new String[] { new String("type b") }).asList().get(0)).isSameAs(set.asList().get(1));
+    }
+
+    /**
+     * Sets of the same types in a different order should be kept apart, as the order of the types is written out.
+     */
+    @Test
+    public void testOfOrdered() {
+        final TypeSet set = TypeSet.of(new String[] { "type a", "type b" });
+        final TypeSet reversed = TypeSet.of(new String[] { "type b", "type a" });
+        assertThat(reversed).isNotSameAs(set).isEqualTo(set);
+        assertThat(reversed.asList()).containsExactly("type b", "type a");
+    }
+
+    /**
+     * Adding types should yield the shared set of the combined types, leaving the original set as it was.
+     */
+    @Test
+    public void testWith() {
+        final TypeSet set = TypeSet.of(new String[] { "type a" });
+        final TypeSet combined = set.with(new String[] { "type b", "type a" });
+        assertThat(combined.asList()).containsExactly("type a", "type b");
+        assertThat(combined).isSameAs(TypeSet.of(new String[] { "type a", "type b" }));
+        assertThat(set.asList()).containsExactly("type a");
+    }
+
+    /**
+     * The types of a set cannot be modified.
+     */
+    @Test
+    public void testImmutable() {
+        expected.expect(UnsupportedOperationException.class);
+        TypeSet.of(new String[] { "type a" }).add("type b");
+    }
+
+    /**
+     * Creating a set from a {@code null} array should fail.
+     */
+    @Test
+    public void testOfNull() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Type array cannot be null.");
+        TypeSet.of(null);
+    }
+
+    /**
+     * Creating a set containing a {@code null} type should fail.
+     */
+    @Test
+    public void testOfNullType() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Type cannot be null.");
+        TypeSet.of(new String[] { "type a", null });
+    }
+
+    /**
+     * Adding a {@code null} array should fail.
+     */
+    @Test
+    public void testWithNull() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Type array cannot be null.");
+        TypeSet.of(new String[] { "type a" }).with(null);
+    }
+}
@@ -0,0 +1,286 @@
+package com.google.code.openid.mojo.config;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+
+/**
+ * Unit tests for {@link ServiceConfigurationReader}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class ServiceConfigurationReaderTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+    /**
+     * A {@link Rule} used to create configuration files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ServiceConfigurationReader reader = new ServiceConfigurationReader();
+
+    /**
+     * Test the reading of a full configuration.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testRead() throws Exception {
+        final File file = write("<discovery><services><service><hostRegex>\\/a\\/.*</hostRegex><uri>http://a</uri>"
+                + "<types><type>http://type/1</type><type>http://type/2</type></types><priority>3</priority><localId>http://local</localId>"
+                + "</service><service><hostRegex>\\/b</hostRegex><uri>http://b</uri><types><type>http://type/3</type></types></service></services>"
+                + "<canonicalIds><canonicalId><hostRegex>\\/a\\/.*</hostRegex><canonicalId>=!1234</canonicalId></canonicalId></canonicalIds>"
+                + "</discovery>");
+        final ServiceConfiguration configuration = reader.read(file);
+
+        assertThat(configuration.getServices()).hasSize(2);
+        final DiscoveredService first = configuration.getServices().get(0);
+        assertThat(first.getHostRegex()).isEqualTo("\\/a\\/.*");
+        assertThat(first.getUri()).isEqualTo("http://a");
+        assertThat(first.getTypes()).containsOnly("http://type/1", "http://type/2");
+        assertThat(first.getPriority()).isEqualTo(3);
+        assertThat(first.getLocalId()).isEqualTo("http://local");
+
+        final DiscoveredService second = configuration.getServices().get(1);
+        assertThat(second.getUri()).isEqualTo("http://b");
+        assertThat(second.getPriority()).isNull();
+        assertThat(second.getLocalId()).isNull();
+
+        assertThat(configuration.getCanonicalIds()).hasSize(1);
+        final DiscoveryCanonicalId canonicalId = configuration.getCanonicalIds().get(0);
+        assertThat(canonicalId.getHostRegex()).isEqualTo("\\/a\\/.*");
+        assertThat(canonicalId.getCanonicalId()).isEqualTo("=!1234");
+    }
+
+    /**
+     * An empty configuration should be allowed.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadEmpty() throws Exception {
+        final ServiceConfiguration configuration = reader.read(write("<discovery />"));
+        assertThat(configuration.getServices()).isEmpty();
+        assertThat(configuration.getCanonicalIds()).isEmpty();
+    }
+
+    /**
+     * A file that is not well-formed XML should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadMalformed() throws Exception {
+        final File file = write("<discovery>");
+        expected.expect(ConfigurationException.class);
+        expected.expectMessage("Failed to parse configuration file: " + file);
+        reader.read(file);
+    }
+
+    /**
+     * A file declaring a document type should fail rather than have its external entities resolved.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadDoctype() throws Exception {
+        final File secret = folder.newFile("secret.txt");
+        final File file = write("<!DOCTYPE discovery [<!ENTITY secret SYSTEM \"" + secret.toURI() + "\">]><discovery>&secret;</discovery>");
+        expected.expect(ConfigurationException.class);
+        expected.expectMessage("Failed to parse configuration file: " + file);
+        reader.read(file);
+    }
+
+    /**
+     * A file with an unexpected root element should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadWrongRoot() throws Exception {
+        final File file = write("<services />");
+        expected.expect(ConfigurationException.class);
+        expected.expectMessage("Expected root element <discovery> but found <services> in configuration file: " + file);
+        reader.read(file);
+    }
+
+    /**
+     * A service without a URI should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadServiceMissingUri() throws Exception {
+        final File file = write("<discovery><services><service><hostRegex>a</hostRegex><types><type>t</type></types></service></services></discovery>");
+        expected.expect(ConfigurationException.class);
+        expected.expectMessage("Service #1 in " + file + " has no <uri>.");
+        reader.read(file);
+    }
+
+    /**
+     * A service without types should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadServiceMissingTypes() throws Exception {
+        final File file = write("<discovery><services><service><hostRegex>a</hostRegex><uri>u</uri></service></services></discovery>");
+        expected.expect(ConfigurationException.class);
+        expected.expectMessage("Service #1 in " + file + " has no <types>.");
+        reader.read(file);
+    }
+
+    /**
+     * A service with an invalid host regex should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadServiceInvalidHostRegex() throws Exception {
+        final File file = write("<discovery><services><service><hostRegex>(</hostRegex><uri>u</uri><types><type>t</type></types></service></services>"
+                + "</discovery>");
+        expected.expect(ConfigurationException.class);
+        expected.expectMessage("Service #1 in " + file + " is invalid: ");
+        reader.read(file);
+    }
+
+    /**
+     * A canonical ID without a canonical ID value should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadCanonicalIdMissingValue() throws Exception {
+        final File file = write("<discovery><canonicalIds><canonicalId><hostRegex>a</hostRegex></canonicalId></canonicalIds></discovery>");
+        expected.expect(ConfigurationException.class);
+        expected.expectMessage("Canonical ID #1 in " + file + " has no <canonicalId>.");
+        reader.read(file);
+    }
+
+    /**
+     * Reading a {@code null} file should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadNullFile() throws Exception {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("File cannot be null.");
+        reader.read(null);
+    }
+
+    /**
+     * Test the reading of a batch of changes, which should remove canonical IDs by host regex alone or with their canonical ID.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadBatch() throws Exception {
+        final ServiceBatch batch = reader.readBatch(new ByteArrayInputStream(("<update><remove><canonicalIds><canonicalId><hostRegex>\\/a</hostRegex>"
+                + "</canonicalId><canonicalId><hostRegex>\\/b</hostRegex><canonicalId>=!b1</canonicalId></canonicalId></canonicalIds></remove>"
+                + "</update>").getBytes("UTF-8")), "test");
+
+        final List<DiscoveryCanonicalId> canonicalIds = new ArrayList<DiscoveryCanonicalId>();
+        canonicalIds.add(canonicalId("\\/a", "=!a"));
+        canonicalIds.add(canonicalId("\\/b", "=!b1"));
+        canonicalIds.add(canonicalId("\\/b", "=!b2"));
+        batch.apply(canonicalIds, new ArrayList<DiscoveredService>());
+
+        assertThat(canonicalIds).hasSize(1);
+        assertThat(canonicalIds.get(0).getCanonicalId()).isEqualTo("=!b2");
+    }
+
+    /**
+     * A batch declaring a document type should fail before any entity it declares is expanded.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadBatchDoctype() throws Exception {
+        expected.expect(ConfigurationException.class);
+        expected.expectMessage("DOCTYPE");
+        reader.readBatch(new ByteArrayInputStream(("<!DOCTYPE update [<!ENTITY a \"aaaaaaaa\"><!ENTITY b \"&a;&a;&a;&a;&a;&a;&a;&a;\">]>"
+                + "<update>&b;</update>").getBytes("UTF-8")), "test");
+    }
+
+    /**
+     * A batch with the wrong root element should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReadBatchWrongRoot() throws Exception {
+        expected.expect(ConfigurationException.class);
+        expected.expectMessage("Expected root element <update> but found <discovery> in test");
+        reader.readBatch(new ByteArrayInputStream("<discovery />".getBytes("UTF-8")), "test");
+    }
+
+    /**
+     * Create a canonical ID.
+     * 
+     * @param hostRegex
+     *            The host regex of the canonical ID.
+     * @param value
+     *            The canonical ID.
+     * @return A {@link DiscoveryCanonicalId}.
+     */
+    private DiscoveryCanonicalId canonicalId(String hostRegex, String value) {
+        final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+        canonicalId.setHostRegex(hostRegex);
+        canonicalId.setCanonicalId(value);
+        return canonicalId;
+    }
+
+    /**
+     * Write a configuration file.
+     * 
+     * @param content
+     *            The content of the file.
+     * @return The written {@link File}.
+     * @throws IOException
+     *             If any errors occur during the write.
+     */
+    private File write(String content) throws IOException {
+        final File file = folder.newFile("discovery.xml");
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
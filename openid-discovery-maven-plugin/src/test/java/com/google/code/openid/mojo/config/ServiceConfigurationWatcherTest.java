@@ -0,0 +1,222 @@
+package com.google.code.openid.mojo.config;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.RegexPolicy;
+import com.google.code.openid.mojo.RegexPolicyEnforcer;
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+
+/**
+ * Unit tests for {@link ServiceConfigurationWatcher}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class ServiceConfigurationWatcherTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+    /**
+     * A {@link Rule} used to create configuration files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final DiscoveredServiceHandler handler = mock(DiscoveredServiceHandler.class);
+    private final Log log = mock(Log.class);
+    private File file;
+    private ServiceConfigurationWatcher watcher;
+
+    /**
+     * Create the configuration file for each test.
+     * 
+     * @throws Exception
+     *             If any errors occur during the setup.
+     */
+    @Before
+    public void setUp() throws Exception {
+        file = folder.newFile("discovery.xml");
+    }
+
+    /**
+     * Stop the watcher, if it was started.
+     * 
+     * @throws Exception
+     *             If any errors occur during the teardown.
+     */
+    @After
+    public void tearDown() throws Exception {
+        if (watcher != null)
+            watcher.stop();
+    }
+
+    /**
+     * Construction with a poll interval of less than 1 should fail.
+     */
+    @Test
+    public void testConstructInvalidPollInterval() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Poll interval must be at least 1: 0");
+        new ServiceConfigurationWatcher(file, 0, handler, Collections.<DiscoveryCanonicalId> emptyList(), Collections.<DiscoveredService> emptyList(), log);
+    }
+
+    /**
+     * The file should be loaded when the watcher starts, and reloaded when it changes; base services should be served ahead of those in the file.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void testReload() throws Exception {
+        final DiscoveredService baseService = new DiscoveredService();
+        write(service("http://first"), 1000);
+        watcher = new ServiceConfigurationWatcher(file, 10, handler, Collections.<DiscoveryCanonicalId> emptyList(), Collections.singletonList(baseService),
+                log);
+        watcher.start();
+
+        final ArgumentCaptor<Collection> servicesCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(handler).update(any(List.class), servicesCaptor.capture());
+        final List<DiscoveredService> loaded = (List<DiscoveredService>) servicesCaptor.getValue();
+        assertThat(loaded).hasSize(2);
+        assertThat(loaded.get(0)).isSameAs(baseService);
+        assertThat(loaded.get(1).getUri()).isEqualTo("http://first");
+
+        write(service("http://second"), 2000);
+        verify(handler, timeout(5000).times(2)).update(any(List.class), servicesCaptor.capture());
+        assertThat(((List<DiscoveredService>) servicesCaptor.getValue()).get(1).getUri()).isEqualTo("http://second");
+    }
+
+    /**
+     * If the changed file cannot be read, the error should be logged and the handler left alone.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReloadInvalid() throws Exception {
+        write(service("http://first"), 1000);
+        watcher = new ServiceConfigurationWatcher(file, 10, handler, Collections.<DiscoveryCanonicalId> emptyList(), Collections.<DiscoveredService> emptyList(),
+                log);
+        watcher.start();
+
+        write("<discovery>", 2000);
+        verify(log, timeout(5000)).warn(anyString(), any(ConfigurationException.class));
+        verify(handler, times(1)).update(any(List.class), any(Collection.class));
+    }
+
+    /**
+     * If the changed file holds a host regex that the handler's regex policy rejects, the error should be logged and the previous configuration
+     * left in place.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testReloadRejected() throws Exception {
+        final DiscoveredServiceHandler rejecting = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(),
+                Collections.<DiscoveredService> emptyList());
+        rejecting.setRegexPolicyEnforcer(new RegexPolicyEnforcer(RegexPolicy.REJECT, new RegexCostAnalyzer(RegexCostAnalyzer.DEFAULT_BUDGET), log,
+                "default"));
+        write(service("http://first"), 1000);
+        watcher = new ServiceConfigurationWatcher(file, 10, rejecting, Collections.<DiscoveryCanonicalId> emptyList(),
+                Collections.<DiscoveredService> emptyList(), log);
+        watcher.start();
+
+        write(service("((a+)+)+", "http://second"), 2000);
+        verify(log, timeout(5000)).warn(anyString(), any(IllegalArgumentException.class));
+        assertThat(rejecting.getServices()).hasSize(1);
+        assertThat(rejecting.getServices().get(0).getUri()).isEqualTo("http://first");
+    }
+
+    /**
+     * An invalid file should fail the startup of the watcher.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testStartInvalid() throws Exception {
+        write("<discovery>", 1000);
+        final ServiceConfigurationWatcher invalid = new ServiceConfigurationWatcher(file, 10, handler, Collections.<DiscoveryCanonicalId> emptyList(),
+                Collections.<DiscoveredService> emptyList(), log);
+
+        expected.expect(ConfigurationException.class);
+        invalid.start();
+    }
+
+    /**
+     * Create the configuration of a single service.
+     * 
+     * @param uri
+     *            The URI of the service.
+     * @return The content of a configuration file.
+     */
+    private String service(String uri) {
+        return service(".*", uri);
+    }
+
+    /**
+     * Create the configuration of a single service.
+     * 
+     * @param hostRegex
+     *            The host regex of the service.
+     * @param uri
+     *            The URI of the service.
+     * @return The content of a configuration file.
+     */
+    private String service(String hostRegex, String uri) {
+        return "<discovery><services><service><hostRegex>" + hostRegex + "</hostRegex><uri>" + uri + "</uri><types><type>http://type</type></types>"
+                + "</service></services></discovery>";
+    }
+
+    /**
+     * Write the configuration file.
+     * 
+     * @param content
+     *            The content of the file.
+     * @param lastModified
+     *            The modification time to be given to the file, so that changes are detected regardless of the file system's timestamp precision.
+     * @throws IOException
+     *             If any errors occur during the write.
+     */
+    private void write(String content, long lastModified) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        assertThat(file.setLastModified(lastModified)).isTrue();
+    }
+}
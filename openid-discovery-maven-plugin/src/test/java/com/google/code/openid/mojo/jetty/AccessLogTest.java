@@ -0,0 +1,178 @@
+package com.google.code.openid.mojo.jetty;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.match.MatchResult;
+import com.google.code.openid.mojo.openid.CompiledService;
+
+/**
+ * Unit tests for {@link AccessLog}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class AccessLogTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+    /**
+     * A {@link Rule} used to create log files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MatchResult miss = new MatchResult(null, Collections.<CompiledService> emptyList());
+
+    /**
+     * Construction with a buffer size of less than 1 should fail.
+     */
+    @Test
+    public void testConstructZeroBufferSize() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Buffer size must be at least 1: 0");
+        new AccessLog(new File("access.log"), 0);
+    }
+
+    /**
+     * Logged requests should be written to the file, one per line, with their matched services.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testLog() throws Exception {
+        final File file = new File(folder.getRoot(), "logs/access.log");
+        final AccessLog accessLog = new AccessLog(file, 16);
+        accessLog.start();
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex("\\/a");
+        service.setUri("http://a");
+        service.setTypes(new String[] { "http://specs.openid.net/auth/2.0/signon" });
+        assertThat(accessLog.log("/a", new MatchResult(null, Arrays.asList(new CompiledService(service))), 200, 512, 153000)).isTrue();
+        assertThat(accessLog.log("/b", miss, 404, 0, 2000)).isTrue();
+        accessLog.stop();
+
+        final List<String> lines = read(file);
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).matches("\\[.+\\] \"/a\" 200 512 153us http://a");
+        assertThat(lines.get(1)).matches("\\[.+\\] \"/b\" 404 0 2us");
+        assertThat(accessLog.getDroppedCount()).isZero();
+    }
+
+    /**
+     * Once the buffer is full, entries should be dropped and counted rather than waiting for the buffer to drain.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testLogBufferFull() throws Exception {
+        final File file = folder.newFile("access.log");
+        // The log is not started, so nothing drains the buffer
+        final AccessLog accessLog = new AccessLog(file, 3);
+        for (int i = 0; i < 4; i++)
+            assertThat(accessLog.log("/" + i, miss, 404, 0, 0)).isTrue();
+        assertThat(accessLog.log("/4", miss, 404, 0, 0)).isFalse();
+        assertThat(accessLog.getDroppedCount()).isEqualTo(1);
+
+        // Once started, the buffered entries should be written out and the buffer reused
+        accessLog.start();
+        accessLog.stop();
+        assertThat(read(file)).hasSize(4);
+    }
+
+    /**
+     * A buffer of a single entry should be given room for two, so that an entry waiting to be drained is never claimed again and overwritten; once
+     * both are taken, the next entry should be dropped.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testLogBufferSizeOne() throws Exception {
+        final File file = folder.newFile("access.log");
+        // The log is not started, so nothing drains the buffer
+        final AccessLog accessLog = new AccessLog(file, 1);
+        assertThat(accessLog.log("/0", miss, 404, 0, 0)).isTrue();
+        assertThat(accessLog.log("/1", miss, 404, 0, 0)).isTrue();
+        assertThat(accessLog.log("/2", miss, 404, 0, 0)).isFalse();
+        assertThat(accessLog.getDroppedCount()).isEqualTo(1);
+
+        accessLog.start();
+        accessLog.stop();
+        final List<String> lines = read(file);
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).contains("\"/0\"");
+        assertThat(lines.get(1)).contains("\"/1\"");
+    }
+
+    /**
+     * Every entry logged by many threads at once should be either written or counted as dropped.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testLogConcurrently() throws Exception {
+        final File file = folder.newFile("access.log");
+        final AccessLog accessLog = new AccessLog(file, 64);
+        accessLog.start();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final String target = "/" + i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 5000; j++)
+                        accessLog.log(target, miss, 404, 0, 0);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        accessLog.stop();
+
+        assertThat(read(file).size() + accessLog.getDroppedCount()).isEqualTo(20000);
+    }
+
+    /**
+     * Read the lines of a file.
+     * 
+     * @param file
+     *            The {@link File} to be read.
+     * @return A {@link List} of the lines of the file.
+     * @throws IOException
+     *             If the file cannot be read.
+     */
+    private List<String> read(File file) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            final List<String> lines = new ArrayList<String>();
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+                lines.add(line);
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+}
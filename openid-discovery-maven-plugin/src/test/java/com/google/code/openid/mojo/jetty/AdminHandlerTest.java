@@ -0,0 +1,394 @@
+package com.google.code.openid.mojo.jetty;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mortbay.jetty.Request;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.DiscoveryServerConfiguration;
+import com.google.code.openid.mojo.RegexPolicy;
+import com.google.code.openid.mojo.RegexPolicyEnforcer;
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+
+/**
+ * Unit tests for {@link AdminHandler}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+@RunWith(MockitoJUnitRunner.class)
+public class AdminHandlerTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+    /**
+     * A {@link Rule} used to create files to which external entities refer.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final String path = "/_admin";
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    @Mock
+    private Request request;
+    @Mock
+    private HttpServletResponse response;
+    private DiscoveredServiceHandler discoveredServiceHandler;
+    private AdminHandler handler;
+
+    /**
+     * Set up the handler and response for each test.
+     * 
+     * @throws Exception
+     *             If any errors occur during the setup.
+     */
+    @Before
+    public void setUp() throws Exception {
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+        });
+        when(request.getHeader("Authorization")).thenReturn("Bearer secret");
+        when(request.getMethod()).thenReturn("POST");
+
+        discoveredServiceHandler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("\\/a",
+                "http://a"), service("\\/b", "http://b")));
+        handler = new AdminHandler(path, "secret", discoveredServiceHandler);
+    }
+
+    /**
+     * Construction with a {@code null} handler should fail.
+     */
+    @Test
+    public void testConstructNullHandler() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Handler cannot be null.");
+        new AdminHandler(path, "secret", null);
+    }
+
+    /**
+     * Construction with an empty token should fail.
+     */
+    @Test
+    public void testConstructEmptyToken() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Token cannot be null or empty.");
+        new AdminHandler(path, "", discoveredServiceHandler);
+    }
+
+    /**
+     * Construction with a maximum batch size of less than one byte should fail.
+     */
+    @Test
+    public void testConstructInvalidMaxBatchSize() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Max batch size must be at least 1: 0");
+        new AdminHandler(path, "secret", 0, discoveredServiceHandler);
+    }
+
+    /**
+     * A batch should be applied as a whole, with replacements, removals and additions applied in that order.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandlePost() throws Exception {
+        post("<update><remove><services><service><hostRegex>\\/b</hostRegex></service></services></remove><add><services>" + service("\\/c")
+                + "</services><canonicalIds><canonicalId><hostRegex>\\/c</hostRegex><canonicalId>=!c</canonicalId></canonicalId></canonicalIds>"
+                + "</add></update>");
+        handler.handle(path, request, response, 0);
+
+        verify(request).setHandled(true);
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        assertThat(body.toString("UTF-8")).isEqualTo("services=2\ncanonicalIds=1\n");
+        assertThat(discoveredServiceHandler.getServices()).hasSize(2);
+        assertThat(discoveredServiceHandler.getServices().get(0).getUri()).isEqualTo("http://a");
+        assertThat(discoveredServiceHandler.getServices().get(1).getUri()).isEqualTo("http://localhost/c");
+        assertThat(discoveredServiceHandler.getCanonicalIds().get(0).getCanonicalId()).isEqualTo("=!c");
+    }
+
+    /**
+     * A replacement should replace everything being served before the rest of the batch is applied.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandlePostReplace() throws Exception {
+        post("<update><replace><services>" + service("\\/c") + service("\\/d") + "</services></replace><remove><services><service>"
+                + "<hostRegex>\\/c</hostRegex><uri>http://localhost/c</uri></service></services></remove></update>");
+        handler.handle(path, request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        assertThat(discoveredServiceHandler.getServices()).hasSize(1);
+        assertThat(discoveredServiceHandler.getServices().get(0).getUri()).isEqualTo("http://localhost/d");
+    }
+
+    /**
+     * An invalid batch should be rejected without changing anything being served.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandlePostInvalid() throws Exception {
+        post("<update><remove><services><service><hostRegex>\\/a</hostRegex></service></services></remove><add><services>"
+                + "<service><hostRegex>\\/c</hostRegex></service></services></add></update>");
+        handler.handle(path, request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        assertThat(body.toString("UTF-8")).isEqualTo("Service #1 in admin request has no <types>.\n");
+        assertThat(discoveredServiceHandler.getServices()).hasSize(2);
+    }
+
+    /**
+     * A batch adding a host regex that the regex policy rejects should be answered with a {@code 400 Bad Request}, without changing anything being
+     * served.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandlePostRegexPolicyRejects() throws Exception {
+        discoveredServiceHandler.setRegexPolicyEnforcer(new RegexPolicyEnforcer(RegexPolicy.REJECT, new RegexCostAnalyzer(
+                RegexCostAnalyzer.DEFAULT_BUDGET), mock(Log.class), "default"));
+        post("<update><add><services>" + service("\\/c") + service("\\/((a+)+)+") + "</services></add></update>");
+        handler.handle(path, request, response, 0);
+
+        verify(request).setHandled(true);
+        verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        assertThat(body.toString("UTF-8")).isEqualTo("hostRegex pattern(s) took over 10 ms to match an adversarial input: [\\/((a+)+)+]\n");
+        assertThat(discoveredServiceHandler.getServices()).hasSize(2);
+    }
+
+    /**
+     * A batch that is not well-formed should be rejected.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandlePostMalformed() throws Exception {
+        post("<update>");
+        handler.handle(path, request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        assertThat(discoveredServiceHandler.getServices()).hasSize(2);
+    }
+
+    /**
+     * A batch referring to an external entity should be rejected without the entity being resolved, so that nothing it refers to can be echoed back.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandlePostExternalEntity() throws Exception {
+        final File secret = folder.newFile("secret.txt");
+        final OutputStream out = new FileOutputStream(secret);
+        try {
+            out.write("top secret".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        post("<!DOCTYPE update [<!ENTITY secret SYSTEM \"" + secret.toURI() + "\">]><update><add><services><service><hostRegex>\\/c</hostRegex>"
+                + "<uri>http://localhost/&secret;</uri><types><type>http://specs.openid.net/auth/2.0/signon</type></types></service></services>"
+                + "</add></update>");
+        handler.handle(path, request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        assertThat(body.toString("UTF-8")).startsWith("Failed to parse admin request: ").excludes("top secret");
+        assertThat(discoveredServiceHandler.getServices()).hasSize(2);
+    }
+
+    /**
+     * A batch larger than the maximum batch size should be rejected without being parsed.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandlePostTooLarge() throws Exception {
+        handler = new AdminHandler(path, "secret", 64, discoveredServiceHandler);
+        post("<update><add><services>" + service("\\/c") + "</services></add></update>");
+        handler.handle(path, request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        assertThat(body.toString("UTF-8")).isEqualTo("Batch exceeds 64 bytes.\n");
+        assertThat(discoveredServiceHandler.getServices()).hasSize(2);
+    }
+
+    /**
+     * A batch whose declared length exceeds the maximum batch size should be rejected without being read.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandlePostTooLargeContentLength() throws Exception {
+        when(request.getContentLength()).thenReturn(Integer.valueOf(DiscoveryServerConfiguration.DEFAULT_ADMIN_MAX_BATCH_SIZE + 1));
+        handler.handle(path, request, response, 0);
+
+        verify(request, never()).getInputStream();
+        verify(response).setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+    }
+
+    /**
+     * A {@code GET} should report what is being served.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleGet() throws Exception {
+        when(request.getMethod()).thenReturn("GET");
+        handler.handle(path, request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        assertThat(body.toString("UTF-8")).isEqualTo("services=2\ncanonicalIds=0\n");
+    }
+
+    /**
+     * Methods other than {@code GET} and {@code POST} should not be allowed.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleMethodNotAllowed() throws Exception {
+        when(request.getMethod()).thenReturn("DELETE");
+        handler.handle(path, request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+        verify(response).setHeader("Allow", "GET, POST");
+    }
+
+    /**
+     * A request with the wrong token should be rejected without reading its body.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleWrongToken() throws Exception {
+        when(request.getHeader("Authorization")).thenReturn("Bearer guess");
+        handler.handle(path, request, response, 0);
+
+        verify(request).setHandled(true);
+        verify(request, never()).getInputStream();
+        verify(response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        verify(response).setHeader("WWW-Authenticate", "Bearer realm=\"openid-discovery\"");
+    }
+
+    /**
+     * A request with no token should be rejected.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleNoToken() throws Exception {
+        when(request.getHeader("Authorization")).thenReturn(null);
+        handler.handle(path, request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+    }
+
+    /**
+     * Requests for other paths should be left to other handlers.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleOtherPath() throws Exception {
+        handler.handle("/a", request, response, 0);
+
+        verify(request, never()).setHandled(anyBoolean());
+        verifyZeroInteractions(response);
+    }
+
+    /**
+     * Set the body of the request.
+     * 
+     * @param xml
+     *            The XML to be posted.
+     * @throws IOException
+     *             If any errors occur while setting the body.
+     */
+    private void post(String xml) throws IOException {
+        final InputStream in = new ByteArrayInputStream(xml.getBytes("UTF-8"));
+        when(request.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+        });
+    }
+
+    /**
+     * Create a service.
+     * 
+     * @param hostRegex
+     *            The host regex of the service.
+     * @param uri
+     *            The URI of the service.
+     * @return A {@link DiscoveredService}.
+     */
+    private DiscoveredService service(String hostRegex, String uri) {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex(hostRegex);
+        service.setUri(uri);
+        service.setTypes(new String[] { "http://specs.openid.net/auth/2.0/signon" });
+        return service;
+    }
+
+    /**
+     * Describe a service in XML.
+     * 
+     * @param hostRegex
+     *            The host regex of the service; its URI is derived from it.
+     * @return The {@code <service />} element.
+     */
+    private String service(String hostRegex) {
+        return "<service><hostRegex>" + hostRegex + "</hostRegex><uri>http://localhost/" + hostRegex.substring(2) + "</uri><types>"
+                + "<type>http://specs.openid.net/auth/2.0/signon</type></types></service>";
+    }
+}
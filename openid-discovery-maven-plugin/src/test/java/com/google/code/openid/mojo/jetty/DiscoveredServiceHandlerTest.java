@@ -1,32 +1,62 @@
 package com.google.code.openid.mojo.jetty;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.maven.plugin.logging.Log;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.mortbay.jetty.Request;
+import org.powermock.reflect.Whitebox;
 
 import com.google.code.openid.mojo.DiscoveredService;
 import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.DiscoveryServerConfiguration;
+import com.google.code.openid.mojo.RegexPolicy;
+import com.google.code.openid.mojo.RegexPolicyEnforcer;
+import com.google.code.openid.mojo.YadisMode;
+import com.google.code.openid.mojo.compact.OrdinalSet;
+import com.google.code.openid.mojo.match.MatchCache;
+import com.google.code.openid.mojo.match.MatchResult;
+import com.google.code.openid.mojo.match.RegexCostAnalyzer;
+import com.google.code.openid.mojo.metrics.DiscoveryMetrics;
+import com.google.code.openid.mojo.openid.CompiledCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledService;
 import com.google.code.openid.mojo.openid.DiscoveredServiceWriter;
 
 /**
@@ -43,25 +73,31 @@ public class DiscoveredServiceHandlerTest {
      */
     @Rule
     public ExpectedException expected = ExpectedException.none();
+    /**
+     * A {@link Rule} used to create access log files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
-    @Mock
-    private List<DiscoveryCanonicalId> canonicalIds;
-    @Mock
-    private Collection<DiscoveredService> services;
+    private final String targetUri = "target/uri";
     @Mock
     private DiscoveredServiceWriter writer;
     @Mock
     private Request request;
     @Mock
     private HttpServletResponse response;
-    private DiscoveredServiceHandler handler;
+    @Mock
+    private ServletOutputStream outputStream;
 
     /**
-     * Set up the handler for each test.
+     * Set up the response for each test.
+     * 
+     * @throws Exception
+     *             If any errors occur during the setup.
      */
     @Before
-    public void setUp() {
-        handler = new DiscoveredServiceHandler(canonicalIds, services, writer);
+    public void setUp() throws Exception {
+        when(response.getOutputStream()).thenReturn(outputStream);
     }
 
     /**
@@ -71,7 +107,17 @@ public class DiscoveredServiceHandlerTest {
     public void testConstructNullCanonicalIds() {
         expected.expect(IllegalArgumentException.class);
         expected.expectMessage("The canonical IDs cannot be null.");
-        new DiscoveredServiceHandler(null, services, writer);
+        new DiscoveredServiceHandler(null, Collections.<DiscoveredService> emptySet(), writer);
+    }
+
+    /**
+     * Construction with a {@code null} configuration should fail.
+     */
+    @Test
+    public void testConstructNullConfiguration() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Configuration cannot be null.");
+        new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Collections.<DiscoveredService> emptySet(), writer, null);
     }
 
     /**
@@ -81,7 +127,7 @@ public class DiscoveredServiceHandlerTest {
     public void testConstructNullServices() {
         expected.expect(IllegalArgumentException.class);
         expected.expectMessage("Services cannot be null.");
-        new DiscoveredServiceHandler(canonicalIds, null, writer);
+        new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), null, writer);
     }
 
     /**
@@ -91,7 +137,7 @@ public class DiscoveredServiceHandlerTest {
     public void testConstructNullWriter() {
         expected.expect(IllegalArgumentException.class);
         expected.expectMessage("Writer cannot be null.");
-        new DiscoveredServiceHandler(canonicalIds, services, null);
+        new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Collections.<DiscoveredService> emptySet(), (DiscoveredServiceWriter) null);
     }
 
     /**
@@ -100,64 +146,768 @@ public class DiscoveredServiceHandlerTest {
      * @throws Exception
      *             If any errors occur during the test run.
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     @Test
     public void testHandle() throws Exception {
-        final String targetUri = "target/uri";
+        final DiscoveredService matchService = service("target/.*");
+        final DiscoveredService noMatchService = service("other/.*");
+        final DiscoveryCanonicalId matchId = canonicalId("target/uri");
 
-        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
-        when(response.getOutputStream()).thenReturn(outputStream);
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Arrays.asList(matchId), Arrays.asList(matchService, noMatchService), writer);
+        final OrdinalSet matches = captureMatches();
+        handler.handle(targetUri, request, response, 0);
+
+        verify(request).setHandled(true);
+        verify(response).setHeader("content-type", "application/xrds+xml");
+        verify(response).setStatus(HttpServletResponse.SC_OK);
 
-        final DiscoveredService matchService = mock(DiscoveredService.class);
-        when(matchService.matchesHostRegex(targetUri)).thenReturn(Boolean.TRUE);
-        final DiscoveredService noMatchService = mock(DiscoveredService.class);
-        when(services.iterator()).thenReturn(Arrays.asList(matchService, noMatchService).iterator());
+        final ArgumentCaptor<CompiledCanonicalId> idCaptor = ArgumentCaptor.forClass(CompiledCanonicalId.class);
+        final ArgumentCaptor<CompiledService[]> servicesCaptor = ArgumentCaptor.forClass(CompiledService[].class);
+        verify(writer).write(idCaptor.capture(), servicesCaptor.capture(), any(OrdinalSet.class), any(OutputStream.class));
+        assertThat(idCaptor.getValue().getCanonicalId()).isEqualTo(matchId.getCanonicalId());
+        assertThat(matches.size()).isEqualTo(1);
+        assertThat(servicesCaptor.getValue()[matches.next(0)].getUri()).isEqualTo(matchService.getUri());
+        verify(outputStream).write(any(byte[].class));
+    }
+
+    /**
+     * Once a request has been handled, the result its thread filled in should no longer refer to the services it matched, so that an idle thread
+     * does not keep a replaced configuration from being collected.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testHandleReleasesMatches() throws Exception {
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Arrays.asList(canonicalId("target/.*")), Arrays.asList(service("target/.*")),
+                writer);
+        handler.handle(targetUri, request, response, 0);
+        verify(request).setHandled(true);
 
-        final DiscoveryCanonicalId matchId = mock(DiscoveryCanonicalId.class);
-        when(matchId.matchesHostRegex(targetUri)).thenReturn(Boolean.TRUE);
-        when(canonicalIds.iterator()).thenReturn(Arrays.asList(matchId).iterator());
+        final MatchResult scratch = ((ThreadLocal<MatchResult>) Whitebox.getInternalState(handler, "matchResults")).get();
+        assertThat(scratch.isEmpty()).isTrue();
+        assertThat((Object[]) Whitebox.getInternalState(scratch, "services")).isEmpty();
+        assertThat((Object[]) Whitebox.getInternalState(scratch, "canonicalIds")).isEmpty();
+    }
 
+    /**
+     * The response should be sent with the exact length of the document, in a single write.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleContentLength() throws Exception {
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*")));
+        handler.handle(targetUri, request, response, 0);
+
+        final ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+        verify(outputStream).write(bodyCaptor.capture());
+        verify(response).setContentLength(bodyCaptor.getValue().length);
+        verify(outputStream, never()).write(any(byte[].class), anyInt(), anyInt());
+        verify(outputStream, never()).write(anyInt());
+        verify(outputStream, never()).flush();
+    }
+
+    /**
+     * If no canonical ID matches, then {@code null} should be passed to the writer.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleNoCanonicalId() throws Exception {
+        final DiscoveredService matchService = service("target/.*");
+        final DiscoveryCanonicalId noMatchId = canonicalId("other/uri");
+
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Arrays.asList(noMatchId), Arrays.asList(matchService), writer);
+        final OrdinalSet matches = captureMatches();
         handler.handle(targetUri, request, response, 0);
 
         verify(request).setHandled(true);
         verify(response).setHeader("content-type", "application/xrds+xml");
         verify(response).setStatus(HttpServletResponse.SC_OK);
 
-        final ArgumentCaptor<Collection> writtenCaptor = ArgumentCaptor.forClass(Collection.class);
-        verify(writer).write(eq(matchId), writtenCaptor.capture(), eq(outputStream));
-        assertThat(writtenCaptor.getValue()).containsOnly(matchService);
+        final ArgumentCaptor<CompiledService[]> servicesCaptor = ArgumentCaptor.forClass(CompiledService[].class);
+        verify(writer).write(eq((CompiledCanonicalId) null), servicesCaptor.capture(), any(OrdinalSet.class), any(OutputStream.class));
+        assertThat(matches.size()).isEqualTo(1);
+        assertThat(servicesCaptor.getValue()[matches.next(0)].getUri()).isEqualTo(matchService.getUri());
+        verify(outputStream).write(any(byte[].class));
     }
 
     /**
-     * If no canonical ID matches, then {@code null} should be passed to the writer.
+     * Once a document has been written for a given set of matches, subsequent requests resolving to the same matches should be served without
+     * writing the document again.
      * 
      * @throws Exception
      *             If any errors occur during the test run.
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     @Test
-    public void testHandleNoCanonicalId() throws Exception {
-        final String targetUri = "target/uri";
+    public void testHandleCachesDocument() throws Exception {
+        final DiscoveredService matchService = service("target/.*");
 
-        final ServletOutputStream outputStream = mock(ServletOutputStream.class);
-        when(response.getOutputStream()).thenReturn(outputStream);
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(matchService), writer);
+        handler.handle(targetUri, request, response, 0);
+        handler.handle("target/other", request, response, 0);
+
+        verify(writer).write(eq((CompiledCanonicalId) null), any(CompiledService[].class), any(OrdinalSet.class), any(OutputStream.class));
+        verify(outputStream, times(2)).write(any(byte[].class));
+        verify(request, times(2)).setHandled(true);
+    }
+
+    /**
+     * Repeated requests for the same target, whether matching or not, should be answered from the match cache.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleCachesMatches() throws Exception {
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*")),
+                writer);
+        handler.handle(targetUri, request, response, 0);
+        handler.handle(targetUri, request, response, 0);
+        handler.handle("irrelevant", request, response, 0);
+        handler.handle("irrelevant", request, response, 0);
+
+        final MatchCache matchCache = handler.getMatchCache();
+        assertThat(matchCache.getCapacity()).isEqualTo(DiscoveryServerConfiguration.DEFAULT_MATCH_CACHE_SIZE);
+        assertThat(matchCache.size()).isEqualTo(2);
+        assertThat(matchCache.getHitCount()).isEqualTo(2);
+        assertThat(matchCache.getMissCount()).isEqualTo(2);
+        verify(request, times(2)).setHandled(true);
+    }
+
+    /**
+     * Requests should be counted and timed in the handler's metrics, along with the hits of what they matched.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleRecordsMetrics() throws Exception {
+        final DiscoveredService service = service("target/.*");
+        final DiscoveryCanonicalId canonicalId = canonicalId("target/.*");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Arrays.asList(canonicalId), Arrays.asList(service), writer);
+        handler.handle(targetUri, request, response, 0);
+        handler.handle(targetUri, request, response, 0);
+        handler.handle("irrelevant", request, response, 0);
+
+        final DiscoveryMetrics metrics = handler.getMetrics();
+        assertThat(metrics.getRequests().get()).isEqualTo(3);
+        assertThat(metrics.getMisses().get()).isEqualTo(1);
+        assertThat(metrics.getServiceHits(new CompiledService(service)).get()).isEqualTo(2);
+        assertThat(metrics.getCanonicalIdHits(new CompiledCanonicalId(canonicalId)).get()).isEqualTo(2);
+        assertThat(metrics.getMatchLatency().getCount()).isEqualTo(3);
+        assertThat(metrics.getRequestLatency().getCount()).isEqualTo(3);
+        // The document is written out once, and served from memory thereafter
+        assertThat(metrics.getWriteLatency().getCount()).isEqualTo(1);
+
+        // Hits should continue to be counted against the same services once they are updated
+        handler.update(Arrays.asList(canonicalId), Arrays.asList(service));
+        handler.handle(targetUri, request, response, 0);
+        assertThat(metrics.getServiceHits(new CompiledService(service)).get()).isEqualTo(3);
+    }
+
+    /**
+     * Once an update removes a service or canonical ID, its hit counter should no longer be reported, while the services that remain should keep
+     * their counts.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testUpdateDiscardsStaleHits() throws Exception {
+        final DiscoveredService kept = service("target/.*");
+        final DiscoveredService removed = service("target/a");
+        final DiscoveryCanonicalId canonicalId = canonicalId("target/a");
+        canonicalId.setCanonicalId("=!removed");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Arrays.asList(canonicalId), Arrays.asList(kept, removed), writer);
+        handler.handle("target/a", request, response, 0);
+        assertThat(handler.getMetrics().toPrometheus()).contains("target/a").contains("=!removed");
+
+        handler.update(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(kept));
+        handler.handle("target/a", request, response, 0);
+        final String text = handler.getMetrics().toPrometheus();
+        assertThat(text).excludes("host_regex=\"target/a\"").excludes("=!removed");
+        assertThat(handler.getMetrics().getServiceHits(new CompiledService(kept)).get()).isEqualTo(2);
+    }
+
+    /**
+     * A request whose matching exceeds the match timeout should be abandoned and answered with the configured status, and the host regex being
+     * evaluated counted in the metrics; nothing should be cached, so that the same target is abandoned again.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleMatchTimeout() throws Exception {
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        configuration.setMatchTimeout(10);
+        configuration.setMatchTimeoutStatus(429);
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(
+                service("target/((a+)+)+"), service("target/.*")), writer, configuration);
+
+        final StringBuilder target = new StringBuilder("target/");
+        for (int i = 0; i < 64; i++)
+            target.append('a');
+        target.append('!');
+
+        final long start = System.nanoTime();
+        handler.handle(target.toString(), request, response, 0);
+        handler.handle(target.toString(), request, response, 0);
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+
+        verify(response, times(2)).setStatus(429);
+        verify(response, times(2)).setContentLength(0);
+        verify(request, times(2)).setHandled(true);
+        verifyZeroInteractions(writer);
+
+        final DiscoveryMetrics metrics = handler.getMetrics();
+        assertThat(metrics.getMatchTimeouts("target/((a+)+)+").get()).isEqualTo(2);
+        assertThat(metrics.getRequests().get()).isEqualTo(2);
+        assertThat(metrics.getMisses().get()).isEqualTo(0);
+        assertThat(handler.getMatchCache().size()).isEqualTo(0);
+
+        // Other targets are unaffected
+        handler.handle(targetUri, request, response, 0);
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+    }
+
+    /**
+     * Requests should be logged to the access log, which should be started and stopped along with the handler.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleAccessLog() throws Exception {
+        final File file = folder.newFile("access.log");
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        configuration.setAccessLogFile(file);
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(),
+                Arrays.asList(service("target/.*")), configuration);
 
-        final DiscoveredService matchService = mock(DiscoveredService.class);
-        when(matchService.matchesHostRegex(targetUri)).thenReturn(Boolean.TRUE);
-        when(services.iterator()).thenReturn(Arrays.asList(matchService).iterator());
+        handler.start();
+        assertThat(handler.getAccessLog().isRunning()).isTrue();
+        handler.handle(targetUri, request, response, 0);
+        handler.handle("irrelevant", request, response, 0);
+        handler.stop();
+        assertThat(handler.getAccessLog().isStopped()).isTrue();
 
-        final DiscoveryCanonicalId noMatchId = mock(DiscoveryCanonicalId.class);
-        when(canonicalIds.iterator()).thenReturn(Arrays.asList(noMatchId).iterator());
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            assertThat(reader.readLine()).matches("\\[.+\\] \"target/uri\" 200 [1-9]\\d* \\d+us http://localhost/target/\\.\\*");
+            assertThat(reader.readLine()).matches("\\[.+\\] \"irrelevant\" 404 0 \\d+us");
+            assertThat(reader.readLine()).isNull();
+        } finally {
+            reader.close();
+        }
+    }
 
+    /**
+     * A {@code HEAD} request should be answered with the headers of the document, including its length, but no body.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleHead() throws Exception {
+        when(request.getMethod()).thenReturn("HEAD");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(),
+                Arrays.asList(service("target/.*")));
         handler.handle(targetUri, request, response, 0);
 
         verify(request).setHandled(true);
         verify(response).setHeader("content-type", "application/xrds+xml");
+        verify(response).setHeader(eq("ETag"), anyString());
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        final ArgumentCaptor<Integer> lengthCaptor = ArgumentCaptor.forClass(Integer.class);
+        verify(response).setContentLength(lengthCaptor.capture());
+        assertThat(lengthCaptor.getValue().intValue()).isGreaterThan(0);
+        verifyZeroInteractions(outputStream);
+    }
+
+    /**
+     * When negotiating, a client whose {@code Accept} header asks for XRDS, in any case, should be sent the document itself.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleNegotiateAcceptsXrds() throws Exception {
+        when(request.getHeader("Accept")).thenReturn("text/html, Application/XRDS+XML;q=0.9");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(),
+                Arrays.asList(service("target/.*")), writer, yadisConfiguration(YadisMode.NEGOTIATE));
+        handler.handle(targetUri, request, response, 0);
+
+        verify(response).setHeader("content-type", "application/xrds+xml");
+        verify(response).setHeader("Vary", "Accept");
+        verify(response, never()).setHeader(eq("X-XRDS-Location"), anyString());
+        verify(writer).write(any(CompiledCanonicalId.class), any(CompiledService[].class), any(OrdinalSet.class), any(OutputStream.class));
+        assertThat(handler.getMetrics().getIndirections().get()).isZero();
+    }
+
+    /**
+     * When negotiating, a client that does not ask for XRDS should be directed to the document beneath the XRDS path, without the document being
+     * written.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleNegotiateIndirection() throws Exception {
+        when(request.getHeader("Accept")).thenReturn("text/html");
+        when(request.getHeader("Host")).thenReturn("example.com:8080");
+        when(request.getScheme()).thenReturn("http");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(),
+                Arrays.asList(service("\\/target/.*")), writer, yadisConfiguration(YadisMode.NEGOTIATE));
+        handler.handle("/target/uri", request, response, 0);
+
+        verify(request).setHandled(true);
+        verify(response).setHeader("X-XRDS-Location", "http://example.com:8080/_xrds/target/uri");
+        verify(response).setHeader("content-type", "text/html; charset=UTF-8");
+        verify(response).setHeader("Vary", "Accept");
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(outputStream).write(any(byte[].class));
+        verifyZeroInteractions(writer);
+        assertThat(handler.getMetrics().getIndirections().get()).isEqualTo(1);
+    }
+
+    /**
+     * In header mode, even a client that asks for XRDS should be directed to the document, and a {@code HEAD} request should be answered with the
+     * header alone.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleHeaderHead() throws Exception {
+        when(request.getMethod()).thenReturn("HEAD");
+        when(request.getHeader("Accept")).thenReturn("application/xrds+xml");
+        when(request.getServerName()).thenReturn("localhost");
+        when(request.getServerPort()).thenReturn(1338);
+        when(request.getScheme()).thenReturn("http");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(),
+                Arrays.asList(service("\\/target/.*")), writer, yadisConfiguration(YadisMode.HEADER));
+        handler.handle("/target/uri", request, response, 0);
+
+        verify(response).setHeader("X-XRDS-Location", "http://localhost:1338/_xrds/target/uri");
+        verify(response, never()).setHeader(eq("Vary"), anyString());
+        final ArgumentCaptor<Integer> lengthCaptor = ArgumentCaptor.forClass(Integer.class);
+        verify(response).setContentLength(lengthCaptor.capture());
+        assertThat(lengthCaptor.getValue().intValue()).isGreaterThan(0);
+        verifyZeroInteractions(outputStream, writer);
+    }
+
+    /**
+     * In header mode, a request beneath the XRDS path should be answered with the document of the identifier beneath it.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleHeaderXrdsPath() throws Exception {
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(),
+                Arrays.asList(service("\\/target/.*")), writer, yadisConfiguration(YadisMode.HEADER));
+        handler.handle("/_xrds/target/uri", request, response, 0);
+
+        verify(request).setHandled(true);
+        verify(response).setHeader("content-type", "application/xrds+xml");
+        verify(response, never()).setHeader(eq("X-XRDS-Location"), anyString());
+        verify(writer).write(any(CompiledCanonicalId.class), any(CompiledService[].class), any(OrdinalSet.class), any(OutputStream.class));
+
+        // A path that merely begins with the same characters is not beneath it
+        handler.handle("/_xrdsx/target/uri", request, response, 0);
+        verify(request).setHandled(true);
+    }
+
+    /**
+     * When serving documents directly, the XRDS path should not be treated specially.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleDirectIgnoresXrdsPath() throws Exception {
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(),
+                Arrays.asList(service("\\/target/.*")), writer);
+        handler.handle("/_xrds/target/uri", request, response, 0);
+
+        verify(request, never()).setHandled(true);
+    }
+
+    /**
+     * A blank metrics path should disable metrics.
+     */
+    @Test
+    public void testMetricsDisabled() {
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        configuration.setMetricsPath(" ");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("a")),
+                writer, configuration);
+        assertThat(handler.getMetrics()).isNull();
+    }
+
+    /**
+     * A match cache size of {@code 0} should disable the match cache.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleMatchCacheDisabled() throws Exception {
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        configuration.setMatchCacheSize(0);
+
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*")),
+                writer, configuration);
+        handler.handle(targetUri, request, response, 0);
+        handler.handle(targetUri, request, response, 0);
+
+        assertThat(handler.getMatchCache()).isNull();
+        verify(request, times(2)).setHandled(true);
+    }
+
+    /**
+     * Written-out documents should carry validators and the configured {@code Cache-Control} header.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleSetsValidators() throws Exception {
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        configuration.setCacheControl("max-age=60");
+
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*")),
+                configuration);
+        handler.handle(targetUri, request, response, 0);
+
+        final ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+        verify(response).setHeader(eq("ETag"), etagCaptor.capture());
+        assertThat(etagCaptor.getValue()).matches("\"[0-9a-f]{32}\"");
+        verify(response).setDateHeader(eq("Last-Modified"), anyLong());
+        verify(response).setHeader("Cache-Control", "max-age=60");
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+    }
+
+    /**
+     * If no {@code Cache-Control} value is configured, then no such header should be sent.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleNoCacheControl() throws Exception {
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        configuration.setCacheControl("");
+
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*")),
+                configuration);
+        handler.handle(targetUri, request, response, 0);
+
+        verify(response, never()).setHeader(eq("Cache-Control"), anyString());
+    }
+
+    /**
+     * A request whose {@code If-None-Match} header lists the entity tag of the document should receive a bodiless {@code 304}.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleIfNoneMatch() throws Exception {
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*")));
+        handler.handle(targetUri, request, response, 0);
+
+        final ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+        verify(response).setHeader(eq("ETag"), etagCaptor.capture());
+
+        final Request conditionalRequest = mock(Request.class);
+        when(conditionalRequest.getHeader("If-None-Match")).thenReturn("\"other\", " + etagCaptor.getValue());
+        final HttpServletResponse conditionalResponse = mock(HttpServletResponse.class);
+        handler.handle(targetUri, conditionalRequest, conditionalResponse, 0);
+
+        verify(conditionalRequest).setHandled(true);
+        verify(conditionalResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(conditionalResponse).setHeader("ETag", etagCaptor.getValue());
+        verify(conditionalResponse, never()).getOutputStream();
+    }
+
+    /**
+     * A request whose {@code If-None-Match} header does not list the entity tag of the document should receive the full document, even if it is
+     * not modified since the {@code If-Modified-Since} date.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleIfNoneMatchMismatch() throws Exception {
+        when(request.getHeader("If-None-Match")).thenReturn("\"other\"");
+        when(request.getHeader("If-Modified-Since")).thenReturn("a date");
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(Long.MAX_VALUE);
+
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*")));
+        handler.handle(targetUri, request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(outputStream).write(any(byte[].class));
+    }
+
+    /**
+     * A request whose {@code If-Modified-Since} header is no earlier than the document's modification should receive a bodiless {@code 304}.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleIfModifiedSince() throws Exception {
+        when(request.getHeader("If-Modified-Since")).thenReturn("a date");
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(System.currentTimeMillis() + 1000);
+
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*")));
+        handler.handle(targetUri, request, response, 0);
+
+        verify(request).setHandled(true);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(response, never()).setContentLength(anyInt());
+        verify(response, never()).getOutputStream();
+    }
+
+    /**
+     * An unparseable {@code If-Modified-Since} header should be ignored.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleIfModifiedSinceInvalid() throws Exception {
+        when(request.getHeader("If-Modified-Since")).thenReturn("not a date");
+        when(request.getDateHeader("If-Modified-Since")).thenThrow(new IllegalArgumentException());
+
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*")));
+        handler.handle(targetUri, request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(outputStream).write(any(byte[].class));
+    }
+
+    /**
+     * Clients accepting gzip should be sent the compressed variant of a document large enough to be compressed.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleCompressed() throws Exception {
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        configuration.setCompressionThreshold(0);
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*",
+                50)), configuration);
+        handler.handle(targetUri, request, response, 0);
+
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response).setHeader("Vary", "Accept-Encoding");
+        verify(response).setHeader(eq("ETag"), Matchers.endsWith("-gzip\""));
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+
+        final ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+        verify(outputStream).write(bodyCaptor.capture());
+        assertThat(bodyCaptor.getValue()[0]).isEqualTo((byte) 0x1f);
+        assertThat(bodyCaptor.getValue()[1]).isEqualTo((byte) 0x8b);
+    }
+
+    /**
+     * Documents below the compression threshold should be sent uncompressed, without a {@code Vary} header.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleBelowCompressionThreshold() throws Exception {
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("target/.*")));
+        handler.handle(targetUri, request, response, 0);
+
+        verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+        verify(response, never()).setHeader(eq("Vary"), anyString());
         verify(response).setStatus(HttpServletResponse.SC_OK);
+    }
+
+    /**
+     * Updating the handler should replace the services served, along with the cached matches and documents.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testUpdate() throws Exception {
+        final DiscoveredService oldService = service("target/.*");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(oldService),
+                writer);
+        handler.handle(targetUri, request, response, 0);
+        final MatchCache oldCache = handler.getMatchCache();
+
+        final DiscoveredService newService = service("target/uri");
+        handler.update(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(newService));
+        handler.handle(targetUri, request, response, 0);
+        assertThat(handler.getMatchCache()).isNotSameAs(oldCache);
+
+        // Both services are the first of their configuration
+        final ArgumentCaptor<CompiledService[]> servicesCaptor = ArgumentCaptor.forClass(CompiledService[].class);
+        verify(writer, times(2)).write(eq((CompiledCanonicalId) null), servicesCaptor.capture(), any(OrdinalSet.class), any(OutputStream.class));
+        assertThat(servicesCaptor.getAllValues().get(0)[0].getUri()).isEqualTo(oldService.getUri());
+        assertThat(servicesCaptor.getAllValues().get(1)[0].getUri()).isEqualTo(newService.getUri());
+
+        // Targets matching only the replaced services should no longer be handled
+        final Request otherRequest = mock(Request.class);
+        handler.handle("target/other", otherRequest, response, 0);
+        verifyZeroInteractions(otherRequest);
+    }
+
+    /**
+     * Updating the handler with {@code null} services should fail.
+     */
+    @Test
+    public void testUpdateNullServices() {
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("a")),
+                writer);
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Services cannot be null.");
+        handler.update(Collections.<DiscoveryCanonicalId> emptyList(), null);
+    }
+
+    /**
+     * Applying a change should apply it to copies of the services being served, and serve the result.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testUpdateServiceUpdate() throws Exception {
+        final DiscoveredService oldService = service("other/.*");
+        final DiscoveredService newService = service("target/.*");
+        final DiscoveryCanonicalId canonicalId = canonicalId("other/.*");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Arrays.asList(canonicalId), Arrays.asList(oldService), writer);
+        final List<DiscoveredService> oldServices = handler.getServices();
+
+        handler.update(new ServiceUpdate() {
+            public void apply(List<DiscoveryCanonicalId> canonicalIds, List<DiscoveredService> services) {
+                assertThat(canonicalIds).containsExactly(canonicalId);
+                assertThat(services).containsExactly(oldService);
+                services.add(newService);
+            }
+        });
 
-        final ArgumentCaptor<Collection> writtenCaptor = ArgumentCaptor.forClass(Collection.class);
-        verify(writer).write(eq((DiscoveryCanonicalId) null), writtenCaptor.capture(), eq(outputStream));
-        assertThat(writtenCaptor.getValue()).containsOnly(matchService);
+        assertThat(oldServices).containsExactly(oldService);
+        assertThat(handler.getServices()).containsExactly(oldService, newService);
+        assertThat(handler.getCanonicalIds()).containsExactly(canonicalId);
+
+        handler.handle(targetUri, request, response, 0);
+        verify(request).setHandled(true);
+    }
+
+    /**
+     * A change that fails should leave the services being served unchanged.
+     */
+    @Test
+    public void testUpdateServiceUpdateFails() {
+        final DiscoveredService service = service("target/.*");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service),
+                writer);
+        try {
+            handler.update(new ServiceUpdate() {
+                public void apply(List<DiscoveryCanonicalId> canonicalIds, List<DiscoveredService> services) {
+                    services.clear();
+                    throw new IllegalStateException("Expected failure.");
+                }
+            });
+            fail("The failed update should have been propagated.");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Expected failure.");
+        }
+        assertThat(handler.getServices()).containsExactly(service);
+    }
+
+    /**
+     * Applying a {@code null} change should fail.
+     */
+    @Test
+    public void testUpdateNullServiceUpdate() {
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("a")),
+                writer);
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Update cannot be null.");
+        handler.update((ServiceUpdate) null);
+    }
+
+    /**
+     * Only the distinct host regexes of an update that are not already being served should be subjected to the regex policy.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testUpdateRegexPolicyAnalyzesNewRegexes() {
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Arrays.asList(canonicalId("other/uri")), Arrays.asList(service("target/.*")),
+                writer);
+        final RegexPolicyEnforcer enforcer = mock(RegexPolicyEnforcer.class);
+        handler.setRegexPolicyEnforcer(enforcer);
+
+        handler.update(Arrays.asList(canonicalId("other/uri"), canonicalId("new/uri")), Arrays.asList(service("target/.*"), service("new/.*"),
+                service("new/.*")));
+
+        final ArgumentCaptor<Collection> regexesCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(enforcer).enforce(regexesCaptor.capture());
+        assertThat(regexesCaptor.getValue()).hasSize(2).containsOnly("new/uri", "new/.*");
+
+        // An update adding no new expressions needs no analysis
+        handler.update(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service("new/.*")));
+        verify(enforcer).enforce(any(Collection.class));
+    }
+
+    /**
+     * An update holding a host regex that the regex policy rejects should fail, and leave the services being served unchanged.
+     */
+    @Test
+    public void testUpdateRegexPolicyRejects() {
+        final DiscoveredService service = service("target/.*");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service),
+                writer);
+        handler.setRegexPolicyEnforcer(new RegexPolicyEnforcer(RegexPolicy.REJECT, new RegexCostAnalyzer(RegexCostAnalyzer.DEFAULT_BUDGET),
+                mock(Log.class), "default"));
+        try {
+            handler.update(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service, service("((a+)+)+")));
+            fail("The update should have been rejected.");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo("hostRegex pattern(s) took over 10 ms to match an adversarial input: [((a+)+)+]");
+        }
+        assertThat(handler.getServices()).containsExactly(service);
+    }
+
+    /**
+     * A change adding a host regex that the regex policy rejects should fail, and leave the services being served unchanged.
+     */
+    @Test
+    public void testUpdateServiceUpdateRegexPolicyRejects() {
+        final DiscoveredService service = service("target/.*");
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Arrays.asList(service),
+                writer);
+        handler.setRegexPolicyEnforcer(new RegexPolicyEnforcer(RegexPolicy.REJECT, new RegexCostAnalyzer(RegexCostAnalyzer.DEFAULT_BUDGET),
+                mock(Log.class), "default"));
+        try {
+            handler.update(new ServiceUpdate() {
+                public void apply(List<DiscoveryCanonicalId> canonicalIds, List<DiscoveredService> services) {
+                    services.add(service("((a+)+)+"));
+                }
+            });
+            fail("The change should have been rejected.");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo("hostRegex pattern(s) took over 10 ms to match an adversarial input: [((a+)+)+]");
+        }
+        assertThat(handler.getServices()).containsExactly(service);
     }
 
     /**
@@ -168,11 +918,88 @@ public class DiscoveredServiceHandlerTest {
      */
     @Test
     public void testHandleNoMatches() throws Exception {
-        when(services.iterator()).thenReturn(Collections.<DiscoveredService> emptySet().iterator());
-        when(canonicalIds.iterator()).thenReturn(Collections.<DiscoveryCanonicalId> emptyList().iterator());
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Arrays.asList(canonicalId("other/uri")), Arrays.asList(service("other/.*")),
+                writer);
         handler.handle("irrelevant", request, response, 0);
         verifyZeroInteractions(request);
         verifyZeroInteractions(response);
         verifyZeroInteractions(writer);
     }
+
+    /**
+     * Create a configuration with a Yadis mode.
+     * 
+     * @param yadisMode
+     *            The {@link YadisMode} to be configured.
+     * @return A {@link DiscoveryServerConfiguration} with the given mode and the default XRDS path.
+     */
+    private DiscoveryServerConfiguration yadisConfiguration(YadisMode yadisMode) {
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        configuration.setYadisMode(yadisMode);
+        return configuration;
+    }
+
+    /**
+     * Create a canonical ID.
+     * 
+     * @param hostRegex
+     *            The host regex of the canonical ID.
+     * @return A {@link DiscoveryCanonicalId}.
+     */
+    private DiscoveryCanonicalId canonicalId(String hostRegex) {
+        final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+        canonicalId.setHostRegex(hostRegex);
+        canonicalId.setCanonicalId("=!" + hostRegex);
+        return canonicalId;
+    }
+
+    /**
+     * Have the writer keep a copy of the matches it is given, as the handler empties them once the request has been handled.
+     * 
+     * @return The {@link OrdinalSet} into which the matches will be copied.
+     * @throws Exception
+     *             If any errors occur while stubbing the writer.
+     */
+    private OrdinalSet captureMatches() throws Exception {
+        final OrdinalSet matches = new OrdinalSet();
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) {
+                matches.copyFrom((OrdinalSet) invocation.getArguments()[2]);
+                return null;
+            }
+        }).when(writer).write(any(CompiledCanonicalId.class), any(CompiledService[].class), any(OrdinalSet.class), any(OutputStream.class));
+        return matches;
+    }
+
+    /**
+     * Create a service.
+     * 
+     * @param hostRegex
+     *            The host regex of the service.
+     * @return A {@link DiscoveredService}.
+     */
+    private DiscoveredService service(String hostRegex) {
+        return service(hostRegex, 1);
+    }
+
+    /**
+     * Create a service.
+     * 
+     * @param hostRegex
+     *            The host regex of the service.
+     * @param typeCount
+     *            The number of types to be given to the service.
+     * @return A {@link DiscoveredService}.
+     */
+    private DiscoveredService service(String hostRegex, int typeCount) {
+        final String[] types = new String[typeCount];
+        for (int i = 0; i < typeCount; i++)
+            types[i] = "http://specs.openid.net/auth/2.0/signon/" + i;
+
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex(hostRegex);
+        service.setUri("http://localhost/" + hostRegex);
+        service.setTypes(types);
+        return service;
+    }
 }
@@ -0,0 +1,216 @@
+package com.google.code.openid.mojo.jetty;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Unit tests for {@link DiscoveryResponse}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class DiscoveryResponseTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * Construction with a {@code null} body should fail.
+     */
+    @Test
+    public void testConstructNullBody() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Body cannot be null.");
+        new DiscoveryResponse(null, 0);
+    }
+
+    /**
+     * The entity tag should be the quoted MD5 digest of the body, so that identical bodies share a tag.
+     */
+    @Test
+    public void testGetEntityTag() {
+        final DiscoveryResponse response = new DiscoveryResponse("abc".getBytes(), 0);
+        assertThat(response.getEntityTag()).isEqualTo("\"900150983cd24fb0d6963f7d28e17f72\"");
+        assertThat(new DiscoveryResponse("abc".getBytes(), 5000).getEntityTag()).isEqualTo(response.getEntityTag());
+        assertThat(new DiscoveryResponse("abd".getBytes(), 0).getEntityTag()).isNotEqualTo(response.getEntityTag());
+    }
+
+    /**
+     * The modification time should be truncated to whole seconds.
+     */
+    @Test
+    public void testGetLastModified() {
+        assertThat(new DiscoveryResponse(new byte[0], 12345L).getLastModified()).isEqualTo(12000L);
+    }
+
+    /**
+     * Test the matching of {@code If-None-Match} header values.
+     */
+    @Test
+    public void testMatchesEntityTag() {
+        final DiscoveryResponse response = new DiscoveryResponse("abc".getBytes(), 0);
+        final String tag = response.getEntityTag();
+        assertThat(response.matchesEntityTag(null)).isFalse();
+        assertThat(response.matchesEntityTag(tag)).isTrue();
+        assertThat(response.matchesEntityTag("W/" + tag)).isTrue();
+        assertThat(response.matchesEntityTag("\"a\", " + tag + " ,\"b\"")).isTrue();
+        assertThat(response.matchesEntityTag("*")).isTrue();
+        assertThat(response.matchesEntityTag("\"a\", \"b\"")).isFalse();
+    }
+
+    /**
+     * Test the comparison against {@code If-Modified-Since} header values.
+     */
+    @Test
+    public void testIsNotModifiedSince() {
+        final DiscoveryResponse response = new DiscoveryResponse(new byte[0], 12345L);
+        assertThat(response.isNotModifiedSince(-1)).isFalse();
+        assertThat(response.isNotModifiedSince(11000L)).isFalse();
+        assertThat(response.isNotModifiedSince(12000L)).isTrue();
+        assertThat(response.isNotModifiedSince(13000L)).isTrue();
+    }
+
+    /**
+     * Documents at least as large as the threshold should be compressed into variants that decompress back to the document.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testCompressedVariants() throws Exception {
+        final byte[] body = document();
+        final DiscoveryResponse response = new DiscoveryResponse(body, 0, body.length);
+        assertThat(response.isCompressed()).isTrue();
+        assertThat(response.getBody(null)).isSameAs(body);
+
+        final byte[] gzip = response.getBody(DiscoveryResponse.GZIP);
+        assertThat(gzip.length).isLessThan(body.length);
+        assertThat(Arrays.equals(inflate(new GZIPInputStream(new ByteArrayInputStream(gzip))), body)).isTrue();
+
+        final byte[] deflate = response.getBody(DiscoveryResponse.DEFLATE);
+        assertThat(deflate.length).isLessThan(body.length);
+        assertThat(Arrays.equals(inflate(new InflaterInputStream(new ByteArrayInputStream(deflate))), body)).isTrue();
+    }
+
+    /**
+     * Documents smaller than the threshold should not be compressed.
+     */
+    @Test
+    public void testBelowCompressionThreshold() {
+        final byte[] body = document();
+        final DiscoveryResponse response = new DiscoveryResponse(body, 0, body.length + 1);
+        assertThat(response.isCompressed()).isFalse();
+        assertThat(response.selectEncoding("gzip, deflate")).isNull();
+
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("No variant available for content encoding: gzip");
+        response.getBody(DiscoveryResponse.GZIP);
+    }
+
+    /**
+     * Each variant should have its own entity tag, and conditional requests should be matched against the tag of the variant being sent.
+     */
+    @Test
+    public void testVariantEntityTags() {
+        final DiscoveryResponse response = new DiscoveryResponse(document(), 0, 0);
+        final String gzipTag = response.getEntityTag(DiscoveryResponse.GZIP);
+        assertThat(response.getEntityTag(null)).isEqualTo(response.getEntityTag());
+        final String tag = response.getEntityTag();
+        assertThat(gzipTag).isEqualTo(tag.substring(0, tag.length() - 1) + "-gzip\"");
+        assertThat(response.matchesEntityTag(gzipTag, DiscoveryResponse.GZIP)).isTrue();
+        assertThat(response.matchesEntityTag(gzipTag, null)).isFalse();
+        assertThat(response.matchesEntityTag(response.getEntityTag(), DiscoveryResponse.GZIP)).isFalse();
+        assertThat(response.matchesEntityTag("\"a\",W/" + gzipTag, DiscoveryResponse.GZIP)).isTrue();
+        assertThat(response.getEntityTag(DiscoveryResponse.DEFLATE)).isEqualTo(tag.substring(0, tag.length() - 1) + "-deflate\"");
+
+        // The tags are built along with the variants, rather than for each request
+        assertThat(response.getEntityTag(DiscoveryResponse.GZIP)).isSameAs(gzipTag);
+        assertThat(response.getEntityTag(DiscoveryResponse.DEFLATE)).isSameAs(response.getEntityTag(DiscoveryResponse.DEFLATE));
+    }
+
+    /**
+     * A response that was not compressed should have no entity tag for a compressed variant.
+     */
+    @Test
+    public void testVariantEntityTagNotCompressed() {
+        final byte[] body = document();
+        final DiscoveryResponse response = new DiscoveryResponse(body, 0, body.length + 1);
+
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("No variant available for content encoding: gzip");
+        response.getEntityTag(DiscoveryResponse.GZIP);
+    }
+
+    /**
+     * Blank and empty entries in an {@code If-None-Match} header should never match.
+     */
+    @Test
+    public void testMatchesEntityTagBlankEntries() {
+        final DiscoveryResponse response = new DiscoveryResponse("abc".getBytes(), 0);
+        assertThat(response.matchesEntityTag("")).isFalse();
+        assertThat(response.matchesEntityTag(" , ,W/")).isFalse();
+        assertThat(response.matchesEntityTag(",\t" + response.getEntityTag() + "\t,")).isTrue();
+    }
+
+    /**
+     * Test the negotiation of the content coding.
+     */
+    @Test
+    public void testSelectEncoding() {
+        final DiscoveryResponse response = new DiscoveryResponse(document(), 0, 0);
+        assertThat(response.selectEncoding(null)).isNull();
+        assertThat(response.selectEncoding("identity")).isNull();
+        assertThat(response.selectEncoding("gzip")).isEqualTo(DiscoveryResponse.GZIP);
+        assertThat(response.selectEncoding("deflate")).isEqualTo(DiscoveryResponse.DEFLATE);
+        assertThat(response.selectEncoding("deflate, gzip")).isEqualTo(DiscoveryResponse.GZIP);
+        assertThat(response.selectEncoding("gzip;q=0.5, deflate")).isEqualTo(DiscoveryResponse.DEFLATE);
+        assertThat(response.selectEncoding("gzip;q=0, *")).isEqualTo(DiscoveryResponse.DEFLATE);
+        assertThat(response.selectEncoding("*")).isEqualTo(DiscoveryResponse.GZIP);
+        assertThat(response.selectEncoding("gzip;q=0, deflate;q=0")).isNull();
+    }
+
+    /**
+     * Create a compressible document.
+     * 
+     * @return The bytes of a document.
+     */
+    private byte[] document() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+            builder.append("<Type>http://specs.openid.net/auth/2.0/signon</Type>");
+        return builder.toString().getBytes();
+    }
+
+    /**
+     * Read out all of the bytes of a decompressing stream.
+     * 
+     * @param in
+     *            The {@link InputStream} to be read.
+     * @return The decompressed bytes.
+     * @throws IOException
+     *             If any errors occur during the read.
+     */
+    private byte[] inflate(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[512];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,205 @@
+package com.google.code.openid.mojo.jetty;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.powermock.reflect.Whitebox;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.match.MatchResult;
+import com.google.code.openid.mojo.metrics.DiscoveryMetrics;
+import com.google.code.openid.mojo.openid.StreamingDiscoveredServiceWriter;
+
+/**
+ * Unit tests for {@link DiscoverySnapshot}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class DiscoverySnapshotTest {
+    /**
+     * The most heap, in bytes, that a service and its share of a snapshot may retain. A service as configured below retained some 3,100 bytes before
+     * services were kept compact.
+     */
+    private static final long MAX_BYTES_PER_SERVICE = 1536;
+
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * A large configuration, in which every service has its own literal host regex and local ID and shares its URI and types with the others, should
+     * retain no more than {@value #MAX_BYTES_PER_SERVICE} bytes of heap per service, metrics included, and none of its services should hold a
+     * compiled pattern.
+     */
+    @Test
+    public void testRetainedHeap() {
+        // Build a small configuration first, so that the one-off structures shared by every snapshot are not counted against the large one
+        retainedBytesPerService(1000);
+
+        // Take the median of several measurements, so that a collection that happens to run in the middle of one does not decide the outcome
+        final long[] measurements = new long[5];
+        for (int i = 0; i < measurements.length; i++)
+            measurements[i] = retainedBytesPerService(50000);
+        Arrays.sort(measurements);
+        assertThat(measurements[measurements.length / 2]).isLessThanOrEqualTo(MAX_BYTES_PER_SERVICE);
+    }
+
+    /**
+     * Once a thread's result has been filled in, handling further requests - matching them, counting their hits and looking up their documents -
+     * should allocate nothing, whether or not match results are cached. Only literal expressions are matched, as evaluating any other expression
+     * allocates a {@link java.util.regex.Matcher}.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testSteadyStateAllocatesNothing() throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        final List<DiscoveredService> services = new ArrayList<DiscoveredService>();
+        for (int i = 0; i < 1000; i++)
+            services.add(service("\\/user\\/" + i, "http://localhost/openid"));
+        services.add(service("\\/user\\/1", "http://localhost/other"));
+        final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+        canonicalId.setHostRegex("\\/user\\/999");
+        canonicalId.setCanonicalId("=!999");
+        final String[] targets = { "/user/1", "/user/999", "/user/500", "/nobody" };
+
+        for (int matchCacheSize : new int[] { 0, 1024 }) {
+            final DiscoverySnapshot snapshot = new DiscoverySnapshot(Collections.singletonList(canonicalId), services, matchCacheSize,
+                    new DiscoveryMetrics());
+            final MatchResult scratch = new MatchResult();
+            final StreamingDiscoveredServiceWriter writer = new StreamingDiscoveredServiceWriter();
+            // Write out the documents and grow the result once, and measure the cost of measuring
+            for (int i = 0; i < 100; i++)
+                handle(snapshot, targets[i % targets.length], scratch, writer);
+            final long overhead = -allocations.getThreadAllocatedBytes(Thread.currentThread().getId())
+                    + allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+            final long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            int matched = 0;
+            for (int i = 0; i < 10000; i++)
+                matched += handle(snapshot, targets[i % targets.length], scratch, writer);
+            final long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before - overhead;
+
+            // Tolerate the odd one-off allocation of the JVM itself, which cannot be told apart from those of the requests, but not a byte a request
+            assertThat(matched).isEqualTo(10000);
+            assertThat(allocated).as("bytes allocated by 10,000 requests with a match cache of " + matchCacheSize).isLessThan(10000);
+        }
+    }
+
+    /**
+     * Construction with {@code null} services should fail.
+     */
+    @Test
+    public void testConstructNullServices() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Services cannot be null.");
+        new DiscoverySnapshot(Collections.<DiscoveryCanonicalId> emptyList(), null, 0, null);
+    }
+
+    /**
+     * Handle a request as the {@link DiscoveredServiceHandler} does, short of sending the response.
+     * 
+     * @param snapshot
+     *            The {@link DiscoverySnapshot} against which the request is to be handled.
+     * @param target
+     *            The request target.
+     * @param scratch
+     *            The {@link MatchResult} of the current thread.
+     * @param writer
+     *            The {@link StreamingDiscoveredServiceWriter} used to write out documents.
+     * @return The number of services that matched the request.
+     * @throws IOException
+     *             If a document cannot be written out.
+     */
+    private static int handle(DiscoverySnapshot snapshot, String target, MatchResult scratch, StreamingDiscoveredServiceWriter writer)
+            throws IOException {
+        final MatchResult result = snapshot.match(target, scratch, 0);
+        if (result.isEmpty())
+            return 0;
+
+        snapshot.recordHits(result);
+        snapshot.getDocument(result, writer, Integer.MAX_VALUE);
+        return result.getServiceOrdinals().size();
+    }
+
+    /**
+     * Create a service.
+     * 
+     * @param hostRegex
+     *            The host regex of the service.
+     * @param uri
+     *            The URI of the service.
+     * @return A {@link DiscoveredService}.
+     */
+    private static DiscoveredService service(String hostRegex, String uri) {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex(hostRegex);
+        service.setUri(uri);
+        service.setTypes(new String[] { "http://specs.openid.net/auth/2.0/signon" });
+        return service;
+    }
+
+    /**
+     * Build a snapshot of a configuration in which every service has its own literal host regex and local ID and shares its URI and types with the
+     * others, and measure the heap it retains.
+     * 
+     * @param count
+     *            The number of services to be configured.
+     * @return The number of bytes of heap retained per service.
+     */
+    private static long retainedBytesPerService(int count) {
+        final long before = usedHeap();
+
+        final List<DiscoveredService> services = new ArrayList<DiscoveredService>(count);
+        for (int i = 0; i < count; i++) {
+            // Copy the repeated text, as a configuration read from a file would hold a copy of it for every service
+            final DiscoveredService service = new DiscoveredService();
+            service.setHostRegex("\\/user\\/" + i);
+            service.setUri(new String("http://localhost:8080/openid/server"));
+            service.setTypes(new String[] { new String("http://specs.openid.net/auth/2.0/signon"), new String("http://openid.net/srv/ax/1.0") });
+            service.setLocalId("http://localhost:8080/user/" + i);
+            services.add(service);
+        }
+        final DiscoverySnapshot snapshot = new DiscoverySnapshot(Collections.<DiscoveryCanonicalId> emptyList(), services, 0, new DiscoveryMetrics());
+
+        final long bytesPerService = (usedHeap() - before) / count;
+        assertThat(snapshot.match("/user/" + (count - 1), new MatchResult(), 0).getServices()).hasSize(1);
+        for (DiscoveredService service : services)
+            assertThat(Whitebox.getInternalState(service, "pattern")).isNull();
+        return bytesPerService;
+    }
+
+    /**
+     * Get the heap in use once everything unreachable has been collected.
+     * 
+     * @return The heap in use, in bytes.
+     */
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
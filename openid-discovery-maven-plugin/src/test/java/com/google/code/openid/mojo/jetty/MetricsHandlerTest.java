@@ -0,0 +1,124 @@
+package com.google.code.openid.mojo.jetty;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mortbay.jetty.Request;
+
+import com.google.code.openid.mojo.metrics.DiscoveryMetrics;
+
+/**
+ * Unit tests for {@link MetricsHandler}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+@RunWith(MockitoJUnitRunner.class)
+public class MetricsHandlerTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DiscoveryMetrics metrics = new DiscoveryMetrics();
+    private final MetricsHandler handler = new MetricsHandler("/_metrics", metrics);
+    @Mock
+    private Request request;
+    @Mock
+    private HttpServletResponse response;
+
+    /**
+     * Set up the response for each test.
+     * 
+     * @throws Exception
+     *             If any errors occur during the setup.
+     */
+    @Before
+    public void setUp() throws Exception {
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+        });
+        when(request.getMethod()).thenReturn("GET");
+    }
+
+    /**
+     * Construction with {@code null} metrics should fail.
+     */
+    @Test
+    public void testConstructNullMetrics() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Metrics cannot be null.");
+        new MetricsHandler("/_metrics", null);
+    }
+
+    /**
+     * The metrics should be served in the Prometheus text format.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandle() throws Exception {
+        metrics.getRequests().add(7);
+        handler.handle("/_metrics", request, response, 0);
+
+        verify(request).setHandled(true);
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(response).setHeader("content-type", "text/plain; version=0.0.4; charset=utf-8");
+        verify(response).setContentLength(body.size());
+        assertThat(body.toString("UTF-8")).isEqualTo(metrics.toPrometheus());
+        assertThat(body.toString("UTF-8")).contains("openid_discovery_requests_total 7\n");
+    }
+
+    /**
+     * Methods other than {@code GET} and {@code HEAD} should not be allowed.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleMethodNotAllowed() throws Exception {
+        when(request.getMethod()).thenReturn("POST");
+        handler.handle("/_metrics", request, response, 0);
+
+        verify(response).setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+        assertThat(body.size()).isZero();
+    }
+
+    /**
+     * Requests for other paths should be left to other handlers.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHandleOtherPath() throws Exception {
+        handler.handle("/a", request, response, 0);
+
+        verify(request, never()).setHandled(anyBoolean());
+        verifyZeroInteractions(response);
+    }
+}
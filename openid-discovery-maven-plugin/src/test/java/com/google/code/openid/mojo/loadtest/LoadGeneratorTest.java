@@ -0,0 +1,204 @@
+package com.google.code.openid.mojo.loadtest;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+
+/**
+ * Unit tests for {@link LoadGenerator}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class LoadGeneratorTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    private Server server;
+    private String baseUrl;
+
+    /**
+     * Start a discovery server on a free port to be load-tested.
+     * 
+     * @throws Exception
+     *             If the server cannot be started.
+     */
+    @Before
+    public void setUp() throws Exception {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex("\\/users\\/.*");
+        service.setUri("http://localhost/openid");
+        service.setTypes(new String[] { "http://specs.openid.net/auth/2.0/signon" });
+
+        final SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort(0);
+        server = new Server();
+        server.addConnector(connector);
+        server.setHandler(new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(), Collections.singletonList(service)));
+        server.start();
+        baseUrl = "http://localhost:" + connector.getLocalPort();
+    }
+
+    /**
+     * Stop the discovery server.
+     * 
+     * @throws Exception
+     *             If the server cannot be stopped.
+     */
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * Requests made during the measured duration should be counted, with those answered with an error counted by status.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testRun() throws Exception {
+        final LoadGenerator generator = new LoadGenerator(Arrays.asList(new URL(baseUrl + "/users/me"), new URL(baseUrl + "/missing")));
+        generator.setConcurrency(2);
+        generator.setWarmup(100);
+        generator.setDuration(300);
+
+        final LoadTestResult result = generator.run();
+        assertThat(result.getRequests()).isGreaterThan(1);
+        assertThat(result.getErrors().keySet()).containsOnly("HTTP 404");
+        assertThat(result.getErrorCount()).isGreaterThan(0).isLessThan(result.getRequests());
+        assertThat(result.getElapsedSeconds()).isEqualTo(0.3);
+        assertThat(result.getP50()).isGreaterThan(0);
+        assertThat(result.getMax()).isGreaterThanOrEqualTo(result.getP99());
+    }
+
+    /**
+     * Without keep-alive, every request should still succeed on a new connection.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testRunWithoutKeepAlive() throws Exception {
+        final LoadGenerator generator = new LoadGenerator(Collections.singletonList(new URL(baseUrl + "/users/me")));
+        generator.setConcurrency(1);
+        generator.setWarmup(0);
+        generator.setDuration(200);
+        generator.setKeepAlive(false);
+
+        final LoadTestResult result = generator.run();
+        assertThat(result.getRequests()).isGreaterThan(0);
+        assertThat(result.getErrors()).isEmpty();
+    }
+
+    /**
+     * Requests that cannot be made should be counted as errors by the exception thrown.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testRunUnreachable() throws Exception {
+        server.stop();
+
+        final LoadGenerator generator = new LoadGenerator(Collections.singletonList(new URL(baseUrl + "/users/me")));
+        generator.setConcurrency(1);
+        generator.setWarmup(0);
+        generator.setDuration(100);
+
+        final LoadTestResult result = generator.run();
+        assertThat(result.getErrors().keySet()).containsOnly("java.net.ConnectException");
+        assertThat(result.getErrorCount()).isEqualTo(result.getRequests());
+    }
+
+    /**
+     * Construction with no targets should fail.
+     */
+    @Test
+    public void testConstructNoTargets() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("At least one target must be given.");
+        new LoadGenerator(Collections.<URL> emptyList());
+    }
+
+    /**
+     * Construction with {@code null} targets should fail.
+     */
+    @Test
+    public void testConstructNullTargets() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("At least one target must be given.");
+        new LoadGenerator((List<URL>) null);
+    }
+
+    /**
+     * A concurrency of less than 1 should be rejected.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testSetConcurrencyTooLow() throws Exception {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Concurrency must be at least 1: 0");
+        new LoadGenerator(Collections.singletonList(new URL(baseUrl))).setConcurrency(0);
+    }
+
+    /**
+     * A duration that is not positive should be rejected.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testSetDurationNotPositive() throws Exception {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Duration must be positive: 0");
+        new LoadGenerator(Collections.singletonList(new URL(baseUrl))).setDuration(0);
+    }
+
+    /**
+     * A negative warmup should be rejected.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testSetWarmupNegative() throws Exception {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Warmup cannot be negative: -1");
+        new LoadGenerator(Collections.singletonList(new URL(baseUrl))).setWarmup(-1);
+    }
+
+    /**
+     * A request timeout that is not positive should be rejected.
+     * 
+     * @throws Exception
+     *             If any errors occur during the testing.
+     */
+    @Test
+    public void testSetRequestTimeoutNotPositive() throws Exception {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Request timeout must be positive: 0");
+        new LoadGenerator(Collections.singletonList(new URL(baseUrl))).setRequestTimeout(0);
+    }
+}
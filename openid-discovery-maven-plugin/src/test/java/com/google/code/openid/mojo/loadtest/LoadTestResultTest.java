@@ -0,0 +1,102 @@
+package com.google.code.openid.mojo.loadtest;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.code.openid.mojo.metrics.LatencyHistogram;
+
+/**
+ * Unit tests for {@link LoadTestResult}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class LoadTestResultTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * The throughput should be the number of requests over the elapsed time, and the errors should be totalled.
+     */
+    @Test
+    public void testGetThroughput() {
+        final Map<String, Long> errors = new HashMap<String, Long>();
+        errors.put("HTTP 404", Long.valueOf(3));
+        errors.put("java.net.ConnectException", Long.valueOf(2));
+
+        final LoadTestResult result = new LoadTestResult(500, errors, 2000000000L, new LatencyHistogram(1));
+        assertThat(result.getElapsedSeconds()).isEqualTo(2.0);
+        assertThat(result.getThroughput()).isEqualTo(250.0);
+        assertThat(result.getErrorCount()).isEqualTo(5);
+    }
+
+    /**
+     * The result should be rendered as a JSON object, with error descriptions escaped and latency in milliseconds.
+     */
+    @Test
+    public void testToJson() {
+        final LatencyHistogram latency = new LatencyHistogram(1);
+        latency.record(15);
+
+        final Map<String, Long> errors = new HashMap<String, Long>();
+        errors.put("HTTP \"404\"", Long.valueOf(1));
+
+        final String json = new LoadTestResult(4, errors, 1000000000L, latency).toJson();
+        assertThat(json).contains("\"requests\": 4,\n");
+        assertThat(json).contains("\"errors\": 1,\n");
+        assertThat(json).contains("\"errorsByType\": {\n    \"HTTP \\\"404\\\"\": 1\n  },\n");
+        assertThat(json).contains("\"throughput\": 4.0,\n");
+        assertThat(json).contains("\"p99\": 1.5E-5,\n");
+        assertThat(json).contains("\"max\": 1.5E-5\n");
+    }
+
+    /**
+     * A result with no errors should render an empty errors object.
+     */
+    @Test
+    public void testToJsonNoErrors() {
+        final String json = new LoadTestResult(0, new HashMap<String, Long>(), 1000000000L, new LatencyHistogram(1)).toJson();
+        assertThat(json).contains("\"errorsByType\": {},\n");
+        assertThat(json).contains("\"p50\": 0.0,\n");
+    }
+
+    /**
+     * Construction with a non-positive elapsed time should fail.
+     */
+    @Test
+    public void testConstructNoElapsedTime() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Elapsed time must be positive: 0");
+        new LoadTestResult(0, new HashMap<String, Long>(), 0, new LatencyHistogram(1));
+    }
+
+    /**
+     * Construction with {@code null} errors should fail.
+     */
+    @Test
+    public void testConstructNullErrors() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Errors cannot be null.");
+        new LoadTestResult(0, null, 1, new LatencyHistogram(1));
+    }
+
+    /**
+     * Construction with a {@code null} latency histogram should fail.
+     */
+    @Test
+    public void testConstructNullLatency() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Latency cannot be null.");
+        new LoadTestResult(0, new HashMap<String, Long>(), 1, null);
+    }
+}
@@ -0,0 +1,273 @@
+package com.google.code.openid.mojo.match;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledService;
+
+/**
+ * Unit tests for {@link HostRegexMatcher}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class HostRegexMatcherTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * Construction with a {@code null} list of canonical IDs should fail.
+     */
+    @Test
+    public void testConstructNullCanonicalIds() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("The canonical IDs cannot be null.");
+        new HostRegexMatcher(null, Collections.<CompiledService> emptyList());
+    }
+
+    /**
+     * Construction with a {@code null} collection of services should fail.
+     */
+    @Test
+    public void testConstructNullServices() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Services cannot be null.");
+        new HostRegexMatcher(Collections.<CompiledCanonicalId> emptyList(), null);
+    }
+
+    /**
+     * Identical expressions should be compiled only once.
+     */
+    @Test
+    public void testGetPatternCount() {
+        final HostRegexMatcher matcher = new HostRegexMatcher(Arrays.asList(canonicalId("\\/a", "=!1")), Arrays.asList(service("\\/a", "http://a"),
+                service("\\/a", "http://b"), service("\\/b", "http://c")));
+        assertThat(matcher.getPatternCount()).isEqualTo(2);
+    }
+
+    /**
+     * All matching services should be returned in the order in which they were configured, along with only the first matching canonical ID.
+     */
+    @Test
+    public void testMatch() {
+        final CompiledService first = service("\\/a.*", "http://first");
+        final CompiledService second = service("\\/b", "http://second");
+        final CompiledService third = service("\\/ab", "http://third");
+        final CompiledService fourth = service("\\/a.*", "http://fourth");
+        final CompiledCanonicalId noMatchId = canonicalId("\\/b", "=!1");
+        final CompiledCanonicalId matchId = canonicalId("\\/a.", "=!2");
+        final CompiledCanonicalId laterMatchId = canonicalId("\\/ab", "=!3");
+
+        final HostRegexMatcher matcher = new HostRegexMatcher(Arrays.asList(noMatchId, matchId, laterMatchId), Arrays.asList(first, second, third,
+                fourth));
+
+        final MatchResult result = matcher.match("/ab");
+        assertThat(result.getServices()).containsExactly(first, third, fourth);
+        assertThat(result.getCanonicalId()).isSameAs(matchId);
+        assertThat(result.isEmpty()).isFalse();
+    }
+
+    /**
+     * A result that is filled in again should hold only the matches of the latest target, and equal a fresh result for that target.
+     */
+    @Test
+    public void testMatchReusesResult() {
+        final CompiledService first = service("\\/a", "http://first");
+        final CompiledService second = service("\\/b.*", "http://second");
+        final HostRegexMatcher matcher = new HostRegexMatcher(Arrays.asList(canonicalId("\\/a", "=!1")), Arrays.asList(first, second));
+
+        final MatchResult result = new MatchResult();
+        assertThat(matcher.match("/a", result)).isSameAs(result);
+        assertThat(result.getServices()).containsExactly(first);
+        assertThat(result.getCanonicalIdOrdinal()).isZero();
+
+        final MatchResult copy = result.copy();
+        matcher.match("/bc", result);
+        assertThat(result.getServices()).containsExactly(second);
+        assertThat(result.getServiceOrdinals().toString()).isEqualTo("[1]");
+        assertThat(result.getCanonicalId()).isNull();
+        assertThat(result).isEqualTo(matcher.match("/bc")).isNotEqualTo(copy);
+        assertThat(result.hashCode()).isEqualTo(matcher.match("/bc").hashCode());
+        assertThat(copy.getServices()).containsExactly(first);
+    }
+
+    /**
+     * Expressions must match the entire target, not just a portion of it.
+     */
+    @Test
+    public void testMatchRequiresFullMatch() {
+        final HostRegexMatcher matcher = new HostRegexMatcher(Arrays.asList(canonicalId("\\/a", "=!1")), Arrays.asList(service("\\/a", "http://a")));
+        final MatchResult result = matcher.match("/abc");
+        assertThat(result.getServices()).isEmpty();
+        assertThat(result.getCanonicalId()).isNull();
+        assertThat(result.isEmpty()).isTrue();
+    }
+
+    /**
+     * Literal, prefixed and unprefixed expressions should all produce exactly the same results as testing every expression in turn.
+     */
+    @Test
+    public void testMatchEquivalentToLinearScan() {
+        final String[] hostRegexes = { "\\/test", "/test", "\\/regex\\/abc.ef", "\\/regex\\/abc.*", "\\/regex\\/.*", ".*", "\\/user\\/\\d+",
+                "\\/user\\/1", "\\/user\\/1?", "\\/a|\\/b", "\\/a", "\\/b", "[/]test", "\\Q/quoted.path\\E", "\\/test\\/?", "(?i)\\/TEST" };
+        final String[] targets = { "/test", "/test/", "/TEST", "/regex/abcdef", "/regex/abc.ef", "/regex/abc", "/regex/", "/user/1", "/user/12",
+                "/user/", "/a", "/b", "/quoted.path", "/quotedxpath", "", "/nothing" };
+
+        final Random random = new Random(1337);
+        final List<DiscoveredService> services = new ArrayList<DiscoveredService>();
+        final List<CompiledService> compiledServices = new ArrayList<CompiledService>();
+        for (int i = 0; i < 64; i++) {
+            final DiscoveredService service = new DiscoveredService();
+            service.setHostRegex(hostRegexes[random.nextInt(hostRegexes.length)]);
+            service.setUri("http://localhost/" + i);
+            service.setTypes(new String[] { "type" });
+            services.add(service);
+            compiledServices.add(new CompiledService(service));
+        }
+
+        final List<DiscoveryCanonicalId> canonicalIds = new ArrayList<DiscoveryCanonicalId>();
+        final List<CompiledCanonicalId> compiledIds = new ArrayList<CompiledCanonicalId>();
+        for (int i = 0; i < 8; i++) {
+            final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+            canonicalId.setHostRegex(hostRegexes[random.nextInt(hostRegexes.length)]);
+            canonicalId.setCanonicalId("=!" + i);
+            canonicalIds.add(canonicalId);
+            compiledIds.add(new CompiledCanonicalId(canonicalId));
+        }
+
+        final HostRegexMatcher matcher = new HostRegexMatcher(compiledIds, compiledServices);
+        for (String target : targets) {
+            final List<String> expectedUris = new ArrayList<String>();
+            for (DiscoveredService service : services)
+                if (service.matchesHostRegex(target))
+                    expectedUris.add(service.getUri());
+
+            String expectedCanonicalId = null;
+            for (DiscoveryCanonicalId canonicalId : canonicalIds)
+                if (canonicalId.matchesHostRegex(target)) {
+                    expectedCanonicalId = canonicalId.getCanonicalId();
+                    break;
+                }
+
+            final MatchResult result = matcher.match(target);
+            final List<String> actualUris = new ArrayList<String>();
+            for (CompiledService service : result.getServices())
+                actualUris.add(service.getUri());
+
+            assertThat(actualUris).as(target).isEqualTo(expectedUris);
+            assertThat(result.getCanonicalId() == null ? null : result.getCanonicalId().getCanonicalId()).as(target).isEqualTo(expectedCanonicalId);
+        }
+    }
+
+    /**
+     * Matching that exceeds the timeout should be abandoned, naming the expression being evaluated, while literals and quick expressions should
+     * match as usual.
+     */
+    @Test
+    public void testMatchTimeout() {
+        final CompiledService literal = service("\\/a", "http://literal");
+        final CompiledService quick = service("\\/b.*", "http://quick");
+        final HostRegexMatcher matcher = new HostRegexMatcher(Collections.<CompiledCanonicalId> emptyList(), Arrays.asList(literal, quick, service(
+                "\\/c\\/((a+)+)+", "http://catastrophic")));
+        final long timeout = TimeUnit.MILLISECONDS.toNanos(10);
+        assertThat(matcher.match("/a", new MatchResult(), timeout).getServices()).containsExactly(literal);
+        assertThat(matcher.match("/bc", new MatchResult(), timeout).getServices()).containsExactly(quick);
+
+        final StringBuilder target = new StringBuilder("/c/");
+        for (int i = 0; i < 64; i++)
+            target.append('a');
+        target.append('!');
+
+        final long start = System.nanoTime();
+        try {
+            matcher.match(target.toString(), new MatchResult(), timeout);
+            fail("Matching should have been abandoned.");
+        } catch (RegexTimeoutException e) {
+            assertThat(e.getHostRegex()).isEqualTo("\\/c\\/((a+)+)+");
+            assertThat(e.getMessage()).endsWith("' against '\\/c\\/((a+)+)+' took longer than 10 ms.");
+        }
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Matching with a negative timeout should fail.
+     */
+    @Test
+    public void testMatchNegativeTimeout() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Timeout cannot be negative: -1");
+        new HostRegexMatcher(Collections.<CompiledCanonicalId> emptyList(), Collections.<CompiledService> emptyList()).match("/a",
+                new MatchResult(), -1);
+    }
+
+    /**
+     * Matching a {@code null} target should fail.
+     */
+    @Test
+    public void testMatchNullTarget() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Target cannot be null.");
+        new HostRegexMatcher(Collections.<CompiledCanonicalId> emptyList(), Collections.<CompiledService> emptyList()).match(null);
+    }
+
+    /**
+     * Matching into a {@code null} result should fail.
+     */
+    @Test
+    public void testMatchNullResult() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Result cannot be null.");
+        new HostRegexMatcher(Collections.<CompiledCanonicalId> emptyList(), Collections.<CompiledService> emptyList()).match("/a", null);
+    }
+
+    /**
+     * Create a canonical ID.
+     * 
+     * @param hostRegex
+     *            The host regex.
+     * @param id
+     *            The canonical ID.
+     * @return A {@link CompiledCanonicalId}.
+     */
+    private CompiledCanonicalId canonicalId(String hostRegex, String id) {
+        final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+        canonicalId.setHostRegex(hostRegex);
+        canonicalId.setCanonicalId(id);
+        return new CompiledCanonicalId(canonicalId);
+    }
+
+    /**
+     * Create a service.
+     * 
+     * @param hostRegex
+     *            The host regex.
+     * @param uri
+     *            The URI of the service.
+     * @return A {@link CompiledService}.
+     */
+    private CompiledService service(String hostRegex, String uri) {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex(hostRegex);
+        service.setUri(uri);
+        service.setTypes(new String[] { "http://specs.openid.net/auth/2.0/signon" });
+        return new CompiledService(service);
+    }
+}
@@ -0,0 +1,94 @@
+package com.google.code.openid.mojo.match;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link LiteralPrefix}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class LiteralPrefixTest {
+    /**
+     * Expressions made up entirely of literal and escaped characters should be exact.
+     */
+    @Test
+    public void testExact() {
+        assertExact("\\/test", "/test");
+        assertExact("/plain/path", "/plain/path");
+        assertExact("\\/a\\-b\\.c", "/a-b.c");
+        assertExact("\\Q/quoted.path\\E", "/quoted.path");
+        assertExact("\\Q/unterminated.quote", "/unterminated.quote");
+        assertExact("\\/test\\|pipe", "/test|pipe");
+        assertExact("", "");
+    }
+
+    /**
+     * Expressions with a literal beginning should have that beginning as their prefix.
+     */
+    @Test
+    public void testPrefix() {
+        assertPrefix("\\/regex\\/abc.ef", "/regex/abc");
+        assertPrefix("\\/user\\/\\d+", "/user/");
+        assertPrefix("\\/a(b|c)", "/a");
+        assertPrefix("\\/ab(?i)cd", "/ab");
+        assertPrefix("\\Q/quo\\E.*", "/quo");
+    }
+
+    /**
+     * A quantified character is not guaranteed to appear in a match, so it cannot be part of the prefix.
+     */
+    @Test
+    public void testQuantifiedCharacter() {
+        assertPrefix("\\/abc?", "/ab");
+        assertPrefix("\\/abc*d", "/ab");
+        assertPrefix("\\/abc+", "/ab");
+        assertPrefix("\\/abc{0,2}", "/ab");
+        assertPrefix("\\/ab\\.?", "/ab");
+        assertPrefix("\\Q/ab\\E?", "/a");
+    }
+
+    /**
+     * Expressions that cannot be safely analyzed should have no prefix.
+     */
+    @Test
+    public void testNoPrefix() {
+        assertPrefix(".*", "");
+        assertPrefix("^\\/test", "");
+        assertPrefix("[/]test", "");
+        assertPrefix("(?i)\\/test", "");
+        assertPrefix("\\/a|\\/b", "");
+        assertPrefix("\\d\\/test", "");
+    }
+
+    /**
+     * Assert that the given expression is a pure literal.
+     * 
+     * @param regex
+     *            The expression.
+     * @param literal
+     *            The literal text it matches.
+     */
+    private void assertExact(String regex, String literal) {
+        final LiteralPrefix prefix = new LiteralPrefix(regex);
+        assertThat(prefix.getPrefix()).isEqualTo(literal);
+        assertThat(prefix.isExact()).isTrue();
+    }
+
+    /**
+     * Assert that the given expression has the given prefix, but is not a pure literal.
+     * 
+     * @param regex
+     *            The expression.
+     * @param expectedPrefix
+     *            The expected prefix.
+     */
+    private void assertPrefix(String regex, String expectedPrefix) {
+        final LiteralPrefix prefix = new LiteralPrefix(regex);
+        assertThat(prefix.getPrefix()).isEqualTo(expectedPrefix);
+        assertThat(prefix.isExact()).isFalse();
+    }
+}
@@ -0,0 +1,94 @@
+package com.google.code.openid.mojo.match;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.code.openid.mojo.openid.CompiledService;
+
+/**
+ * Unit tests for {@link MatchCache}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class MatchCacheTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    private final MatchResult result = new MatchResult(null, Collections.<CompiledService> emptyList());
+
+    /**
+     * Construction with a capacity of less than 1 should fail.
+     */
+    @Test
+    public void testConstructZeroCapacity() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Capacity must be at least 1: 0");
+        new MatchCache(0);
+    }
+
+    /**
+     * Test the caching and retrieval of results, including the hit and miss statistics.
+     */
+    @Test
+    public void testGetPut() {
+        final MatchCache cache = new MatchCache(4);
+        assertThat(cache.get("a")).isNull();
+
+        cache.put("a", result);
+        assertThat(cache.get("a")).isSameAs(result);
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getEvictionCount()).isZero();
+    }
+
+    /**
+     * The cache should never hold more targets than its capacity, evicting the least-recently-used target first.
+     */
+    @Test
+    public void testEviction() {
+        final MatchCache cache = new MatchCache(1);
+        cache.put("a", result);
+        cache.put("b", result);
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.get("b")).isSameAs(result);
+    }
+
+    /**
+     * The capacity should be honored exactly, regardless of how the cache is segmented.
+     */
+    @Test
+    public void testCapacity() {
+        final int capacity = 37;
+        final MatchCache cache = new MatchCache(capacity);
+        for (int i = 0; i < capacity * 10; i++)
+            cache.put("target" + i, result);
+
+        assertThat(cache.getCapacity()).isEqualTo(capacity);
+        assertThat(cache.size()).isLessThanOrEqualTo(capacity);
+        assertThat(cache.getEvictionCount()).isEqualTo(capacity * 10 - cache.size());
+    }
+
+    /**
+     * Caching a {@code null} result should fail.
+     */
+    @Test
+    public void testPutNullResult() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Result cannot be null.");
+        new MatchCache(1).put("a", null);
+    }
+}
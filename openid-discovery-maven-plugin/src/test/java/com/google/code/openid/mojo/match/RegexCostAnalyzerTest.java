@@ -0,0 +1,167 @@
+package com.google.code.openid.mojo.match;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Unit tests for {@link RegexCostAnalyzer}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class RegexCostAnalyzerTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    private final RegexCostAnalyzer analyzer = new RegexCostAnalyzer(RegexCostAnalyzer.DEFAULT_BUDGET);
+
+    /**
+     * Expressions should be classified by their structure.
+     */
+    @Test
+    public void testClassify() {
+        assertThat(RegexCostAnalyzer.classify("\\/users\\/me")).isEqualTo(RegexCost.LITERAL);
+        assertThat(RegexCostAnalyzer.classify("\\/users\\/.*")).isEqualTo(RegexCost.PREFIX);
+        assertThat(RegexCostAnalyzer.classify("\\/users\\/(\\d+)\\/profile")).isEqualTo(RegexCost.PREFIX);
+        assertThat(RegexCostAnalyzer.classify(".*\\.example\\.com")).isEqualTo(RegexCost.LINEAR);
+        assertThat(RegexCostAnalyzer.classify("(ab)+c")).isEqualTo(RegexCost.LINEAR);
+        assertThat(RegexCostAnalyzer.classify("(a|b)*")).isEqualTo(RegexCost.LINEAR);
+        assertThat(RegexCostAnalyzer.classify("[(a+)+]")).isEqualTo(RegexCost.LINEAR);
+        assertThat(RegexCostAnalyzer.classify("(a+){1}")).isEqualTo(RegexCost.LINEAR);
+    }
+
+    /**
+     * Repeated groups that can match the same text in more than one way should be classified as potentially exponential.
+     */
+    @Test
+    public void testClassifyExponential() {
+        assertThat(RegexCostAnalyzer.classify("(a+)+")).isEqualTo(RegexCost.EXPONENTIAL);
+        assertThat(RegexCostAnalyzer.classify("(a*)*b")).isEqualTo(RegexCost.EXPONENTIAL);
+        assertThat(RegexCostAnalyzer.classify("\\/users\\/(\\w+\\s?)*$")).isEqualTo(RegexCost.EXPONENTIAL);
+        assertThat(RegexCostAnalyzer.classify("((a+)b)+")).isEqualTo(RegexCost.EXPONENTIAL);
+        assertThat(RegexCostAnalyzer.classify("(a|ab)*")).isEqualTo(RegexCost.EXPONENTIAL);
+        assertThat(RegexCostAnalyzer.classify("(?:x+x+)+y")).isEqualTo(RegexCost.EXPONENTIAL);
+        assertThat(RegexCostAnalyzer.classify("(?i)(a+){2,}")).isEqualTo(RegexCost.EXPONENTIAL);
+    }
+
+    /**
+     * Possessive quantifiers and atomic groups never backtrack, so should not make an expression potentially exponential.
+     */
+    @Test
+    public void testClassifyPossessive() {
+        assertThat(RegexCostAnalyzer.classify("(a++)+")).isEqualTo(RegexCost.LINEAR);
+        assertThat(RegexCostAnalyzer.classify("(?>a+)+")).isEqualTo(RegexCost.LINEAR);
+        assertThat(RegexCostAnalyzer.classify("(a+)++")).isEqualTo(RegexCost.LINEAR);
+    }
+
+    /**
+     * Classifying a {@code null} expression should fail.
+     */
+    @Test
+    public void testClassifyNullRegex() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Regular expression cannot be null.");
+        RegexCostAnalyzer.classify(null);
+    }
+
+    /**
+     * A catastrophic expression should be found expensive, and its matching abandoned not long after the budget is exceeded.
+     */
+    @Test
+    public void testAnalyzeExpensive() {
+        final long start = System.nanoTime();
+        final RegexAnalysis analysis = analyzer.analyze("\\/users\\/((\\w+)+)+");
+        final long elapsed = System.nanoTime() - start;
+
+        assertThat(analysis.getRegex()).isEqualTo("\\/users\\/((\\w+)+)+");
+        assertThat(analysis.getCost()).isEqualTo(RegexCost.EXPONENTIAL);
+        assertThat(analysis.isExpensive()).isTrue();
+        assertThat(analysis.getWorstInput()).startsWith("/users/aaaa");
+        assertThat(analysis.getWorstTime()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(RegexCostAnalyzer.DEFAULT_BUDGET));
+        // Tried twice, and abandoned soon after the budget each time
+        assertThat(elapsed).isLessThan(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * An expression that is only suspected of being exponential should not be found expensive if it matches every adversarial input quickly.
+     */
+    @Test
+    public void testAnalyzeSuspectedOnly() {
+        final RegexAnalysis analysis = analyzer.analyze("(a+b)+");
+        assertThat(analysis.getCost()).isEqualTo(RegexCost.EXPONENTIAL);
+        assertThat(analysis.isExpensive()).isFalse();
+        assertThat(analysis.getWorstInput()).isNotNull();
+    }
+
+    /**
+     * Ordinary expressions should not be found expensive, and literals should not be matched at all.
+     */
+    @Test
+    public void testAnalyzeCheap() {
+        final RegexAnalysis prefix = analyzer.analyze("\\/users\\/.*");
+        assertThat(prefix.getCost()).isEqualTo(RegexCost.PREFIX);
+        assertThat(prefix.isExpensive()).isFalse();
+        assertThat(prefix.getWorstTime()).isLessThan(TimeUnit.MILLISECONDS.toNanos(RegexCostAnalyzer.DEFAULT_BUDGET));
+
+        final RegexAnalysis literal = analyzer.analyze("\\/users\\/me");
+        assertThat(literal.getCost()).isEqualTo(RegexCost.LITERAL);
+        assertThat(literal.isExpensive()).isFalse();
+        assertThat(literal.getWorstTime()).isEqualTo(0);
+        assertThat(literal.getWorstInput()).isNull();
+    }
+
+    /**
+     * Adversarial inputs should follow the literal prefix with each character the expression repeats, preferring those outside the prefix, and
+     * end with a character unlikely to let them match.
+     */
+    @Test
+    public void testAdversarialInputs() {
+        final List<String> inputs = RegexCostAnalyzer.adversarialInputs("\\/users\\/(\\d+\\s?)*");
+        assertThat(inputs).hasSize(16);
+        for (String input : inputs)
+            assertThat(input).startsWith("/users/").hasSize("/users/".length() + RegexCostAnalyzer.ADVERSARIAL_LENGTH + 1);
+        assertThat(inputs.get(0)).startsWith("/users/0000").endsWith("0!");
+        assertThat(inputs.get(1)).startsWith("/users/0000").endsWith("0\n");
+        assertThat(inputs.get(2)).startsWith("/users/    ");
+        assertThat(inputs.get(4)).startsWith("/users/aaaa");
+    }
+
+    /**
+     * Analyzing a {@code null} expression should fail.
+     */
+    @Test
+    public void testAnalyzeNullRegex() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Regular expression cannot be null.");
+        analyzer.analyze(null);
+    }
+
+    /**
+     * Analyzing an invalid expression should fail.
+     */
+    @Test
+    public void testAnalyzeInvalidRegex() {
+        expected.expect(IllegalArgumentException.class);
+        analyzer.analyze("(");
+    }
+
+    /**
+     * Construction with a budget of less than a millisecond should fail.
+     */
+    @Test
+    public void testConstructInvalidBudget() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Budget must be at least 1: 0");
+        new RegexCostAnalyzer(0);
+    }
+}
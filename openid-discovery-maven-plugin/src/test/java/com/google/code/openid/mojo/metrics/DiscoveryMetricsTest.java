@@ -0,0 +1,111 @@
+package com.google.code.openid.mojo.metrics;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledCanonicalId;
+import com.google.code.openid.mojo.openid.CompiledService;
+
+/**
+ * Unit tests for {@link DiscoveryMetrics}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class DiscoveryMetricsTest {
+    private final DiscoveryMetrics metrics = new DiscoveryMetrics();
+
+    /**
+     * Services that serve the same thing should share a counter, so that counts survive the recompilation of the services.
+     */
+    @Test
+    public void testGetServiceHits() {
+        final StripedCounter counter = metrics.getServiceHits(service("\\/a", "http://a"));
+        assertThat(metrics.getServiceHits(service("\\/a", "http://a"))).isSameAs(counter);
+        assertThat(metrics.getServiceHits(service("\\/a", "http://b"))).isNotSameAs(counter);
+    }
+
+    /**
+     * Timeouts of the same host regex should share a counter, separate from that of any hits of a service with that host regex.
+     */
+    @Test
+    public void testGetMatchTimeouts() {
+        final StripedCounter counter = metrics.getMatchTimeouts("\\/a");
+        assertThat(metrics.getMatchTimeouts("\\/a")).isSameAs(counter);
+        assertThat(metrics.getMatchTimeouts("\\/b")).isNotSameAs(counter);
+        assertThat(metrics.getServiceHits(service("\\/a", "http://a"))).isNotSameAs(counter);
+    }
+
+    /**
+     * Retaining hits should discard every other per-service and per-canonical-ID counter, so that they are no longer reported, and keep the
+     * retained counters counting.
+     */
+    @Test
+    public void testRetainHits() {
+        final StripedCounter kept = metrics.getServiceHits(service("\\/a", "http://a"));
+        kept.increment();
+        metrics.getServiceHits(service("\\/b", "http://b")).increment();
+        final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+        canonicalId.setHostRegex("\\/c");
+        canonicalId.setCanonicalId("=!c");
+        metrics.getCanonicalIdHits(new CompiledCanonicalId(canonicalId)).increment();
+
+        metrics.retainHits(new StripedCounter[0], new StripedCounter[] { kept });
+        assertThat(metrics.getServiceHits(service("\\/a", "http://a"))).isSameAs(kept);
+        assertThat(metrics.getServiceHits(service("\\/b", "http://b")).get()).isEqualTo(0);
+
+        final String text = metrics.toPrometheus();
+        assertThat(text).contains("openid_discovery_service_hits_total{host_regex=\"\\\\/a\",uri=\"http://a\"} 1\n");
+        assertThat(text).excludes("=!c");
+    }
+
+    /**
+     * The metrics should be formatted in the Prometheus text format, with label values escaped.
+     */
+    @Test
+    public void testToPrometheus() {
+        metrics.getRequests().add(3);
+        metrics.getMisses().increment();
+        metrics.getIndirections().add(2);
+        metrics.getServiceHits(service("\\/a\"", "http://a")).add(2);
+        final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+        canonicalId.setHostRegex("\\/a");
+        canonicalId.setCanonicalId("=!a");
+        metrics.getCanonicalIdHits(new CompiledCanonicalId(canonicalId)).increment();
+        metrics.getMatchLatency().record(15);
+        metrics.getMatchTimeouts("\\/a\\/(a+)+").add(4);
+
+        final String text = metrics.toPrometheus();
+        assertThat(text).contains("# TYPE openid_discovery_requests_total counter\nopenid_discovery_requests_total 3\n");
+        assertThat(text).contains("openid_discovery_misses_total 1\n");
+        assertThat(text).contains("openid_discovery_yadis_indirections_total 2\n");
+        assertThat(text).contains("openid_discovery_service_hits_total{host_regex=\"\\\\/a\\\"\",uri=\"http://a\"} 2\n");
+        assertThat(text).contains("openid_discovery_canonical_id_hits_total{host_regex=\"\\\\/a\",canonical_id=\"=!a\"} 1\n");
+        assertThat(text).contains("openid_discovery_match_timeouts_total{host_regex=\"\\\\/a\\\\/(a+)+\"} 4\n");
+        assertThat(text).contains("# TYPE openid_discovery_match_seconds summary\n");
+        assertThat(text).contains("openid_discovery_match_seconds{quantile=\"0.5\"} 1.5E-8\n");
+        assertThat(text).contains("openid_discovery_match_seconds_count 1\n");
+        assertThat(text).contains("openid_discovery_write_seconds_count 0\n");
+    }
+
+    /**
+     * Create a compiled service.
+     * 
+     * @param hostRegex
+     *            The host regex of the service.
+     * @param uri
+     *            The URI of the service.
+     * @return A {@link CompiledService}.
+     */
+    private CompiledService service(String hostRegex, String uri) {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex(hostRegex);
+        service.setUri(uri);
+        service.setTypes(new String[] { "http://specs.openid.net/auth/2.0/signon" });
+        return new CompiledService(service);
+    }
+}
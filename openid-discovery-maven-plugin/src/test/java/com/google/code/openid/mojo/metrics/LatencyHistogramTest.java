@@ -0,0 +1,88 @@
+package com.google.code.openid.mojo.metrics;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Unit tests for {@link LatencyHistogram}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class LatencyHistogramTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * Every duration should fall into a bucket whose highest value is no lower than the duration, and within an eighth of it.
+     */
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 1L << 41; value = value * 3 / 2 + 1) {
+            final int bucket = LatencyHistogram.bucketOf(value);
+            assertThat(bucket).isGreaterThanOrEqualTo(0).isLessThan(LatencyHistogram.BUCKETS);
+            final long highest = LatencyHistogram.highestValue(bucket);
+            assertThat(highest).isGreaterThanOrEqualTo(value);
+            assertThat(highest - value).isLessThanOrEqualTo(value / LatencyHistogram.SUB_BUCKETS);
+        }
+        assertThat(LatencyHistogram.bucketOf(Long.MAX_VALUE)).isEqualTo(LatencyHistogram.BUCKETS - 1);
+    }
+
+    /**
+     * Percentiles should be estimated to within the resolution of the buckets.
+     */
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram(2);
+        assertThat(histogram.getPercentile(0.5)).isZero();
+
+        for (long value = 1; value <= 1000; value++)
+            histogram.record(value * 1000);
+
+        assertThat(histogram.getCount()).isEqualTo(1000);
+        assertThat(histogram.getSum()).isEqualTo(500500000);
+        final long[] percentiles = histogram.getPercentiles(new double[] { 0.5, 0.99, 1 });
+        assertThat(percentiles[0]).isGreaterThanOrEqualTo(500000).isLessThanOrEqualTo(500000 * 9 / 8);
+        assertThat(percentiles[1]).isGreaterThanOrEqualTo(990000).isLessThanOrEqualTo(990000 * 9 / 8);
+        assertThat(percentiles[2]).isGreaterThanOrEqualTo(1000000).isLessThanOrEqualTo(1000000 * 9 / 8);
+    }
+
+    /**
+     * Negative durations should be recorded as zero.
+     */
+    @Test
+    public void testRecordNegative() {
+        final LatencyHistogram histogram = new LatencyHistogram(1);
+        histogram.record(-5);
+        assertThat(histogram.getCount()).isEqualTo(1);
+        assertThat(histogram.getSum()).isZero();
+        assertThat(histogram.getPercentile(1)).isZero();
+    }
+
+    /**
+     * Quantiles out of order should be rejected.
+     */
+    @Test
+    public void testPercentilesOutOfOrder() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Quantiles must be in ascending order.");
+        new LatencyHistogram(1).getPercentiles(new double[] { 0.9, 0.5 });
+    }
+
+    /**
+     * A quantile greater than 1 should be rejected.
+     */
+    @Test
+    public void testPercentileTooLarge() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Quantile must be between 0 and 1: 1.5");
+        new LatencyHistogram(1).getPercentile(1.5);
+    }
+}
@@ -0,0 +1,86 @@
+package com.google.code.openid.mojo.metrics;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Unit tests for {@link StripedCounter}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class StripedCounterTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * Construction with fewer than one stripe should fail.
+     */
+    @Test
+    public void testConstructZeroStripes() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Stripes must be at least 1: 0");
+        new StripedCounter(0);
+    }
+
+    /**
+     * Increments from many threads at once should all be counted.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testConcurrentIncrements() throws Exception {
+        final StripedCounter counter = new StripedCounter(3);
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++)
+                        counter.increment();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        counter.add(5);
+        assertThat(counter.get()).isEqualTo(80005);
+        assertThat(counter.toString()).isEqualTo("80005");
+    }
+
+    /**
+     * A counter with a single stripe should count increments from many threads at once.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testSingleStripe() throws Exception {
+        final StripedCounter counter = new StripedCounter(1);
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++)
+                        counter.increment();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertThat(counter.get()).isEqualTo(40000);
+    }
+}
@@ -0,0 +1,88 @@
+package com.google.code.openid.mojo.openid;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.code.openid.mojo.DiscoveredService;
+
+/**
+ * Unit tests for {@link CompiledService}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class CompiledServiceTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * Compiling a service should capture its fields and keep its types in the order in which they were configured.
+     */
+    @Test
+    public void testCompile() {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex("\\/test");
+        service.setUri("http://localhost/test");
+        service.setTypes(new String[] { "type c", "type a", "type b" });
+        service.setPriority(5);
+        service.setLocalId("http://localhost/local");
+
+        final CompiledService compiled = new CompiledService(service);
+        assertThat(compiled.getHostRegex()).isEqualTo("\\/test");
+        assertThat(compiled.getUri()).isEqualTo("http://localhost/test");
+        assertThat(compiled.getTypes()).containsExactly("type c", "type a", "type b");
+        assertThat(compiled.getPriority()).isEqualTo(5);
+        assertThat(compiled.getLocalId()).isEqualTo("http://localhost/local");
+    }
+
+    /**
+     * The written-out element should be the escaped {@code <Service />} element.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWriteTo() throws Exception {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex("\\/test");
+        service.setUri("http://localhost/test?a=b&c=d");
+        service.setTypes(new String[] { "type" });
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CompiledService(service).writeTo(out);
+        assertThat(new String(out.toByteArray(), "UTF-8")).isEqualTo("<Service><Type>type</Type><URI>http://localhost/test?a=b&amp;c=d</URI></Service>");
+    }
+
+    /**
+     * Compiling a service without all of its required fields should fail.
+     */
+    @Test
+    public void testCompileIncomplete() {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex("\\/test");
+        service.setTypes(new String[] { "type" });
+
+        expected.expect(IllegalStateException.class);
+        expected.expectMessage("URI has not yet been set prior to retrieval.");
+        new CompiledService(service);
+    }
+
+    /**
+     * Compiling a {@code null} service should fail.
+     */
+    @Test
+    public void testCompileNull() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Service cannot be null.");
+        new CompiledService(null);
+    }
+}
@@ -8,6 +8,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -60,7 +61,7 @@ public class DiscoveredServiceWriterTest {
         service.setTypes(new String[] { type });
         service.setUri(uri);
 
-        writer.write(null, Collections.singleton(service), out);
+        writer.write((DiscoveryCanonicalId) null, Collections.singleton(service), out);
 
         final Collection<DiscoveredService> services = getServices(toDocument(out));
         assertThat(services).hasSize(1);
@@ -82,7 +83,7 @@ public class DiscoveredServiceWriterTest {
     public void testWriteNullServices() throws Exception {
         expected.expect(IllegalArgumentException.class);
         expected.expectMessage("Services cannot be null.");
-        writer.write(null, null, new ByteArrayOutputStream());
+        writer.write((DiscoveryCanonicalId) null, null, new ByteArrayOutputStream());
     }
 
     /**
@@ -95,7 +96,7 @@ public class DiscoveredServiceWriterTest {
     public void testWriteNullOutputStream() throws Exception {
         expected.expect(IllegalArgumentException.class);
         expected.expectMessage("Output stream cannot be null.");
-        writer.write(null, Collections.<DiscoveredService> emptySet(), null);
+        writer.write((DiscoveryCanonicalId) null, Collections.<DiscoveredService> emptySet(), null);
     }
 
     /**
@@ -134,7 +135,7 @@ public class DiscoveredServiceWriterTest {
         service.setUri(uri);
         service.setLocalId(localId);
 
-        writer.write(null, Collections.singleton(service), out);
+        writer.write((DiscoveryCanonicalId) null, Collections.singleton(service), out);
 
         final Collection<DiscoveredService> services = getServices(toDocument(out));
         assertThat(services).hasSize(1);
@@ -163,7 +164,7 @@ public class DiscoveredServiceWriterTest {
         service.setUri(uri);
         service.setPriority(priority);
 
-        writer.write(null, Collections.singleton(service), out);
+        writer.write((DiscoveryCanonicalId) null, Collections.singleton(service), out);
 
         final Collection<DiscoveredService> services = getServices(toDocument(out));
         assertThat(services).hasSize(1);
@@ -174,6 +175,56 @@ public class DiscoveredServiceWriterTest {
         assertThat(discovered.getPriority()).isEqualTo(priority);
     }
 
+    /**
+     * Writing compiled services should produce the same document as writing the services from which they were compiled.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWriteCompiled() throws Exception {
+        final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+        canonicalId.setHostRegex(".*");
+        canonicalId.setCanonicalId("=!1234 & <5678>");
+
+        final DiscoveredService first = new DiscoveredService();
+        first.setHostRegex(".*");
+        first.setTypes(new String[] { "type one", "type two", "type three" });
+        first.setUri("http://localhost/first?a=b&c=d");
+        first.setPriority(10);
+        first.setLocalId("http://localhost/first/local");
+
+        final DiscoveredService second = new DiscoveredService();
+        second.setHostRegex(".*");
+        second.setTypes(new String[] { "type four" });
+        second.setUri("http://localhost/second");
+
+        final ByteArrayOutputStream expectedOut = new ByteArrayOutputStream();
+        writer.write(canonicalId, Arrays.asList(first, second), expectedOut);
+
+        final ByteArrayOutputStream compiledOut = new ByteArrayOutputStream();
+        writer.write(new CompiledCanonicalId(canonicalId), Arrays.asList(new CompiledService(first), new CompiledService(second)), compiledOut);
+
+        assertThat(compiledOut.toByteArray()).isEqualTo(expectedOut.toByteArray());
+    }
+
+    /**
+     * Writing compiled services with neither a canonical ID nor services should produce the same document as the uncompiled equivalent.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWriteCompiledEmpty() throws Exception {
+        final ByteArrayOutputStream expectedOut = new ByteArrayOutputStream();
+        writer.write((DiscoveryCanonicalId) null, Collections.<DiscoveredService> emptySet(), expectedOut);
+
+        final ByteArrayOutputStream compiledOut = new ByteArrayOutputStream();
+        writer.write((CompiledCanonicalId) null, Collections.<CompiledService> emptyList(), compiledOut);
+
+        assertThat(compiledOut.toByteArray()).isEqualTo(expectedOut.toByteArray());
+    }
+
     /**
      * Get the canonical ID from a discovery document.
      * 
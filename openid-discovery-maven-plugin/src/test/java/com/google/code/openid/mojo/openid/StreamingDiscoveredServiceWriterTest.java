@@ -0,0 +1,188 @@
+package com.google.code.openid.mojo.openid;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+
+/**
+ * Unit tests for {@link StreamingDiscoveredServiceWriter}. The written-out documents are verified to be byte-for-byte identical to those written by
+ * the JDOM-based {@link DiscoveredServiceWriter}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class StreamingDiscoveredServiceWriterTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    private final DiscoveredServiceWriter jdomWriter = new DiscoveredServiceWriter();
+    private final StreamingDiscoveredServiceWriter writer = new StreamingDiscoveredServiceWriter();
+
+    /**
+     * Test the writing of a single service.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        assertEquivalent(null, Collections.singleton(service("this is the uri", "this is the type")));
+    }
+
+    /**
+     * Test the writing of a document with neither a canonical ID nor services.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWriteEmpty() throws Exception {
+        assertEquivalent(null, Collections.<DiscoveredService> emptySet());
+    }
+
+    /**
+     * Test the writing of a document with only a canonical ID.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWriteCanonicalIdOnly() throws Exception {
+        assertEquivalent(canonicalId("=!1234.5678"), Collections.<DiscoveredService> emptySet());
+    }
+
+    /**
+     * Test the writing of multiple services with multiple types, priorities and local IDs.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWriteMultipleServices() throws Exception {
+        final DiscoveredService first = service("http://localhost/first", "http://specs.openid.net/auth/2.0/signon", "http://openid.net/signon/1.1",
+                "http://openid.net/srv/ax/1.0");
+        first.setPriority(10);
+        first.setLocalId("http://localhost/first/local");
+
+        final DiscoveredService second = service("http://localhost/second", "http://specs.openid.net/auth/2.0/server");
+        second.setPriority(20);
+
+        assertEquivalent(canonicalId("=!1234.5678"), Arrays.asList(first, second));
+    }
+
+    /**
+     * Markup, line breaks and characters outside of the ASCII range should be written out as JDOM would write them.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWriteEscaping() throws Exception {
+        final DiscoveredService service = service("http://localhost/?a=b&c=<d>", "type\r\nwith\tbreaks", "",
+                "café 😀 \"quoted\" 'single'");
+        service.setLocalId("]]> & &amp;");
+        assertEquivalent(canonicalId("@example*<id>&"), Collections.singleton(service));
+    }
+
+    /**
+     * Text containing characters that are illegal in XML should be rejected.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWriteIllegalCharacter() throws Exception {
+        expected.expect(IllegalArgumentException.class);
+        writer.write((DiscoveryCanonicalId) null, Collections.singleton(service("http://localhost/\u0000", "this is the type")), new ByteArrayOutputStream());
+    }
+
+    /**
+     * Writing with a {@code null} {@link Collection} of services should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWriteNullServices() throws Exception {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Services cannot be null.");
+        writer.write((DiscoveryCanonicalId) null, null, new ByteArrayOutputStream());
+    }
+
+    /**
+     * Writing with a {@code null} output stream should fail.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testWriteNullOutputStream() throws Exception {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Output stream cannot be null.");
+        writer.write((DiscoveryCanonicalId) null, Collections.<DiscoveredService> emptySet(), null);
+    }
+
+    /**
+     * Assert that the streaming writer writes out the same bytes as the JDOM writer.
+     * 
+     * @param canonicalId
+     *            The canonical ID to be written; can be {@code null}.
+     * @param services
+     *            The services to be written.
+     * @throws Exception
+     *             If any errors occur during the write-out.
+     */
+    private void assertEquivalent(DiscoveryCanonicalId canonicalId, Collection<DiscoveredService> services) throws Exception {
+        final ByteArrayOutputStream jdomOut = new ByteArrayOutputStream();
+        jdomWriter.write(canonicalId, services, jdomOut);
+
+        final ByteArrayOutputStream streamedOut = new ByteArrayOutputStream();
+        writer.write(canonicalId, services, streamedOut);
+
+        assertThat(new String(streamedOut.toByteArray(), "UTF-8")).isEqualTo(new String(jdomOut.toByteArray(), "UTF-8"));
+        assertThat(streamedOut.toByteArray()).isEqualTo(jdomOut.toByteArray());
+    }
+
+    /**
+     * Create a canonical ID.
+     * 
+     * @param id
+     *            The canonical ID.
+     * @return A {@link DiscoveryCanonicalId}.
+     */
+    private DiscoveryCanonicalId canonicalId(String id) {
+        final DiscoveryCanonicalId canonicalId = new DiscoveryCanonicalId();
+        canonicalId.setCanonicalId(id);
+        return canonicalId;
+    }
+
+    /**
+     * Create a service.
+     * 
+     * @param uri
+     *            The URI of the service.
+     * @param types
+     *            The types of the service.
+     * @return A {@link DiscoveredService}.
+     */
+    private DiscoveredService service(String uri, String... types) {
+        final DiscoveredService service = new DiscoveredService();
+        service.setUri(uri);
+        service.setTypes(types);
+        return service;
+    }
+}
@@ -0,0 +1,379 @@
+package com.google.code.openid.mojo.server;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mortbay.component.AbstractLifeCycle;
+import org.mortbay.component.LifeCycle;
+import org.mortbay.jetty.Handler;
+import org.powermock.reflect.Whitebox;
+
+import com.google.code.openid.mojo.DiscoveredService;
+import com.google.code.openid.mojo.DiscoveryCanonicalId;
+import com.google.code.openid.mojo.DiscoveryServerConfiguration;
+import com.google.code.openid.mojo.jetty.AdminHandler;
+import com.google.code.openid.mojo.jetty.DiscoveredServiceHandler;
+
+/**
+ * Unit tests for {@link NioDiscoveryServer}.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class NioDiscoveryServerTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    private NioDiscoveryServer server;
+    private Socket socket;
+    private boolean headSent;
+
+    /**
+     * Start a server on a free port, serving a single service behind an admin endpoint.
+     * 
+     * @throws Exception
+     *             If the server cannot be started.
+     */
+    @Before
+    public void setUp() throws Exception {
+        final DiscoveredService service = new DiscoveredService();
+        service.setHostRegex("\\/users\\/.*");
+        service.setUri("http://localhost/openid");
+        service.setTypes(new String[] { "http://specs.openid.net/auth/2.0/signon" });
+
+        final DiscoveryServerConfiguration configuration = new DiscoveryServerConfiguration();
+        final DiscoveredServiceHandler handler = new DiscoveredServiceHandler(Collections.<DiscoveryCanonicalId> emptyList(),
+                Collections.singletonList(service), configuration);
+        server = new NioDiscoveryServer(0, configuration, handler, Collections.<Handler> singletonList(new AdminHandler("/_admin", "secret",
+                handler)));
+        server.start();
+        socket = new Socket("localhost", server.getLocalPort());
+        socket.setSoTimeout(5000);
+    }
+
+    /**
+     * Stop the server.
+     * 
+     * @throws Exception
+     *             If the server cannot be stopped.
+     */
+    @After
+    public void tearDown() throws Exception {
+        socket.close();
+        server.stop();
+    }
+
+    /**
+     * A discovery request should be answered with the XRDS document, and a request for anything else with a 404, on the same connection.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testKeepAlive() throws Exception {
+        send("GET /users/me HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        final String discovered = readResponse();
+        assertThat(discovered).startsWith("HTTP/1.1 200 OK\r\n").contains("\r\nDate: ").contains("http://localhost/openid").excludes(
+                "Connection: close");
+
+        send("GET /missing HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertThat(readResponse()).startsWith("HTTP/1.1 404 Not Found\r\n").contains("Content-Length: 0\r\n");
+    }
+
+    /**
+     * Pipelined requests, including one with a body, should be answered in order.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testPipelining() throws Exception {
+        send("POST /missing HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nhelloGET /users/me HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                + "GET /_admin HTTP/1.1\r\nHost: localhost\r\nAuthorization: Bearer secret\r\n\r\n");
+        assertThat(readResponse()).startsWith("HTTP/1.1 404 ");
+        assertThat(readResponse()).startsWith("HTTP/1.1 200 ").contains("http://localhost/openid");
+        assertThat(readResponse()).startsWith("HTTP/1.1 200 ").contains("\r\n\r\nservices=1\ncanonicalIds=0");
+    }
+
+    /**
+     * A request for the admin endpoint should be handled on the worker thread, so that discovery requests on other connections are answered while
+     * it waits for an update to be applied, and the requests pipelined behind it are answered after it.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testEndpointDoesNotBlockDiscovery() throws Exception {
+        final Socket other = new Socket("localhost", server.getLocalPort());
+        other.setSoTimeout(5000);
+        try {
+            synchronized (Whitebox.getInternalState(server.getHandler(), "updateLock")) {
+                send("POST /_admin HTTP/1.1\r\nHost: localhost\r\nAuthorization: Bearer secret\r\nContent-Length: 9\r\n\r\n<update/>"
+                        + "GET /users/me HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                awaitWorkerBlocked();
+
+                send(other, "GET /users/me HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                assertThat(readResponse(other)).startsWith("HTTP/1.1 200 ").contains("http://localhost/openid");
+                assertThat(socket.getInputStream().available()).isEqualTo(0);
+            }
+
+            assertThat(readResponse()).startsWith("HTTP/1.1 200 ").contains("\r\n\r\nservices=1\ncanonicalIds=0");
+            assertThat(readResponse()).startsWith("HTTP/1.1 200 ").contains("http://localhost/openid");
+        } finally {
+            other.close();
+        }
+    }
+
+    /**
+     * A {@code HEAD} request should be answered with the headers of the equivalent {@code GET} but no body.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHead() throws Exception {
+        send("GET /users/me HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        final String get = readResponse();
+        final String contentLength = get.substring(get.indexOf("Content-Length: "), get.indexOf("\r\n", get.indexOf("Content-Length: ")));
+
+        send("HEAD /users/me HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        final String head = readResponse();
+        assertThat(head).startsWith("HTTP/1.1 200 OK\r\n").contains(contentLength).endsWith("\r\n\r\n");
+    }
+
+    /**
+     * A request asking for the connection to be closed should have it closed once answered.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testConnectionClose() throws Exception {
+        send("GET /users/me HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        assertThat(readResponse()).contains("Connection: close\r\n");
+        assertThat(socket.getInputStream().read()).isEqualTo(-1);
+    }
+
+    /**
+     * An HTTP/1.0 request should only have its connection kept open if it asks for it.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHttp10() throws Exception {
+        send("GET /users/me HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+        assertThat(readResponse()).startsWith("HTTP/1.1 200 ").contains("Connection: keep-alive\r\n");
+
+        send("GET /users/me HTTP/1.0\r\n\r\n");
+        assertThat(readResponse()).contains("Connection: close\r\n");
+        assertThat(socket.getInputStream().read()).isEqualTo(-1);
+    }
+
+    /**
+     * A malformed request should be answered with a 400 and the connection closed.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testBadRequest() throws Exception {
+        send("GET /users/../../etc HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertThat(readResponse()).startsWith("HTTP/1.1 400 Bad Request\r\n").contains("Connection: close\r\n");
+        assertThat(socket.getInputStream().read()).isEqualTo(-1);
+    }
+
+    /**
+     * A chunked request body should be refused, as the engine does not support it.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testChunkedNotImplemented() throws Exception {
+        send("POST /_admin HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n0\r\n\r\n");
+        assertThat(readResponse()).startsWith("HTTP/1.1 501 ");
+    }
+
+    /**
+     * A batch larger than any other request the engine accepts should be accepted by the admin endpoint, as long as it is within the admin max batch
+     * size, while a body as large for any other path should be refused.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testLargeAdminBatch() throws Exception {
+        final StringBuilder batch = new StringBuilder("<update><replace><services>");
+        int count = 0;
+        while (batch.length() <= NioConnection.MAX_REQUEST_SIZE * 2) {
+            batch.append("<service><hostRegex>\\/users\\/").append(count++).append("</hostRegex><uri>http://localhost/openid</uri>");
+            batch.append("<types><type>http://specs.openid.net/auth/2.0/signon</type></types></service>");
+        }
+        batch.append("</services></replace></update>");
+
+        send("POST /_admin HTTP/1.1\r\nHost: localhost\r\nAuthorization: Bearer secret\r\nContent-Length: " + batch.length() + "\r\n\r\n" + batch
+                + "GET /users/1 HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertThat(readResponse()).startsWith("HTTP/1.1 200 ").contains("\r\n\r\nservices=" + count + "\n");
+        assertThat(readResponse()).startsWith("HTTP/1.1 200 ").contains("http://localhost/openid");
+
+        send("POST /missing HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + batch.length() + "\r\n\r\n");
+        assertThat(readResponse()).startsWith("HTTP/1.1 413 ");
+    }
+
+    /**
+     * A request head larger than the engine accepts should be refused.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testHeadTooLarge() throws Exception {
+        final StringBuilder request = new StringBuilder("GET /users/me HTTP/1.1\r\n");
+        while (request.length() <= NioConnection.MAX_REQUEST_SIZE)
+            request.append("X-Padding: ").append("0123456789012345678901234567890123456789").append("\r\n");
+        // Send no more than the server will read, so that closing the connection does not reset it before the response is read
+        send(request.substring(0, NioConnection.MAX_REQUEST_SIZE));
+        assertThat(readResponse()).startsWith("HTTP/1.1 431 Request Header Fields Too Large\r\n");
+    }
+
+    /**
+     * Components added to the server should be started with it and stopped with it, and the port released when it stops.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testLifeCycle() throws Exception {
+        final NioDiscoveryServer other = new NioDiscoveryServer(0, new DiscoveryServerConfiguration(), server.getHandler(), Collections
+                .<Handler> emptyList());
+        final LifeCycle watcher = new AbstractLifeCycle() {
+        };
+        other.addLifeCycle(watcher);
+        other.start();
+        assertThat(other.getLocalPort()).isGreaterThan(0);
+        assertThat(watcher.isRunning()).isTrue();
+
+        other.stop();
+        assertThat(other.getLocalPort()).isEqualTo(-1);
+        assertThat(watcher.isStopped()).isTrue();
+        other.join();
+    }
+
+    /**
+     * Construction with a {@code null} handler should fail.
+     */
+    @Test
+    public void testConstructNullHandler() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Handler cannot be null.");
+        new NioDiscoveryServer(0, new DiscoveryServerConfiguration(), null, Collections.<Handler> emptyList());
+    }
+
+    /**
+     * Wait for the worker thread of the server to block on a lock.
+     * 
+     * @throws InterruptedException
+     *             If the current thread is interrupted while waiting.
+     */
+    private void awaitWorkerBlocked() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            for (Thread thread : Thread.getAllStackTraces().keySet())
+                if ("openid-discovery-nio-worker".equals(thread.getName()) && thread.getState() == Thread.State.BLOCKED)
+                    return;
+            Thread.sleep(10);
+        }
+        throw new AssertionError("The worker thread never blocked.");
+    }
+
+    /**
+     * Read a single response from the socket: its head and, unless the last request sent was a {@code HEAD} request, as much body as its
+     * {@code Content-Length} declares.
+     * 
+     * @return The response, as text.
+     * @throws IOException
+     *             If the response cannot be read.
+     */
+    private String readResponse() throws IOException {
+        return readResponse(socket);
+    }
+
+    /**
+     * Read a single response from a socket: its head and, unless the last request sent was a {@code HEAD} request, as much body as its
+     * {@code Content-Length} declares.
+     * 
+     * @param from
+     *            The {@link Socket} from which the response is to be read.
+     * @return The response, as text.
+     * @throws IOException
+     *             If the response cannot be read.
+     */
+    private String readResponse(Socket from) throws IOException {
+        final InputStream in = from.getInputStream();
+        final ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            final int b = in.read();
+            if (b < 0)
+                throw new IOException("Connection closed in the middle of a response: " + head.toString("ISO-8859-1"));
+            head.write(b);
+            matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : b == '\r' ? 1 : 0;
+        }
+
+        final String text = head.toString("ISO-8859-1");
+        final int index = text.indexOf("Content-Length: ");
+        if (index < 0 || headSent)
+            return text;
+
+        int remaining = Integer.parseInt(text.substring(index + 16, text.indexOf("\r\n", index)));
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (remaining-- > 0)
+            body.write(in.read());
+        return text + body.toString("UTF-8");
+    }
+
+    /**
+     * Send raw bytes to the server.
+     * 
+     * @param request
+     *            The request text to be sent.
+     * @throws IOException
+     *             If the request cannot be sent.
+     */
+    private void send(String request) throws IOException {
+        send(socket, request);
+    }
+
+    /**
+     * Send raw bytes to the server over a socket.
+     * 
+     * @param to
+     *            The {@link Socket} over which the request is to be sent.
+     * @param request
+     *            The request text to be sent.
+     * @throws IOException
+     *             If the request cannot be sent.
+     */
+    private void send(Socket to, String request) throws IOException {
+        final OutputStream out = to.getOutputStream();
+        out.write(request.getBytes("ISO-8859-1"));
+        out.flush();
+        headSent = request.startsWith("HEAD ");
+    }
+}
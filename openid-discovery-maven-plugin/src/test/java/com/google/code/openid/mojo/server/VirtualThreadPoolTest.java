@@ -0,0 +1,132 @@
+package com.google.code.openid.mojo.server;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Unit tests for {@link VirtualThreadPool}. Which tests run depends on whether the JVM running them supports virtual threads.
+ * 
+ * @author jrh3k5
+ * 
+ */
+
+public class VirtualThreadPoolTest {
+    /**
+     * A {@link Rule} used to test for thrown exceptions.
+     */
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * Dispatched jobs should run on virtual threads named after the pool, and be counted while they run.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testDispatch() throws Exception {
+        assumeTrue(VirtualThreadPool.isSupported());
+
+        final VirtualThreadPool pool = new VirtualThreadPool("test-pool");
+        pool.start();
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+            assertThat(pool.dispatch(new Runnable() {
+                public void run() {
+                    thread.set(Thread.currentThread());
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            })).isTrue();
+
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(pool.getThreads()).isEqualTo(1);
+            assertThat(pool.isLowOnThreads()).isFalse();
+            assertThat(thread.get().getName()).startsWith("test-pool-");
+            assertThat(Thread.class.getMethod("isVirtual").invoke(thread.get())).isEqualTo(Boolean.TRUE);
+
+            release.countDown();
+            thread.get().join(5000);
+        } finally {
+            pool.stop();
+        }
+    }
+
+    /**
+     * A pool that is not running should refuse jobs.
+     */
+    @Test
+    public void testDispatchStopped() {
+        assumeTrue(VirtualThreadPool.isSupported());
+
+        assertThat(new VirtualThreadPool("test-pool").dispatch(new Runnable() {
+            public void run() {
+                // no-op
+            }
+        })).isFalse();
+    }
+
+    /**
+     * Joining a pool should return once it is stopped.
+     * 
+     * @throws Exception
+     *             If any errors occur during the test run.
+     */
+    @Test
+    public void testJoin() throws Exception {
+        assumeTrue(VirtualThreadPool.isSupported());
+
+        final VirtualThreadPool pool = new VirtualThreadPool("test-pool");
+        pool.start();
+        final Thread joiner = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    pool.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        joiner.start();
+        pool.stop();
+        joiner.join(5000);
+        assertThat(joiner.isAlive()).isFalse();
+    }
+
+    /**
+     * A pool cannot be created on a JVM without virtual threads.
+     */
+    @Test
+    public void testConstructUnsupported() {
+        assumeTrue(!VirtualThreadPool.isSupported());
+
+        expected.expect(IllegalStateException.class);
+        expected.expectMessage("Virtual threads are not supported by this JVM: ");
+        new VirtualThreadPool("test-pool");
+    }
+
+    /**
+     * Construction with a {@code null} name should fail.
+     */
+    @Test
+    public void testConstructNullName() {
+        expected.expect(IllegalArgumentException.class);
+        expected.expectMessage("Name cannot be null.");
+        new VirtualThreadPool(null);
+    }
+}